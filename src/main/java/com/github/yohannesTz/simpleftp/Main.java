@@ -1,15 +1,25 @@
 package com.github.yohannesTz.simpleftp;
 
 import com.formdev.flatlaf.FlatLightLaf;
+import com.github.yohannesTz.simpleftp.admin.AdminServer;
+import com.github.yohannesTz.simpleftp.config.ConfigManager;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.server.FTPServerManager;
 import com.github.yohannesTz.simpleftp.ui.MainFrame;
 
 import javax.swing.*;
+import java.util.Arrays;
 
 /**
  * Main entry point for the Simple FTP Server application
  */
 public class Main {
     public static void main(String[] args) {
+        if (Arrays.asList(args).contains("--headless")) {
+            runHeadless();
+            return;
+        }
+
         // Set FlatLaf look and feel for a modern UI
         try {
             UIManager.setLookAndFeel(new FlatLightLaf());
@@ -24,5 +34,28 @@ public class Main {
             frame.setVisible(true);
         });
     }
-}
 
+    /**
+     * Runs the FTP server from the saved configuration without a window,
+     * controlled through the admin API
+     */
+    private static void runHeadless() {
+        ServerConfig config = ConfigManager.loadConfig().serverConfig;
+        FTPServerManager serverManager = new FTPServerManager(config);
+        serverManager.addStatusListener((running, message) -> System.out.println(message));
+        AdminServer adminServer = new AdminServer(serverManager, null);
+        try {
+            adminServer.start();
+            serverManager.startServer();
+        } catch (Exception e) {
+            System.err.println("Failed to start: " + e.getMessage());
+            adminServer.stop();
+            System.exit(1);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            serverManager.stopServer();
+            adminServer.stop();
+        }));
+    }
+}
@@ -0,0 +1,785 @@
+package com.github.yohannesTz.simpleftp.admin;
+
+import com.github.yohannesTz.simpleftp.config.ConfigManager;
+import com.github.yohannesTz.simpleftp.config.UserStore;
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.model.UserGroup;
+import com.github.yohannesTz.simpleftp.model.UserSnapshot;
+import com.github.yohannesTz.simpleftp.server.ChangeJournal;
+import com.github.yohannesTz.simpleftp.server.FTPServerManager;
+import com.github.yohannesTz.simpleftp.server.LdapUserManager;
+import com.github.yohannesTz.simpleftp.server.SessionInfo;
+import com.github.yohannesTz.simpleftp.server.SessionReaper;
+import com.github.yohannesTz.simpleftp.server.UploadPipeline;
+import com.github.yohannesTz.simpleftp.server.fs.ContentCache;
+import com.github.yohannesTz.simpleftp.server.fs.ContentStore;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.ftpserver.ftplet.FtpException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded HTTP/JSON admin endpoint for scripted control of the server:
+ * start/stop/reload, user CRUD (persisted through ConfigManager), session
+ * listing and actions, and a metrics snapshot. Handlers only read
+ * concurrent snapshots from the FTP side and run on their own small
+ * executor, so they never hold up FTP sessions. Long-polls wait on an
+ * executor of their own so they cannot starve the other requests.
+ *
+ * Without a token any local process may use the API, but web pages must not:
+ * a page can send simple cross-origin requests to localhost, and read the
+ * replies through DNS rebinding. Such requests need a localhost Host header,
+ * and all but GETs a non-form content type (e.g. JSON) or an X-Requested-With
+ * header, which browsers only send cross-origin after a CORS preflight.
+ *
+ * Endpoints (all under /api):
+ *   GET    /status                     server state
+ *   POST   /server/start|stop|reload   lifecycle (reload re-reads the saved configuration and
+ *                                      lists the settings that need an application restart)
+ *   GET    /users, /users/{name}       list / show users
+ *   POST   /users                      create a user
+ *   PUT    /users/{name}               update a user (fields not given are kept)
+ *   DELETE /users/{name}               delete a user
+ *   GET    /groups, /groups/{name}     list / show user groups
+ *   PUT    /groups/{name}              create or update a group (fields not given are kept);
+ *                                      applies to logged-in members at once
+ *   DELETE /groups/{name}              delete a group
+ *   GET    /sessions                   connected sessions
+ *   DELETE /sessions/{id}              disconnect a session
+ *   POST   /sessions/{id}/throttle     {"bytesPerSecond": n}, 0 removes the limit
+ *   GET    /metrics                    counters and gauges
+ *   GET    /changes?from=&max=&wait=   change journal events after an offset, optionally long-polling
+ *   GET    /bulk/users?format=csv|json export all users (without passwords)
+ *   POST   /bulk/users?format=csv|json import users from the request body, streamed
+ */
+public class AdminServer {
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+    /** Returned by handlers that wrote the response themselves */
+    private static final Object SENT = new Object();
+    private static final int MAX_CHANGES = 1000;
+    private static final long MAX_WAIT_SECONDS = 30;
+    private static final int MAX_LONG_POLLS = 16;
+    /** Returned by handlers that passed the exchange on to another thread, which closes it */
+    private static final Object HANDED_OFF = new Object();
+
+    private final FTPServerManager serverManager;
+    private final Runnable onUsersChanged;
+    private final long startedAt = System.currentTimeMillis();
+    private HttpServer httpServer;
+    private ExecutorService executor;
+    private ExecutorService longPolls;
+
+    /**
+     * @param onUsersChanged called after users were changed through the API (e.g. to refresh a UI), may be null
+     */
+    public AdminServer(FTPServerManager serverManager, Runnable onUsersChanged) {
+        this.serverManager = serverManager;
+        this.onUsersChanged = onUsersChanged;
+    }
+
+    public void start() throws IOException {
+        ServerConfig config = serverManager.getConfig();
+        InetAddress address = InetAddress.getByName(config.getAdminAddress());
+        if (!address.isLoopbackAddress() && config.getAdminToken().isEmpty()) {
+            throw new IOException("The admin endpoint must have a token when bound to " + address.getHostAddress());
+        }
+
+        httpServer = HttpServer.create(new InetSocketAddress(address, config.getAdminPort()), 16);
+        httpServer.createContext("/api/", this::handle);
+        executor = createExecutor();
+        AtomicInteger counter = new AtomicInteger();
+        longPolls = new ThreadPoolExecutor(0, MAX_LONG_POLLS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "admin-changes-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(executor);
+        httpServer.start();
+        System.out.println("Admin API listening on http://" + address.getHostAddress() + ":" + config.getAdminPort() + "/api/");
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            executor.shutdownNow();
+            longPolls.shutdownNow();
+            httpServer = null;
+        }
+    }
+
+    /**
+     * Uses virtual threads when the JVM has them (Java 21+), otherwise a small bounded pool.
+     * Requests there are short, so when it is saturated the dispatcher may run one itself.
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return new ThreadPoolExecutor(1, 4, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(64), r -> {
+                Thread thread = new Thread(r, "admin-http-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        boolean handedOff = false;
+        try {
+            String token = serverManager.getConfig().getAdminToken();
+            if (!token.isEmpty() && !hasToken(exchange, token)) {
+                send(exchange, 401, error("Missing or invalid bearer token"));
+                return;
+            }
+            if (token.isEmpty() && !isLocalClient(exchange)) {
+                send(exchange, 403, error("Without an admin token, requests need a localhost Host header and, "
+                    + "except GETs, a JSON body or an X-Requested-With header"));
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().substring("/api/".length()).split("/");
+            Object result = route(method, path, exchange);
+            if (result == null) {
+                send(exchange, 404, error("Not found: " + method + " " + exchange.getRequestURI().getPath()));
+            } else if (result == HANDED_OFF) {
+                handedOff = true;
+            } else if (result != SENT) {
+                send(exchange, 200, result);
+            }
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error(e.getMessage()));
+        } catch (IllegalStateException e) {
+            send(exchange, 409, error(e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            send(exchange, 503, error("Too many requests are waiting for changes, try again later"));
+        } catch (Exception e) {
+            send(exchange, 500, error(e.getMessage() == null ? e.toString() : e.getMessage()));
+        } finally {
+            if (!handedOff) {
+                exchange.close();
+            }
+        }
+    }
+
+    private static boolean hasToken(HttpExchange exchange, String token) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        String expected = "Bearer " + token;
+        return header != null && MessageDigest.isEqual(
+            header.getBytes(StandardCharsets.UTF_8), expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tells requests of local clients from ones a web page made the browser send, see above
+     */
+    private static boolean isLocalClient(HttpExchange exchange) {
+        Headers headers = exchange.getRequestHeaders();
+        if (!isLoopbackHost(headers.getFirst("Host"))) {
+            return false; // another name resolving to this machine, e.g. after DNS rebinding
+        }
+        String method = exchange.getRequestMethod();
+        if ("GET".equals(method) || "HEAD".equals(method) || headers.containsKey("X-Requested-With")) {
+            return true;
+        }
+        String type = headers.getFirst("Content-Type");
+        if (type == null) {
+            return false;
+        }
+        int semicolon = type.indexOf(';');
+        type = (semicolon < 0 ? type : type.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+        return !type.isEmpty() && !type.equals("text/plain") && !type.equals("multipart/form-data")
+            && !type.equals("application/x-www-form-urlencoded");
+    }
+
+    /**
+     * Checks a Host header by name only; resolving it would defeat the check
+     */
+    private static boolean isLoopbackHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        host = host.trim().toLowerCase(Locale.ROOT);
+        int colon = host.lastIndexOf(':');
+        if (colon > host.lastIndexOf(']')) {
+            host = host.substring(0, colon);
+        }
+        return host.equals("localhost") || host.equals("[::1]") || host.matches("127(\\.\\d{1,3}){3}");
+    }
+
+    private Object route(String method, String[] path, HttpExchange exchange) throws Exception {
+        String resource = path[0];
+        switch (resource) {
+            case "status":
+                return "GET".equals(method) && path.length == 1 ? status() : null;
+            case "server":
+                return "POST".equals(method) && path.length == 2 ? lifecycle(path[1]) : null;
+            case "users":
+                return users(method, path, exchange);
+            case "groups":
+                return groups(method, path, exchange);
+            case "sessions":
+                return sessions(method, path, exchange);
+            case "metrics":
+                return "GET".equals(method) && path.length == 1 ? metrics() : null;
+            case "changes":
+                return "GET".equals(method) && path.length == 1 ? changes(exchange) : null;
+            case "bulk":
+                return path.length == 2 && "users".equals(path[1]) ? bulkUsers(method, exchange) : null;
+            default:
+                return null;
+        }
+    }
+
+    private Map<String, Object> status() {
+        ServerConfig config = serverManager.getConfig();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", serverManager.isRunning());
+        status.put("state", serverManager.getState().name());
+        status.put("address", config.getServerAddress());
+        status.put("port", config.getPort());
+        status.put("sessions", serverManager.getSessionRegistry().size());
+        status.put("users", userCount(config));
+        return status;
+    }
+
+    /**
+     * Counts the accounts without reading an embedded user store that has not been loaded yet
+     */
+    private static int userCount(ServerConfig config) {
+        UserStore store = config.isEmbeddedUserStore() && !config.isUsersLoaded() ? ConfigManager.getUserStore() : null;
+        return store != null ? store.size() : config.getUsers().size();
+    }
+
+    private Map<String, Object> lifecycle(String action) throws FtpException {
+        List<String> restartRequired = Collections.emptyList();
+        synchronized (serverManager) {
+            switch (action) {
+                case "start":
+                    if (serverManager.getState() != FTPServerManager.State.STOPPED) {
+                        throw new IllegalStateException("Server is " + serverManager.getState().name().toLowerCase());
+                    }
+                    serverManager.startServer();
+                    break;
+                case "stop":
+                    serverManager.stopServer();
+                    break;
+                case "reload":
+                    restartRequired = reloadConfig();
+                    break;
+                default:
+                    return null;
+            }
+        }
+        Map<String, Object> status = status();
+        if (!restartRequired.isEmpty()) {
+            status.put("restartRequired", restartRequired);
+        }
+        return status;
+    }
+
+    /**
+     * Re-reads the saved configuration and restarts the server with it if it was running
+     *
+     * @return the changed settings of the admin endpoint, which only apply after restarting the application
+     */
+    private List<String> reloadConfig() {
+        ServerConfig saved = ConfigManager.loadConfig().serverConfig;
+        ServerConfig config = serverManager.getConfig();
+        List<String> restartRequired = new ArrayList<>();
+        if (saved.isAdminEnabled() != config.isAdminEnabled()) {
+            restartRequired.add("admin.enabled");
+        }
+        if (!saved.getAdminAddress().equals(config.getAdminAddress())) {
+            restartRequired.add("admin.address");
+        }
+        if (saved.getAdminPort() != config.getAdminPort()) {
+            restartRequired.add("admin.port");
+        }
+        config.copySettingsFrom(saved);
+        config.copyUsersFrom(saved);
+        config.setGroups(saved.getGroups());
+        serverManager.updateConfig(config);
+        usersChanged();
+        return restartRequired;
+    }
+
+    private Object users(String method, String[] path, HttpExchange exchange) throws IOException {
+        ServerConfig config = serverManager.getConfig();
+        if (path.length == 1) {
+            if ("GET".equals(method)) {
+                List<Object> list = new ArrayList<>();
+                for (UserAccount user : config.getUsers()) {
+                    list.add(UserRecords.toJson(user));
+                }
+                return list;
+            }
+            if ("POST".equals(method)) {
+                Map<String, Object> body = readObject(exchange);
+                String username = Json.requireString(body, "username");
+                UserAccount user = new UserAccount(username, Json.requireString(body, "password"),
+                    Json.stringOr(body, "homeDirectory", config.getBaseFolder() + "/" + username),
+                    FTPPermissions.readOnly(), 300);
+                UserRecords.apply(user, body);
+                config.updateUsers(snapshot -> {
+                    if (snapshot.contains(username)) {
+                        throw new IllegalStateException("User already exists: " + username);
+                    }
+                    return snapshot.with(user);
+                });
+                save(config);
+                usersChanged();
+                return UserRecords.toJson(user);
+            }
+            return null;
+        }
+        if (path.length != 2) {
+            return null;
+        }
+
+        String username = path[1];
+        UserAccount existing = config.getUser(username);
+        if (existing == null) {
+            return null;
+        }
+        switch (method) {
+            case "GET":
+                return UserRecords.toJson(existing);
+            case "PUT": {
+                Map<String, Object> body = readObject(exchange);
+                UserAccount updated = UserRecords.copy(existing);
+                UserRecords.apply(updated, body);
+                // Only replace the account that was read, a concurrent edit wins otherwise
+                config.updateUsers(snapshot -> {
+                    if (snapshot.get(username) != existing) {
+                        throw new IllegalStateException("User was modified concurrently: " + username);
+                    }
+                    return snapshot.with(updated);
+                });
+                save(config);
+                usersChanged();
+                return UserRecords.toJson(updated);
+            }
+            case "DELETE":
+                config.updateUsers(snapshot -> snapshot.without(username));
+                save(config);
+                usersChanged();
+                return UserRecords.toJson(existing);
+            default:
+                return null;
+        }
+    }
+
+    private Object groups(String method, String[] path, HttpExchange exchange) throws IOException {
+        ServerConfig config = serverManager.getConfig();
+        if (path.length == 1) {
+            if (!"GET".equals(method)) {
+                return null;
+            }
+            List<Object> list = new ArrayList<>();
+            for (UserGroup group : config.getGroups()) {
+                list.add(UserRecords.toJson(group));
+            }
+            return list;
+        }
+        if (path.length != 2) {
+            return null;
+        }
+
+        String name = path[1].toLowerCase(Locale.ROOT);
+        UserGroup existing = config.getGroup(name);
+        switch (method) {
+            case "GET":
+                return existing == null ? null : UserRecords.toJson(existing);
+            case "PUT": {
+                UserGroup updated = UserRecords.group(name, existing, readObject(exchange));
+                synchronized (config) {
+                    if (config.getGroup(name) != existing) {
+                        throw new IllegalStateException("Group was modified concurrently: " + name);
+                    }
+                    config.putGroup(updated);
+                }
+                save(config);
+                serverManager.reloadGroups();
+                return UserRecords.toJson(updated);
+            }
+            case "DELETE":
+                if (existing == null || !config.removeGroup(name)) {
+                    return null;
+                }
+                save(config);
+                serverManager.reloadGroups();
+                return UserRecords.toJson(existing);
+            default:
+                return null;
+        }
+    }
+
+    private Object sessions(String method, String[] path, HttpExchange exchange) throws IOException {
+        if (path.length == 1 && "GET".equals(method)) {
+            List<Object> list = new ArrayList<>();
+            for (SessionInfo session : serverManager.getSessions()) {
+                list.add(toJson(session));
+            }
+            return list;
+        }
+        if (path.length < 2) {
+            return null;
+        }
+        UUID id;
+        try {
+            id = UUID.fromString(path[1]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        SessionInfo session = serverManager.getSessionRegistry().get(id);
+        if (session == null) {
+            return null;
+        }
+        if (path.length == 2 && "DELETE".equals(method)) {
+            serverManager.disconnectSession(id);
+            return toJson(session);
+        }
+        if (path.length == 3 && "throttle".equals(path[2]) && "POST".equals(method)) {
+            Map<String, Object> body = readObject(exchange);
+            serverManager.throttleSession(id, Json.requireLong(body, "bytesPerSecond"));
+            return toJson(session);
+        }
+        return null;
+    }
+
+    /**
+     * Returns change journal events from an offset; with wait, blocks up to that many seconds for new ones
+     */
+    private Object changes(HttpExchange exchange) {
+        ChangeJournal journal = serverManager.getChangeJournal();
+        if (journal == null) {
+            throw new IllegalStateException("The change journal is not enabled");
+        }
+        Map<String, String> query = query(exchange);
+        long from = queryLong(query, "from", journal.getEnd());
+        int max = (int) Math.min(MAX_CHANGES, queryLong(query, "max", 100));
+        long wait = Math.min(MAX_WAIT_SECONDS, queryLong(query, "wait", 0));
+        if (wait <= 0 || journal.getEnd() > from) {
+            return readChanges(journal, from, max);
+        }
+        longPolls.execute(() -> {
+            try {
+                journal.await(from, TimeUnit.SECONDS.toMillis(wait));
+                send(exchange, 200, readChanges(journal, from, max));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                try {
+                    send(exchange, 500, error(e.getMessage() == null ? e.toString() : e.getMessage()));
+                } catch (IOException ignored) {
+                    // client is gone
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        return HANDED_OFF;
+    }
+
+    private static Map<String, Object> readChanges(ChangeJournal journal, long from, int max) {
+        long next = Math.max(from, 0);
+        List<Object> events = new ArrayList<>();
+        for (ChangeJournal.Event event : journal.read(from, max)) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("offset", event.getOffset());
+            json.put("time", event.getTime());
+            json.put("event", event.getType());
+            json.put("user", event.getUser());
+            json.put("path", event.getPath());
+            if (event.getTarget() != null) {
+                json.put("target", event.getTarget());
+            }
+            events.add(json);
+            next = event.getNext();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("events", events);
+        result.put("next", next);
+        return result;
+    }
+
+    private Map<String, Object> metrics() {
+        long bytes = 0;
+        long rate = 0;
+        int loggedIn = 0;
+        List<SessionInfo> sessions = serverManager.getSessions();
+        for (SessionInfo session : sessions) {
+            bytes += session.getBytesTransferred();
+            rate += session.getBytesPerSecond();
+            if (session.getUsername() != null) {
+                loggedIn++;
+            }
+        }
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("running", serverManager.isRunning());
+        metrics.put("sessions", sessions.size());
+        metrics.put("loggedIn", loggedIn);
+        metrics.put("sessionBytesTransferred", bytes);
+        metrics.put("bytesPerSecond", rate);
+        metrics.put("partialUploads", serverManager.getPartialUploadCount());
+        metrics.put("memoryStorageUsedBytes", serverManager.getMemoryStorageUsedBytes());
+
+        int cachedUsers = serverManager.getCachedUserCount();
+        if (cachedUsers >= 0) {
+            metrics.put("cachedUsers", cachedUsers);
+        }
+
+        LdapUserManager ldap = serverManager.getLdapUserManager();
+        if (ldap != null) {
+            Map<String, Object> directory = new LinkedHashMap<>();
+            directory.put("cachedUsers", ldap.getCachedUserCount());
+            directory.put("cacheHits", ldap.getCacheHits());
+            directory.put("directoryRequests", ldap.getCacheMisses());
+            directory.put("errors", ldap.getDirectoryErrors());
+            directory.put("idleConnections", ldap.getIdleConnectionCount());
+            metrics.put("ldap", directory);
+        }
+
+        SessionReaper reaper = serverManager.getSessionReaper();
+        if (reaper != null) {
+            Map<String, Object> reaped = new LinkedHashMap<>();
+            reaped.put("loginTimeouts", reaper.getLoginTimeouts());
+            reaped.put("idle", reaper.getIdleTimeouts());
+            reaped.put("stalledTransfers", reaper.getStalls());
+            metrics.put("closedSessions", reaped);
+        }
+
+        ContentCache cache = serverManager.getAnonymousCacheIfPresent();
+        if (cache != null) {
+            Map<String, Object> anonymous = new LinkedHashMap<>();
+            anonymous.put("bytes", cache.getCurrentBytes());
+            anonymous.put("hits", cache.getHits());
+            anonymous.put("misses", cache.getMisses());
+            metrics.put("anonymousCache", anonymous);
+        }
+
+        ContentStore store = serverManager.getContentStore();
+        if (store != null) {
+            Map<String, Object> dedup = new LinkedHashMap<>();
+            dedup.put("contents", store.getContentCount());
+            dedup.put("storedBytes", store.getStoredBytes());
+            dedup.put("savedBytes", store.getSavedBytes());
+            dedup.put("dedupedUploads", store.getDedupedUploads());
+            metrics.put("dedup", dedup);
+        }
+
+        UploadPipeline pipeline = serverManager.getUploadPipeline();
+        if (pipeline != null) {
+            Map<String, Object> uploads = new LinkedHashMap<>();
+            uploads.put("queued", pipeline.getQueued());
+            uploads.put("rejected", pipeline.getRejected());
+            Map<String, Object> stages = new LinkedHashMap<>();
+            for (Map.Entry<String, UploadPipeline.StageStats> entry : pipeline.getStageStats().entrySet()) {
+                UploadPipeline.StageStats stats = entry.getValue();
+                Map<String, Object> stage = new LinkedHashMap<>();
+                stage.put("count", stats.getCount());
+                stage.put("failures", stats.getFailures());
+                stage.put("averageMillis", stats.getAverageMillis());
+                stage.put("maxMillis", stats.getMaxMillis());
+                stages.put(entry.getKey(), stage);
+            }
+            uploads.put("stages", stages);
+            metrics.put("uploadPipeline", uploads);
+        }
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("heapUsedBytes", heap.getUsed());
+        jvm.put("heapMaxBytes", heap.getMax());
+        jvm.put("threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        jvm.put("uptimeMillis", System.currentTimeMillis() - startedAt);
+        metrics.put("jvm", jvm);
+        return metrics;
+    }
+
+    /**
+     * Streams an export of all users, or imports users from the request body
+     * and applies them with a single save and server update
+     */
+    private Object bulkUsers(String method, HttpExchange exchange) throws IOException {
+        String format = query(exchange).getOrDefault("format", "json");
+        UserBulkTransfer.Format bulkFormat;
+        try {
+            bulkFormat = UserBulkTransfer.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("'format' must be csv or json");
+        }
+        ServerConfig config = serverManager.getConfig();
+        if ("GET".equals(method)) {
+            exchange.getResponseHeaders().set("Content-Type", bulkFormat == UserBulkTransfer.Format.CSV
+                ? "text/csv; charset=utf-8" : "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+                UserBulkTransfer.export(config.getUsers(), bulkFormat, out);
+            }
+            return SENT;
+        }
+        if ("POST".equals(method)) {
+            long start = System.currentTimeMillis();
+            UserSnapshot before = config.getUserSnapshot();
+            UserBulkTransfer.Result imported;
+            try (Reader in = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                imported = UserBulkTransfer.importUsers(in, bulkFormat, config, null);
+            } finally {
+                // Batches read before a malformed record are kept, so persist whatever was applied
+                if (config.getUserSnapshot() != before) {
+                    save(config);
+                    usersChanged();
+                }
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("added", imported.getAdded());
+            result.put("updated", imported.getUpdated());
+            result.put("failed", imported.getFailed());
+            result.put("errors", imported.getErrors());
+            result.put("millis", System.currentTimeMillis() - start);
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * Applies account edits to the running server and tells the UI
+     */
+    private void usersChanged() {
+        serverManager.reloadUsers();
+        if (onUsersChanged != null) {
+            onUsersChanged.run();
+        }
+    }
+
+    // JSON mapping
+
+    private static Map<String, Object> toJson(SessionInfo session) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", session.getId().toString());
+        json.put("username", session.getUsername());
+        json.put("remoteAddress", session.getRemoteAddress());
+        json.put("connectedAt", session.getConnectedAt());
+        json.put("command", session.getCommand());
+        json.put("file", session.getFile());
+        json.put("lastActivity", session.getLastActivity());
+        json.put("bytesTransferred", session.getBytesTransferred());
+        json.put("bytesPerSecond", session.getBytesPerSecond());
+        json.put("rateLimit", session.getRateLimit());
+        return json;
+    }
+
+    /**
+     * Writes the configuration; the lock keeps saves from the UI and the API from interleaving
+     */
+    private static void save(ServerConfig config) {
+        synchronized (config) {
+            ConfigManager.saveConfig(config);
+        }
+    }
+
+    // Request and response helpers
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readObject(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+                if (body.size() > MAX_BODY_BYTES) {
+                    throw new IllegalArgumentException("Request body too large");
+                }
+            }
+        }
+        Object json = Json.parse(new String(body.toByteArray(), StandardCharsets.UTF_8));
+        if (!(json instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return (Map<String, Object>) json;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new LinkedHashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            try {
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return params;
+    }
+
+    private static long queryLong(Map<String, String> query, String key, long fallback) {
+        String value = query.get(key);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + key + "' must be a number");
+        }
+    }
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("error", message);
+        return json;
+    }
+
+    private static void send(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
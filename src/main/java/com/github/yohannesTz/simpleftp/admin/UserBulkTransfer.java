@@ -0,0 +1,456 @@
+package com.github.yohannesTz.simpleftp.admin;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.model.UserSnapshot;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk import and export of user accounts as CSV or JSON. Both directions
+ * stream: export writes one account at a time, import reads records in
+ * batches, parses and validates each batch in parallel, and applies it to
+ * the ServerConfig as a single snapshot swap. Callers save the configuration
+ * and apply it to a running server once at the end.
+ *
+ * The JSON format is an array of objects in the admin API's user shape. The
+ * CSV format has a header row naming the columns (see UserRecords), in any
+ * order. Exports never contain passwords; on import an empty password keeps
+ * an existing user's password and is an error for a new user.
+ */
+public final class UserBulkTransfer {
+    private static final int BATCH_SIZE = 5000;
+    private static final int MAX_ERRORS = 100;
+
+    public enum Format {
+        CSV, JSON;
+
+        /**
+         * Picks the format from a file name, JSON for .json and CSV otherwise
+         */
+        public static Format forFileName(String name) {
+            return name.toLowerCase().endsWith(".json") ? JSON : CSV;
+        }
+    }
+
+    /**
+     * Receives progress after each batch
+     */
+    public interface Progress {
+        void update(long records, long failed);
+    }
+
+    /**
+     * Outcome of an import
+     */
+    public static final class Result {
+        private long added;
+        private long updated;
+        private long failed;
+        private final List<String> errors = new ArrayList<>();
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getUpdated() {
+            return updated;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * The first error messages, each with the record's line number
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+    }
+
+    private UserBulkTransfer() {
+    }
+
+    /**
+     * Writes the accounts, without passwords
+     */
+    public static void export(Collection<UserAccount> users, Format format, Writer writer) throws IOException {
+        BufferedWriter out = writer instanceof BufferedWriter ? (BufferedWriter) writer : new BufferedWriter(writer);
+        if (format == Format.CSV) {
+            writeCsvRow(UserRecords.CSV_COLUMNS, out);
+            for (UserAccount user : users) {
+                writeCsvRow(UserRecords.toCsv(user), out);
+            }
+        } else {
+            out.write("[");
+            boolean first = true;
+            for (UserAccount user : users) {
+                out.write(first ? "\n" : ",\n");
+                out.write(Json.write(UserRecords.toJson(user)));
+                first = false;
+            }
+            out.write("\n]\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads accounts and adds them to the configuration, replacing existing users of the same name
+     *
+     * @param progress may be null
+     */
+    public static Result importUsers(Reader reader, Format format, ServerConfig config, Progress progress)
+            throws IOException {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        RecordSource source = format == Format.CSV ? new CsvSource(in) : new JsonSource(in);
+        Result result = new Result();
+        long records = 0;
+        List<Record> batch;
+        while (!(batch = source.next(BATCH_SIZE)).isEmpty()) {
+            UserSnapshot current = config.getUserSnapshot();
+            String baseFolder = config.getBaseFolder();
+            List<Parsed> parsed = batch.parallelStream()
+                .map(record -> parse(record, current::get, baseFolder))
+                .collect(Collectors.toList());
+
+            Map<String, UserAccount> accounts = new LinkedHashMap<>();
+            for (int i = 0; i < parsed.size(); i++) {
+                Parsed p = parsed.get(i);
+                if (p.username != null && accounts.containsKey(p.username)) {
+                    // A name repeated within the batch applies on top of its earlier record
+                    p = parse(batch.get(i), accounts::get, baseFolder);
+                }
+                if (p.error != null) {
+                    result.failed++;
+                    if (result.errors.size() < MAX_ERRORS) {
+                        result.errors.add("Line " + p.line + ": " + p.error);
+                    }
+                } else {
+                    if (current.contains(p.username) || accounts.containsKey(p.username)) {
+                        result.updated++;
+                    } else {
+                        result.added++;
+                    }
+                    accounts.put(p.username, p.account);
+                }
+            }
+            config.updateUsers(snapshot -> snapshot.withAll(accounts.values()));
+            records += batch.size();
+            if (progress != null) {
+                progress.update(records, result.failed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses a record into a new account or a copy of the existing one it updates
+     */
+    private static Parsed parse(Record record, Function<String, UserAccount> existingUsers, String baseFolder) {
+        String username = null;
+        try {
+            Map<String, Object> json = record.toJson();
+            username = Json.requireString(json, "username");
+            for (int i = 0; i < username.length(); i++) {
+                char c = username.charAt(i);
+                if (Character.isWhitespace(c) || Character.isISOControl(c) || c == '/' || c == '\\') {
+                    throw new IllegalArgumentException("Invalid username '" + username + "'");
+                }
+            }
+            UserAccount existing = existingUsers.apply(username);
+            UserAccount account;
+            if (existing != null) {
+                account = UserRecords.copy(existing);
+            } else {
+                account = new UserAccount(username, Json.requireString(json, "password"),
+                    Json.stringOr(json, "homeDirectory", baseFolder + "/" + username),
+                    FTPPermissions.readOnly(), 300);
+            }
+            UserRecords.apply(account, json);
+            return new Parsed(record.line, username, account, null);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return new Parsed(record.line, username, null, e.getMessage());
+        }
+    }
+
+    private static void writeCsvRow(String[] values, Writer out) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String value = values[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+                    || value.indexOf('\r') >= 0) {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(value);
+            }
+        }
+        out.write('\n');
+    }
+
+    /**
+     * One unparsed record: a CSV row or the text of a JSON object
+     */
+    private static final class Record {
+        final long line;
+        final Map<String, String> row;
+        final String json;
+
+        Record(long line, Map<String, String> row, String json) {
+            this.line = line;
+            this.row = row;
+            this.json = json;
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> toJson() {
+            if (row != null) {
+                return UserRecords.fromCsv(row);
+            }
+            Object value = Json.parse(json);
+            if (!(value instanceof Map)) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            return (Map<String, Object>) value;
+        }
+    }
+
+    private static final class Parsed {
+        final long line;
+        final String username;
+        final UserAccount account;
+        final String error;
+
+        Parsed(long line, String username, UserAccount account, String error) {
+            this.line = line;
+            this.username = username;
+            this.account = account;
+            this.error = error;
+        }
+    }
+
+    private interface RecordSource {
+        /**
+         * Reads up to max records; an empty list means the input is exhausted
+         */
+        List<Record> next(int max) throws IOException;
+    }
+
+    /**
+     * RFC 4180 reader: quoted fields may contain commas, quotes ("") and line breaks
+     */
+    private static final class CsvSource implements RecordSource {
+        private final BufferedReader in;
+        private String[] columns;
+        private long line = 1;
+        private boolean eof;
+
+        CsvSource(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public List<Record> next(int max) throws IOException {
+            if (columns == null) {
+                List<String> header = readRow();
+                if (header == null) {
+                    return Collections.emptyList();
+                }
+                columns = header.toArray(new String[0]);
+                if (columns.length > 0 && columns[0].startsWith("\uFEFF")) {
+                    columns[0] = columns[0].substring(1); // byte order mark
+                }
+                List<String> known = Arrays.asList(UserRecords.CSV_COLUMNS);
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = columns[i].trim();
+                    if (!known.contains(columns[i])) {
+                        throw new IllegalArgumentException("Unknown CSV column '" + columns[i] + "'");
+                    }
+                }
+                if (!Arrays.asList(columns).contains("username")) {
+                    throw new IllegalArgumentException("The CSV header has no 'username' column");
+                }
+            }
+            List<Record> records = new ArrayList<>();
+            while (records.size() < max) {
+                long start = line;
+                List<String> values = readRow();
+                if (values == null) {
+                    break;
+                }
+                if (values.size() == 1 && values.get(0).isEmpty()) {
+                    continue; // blank line
+                }
+                Map<String, String> row = new LinkedHashMap<>();
+                for (int i = 0; i < columns.length && i < values.size(); i++) {
+                    row.put(columns[i], values.get(i));
+                }
+                records.add(new Record(start, row, null));
+            }
+            return records;
+        }
+
+        private List<String> readRow() throws IOException {
+            if (eof) {
+                return null;
+            }
+            List<String> values = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean any = false;
+            int c;
+            while ((c = in.read()) >= 0) {
+                any = true;
+                if (quoted) {
+                    if (c == '"') {
+                        in.mark(1);
+                        if (in.read() == '"') {
+                            field.append('"');
+                        } else {
+                            in.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            line++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    values.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    line++;
+                    values.add(field.toString());
+                    return values;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+            }
+            eof = true;
+            if (quoted) {
+                throw new IllegalArgumentException("Unterminated quoted CSV field at line " + line);
+            }
+            if (!any) {
+                return null;
+            }
+            values.add(field.toString());
+            return values;
+        }
+    }
+
+    /**
+     * Splits a top-level JSON array into the text of its objects without parsing them,
+     * so parsing can happen in parallel
+     */
+    private static final class JsonSource implements RecordSource {
+        private final BufferedReader in;
+        private long line = 1;
+        private boolean started;
+        private boolean done;
+
+        JsonSource(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public List<Record> next(int max) throws IOException {
+            List<Record> records = new ArrayList<>();
+            if (!started) {
+                if (skipWhitespace() != '[') {
+                    throw new IllegalArgumentException("Expected a JSON array at line " + line);
+                }
+                started = true;
+                int c = skipWhitespace();
+                if (c == ']') {
+                    done = true;
+                } else {
+                    in.reset();
+                }
+            }
+            while (!done && records.size() < max) {
+                long start = line;
+                records.add(new Record(start, null, readObject()));
+                int c = skipWhitespace();
+                if (c == ']') {
+                    done = true;
+                } else if (c != ',') {
+                    throw new IllegalArgumentException("Expected ',' or ']' at line " + line);
+                }
+            }
+            return records;
+        }
+
+        private String readObject() throws IOException {
+            if (skipWhitespace() != '{') {
+                throw new IllegalArgumentException("Expected a JSON object at line " + line);
+            }
+            StringBuilder text = new StringBuilder("{");
+            int depth = 1;
+            boolean inString = false;
+            boolean escaped = false;
+            while (depth > 0) {
+                int c = in.read();
+                if (c < 0) {
+                    throw new IllegalArgumentException("Unexpected end of JSON at line " + line);
+                }
+                if (c == '\n') {
+                    line++;
+                }
+                text.append((char) c);
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+            return text.toString();
+        }
+
+        /**
+         * Returns the next non-whitespace character (marked, so reset() puts it back), or -1
+         */
+        private int skipWhitespace() throws IOException {
+            while (true) {
+                in.mark(1);
+                int c = in.read();
+                if (c == '\n') {
+                    line++;
+                }
+                if (c < 0 || !Character.isWhitespace(c)) {
+                    return c;
+                }
+            }
+        }
+    }
+}
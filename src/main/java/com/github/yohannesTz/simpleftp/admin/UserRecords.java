@@ -0,0 +1,303 @@
+package com.github.yohannesTz.simpleftp.admin;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.MountPoint;
+import com.github.yohannesTz.simpleftp.model.StorageSettings;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.model.UserGroup;
+import com.github.yohannesTz.simpleftp.server.CidrTrie;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps user accounts and groups to and from the JSON shape used by the admin
+ * API, and accounts to the flat CSV form of it used by bulk import/export.
+ * Passwords are read but never written out.
+ */
+final class UserRecords {
+
+    private UserRecords() {
+    }
+
+    /**
+     * Returns the account as a JSON object, without its password
+     */
+    static Map<String, Object> toJson(UserAccount user) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("username", user.getUsername());
+        json.put("homeDirectory", user.getHomeDirectory());
+        json.put("maxIdleTime", user.getMaxIdleTime());
+        json.put("quotaBytes", user.getQuotaBytes());
+        json.put("quotaFiles", user.getQuotaFiles());
+        json.put("storage", user.getStorage().getType());
+
+        json.put("permissions", toJson(user.getPermissions()));
+
+        List<Object> mounts = new ArrayList<>();
+        for (MountPoint mount : user.getMounts()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("virtualPath", mount.getVirtualPath());
+            m.put("physicalPath", mount.getPhysicalPath());
+            m.put("readable", mount.isReadable());
+            m.put("writable", mount.isWritable());
+            mounts.add(m);
+        }
+        json.put("mounts", mounts);
+        json.put("allowedIps", user.getAllowedIps());
+        json.put("deniedIps", user.getDeniedIps());
+        json.put("atomicUploads", user.isAtomicUploads());
+        json.put("groups", user.getGroups());
+        return json;
+    }
+
+    /**
+     * Applies the fields present in a JSON object to an account
+     */
+    @SuppressWarnings("unchecked")
+    static void apply(UserAccount user, Map<String, Object> json) {
+        if (json.containsKey("password")) {
+            user.setPassword(Json.requireString(json, "password"));
+        }
+        if (json.containsKey("homeDirectory")) {
+            user.setHomeDirectory(Json.requireString(json, "homeDirectory"));
+        }
+        if (json.containsKey("maxIdleTime")) {
+            user.setMaxIdleTime((int) Json.requireLong(json, "maxIdleTime"));
+        }
+        if (json.containsKey("quotaBytes")) {
+            user.setQuotaBytes(Json.requireLong(json, "quotaBytes"));
+        }
+        if (json.containsKey("quotaFiles")) {
+            user.setQuotaFiles((int) Json.requireLong(json, "quotaFiles"));
+        }
+        if (json.containsKey("storage")) {
+            String type = Json.requireString(json, "storage");
+            if (StorageSettings.TYPE_MEMORY.equals(type)) {
+                user.setStorage(StorageSettings.memory());
+            } else if (StorageSettings.TYPE_LOCAL.equals(type)) {
+                user.setStorage(new StorageSettings());
+            } else if (!type.equals(user.getStorage().getType())) {
+                throw new IllegalArgumentException("Storage type '" + type + "' must be configured in the application");
+            }
+        }
+        if (json.get("permissions") instanceof Map) {
+            user.setPermissions(permissions((Map<String, Object>) json.get("permissions"), user.getPermissions()));
+        }
+        if (json.get("mounts") instanceof List) {
+            List<MountPoint> mounts = new ArrayList<>();
+            for (Object item : (List<Object>) json.get("mounts")) {
+                Map<String, Object> m = (Map<String, Object>) item;
+                mounts.add(new MountPoint(MountPoint.normalizeVirtualPath(Json.requireString(m, "virtualPath")),
+                    Json.requireString(m, "physicalPath"), Json.boolOr(m, "readable", true),
+                    Json.boolOr(m, "writable", true)));
+            }
+            user.setMounts(mounts);
+        }
+        if (json.get("allowedIps") instanceof List) {
+            user.setAllowedIps(ipRanges(json, "allowedIps"));
+        }
+        if (json.get("deniedIps") instanceof List) {
+            user.setDeniedIps(ipRanges(json, "deniedIps"));
+        }
+        user.setAtomicUploads(Json.boolOr(json, "atomicUploads", user.isAtomicUploads()));
+        if (json.get("groups") instanceof List) {
+            user.setGroups(Json.stringList(json.get("groups")));
+        }
+    }
+
+    /**
+     * Returns a list of addresses or CIDR ranges, refusing the first invalid one
+     */
+    private static List<String> ipRanges(Map<String, Object> json, String key) {
+        List<String> ranges = Json.stringList(json.get(key));
+        for (String range : ranges) {
+            try {
+                CidrTrie.validate(range);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("'" + key + "': " + e.getMessage());
+            }
+        }
+        return ranges;
+    }
+
+    private static Map<String, Object> toJson(FTPPermissions perms) {
+        Map<String, Object> permissions = new LinkedHashMap<>();
+        permissions.put("read", perms.isCanRead());
+        permissions.put("write", perms.isCanWrite());
+        permissions.put("delete", perms.isCanDelete());
+        permissions.put("rename", perms.isCanRename());
+        permissions.put("createDirectory", perms.isCanCreateDirectory());
+        permissions.put("removeDirectory", perms.isCanRemoveDirectory());
+        permissions.put("list", perms.isCanList());
+        return permissions;
+    }
+
+    /**
+     * Returns new permissions with the flags given in JSON and the current ones otherwise
+     */
+    private static FTPPermissions permissions(Map<String, Object> p, FTPPermissions current) {
+        FTPPermissions perms = new FTPPermissions();
+        perms.setCanRead(Json.boolOr(p, "read", current.isCanRead()));
+        perms.setCanWrite(Json.boolOr(p, "write", current.isCanWrite()));
+        perms.setCanDelete(Json.boolOr(p, "delete", current.isCanDelete()));
+        perms.setCanRename(Json.boolOr(p, "rename", current.isCanRename()));
+        perms.setCanCreateDirectory(Json.boolOr(p, "createDirectory", current.isCanCreateDirectory()));
+        perms.setCanRemoveDirectory(Json.boolOr(p, "removeDirectory", current.isCanRemoveDirectory()));
+        perms.setCanList(Json.boolOr(p, "list", current.isCanList()));
+        return perms;
+    }
+
+    /**
+     * Returns a group as a JSON object; permissions are null when members keep their own
+     */
+    static Map<String, Object> toJson(UserGroup group) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("name", group.getName());
+        json.put("permissions", group.getPermissions() == null ? null : toJson(group.getPermissions()));
+        json.put("quotaBytes", group.getQuotaBytes());
+        json.put("quotaFiles", group.getQuotaFiles());
+        json.put("rateLimitKbps", group.getRateLimitKbps());
+        json.put("rules", group.getRules());
+        return json;
+    }
+
+    /**
+     * Returns a group with the fields present in a JSON object and those of
+     * the existing group (or the defaults) otherwise
+     */
+    @SuppressWarnings("unchecked")
+    static UserGroup group(String name, UserGroup existing, Map<String, Object> json) {
+        FTPPermissions permissions = existing == null ? null : existing.getPermissions();
+        if (json.get("permissions") instanceof Map) {
+            permissions = permissions((Map<String, Object>) json.get("permissions"),
+                permissions != null ? permissions : FTPPermissions.readOnly());
+        } else if (json.containsKey("permissions")) {
+            permissions = null;
+        }
+        return new UserGroup(name, permissions,
+            json.containsKey("quotaBytes") ? Json.requireLong(json, "quotaBytes")
+                : existing == null ? 0 : existing.getQuotaBytes(),
+            json.containsKey("quotaFiles") ? (int) Json.requireLong(json, "quotaFiles")
+                : existing == null ? 0 : existing.getQuotaFiles(),
+            json.containsKey("rateLimitKbps") ? Json.requireLong(json, "rateLimitKbps")
+                : existing == null ? 0 : existing.getRateLimitKbps(),
+            json.get("rules") instanceof List ? Json.stringList(json.get("rules"))
+                : existing == null ? Collections.<String>emptyList() : existing.getRules());
+    }
+
+    /**
+     * Returns an independent copy to edit, so the published account stays unchanged
+     */
+    static UserAccount copy(UserAccount user) {
+        // Permissions are immutable and can be shared with the copy
+        UserAccount copy = new UserAccount(user.getUsername(), user.getPassword(), user.getHomeDirectory(),
+            user.getPermissions(), user.getMaxIdleTime());
+        copy.setQuotaBytes(user.getQuotaBytes());
+        copy.setQuotaFiles(user.getQuotaFiles());
+        copy.setMounts(user.getMounts());
+        copy.setStorage(user.getStorage());
+        copy.setAllowedIps(user.getAllowedIps());
+        copy.setDeniedIps(user.getDeniedIps());
+        copy.setAtomicUploads(user.isAtomicUploads());
+        copy.setGroups(user.getGroups());
+        return copy;
+    }
+
+    /**
+     * Columns of the CSV format; permissions, IP lists and groups are ';'-separated
+     */
+    static final String[] CSV_COLUMNS = {
+        "username", "password", "homeDirectory", "maxIdleTime", "quotaBytes", "quotaFiles", "storage",
+        "permissions", "allowedIps", "deniedIps", "atomicUploads", "groups"
+    };
+
+    private static final String[] PERMISSIONS = {
+        "read", "write", "delete", "rename", "createDirectory", "removeDirectory", "list"
+    };
+
+    /**
+     * Returns the account as CSV values in CSV_COLUMNS order, with an empty password
+     */
+    static String[] toCsv(UserAccount user) {
+        FTPPermissions perms = user.getPermissions();
+        boolean[] granted = {
+            perms.isCanRead(), perms.isCanWrite(), perms.isCanDelete(), perms.isCanRename(),
+            perms.isCanCreateDirectory(), perms.isCanRemoveDirectory(), perms.isCanList()
+        };
+        List<String> permissions = new ArrayList<>();
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if (granted[i]) {
+                permissions.add(PERMISSIONS[i]);
+            }
+        }
+        return new String[] {
+            user.getUsername(), "", user.getHomeDirectory(), String.valueOf(user.getMaxIdleTime()),
+            String.valueOf(user.getQuotaBytes()), String.valueOf(user.getQuotaFiles()), user.getStorage().getType(),
+            String.join(";", permissions), String.join(";", user.getAllowedIps()),
+            String.join(";", user.getDeniedIps()), String.valueOf(user.isAtomicUploads()),
+            String.join(";", user.getGroups())
+        };
+    }
+
+    /**
+     * Converts a CSV row (column name to value) to the JSON shape; empty values are left out
+     */
+    static Map<String, Object> fromCsv(Map<String, String> row) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : row.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue().trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            switch (key) {
+                case "maxIdleTime":
+                case "quotaBytes":
+                case "quotaFiles":
+                    try {
+                        json.put(key, Long.parseLong(value));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("'" + key + "' must be a number");
+                    }
+                    break;
+                case "atomicUploads":
+                    json.put(key, Boolean.parseBoolean(value));
+                    break;
+                case "allowedIps":
+                case "deniedIps":
+                case "groups":
+                    json.put(key, split(value));
+                    break;
+                case "permissions": {
+                    List<String> granted = split(value);
+                    Map<String, Object> permissions = new LinkedHashMap<>();
+                    for (String permission : PERMISSIONS) {
+                        permissions.put(permission, granted.remove(permission));
+                    }
+                    if (!granted.isEmpty()) {
+                        throw new IllegalArgumentException("Unknown permission '" + granted.get(0) + "'");
+                    }
+                    json.put(key, permissions);
+                    break;
+                }
+                default:
+                    json.put(key, value);
+            }
+        }
+        return json;
+    }
+
+    private static List<String> split(String value) {
+        List<String> list = new ArrayList<>();
+        for (String item : value.split(";")) {
+            if (!item.trim().isEmpty()) {
+                list.add(item.trim());
+            }
+        }
+        return list;
+    }
+}
@@ -1,14 +1,23 @@
 package com.github.yohannesTz.simpleftp.config;
 
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.MountPoint;
 import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.StorageSettings;
 import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.model.UserGroup;
+import com.github.yohannesTz.simpleftp.model.UserSnapshot;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Manages saving and loading of application configuration
@@ -17,7 +26,29 @@ public class ConfigManager {
     private static final String CONFIG_DIR = System.getProperty("user.home") + "/.simpleftp";
     private static final String CONFIG_FILE = CONFIG_DIR + "/config.properties";
     private static final String USERS_FILE = CONFIG_DIR + "/users.dat";
+    private static final String GROUPS_FILE = CONFIG_DIR + "/groups.properties";
+    
+    // users.dat starts with the negated format version; legacy files start with the user count
+    static final int USERS_FORMAT_VERSION = 7;
+
+    // Embedded store, opened once per process, and the accounts as last written to it
+    private static UserStore userStore;
+    private static UserSnapshot storedUsers;
+    
+    /**
+     * Returns the directory where configuration and server state files are kept
+     */
+    public static String getConfigDir() {
+        return CONFIG_DIR;
+    }
     
+    /**
+     * Saves server configuration and user accounts, keeping the stored UI theme
+     */
+    public static void saveConfig(ServerConfig config) {
+        saveConfig(config, loadTheme());
+    }
+
     /**
      * Saves server configuration and user accounts
      */
@@ -36,14 +67,75 @@ public class ConfigManager {
             props.setProperty("server.maxLogins", String.valueOf(config.getMaxLogins()));
             props.setProperty("server.anonymousEnabled", String.valueOf(config.isAnonymousEnabled()));
             props.setProperty("server.baseFolder", config.getBaseFolder());
+            props.setProperty("anonymous.root", config.getAnonymousRoot());
+            props.setProperty("anonymous.maxLogins", String.valueOf(config.getAnonymousMaxLogins()));
+            props.setProperty("anonymous.maxLoginsPerIp", String.valueOf(config.getAnonymousMaxLoginsPerIp()));
+            props.setProperty("anonymous.maxDownloadKbps", String.valueOf(config.getAnonymousMaxDownloadKbps()));
+            props.setProperty("anonymous.cacheMb", String.valueOf(config.getAnonymousCacheMb()));
+            props.setProperty("storage.memory.limitMb", String.valueOf(config.getMemoryStorageLimitMb()));
+            props.setProperty("storage.memory.evict", String.valueOf(config.isMemoryStorageEvict()));
+            props.setProperty("storage.provisionThreads", String.valueOf(config.getHomeProvisionThreads()));
+            props.setProperty("storage.dedup", String.valueOf(config.isDedupEnabled()));
+            props.setProperty("storage.dedupDir", config.getDedupDir());
+            props.setProperty("users.store", config.getUserStore());
+            props.setProperty("users.cacheSize", String.valueOf(config.getUserCacheSize()));
+            props.setProperty("security.loginThrottle", String.valueOf(config.isLoginThrottleEnabled()));
+            props.setProperty("security.failureWindowSeconds", String.valueOf(config.getLoginFailureWindowSeconds()));
+            props.setProperty("security.delayAfterFailures", String.valueOf(config.getLoginDelayAfterFailures()));
+            props.setProperty("security.banAfterFailures", String.valueOf(config.getLoginBanAfterFailures()));
+            props.setProperty("security.userLockoutAfterFailures", String.valueOf(config.getUserLockoutAfterFailures()));
+            props.setProperty("security.banSeconds", String.valueOf(config.getLoginBanSeconds()));
+            props.setProperty("security.ipAllowFile", config.getIpAllowFile());
+            props.setProperty("security.ipDenyFile", config.getIpDenyFile());
+            props.setProperty("security.aclFile", config.getAclFile());
+            props.setProperty("upload.checksum", config.getUploadChecksum());
+            props.setProperty("upload.archiveDir", config.getUploadArchiveDir());
+            props.setProperty("upload.processedDir", config.getUploadProcessedDir());
+            props.setProperty("upload.script", config.getUploadScript());
+            props.setProperty("upload.notifyDir", config.getUploadNotifyDir());
+            props.setProperty("upload.workers", String.valueOf(config.getUploadWorkers()));
+            props.setProperty("upload.queueCapacity", String.valueOf(config.getUploadQueueCapacity()));
+            props.setProperty("upload.resumeChecksum", String.valueOf(config.isUploadResumeChecksum()));
+            props.setProperty("upload.partialExpiryHours", String.valueOf(config.getUploadPartialExpiryHours()));
+            props.setProperty("journal.enabled", String.valueOf(config.isJournalEnabled()));
+            props.setProperty("journal.file", config.getJournalFile());
+            props.setProperty("journal.maxMb", String.valueOf(config.getJournalMaxMb()));
+            props.setProperty("journal.keepFiles", String.valueOf(config.getJournalKeepFiles()));
+            props.setProperty("session.idleSeconds", String.valueOf(config.getSessionIdleSeconds()));
+            props.setProperty("session.transferStallSeconds", String.valueOf(config.getTransferStallSeconds()));
+            props.setProperty("session.loginTimeoutSeconds", String.valueOf(config.getLoginTimeoutSeconds()));
+            props.setProperty("admin.enabled", String.valueOf(config.isAdminEnabled()));
+            props.setProperty("admin.address", config.getAdminAddress());
+            props.setProperty("admin.port", String.valueOf(config.getAdminPort()));
+            props.setProperty("admin.token", config.getAdminToken());
+            props.setProperty("ldap.enabled", String.valueOf(config.isLdapEnabled()));
+            props.setProperty("ldap.url", config.getLdapUrl());
+            props.setProperty("ldap.bindDn", config.getLdapBindDn());
+            props.setProperty("ldap.bindPassword", config.getLdapBindPassword());
+            props.setProperty("ldap.userBase", config.getLdapUserBase());
+            props.setProperty("ldap.userFilter", config.getLdapUserFilter());
+            props.setProperty("ldap.groupAttribute", config.getLdapGroupAttribute());
+            props.setProperty("ldap.groupPermissions", config.getLdapGroupPermissions());
+            props.setProperty("ldap.homeAttribute", config.getLdapHomeAttribute());
+            props.setProperty("ldap.poolSize", String.valueOf(config.getLdapPoolSize()));
+            props.setProperty("ldap.timeoutMs", String.valueOf(config.getLdapTimeoutMillis()));
+            props.setProperty("ldap.cacheSeconds", String.valueOf(config.getLdapCacheSeconds()));
+            props.setProperty("ldap.failureCacheSeconds", String.valueOf(config.getLdapFailureCacheSeconds()));
+            props.setProperty("ldap.cacheSize", String.valueOf(config.getLdapCacheSize()));
             props.setProperty("ui.theme", currentTheme);
             
             try (FileOutputStream fos = new FileOutputStream(CONFIG_FILE)) {
                 props.store(fos, "Simple FTP Server Configuration");
             }
             
+            saveGroups(config.getGroups());
+
             // Save user accounts
-            saveUsers(config.getUsers());
+            if (config.isEmbeddedUserStore()) {
+                saveStoredUsers(config);
+            } else {
+                saveUsers(config.getUsers());
+            }
             
         } catch (IOException e) {
             System.err.println("Failed to save configuration: " + e.getMessage());
@@ -73,27 +165,84 @@ public class ConfigManager {
             ServerConfig config = new ServerConfig();
             
             // Clear default admin user if loading from config
-            config.getUsers().clear();
+            config.setUsers(Collections.<UserAccount>emptyList());
             
             config.setPort(Integer.parseInt(props.getProperty("server.port", "2121")));
             config.setServerAddress(props.getProperty("server.address", "0.0.0.0"));
             config.setMaxLogins(Integer.parseInt(props.getProperty("server.maxLogins", "10")));
             config.setAnonymousEnabled(Boolean.parseBoolean(props.getProperty("server.anonymousEnabled", "false")));
             config.setBaseFolder(props.getProperty("server.baseFolder", System.getProperty("user.home") + "/ftp"));
+            config.setAnonymousRoot(props.getProperty("anonymous.root", config.getBaseFolder() + "/pub"));
+            config.setAnonymousMaxLogins(Integer.parseInt(props.getProperty("anonymous.maxLogins", "5")));
+            config.setAnonymousMaxLoginsPerIp(Integer.parseInt(props.getProperty("anonymous.maxLoginsPerIp", "2")));
+            config.setAnonymousMaxDownloadKbps(Integer.parseInt(props.getProperty("anonymous.maxDownloadKbps", "0")));
+            config.setAnonymousCacheMb(Integer.parseInt(props.getProperty("anonymous.cacheMb", "64")));
+            config.setLoginThrottleEnabled(Boolean.parseBoolean(props.getProperty("security.loginThrottle", "true")));
+            config.setLoginFailureWindowSeconds(Integer.parseInt(props.getProperty("security.failureWindowSeconds", "600")));
+            config.setLoginDelayAfterFailures(Integer.parseInt(props.getProperty("security.delayAfterFailures", "3")));
+            config.setLoginBanAfterFailures(Integer.parseInt(props.getProperty("security.banAfterFailures", "10")));
+            config.setUserLockoutAfterFailures(Integer.parseInt(props.getProperty("security.userLockoutAfterFailures", "20")));
+            config.setLoginBanSeconds(Integer.parseInt(props.getProperty("security.banSeconds", "900")));
+            config.setIpAllowFile(props.getProperty("security.ipAllowFile", config.getIpAllowFile()));
+            config.setIpDenyFile(props.getProperty("security.ipDenyFile", config.getIpDenyFile()));
+            config.setAclFile(props.getProperty("security.aclFile", config.getAclFile()));
+            config.setMemoryStorageLimitMb(Integer.parseInt(props.getProperty("storage.memory.limitMb", "256")));
+            config.setMemoryStorageEvict(Boolean.parseBoolean(props.getProperty("storage.memory.evict", "false")));
+            config.setHomeProvisionThreads(Integer.parseInt(props.getProperty("storage.provisionThreads", "0")));
+            config.setDedupEnabled(Boolean.parseBoolean(props.getProperty("storage.dedup", "false")));
+            config.setDedupDir(props.getProperty("storage.dedupDir", config.getDedupDir()));
+            config.setUserStore(props.getProperty("users.store", "file"));
+            config.setUserCacheSize(Integer.parseInt(props.getProperty("users.cacheSize", "10000")));
+            config.setUploadChecksum(props.getProperty("upload.checksum", ""));
+            config.setUploadArchiveDir(props.getProperty("upload.archiveDir", ""));
+            config.setUploadProcessedDir(props.getProperty("upload.processedDir", ""));
+            config.setUploadScript(props.getProperty("upload.script", ""));
+            config.setUploadNotifyDir(props.getProperty("upload.notifyDir", ""));
+            config.setUploadWorkers(Integer.parseInt(props.getProperty("upload.workers", "2")));
+            config.setUploadQueueCapacity(Integer.parseInt(props.getProperty("upload.queueCapacity", "256")));
+            config.setUploadResumeChecksum(Boolean.parseBoolean(props.getProperty("upload.resumeChecksum", "false")));
+            config.setUploadPartialExpiryHours(Integer.parseInt(props.getProperty("upload.partialExpiryHours", "24")));
+            config.setJournalEnabled(Boolean.parseBoolean(props.getProperty("journal.enabled", "false")));
+            config.setJournalFile(props.getProperty("journal.file", config.getJournalFile()));
+            config.setJournalMaxMb(Integer.parseInt(props.getProperty("journal.maxMb", "64")));
+            config.setJournalKeepFiles(Integer.parseInt(props.getProperty("journal.keepFiles", "4")));
+            config.setSessionIdleSeconds(Integer.parseInt(props.getProperty("session.idleSeconds", "900")));
+            config.setTransferStallSeconds(Integer.parseInt(props.getProperty("session.transferStallSeconds", "60")));
+            config.setLoginTimeoutSeconds(Integer.parseInt(props.getProperty("session.loginTimeoutSeconds", "30")));
+            config.setAdminEnabled(Boolean.parseBoolean(props.getProperty("admin.enabled", "false")));
+            config.setAdminAddress(props.getProperty("admin.address", "127.0.0.1"));
+            config.setAdminPort(Integer.parseInt(props.getProperty("admin.port", "8021")));
+            config.setAdminToken(props.getProperty("admin.token", ""));
+            config.setLdapEnabled(Boolean.parseBoolean(props.getProperty("ldap.enabled", "false")));
+            config.setLdapUrl(props.getProperty("ldap.url", "ldap://localhost:389"));
+            config.setLdapBindDn(props.getProperty("ldap.bindDn", ""));
+            config.setLdapBindPassword(props.getProperty("ldap.bindPassword", ""));
+            config.setLdapUserBase(props.getProperty("ldap.userBase", ""));
+            config.setLdapUserFilter(props.getProperty("ldap.userFilter", "(uid={0})"));
+            config.setLdapGroupAttribute(props.getProperty("ldap.groupAttribute", "memberOf"));
+            config.setLdapGroupPermissions(props.getProperty("ldap.groupPermissions", ""));
+            config.setLdapHomeAttribute(props.getProperty("ldap.homeAttribute", ""));
+            config.setLdapPoolSize(Integer.parseInt(props.getProperty("ldap.poolSize", "4")));
+            config.setLdapTimeoutMillis(Integer.parseInt(props.getProperty("ldap.timeoutMs", "3000")));
+            config.setLdapCacheSeconds(Integer.parseInt(props.getProperty("ldap.cacheSeconds", "300")));
+            config.setLdapFailureCacheSeconds(Integer.parseInt(props.getProperty("ldap.failureCacheSeconds", "30")));
+            config.setLdapCacheSize(Integer.parseInt(props.getProperty("ldap.cacheSize", "10000")));
             
             data.serverConfig = config;
             data.theme = props.getProperty("ui.theme", "Flat Light");
+            config.setGroups(loadGroups());
             
             // Load user accounts
-            List<UserAccount> users = loadUsers();
-            for (UserAccount user : users) {
-                config.addUser(user);
-            }
-            
-            // If no users loaded, add default admin
-            if (config.getUsers().isEmpty()) {
-                config.addUser(new UserAccount("admin", "admin", 
-                    config.getBaseFolder(), true, 300));
+            if (config.isEmbeddedUserStore()) {
+                openUserStore(config);
+            } else {
+                config.setUsers(loadUsers());
+
+                // If no users loaded, add default admin
+                if (config.getUsers().isEmpty()) {
+                    config.addUser(new UserAccount("admin", "admin",
+                        config.getBaseFolder(), true, 300));
+                }
             }
             
         } catch (Exception e) {
@@ -104,22 +253,179 @@ public class ConfigManager {
         return data;
     }
     
+    private static String loadTheme() {
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(CONFIG_FILE)) {
+            props.load(fis);
+        } catch (IOException e) {
+            // No saved configuration yet
+        }
+        return props.getProperty("ui.theme", "Flat Light");
+    }
+
     /**
      * Saves user accounts to file
      */
     private static void saveUsers(List<UserAccount> users) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(USERS_FILE))) {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(USERS_FILE)))) {
+            oos.writeInt(-USERS_FORMAT_VERSION);
             oos.writeInt(users.size());
             for (UserAccount user : users) {
-                oos.writeUTF(user.getUsername());
-                oos.writeUTF(user.getPassword());
-                oos.writeUTF(user.getHomeDirectory());
-                oos.writeBoolean(user.isWritePermission());
-                oos.writeInt(user.getMaxIdleTime());
+                writeUser(oos, user);
             }
         }
     }
-    
+
+    /**
+     * Writes one account in the current users.dat record format
+     */
+    static void writeUser(DataOutput out, UserAccount user) throws IOException {
+        out.writeUTF(user.getUsername());
+        out.writeUTF(user.getPassword());
+        out.writeUTF(user.getHomeDirectory());
+        out.writeBoolean(user.isWritePermission());
+        out.writeInt(user.getMaxIdleTime());
+        out.writeLong(user.getQuotaBytes());
+        out.writeInt(user.getQuotaFiles());
+        out.writeInt(user.getMounts().size());
+        for (MountPoint mount : user.getMounts()) {
+            out.writeUTF(mount.getVirtualPath());
+            out.writeUTF(mount.getPhysicalPath());
+            out.writeBoolean(mount.isReadable());
+            out.writeBoolean(mount.isWritable());
+        }
+        StorageSettings storage = user.getStorage();
+        out.writeUTF(storage.getType());
+        out.writeUTF(storage.getEndpoint());
+        out.writeUTF(storage.getRegion());
+        out.writeUTF(storage.getBucket());
+        out.writeUTF(storage.getPrefix());
+        out.writeUTF(storage.getAccessKey());
+        out.writeUTF(storage.getSecretKey());
+        writeStrings(out, user.getAllowedIps());
+        writeStrings(out, user.getDeniedIps());
+        out.writeBoolean(user.isAtomicUploads());
+        writeStrings(out, user.getGroups());
+    }
+
+    /**
+     * Reads one account written in the given users.dat format version
+     */
+    static UserAccount readUser(DataInput in, int version) throws IOException {
+        String username = in.readUTF();
+        String password = in.readUTF();
+        String homeDirectory = in.readUTF();
+        boolean writePermission = in.readBoolean();
+        int maxIdleTime = in.readInt();
+
+        UserAccount user = new UserAccount(username, password, homeDirectory,
+            writePermission, maxIdleTime);
+        if (version >= 2) {
+            user.setQuotaBytes(in.readLong());
+            user.setQuotaFiles(in.readInt());
+        }
+        if (version >= 3) {
+            int mountCount = in.readInt();
+            for (int m = 0; m < mountCount; m++) {
+                user.getMounts().add(new MountPoint(in.readUTF(), in.readUTF(),
+                    in.readBoolean(), in.readBoolean()));
+            }
+        }
+        if (version >= 4) {
+            StorageSettings storage = new StorageSettings();
+            storage.setType(in.readUTF());
+            storage.setEndpoint(in.readUTF());
+            storage.setRegion(in.readUTF());
+            storage.setBucket(in.readUTF());
+            storage.setPrefix(in.readUTF());
+            storage.setAccessKey(in.readUTF());
+            storage.setSecretKey(in.readUTF());
+            user.setStorage(storage);
+        }
+        if (version >= 5) {
+            user.setAllowedIps(readStrings(in));
+            user.setDeniedIps(readStrings(in));
+        }
+        if (version >= 6) {
+            user.setAtomicUploads(in.readBoolean());
+        }
+        if (version >= 7) {
+            user.setGroups(readStrings(in));
+        }
+        return user;
+    }
+
+    private static void writeStrings(DataOutput out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    /**
+     * Saves the user groups as NAME.field properties; rules are ';'-separated
+     */
+    private static void saveGroups(List<UserGroup> groups) throws IOException {
+        Properties props = new Properties();
+        for (UserGroup group : groups) {
+            String prefix = group.getName() + ".";
+            if (group.getPermissions() != null) {
+                props.setProperty(prefix + "permissions", group.getPermissions().format());
+            }
+            props.setProperty(prefix + "quotaBytes", String.valueOf(group.getQuotaBytes()));
+            props.setProperty(prefix + "quotaFiles", String.valueOf(group.getQuotaFiles()));
+            props.setProperty(prefix + "rateLimitKbps", String.valueOf(group.getRateLimitKbps()));
+            props.setProperty(prefix + "rules", String.join(";", group.getRules()));
+        }
+        try (FileOutputStream fos = new FileOutputStream(GROUPS_FILE)) {
+            props.store(fos, "Simple FTP Server User Groups");
+        }
+    }
+
+    /**
+     * Loads the user groups, sorted by name; invalid groups are skipped
+     */
+    private static List<UserGroup> loadGroups() {
+        List<UserGroup> groups = new ArrayList<>();
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(GROUPS_FILE)) {
+            props.load(fis);
+        } catch (IOException e) {
+            return groups; // No groups yet
+        }
+        Set<String> names = new TreeSet<>();
+        for (String key : props.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            if (dot > 0) {
+                names.add(key.substring(0, dot));
+            }
+        }
+        for (String name : names) {
+            String prefix = name + ".";
+            try {
+                String permissions = props.getProperty(prefix + "permissions");
+                groups.add(new UserGroup(name,
+                    permissions == null ? null : FTPPermissions.parse(permissions),
+                    Long.parseLong(props.getProperty(prefix + "quotaBytes", "0")),
+                    Integer.parseInt(props.getProperty(prefix + "quotaFiles", "0")),
+                    Long.parseLong(props.getProperty(prefix + "rateLimitKbps", "0")),
+                    Arrays.asList(props.getProperty(prefix + "rules", "").split(";"))));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipped group " + name + ": " + e.getMessage());
+            }
+        }
+        return groups;
+    }
+
     /**
      * Loads user accounts from file
      */
@@ -132,17 +438,16 @@ public class ConfigManager {
                 return users;
             }
             
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(USERS_FILE))) {
-                int count = ois.readInt();
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(USERS_FILE)))) {
+                int header = ois.readInt();
+                int version = 1;
+                int count = header;
+                if (header < 0) {
+                    version = -header;
+                    count = ois.readInt();
+                }
                 for (int i = 0; i < count; i++) {
-                    String username = ois.readUTF();
-                    String password = ois.readUTF();
-                    String homeDirectory = ois.readUTF();
-                    boolean writePermission = ois.readBoolean();
-                    int maxIdleTime = ois.readInt();
-                    
-                    users.add(new UserAccount(username, password, homeDirectory, 
-                        writePermission, maxIdleTime));
+                    users.add(readUser(ois, version));
                 }
             }
         } catch (Exception e) {
@@ -152,13 +457,94 @@ public class ConfigManager {
         return users;
     }
     
+    /**
+     * Opens the embedded user store, moving the accounts of users.dat into it the
+     * first time, and lets the configuration read the account list from it on demand
+     */
+    private static synchronized void openUserStore(ServerConfig config) throws IOException {
+        if (userStore == null) {
+            File dir = new File(CONFIG_DIR);
+            boolean migrate = !UserStore.exists(dir);
+            userStore = UserStore.open(dir);
+            Runtime.getRuntime().addShutdownHook(new Thread(ConfigManager::closeUserStore, "user-store-close"));
+            if (migrate) {
+                List<UserAccount> existing = loadUsers();
+                userStore.putAll(existing);
+                System.out.println("Moved " + existing.size() + " users from users.dat into the user store");
+            }
+            if (userStore.size() == 0) {
+                userStore.put(new UserAccount("admin", "admin", config.getBaseFolder(), true, 300));
+            }
+        }
+        UserStore store = userStore;
+        config.setUserLoader(() -> {
+            try {
+                UserSnapshot snapshot = UserSnapshot.of(store.loadAll());
+                synchronized (ConfigManager.class) {
+                    storedUsers = snapshot;
+                }
+                return snapshot;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read the user store", e);
+            }
+        });
+    }
+
+    /**
+     * Returns the embedded user store, or null when accounts are kept in users.dat
+     */
+    public static synchronized UserStore getUserStore() {
+        return userStore;
+    }
+
+    /**
+     * Writes only the accounts added, changed or removed since the store was last
+     * read or written; nothing when the account list was never loaded
+     */
+    private static synchronized void saveStoredUsers(ServerConfig config) throws IOException {
+        if (userStore == null || !config.isUsersLoaded()) {
+            return;
+        }
+        if (storedUsers == null) {
+            storedUsers = UserSnapshot.of(userStore.loadAll());
+        }
+        UserSnapshot current = config.getUserSnapshot();
+        UserSnapshot.Diff diff = storedUsers.diff(current);
+        for (String username : diff.getRemoved()) {
+            userStore.delete(username);
+        }
+        List<UserAccount> updated = new ArrayList<>(diff.getAdded());
+        updated.addAll(diff.getChanged());
+        userStore.putAll(updated);
+        storedUsers = current;
+    }
+
+    /**
+     * Closes the embedded user store so the next start can use its index as is
+     */
+    public static synchronized void closeUserStore() {
+        if (userStore != null) {
+            try {
+                userStore.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close user store: " + e.getMessage());
+            }
+            userStore = null;
+            storedUsers = null;
+        }
+    }
+
     /**
      * Deletes all saved configuration
      */
     public static void deleteConfig() {
         try {
+            closeUserStore();
             Files.deleteIfExists(Paths.get(CONFIG_FILE));
             Files.deleteIfExists(Paths.get(USERS_FILE));
+            Files.deleteIfExists(Paths.get(GROUPS_FILE));
+            Files.deleteIfExists(Paths.get(CONFIG_DIR, "users.db"));
+            Files.deleteIfExists(Paths.get(CONFIG_DIR, "users.idx"));
         } catch (IOException e) {
             System.err.println("Failed to delete configuration: " + e.getMessage());
         }
@@ -0,0 +1,606 @@
+package com.github.yohannesTz.simpleftp.config;
+
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Embedded on-disk user store for very large numbers of accounts. Accounts
+ * are appended to a record log (users.db) in the users.dat record format
+ * and found through an open-addressing hash index (users.idx) that is
+ * memory-mapped, so opening the store and looking up a user cost the same
+ * however many accounts there are. An update appends the new record and
+ * points the index slot at it; a delete appends a tombstone, so after a
+ * crash the index can be rebuilt from the log alone. Superseded records
+ * are reclaimed by compaction once they make up most of the log.
+ */
+public class UserStore implements Closeable {
+    private static final int LOG_MAGIC = 0x53465544;   // "SFUD"
+    private static final int INDEX_MAGIC = 0x53465549; // "SFUI"
+    private static final int INDEX_VERSION = 1;
+    private static final int LOG_HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 6;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    // Index header: magic, version, capacity, live, used, clean flag, log length, garbage bytes
+    private static final int CAPACITY_AT = 8;
+    private static final int LIVE_AT = 12;
+    private static final int USED_AT = 16;
+    private static final int CLEAN_AT = 20;
+    private static final int LOG_LENGTH_AT = 24;
+    private static final int GARBAGE_AT = 32;
+    private static final int INDEX_HEADER_BYTES = 40;
+    // Slot: record offset + 1 (0 = empty, -1 = deleted), then the username hash
+    private static final int SLOT_BYTES = 12;
+    private static final int MIN_CAPACITY = 1024;
+    private static final long COMPACT_MIN_GARBAGE = 64L * 1024 * 1024;
+    private static final int READ_AHEAD_BYTES = 512;
+
+    private final File logFile;
+    private final File indexFile;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private FileChannel log;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private long logLength;
+
+    private UserStore(File directory) {
+        this.logFile = new File(directory, "users.db");
+        this.indexFile = new File(directory, "users.idx");
+    }
+
+    /**
+     * Opens or creates the store in a directory. The index is only rebuilt
+     * (reading the whole log) when the store was not closed cleanly.
+     */
+    public static UserStore open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        UserStore store = new UserStore(directory);
+        store.openFiles();
+        return store;
+    }
+
+    /**
+     * True when a store was already created in the directory
+     */
+    public static boolean exists(File directory) {
+        return new File(directory, "users.db").exists();
+    }
+
+    private void openFiles() throws IOException {
+        boolean fresh = !logFile.exists();
+        log = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        if (fresh || log.size() < LOG_HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES);
+            header.putInt(LOG_MAGIC).putInt(0).flip();
+            log.write(header, 0);
+            log.truncate(LOG_HEADER_BYTES);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            log.read(header, 0);
+            if (header.getInt(0) != LOG_MAGIC) {
+                log.close();
+                throw new IOException("Not a user store: " + logFile);
+            }
+        }
+        logLength = log.size();
+
+        indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        if (!isIndexUsable()) {
+            if (!fresh) {
+                System.out.println("Rebuilding user index from " + logFile);
+            }
+            rebuildIndex();
+        } else {
+            capacity = index.getInt(CAPACITY_AT);
+        }
+        // Marked clean again by close(); until then a crash forces a rebuild
+        index.put(CLEAN_AT, (byte) 0);
+        index.force();
+    }
+
+    private boolean isIndexUsable() throws IOException {
+        if (indexChannel.size() < INDEX_HEADER_BYTES) {
+            return false;
+        }
+        MappedByteBuffer header = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_BYTES);
+        int slots = header.getInt(CAPACITY_AT);
+        if (header.getInt(0) != INDEX_MAGIC || header.getInt(4) != INDEX_VERSION || header.get(CLEAN_AT) != 1
+                || header.getLong(LOG_LENGTH_AT) != logLength || Integer.bitCount(slots) != 1
+                || indexChannel.size() < indexBytes(slots)) {
+            return false;
+        }
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(slots));
+        return true;
+    }
+
+    /**
+     * Returns the account, or null if there is none with this username
+     */
+    public UserAccount get(String username) throws IOException {
+        lock.readLock().lock();
+        try {
+            byte[] record = lookup(username, hash(username));
+            return record == null ? null : decode(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String username) throws IOException {
+        lock.readLock().lock();
+        try {
+            return find(username, hash(username)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.getInt(LIVE_AT);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an account or replaces the one with the same username
+     */
+    public void put(UserAccount account) throws IOException {
+        putAll(Collections.singletonList(account));
+    }
+
+    /**
+     * Adds or replaces accounts with one append to the log
+     */
+    public void putAll(Collection<UserAccount> accounts) throws IOException {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            long[] offsets = new long[accounts.size()];
+            int i = 0;
+            for (UserAccount account : accounts) {
+                offsets[i++] = logLength + batch.size();
+                writeRecord(batch, PUT, encode(account));
+            }
+            append(batch.toByteArray());
+            i = 0;
+            for (UserAccount account : accounts) {
+                link(account.getUsername(), offsets[i++]);
+            }
+            compactIfWasteful();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (UserAccount account : accounts) {
+            fireChanged(account.getUsername());
+        }
+    }
+
+    /**
+     * Removes an account; false if there was none with this username
+     */
+    public boolean delete(String username) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int slot = find(username, hash(username));
+            if (slot < 0) {
+                return false;
+            }
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            new DataOutputStream(payload).writeUTF(username);
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            writeRecord(record, DELETE, payload.toByteArray());
+            long offset = logLength;
+            append(record.toByteArray());
+            addGarbage(recordLength(ref(slot) - 1) + (logLength - offset));
+            setSlot(slot, -1, 0);
+            index.putInt(LIVE_AT, index.getInt(LIVE_AT) - 1);
+            compactIfWasteful();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        fireChanged(username);
+        return true;
+    }
+
+    /**
+     * Reads every account, in the order they were last written. Takes time and
+     * memory in proportion to the number of accounts.
+     */
+    public List<UserAccount> loadAll() throws IOException {
+        lock.readLock().lock();
+        try {
+            long[] offsets = new long[index.getInt(LIVE_AT)];
+            int count = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                long ref = ref(slot);
+                if (ref > 0) {
+                    offsets[count++] = ref - 1;
+                }
+            }
+            // Sequential reads through the log
+            Arrays.sort(offsets, 0, count);
+            List<UserAccount> accounts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                accounts.add(decode(readRecord(offsets[i])));
+            }
+            return accounts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Notifies the listener with the username of every account put or deleted
+     */
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<String> listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChanged(String username) {
+        for (Consumer<String> listener : listeners) {
+            listener.accept(username);
+        }
+    }
+
+    /**
+     * Rewrites the log with only the current records and rebuilds the index
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            long before = logLength;
+            File temp = new File(logFile.getPath() + ".tmp");
+            List<UserAccount> accounts = loadAll();
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                new DataOutputStream(buffer).writeInt(LOG_MAGIC);
+                new DataOutputStream(buffer).writeInt(0);
+                for (UserAccount account : accounts) {
+                    writeRecord(buffer, PUT, encode(account));
+                    if (buffer.size() >= 1024 * 1024) {
+                        out.write(ByteBuffer.wrap(buffer.toByteArray()));
+                        buffer.reset();
+                    }
+                }
+                out.write(ByteBuffer.wrap(buffer.toByteArray()));
+                out.force(true);
+            }
+            log.close();
+            Files.move(temp.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log = FileChannel.open(logFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            logLength = log.size();
+            rebuildIndex();
+            System.out.println("Compacted user store from " + before / 1024 + " KB to " + logLength / 1024 + " KB");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (log == null) {
+                return;
+            }
+            log.force(true);
+            index.putLong(LOG_LENGTH_AT, logLength);
+            index.put(CLEAN_AT, (byte) 1);
+            index.force();
+            log.close();
+            indexChannel.close();
+            log = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Index
+
+    private static int hash(String username) {
+        int h = username.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static long indexBytes(int slots) {
+        return INDEX_HEADER_BYTES + (long) slots * SLOT_BYTES;
+    }
+
+    private long ref(int slot) {
+        return index.getLong(INDEX_HEADER_BYTES + slot * SLOT_BYTES);
+    }
+
+    private int slotHash(int slot) {
+        return index.getInt(INDEX_HEADER_BYTES + slot * SLOT_BYTES + 8);
+    }
+
+    private void setSlot(int slot, long ref, int hash) {
+        index.putLong(INDEX_HEADER_BYTES + slot * SLOT_BYTES, ref);
+        index.putInt(INDEX_HEADER_BYTES + slot * SLOT_BYTES + 8, hash);
+    }
+
+    /**
+     * Returns the slot holding this username, or -1. Records are only read when the hash matches.
+     */
+    private int find(String username, int hash) throws IOException {
+        int mask = capacity - 1;
+        for (int i = 0, slot = hash & mask; i < capacity; i++, slot = (slot + 1) & mask) {
+            long ref = ref(slot);
+            if (ref == 0) {
+                return -1;
+            }
+            if (ref > 0 && slotHash(slot) == hash && username.equals(username(readRecord(ref - 1)))) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Like find(), but returns the record that was read to confirm the match
+     */
+    private byte[] lookup(String username, int hash) throws IOException {
+        int mask = capacity - 1;
+        for (int i = 0, slot = hash & mask; i < capacity; i++, slot = (slot + 1) & mask) {
+            long ref = ref(slot);
+            if (ref == 0) {
+                return null;
+            }
+            if (ref > 0 && slotHash(slot) == hash) {
+                byte[] record = readRecord(ref - 1);
+                if (username.equals(username(record))) {
+                    return record;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Points the username's slot at a record, reusing a deleted slot where possible
+     */
+    private void link(String username, long offset) throws IOException {
+        int hash = hash(username);
+        int existing = find(username, hash);
+        if (existing >= 0) {
+            addGarbage(recordLength(ref(existing) - 1));
+            setSlot(existing, offset + 1, hash);
+            return;
+        }
+        if ((index.getInt(USED_AT) + 1) * 10L > capacity * 6L) {
+            resize(index.getInt(LIVE_AT) + 1);
+        }
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        while (ref(slot) > 0) {
+            slot = (slot + 1) & mask;
+        }
+        if (ref(slot) == 0) {
+            index.putInt(USED_AT, index.getInt(USED_AT) + 1);
+        }
+        setSlot(slot, offset + 1, hash);
+        index.putInt(LIVE_AT, index.getInt(LIVE_AT) + 1);
+    }
+
+    /**
+     * Re-creates the index in place with room for the given number of accounts, dropping deleted slots
+     */
+    private void resize(int accounts) throws IOException {
+        long[] refs = new long[accounts];
+        int[] hashes = new int[accounts];
+        int count = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            long ref = ref(slot);
+            if (ref > 0) {
+                refs[count] = ref;
+                hashes[count++] = slotHash(slot);
+            }
+        }
+        long garbage = index.getLong(GARBAGE_AT);
+        createIndex(capacityFor(accounts));
+        index.putLong(GARBAGE_AT, garbage);
+        for (int i = 0; i < count; i++) {
+            insertNew(refs[i], hashes[i]);
+        }
+    }
+
+    /**
+     * Builds the index from the log, replaying puts and deletes in order
+     */
+    private void rebuildIndex() throws IOException {
+        Map<String, Long> latest = new HashMap<>();
+        long live = 0;
+        long position = LOG_HEADER_BYTES;
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(logFile.toPath()), 1 << 16)) {
+            DataInputStream in = new DataInputStream(stream);
+            in.skipBytes(LOG_HEADER_BYTES);
+            while (position < logLength) {
+                byte type;
+                byte[] payload;
+                try {
+                    type = in.readByte();
+                    in.readByte(); // record format version
+                    payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    // A record cut short by a crash; drop it
+                    System.err.println("Truncating incomplete user store record at " + position);
+                    log.truncate(position);
+                    logLength = position;
+                    break;
+                }
+                String username = new DataInputStream(new ByteArrayInputStream(payload)).readUTF();
+                Long previous = type == PUT ? latest.put(username, position) : latest.remove(username);
+                if (previous != null) {
+                    live -= recordLength(previous);
+                }
+                position += RECORD_HEADER_BYTES + payload.length;
+                if (type == PUT) {
+                    live += RECORD_HEADER_BYTES + payload.length;
+                }
+            }
+        }
+        createIndex(capacityFor(latest.size()));
+        index.putLong(GARBAGE_AT, logLength - LOG_HEADER_BYTES - live);
+        for (Map.Entry<String, Long> entry : latest.entrySet()) {
+            insertNew(entry.getValue() + 1, hash(entry.getKey()));
+        }
+    }
+
+    private static int capacityFor(int accounts) {
+        long wanted = Math.max(MIN_CAPACITY, accounts * 2L);
+        return Integer.highestOneBit((int) Math.min(wanted - 1, 1 << 30)) << 1;
+    }
+
+    private void createIndex(int slots) throws IOException {
+        capacity = slots;
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(slots));
+        for (long i = 0; i < indexBytes(slots); i += 8) {
+            index.putLong((int) i, 0);
+        }
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, INDEX_VERSION);
+        index.putInt(CAPACITY_AT, slots);
+    }
+
+    /**
+     * Adds a username known not to be in the index yet
+     */
+    private void insertNew(long ref, int hash) {
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        while (ref(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        setSlot(slot, ref, hash);
+        index.putInt(LIVE_AT, index.getInt(LIVE_AT) + 1);
+        index.putInt(USED_AT, index.getInt(USED_AT) + 1);
+    }
+
+    private void addGarbage(long bytes) {
+        index.putLong(GARBAGE_AT, index.getLong(GARBAGE_AT) + bytes);
+    }
+
+    private void compactIfWasteful() throws IOException {
+        long garbage = index.getLong(GARBAGE_AT);
+        if (garbage > COMPACT_MIN_GARBAGE && garbage * 2 > logLength) {
+            compact();
+        }
+    }
+
+    // Log
+
+    private void append(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = logLength;
+        while (buffer.hasRemaining()) {
+            position += log.write(buffer, position);
+        }
+        logLength = position;
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, byte type, byte[] payload) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeByte(type);
+        data.writeByte(ConfigManager.USERS_FORMAT_VERSION);
+        data.writeInt(payload.length);
+        data.write(payload);
+    }
+
+    private long recordLength(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(header, offset);
+        return RECORD_HEADER_BYTES + header.getInt(2);
+    }
+
+    /**
+     * Returns a record's format version followed by its payload
+     */
+    private byte[] readRecord(long offset) throws IOException {
+        // Most records fit in one read together with their header
+        ByteBuffer first = ByteBuffer.allocate((int) Math.min(READ_AHEAD_BYTES, logLength - offset));
+        readFully(first, offset);
+        int length = first.getInt(2);
+        byte[] record = new byte[1 + length];
+        record[0] = first.get(1);
+        int inFirst = Math.min(length, first.limit() - RECORD_HEADER_BYTES);
+        first.position(RECORD_HEADER_BYTES);
+        first.get(record, 1, inFirst);
+        if (inFirst < length) {
+            ByteBuffer rest = ByteBuffer.wrap(record, 1 + inFirst, length - inFirst);
+            readFully(rest, offset + RECORD_HEADER_BYTES + inFirst);
+        }
+        return record;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = log.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("User store record past end of " + logFile);
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private static byte[] encode(UserAccount account) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        ConfigManager.writeUser(new DataOutputStream(out), account);
+        return out.toByteArray();
+    }
+
+    private static String username(byte[] record) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1)).readUTF();
+    }
+
+    private static UserAccount decode(byte[] record) throws IOException {
+        return ConfigManager.readUser(new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1)),
+            record[0]);
+    }
+}
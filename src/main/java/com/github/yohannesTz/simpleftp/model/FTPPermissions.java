@@ -1,12 +1,22 @@
 package com.github.yohannesTz.simpleftp.model;
 
 import java.io.Serializable;
+import java.util.Locale;
 
 /**
  * Represents FTP permissions for a user account
  */
 public class FTPPermissions implements Serializable {
     private static final long serialVersionUID = 1L;
+
+    // One immutable instance per combination of the seven permissions
+    private static final FTPPermissions[] SHARED = new FTPPermissions[1 << 7];
+
+    static {
+        for (int mask = 0; mask < SHARED.length; mask++) {
+            SHARED[mask] = new Shared(mask);
+        }
+    }
     
     private boolean canRead;
     private boolean canWrite;
@@ -57,6 +67,120 @@ public class FTPPermissions implements Serializable {
         return perms;
     }
     
+    /**
+     * Parses full, readonly, upload, none, or a +-separated list of read, write,
+     * delete, rename, mkdir, rmdir and list
+     */
+    public static FTPPermissions parse(String value) {
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        switch (text) {
+            case "full":
+                return fullAccess();
+            case "readonly":
+                return readOnly();
+            case "upload":
+                text = "read+write+mkdir+list";
+                break;
+            default:
+                break;
+        }
+        FTPPermissions permissions = new FTPPermissions();
+        permissions.canRead = false;
+        permissions.canList = false;
+        if (text.equals("none")) {
+            return permissions;
+        }
+        for (String name : text.split("\\+")) {
+            switch (name.trim()) {
+                case "read":
+                    permissions.canRead = true;
+                    break;
+                case "write":
+                    permissions.canWrite = true;
+                    break;
+                case "delete":
+                    permissions.canDelete = true;
+                    break;
+                case "rename":
+                    permissions.canRename = true;
+                    break;
+                case "mkdir":
+                    permissions.canCreateDirectory = true;
+                    break;
+                case "rmdir":
+                    permissions.canRemoveDirectory = true;
+                    break;
+                case "list":
+                    permissions.canList = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown permission: " + name);
+            }
+        }
+        return permissions;
+    }
+
+    /**
+     * Returns new permissions allowing everything either of the two allows
+     */
+    public static FTPPermissions union(FTPPermissions a, FTPPermissions b) {
+        FTPPermissions perms = new FTPPermissions();
+        perms.canRead = a.canRead || b.canRead;
+        perms.canWrite = a.canWrite || b.canWrite;
+        perms.canDelete = a.canDelete || b.canDelete;
+        perms.canRename = a.canRename || b.canRename;
+        perms.canCreateDirectory = a.canCreateDirectory || b.canCreateDirectory;
+        perms.canRemoveDirectory = a.canRemoveDirectory || b.canRemoveDirectory;
+        perms.canList = a.canList || b.canList;
+        return perms;
+    }
+
+    /**
+     * Returns the immutable instance equal to these permissions. There are only
+     * 128 combinations, so any number of accounts and groups can share them;
+     * setters on a shared instance throw UnsupportedOperationException.
+     */
+    public static FTPPermissions shared(FTPPermissions permissions) {
+        return SHARED[permissions.mask()];
+    }
+
+    /**
+     * Whether this is one of the immutable shared instances
+     */
+    public boolean isShared() {
+        return false;
+    }
+
+    private int mask() {
+        return (canRead ? 1 : 0) | (canWrite ? 2 : 0) | (canDelete ? 4 : 0) | (canRename ? 8 : 0)
+            | (canCreateDirectory ? 16 : 0) | (canRemoveDirectory ? 32 : 0) | (canList ? 64 : 0);
+    }
+
+    /**
+     * Returns the permissions in the form parse() reads
+     */
+    public String format() {
+        switch (mask()) {
+            case 0:
+                return "none";
+            case 127:
+                return "full";
+            case 1 | 64:
+                return "readonly";
+            default:
+                break;
+        }
+        StringBuilder sb = new StringBuilder();
+        String[] names = {"read", "write", "delete", "rename", "mkdir", "rmdir", "list"};
+        int mask = mask();
+        for (int i = 0; i < names.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                sb.append(sb.length() == 0 ? "" : "+").append(names[i]);
+            }
+        }
+        return sb.toString();
+    }
+
     // Getters and Setters
     public boolean isCanRead() {
         return canRead;
@@ -133,5 +257,81 @@ public class FTPPermissions implements Serializable {
         if (canList) sb.append("List");
         return sb.toString().trim();
     }
-}
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FTPPermissions)) return false;
+        return mask() == ((FTPPermissions) o).mask();
+    }
+
+    @Override
+    public int hashCode() {
+        return mask();
+    }
+
+    /**
+     * Immutable permissions handed out by shared()
+     */
+    private static final class Shared extends FTPPermissions {
+        private static final long serialVersionUID = 1L;
+
+        private Shared(int mask) {
+            super.setCanRead((mask & 1) != 0);
+            super.setCanWrite((mask & 2) != 0);
+            super.setCanDelete((mask & 4) != 0);
+            super.setCanRename((mask & 8) != 0);
+            super.setCanCreateDirectory((mask & 16) != 0);
+            super.setCanRemoveDirectory((mask & 32) != 0);
+            super.setCanList((mask & 64) != 0);
+        }
+
+        @Override
+        public boolean isShared() {
+            return true;
+        }
+
+        @Override
+        public void setCanRead(boolean canRead) {
+            throw immutable();
+        }
+
+        @Override
+        public void setCanWrite(boolean canWrite) {
+            throw immutable();
+        }
+
+        @Override
+        public void setCanDelete(boolean canDelete) {
+            throw immutable();
+        }
+
+        @Override
+        public void setCanRename(boolean canRename) {
+            throw immutable();
+        }
+
+        @Override
+        public void setCanCreateDirectory(boolean canCreateDirectory) {
+            throw immutable();
+        }
+
+        @Override
+        public void setCanRemoveDirectory(boolean canRemoveDirectory) {
+            throw immutable();
+        }
+
+        @Override
+        public void setCanList(boolean canList) {
+            throw immutable();
+        }
+
+        private static UnsupportedOperationException immutable() {
+            return new UnsupportedOperationException("Shared permissions cannot be changed");
+        }
+
+        private Object readResolve() {
+            return shared(this);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.yohannesTz.simpleftp.model;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Maps a physical directory into a user's virtual file tree.
+ * Read/write flags narrow the user's own FTPPermissions inside the mount.
+ */
+public class MountPoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String virtualPath;
+    private String physicalPath;
+    private boolean readable;
+    private boolean writable;
+
+    public MountPoint(String virtualPath, String physicalPath, boolean readable, boolean writable) {
+        this.virtualPath = normalizeVirtualPath(virtualPath);
+        this.physicalPath = physicalPath;
+        this.readable = readable;
+        this.writable = writable;
+    }
+
+    public String getVirtualPath() {
+        return virtualPath;
+    }
+
+    public void setVirtualPath(String virtualPath) {
+        this.virtualPath = normalizeVirtualPath(virtualPath);
+    }
+
+    public String getPhysicalPath() {
+        return physicalPath;
+    }
+
+    public void setPhysicalPath(String physicalPath) {
+        this.physicalPath = physicalPath;
+    }
+
+    public boolean isReadable() {
+        return readable;
+    }
+
+    public void setReadable(boolean readable) {
+        this.readable = readable;
+    }
+
+    public boolean isWritable() {
+        return writable;
+    }
+
+    public void setWritable(boolean writable) {
+        this.writable = writable;
+    }
+
+    /**
+     * Normalizes a mount path to the form "/a/b" (leading slash, no trailing slash)
+     */
+    public static String normalizeVirtualPath(String path) {
+        StringBuilder sb = new StringBuilder();
+        for (String segment : path.replace('\\', '/').split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            sb.append('/').append(segment);
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MountPoint that = (MountPoint) o;
+        return Objects.equals(virtualPath, that.virtualPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(virtualPath);
+    }
+
+    @Override
+    public String toString() {
+        return virtualPath + " -> " + physicalPath + (writable ? "" : " (read-only)");
+    }
+}
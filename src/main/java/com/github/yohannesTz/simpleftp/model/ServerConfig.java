@@ -1,18 +1,86 @@
 package com.github.yohannesTz.simpleftp.model;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 /**
- * Configuration for the FTP server
+ * Configuration for the FTP server. The user accounts are held as an
+ * immutable UserSnapshot that is swapped atomically on every edit, so the
+ * UI, the admin API and the running server can read them without locking.
+ * With the embedded user store the snapshot is only read from disk when
+ * something first asks for the whole account list.
  */
 public class ServerConfig {
     private int port;
     private String serverAddress;
     private int maxLogins;
     private boolean anonymousEnabled;
+    private String anonymousRoot;
+    private int anonymousMaxLogins;
+    private int anonymousMaxLoginsPerIp;
+    private int anonymousMaxDownloadKbps;
+    private int anonymousCacheMb;
     private String baseFolder;
-    private List<UserAccount> users;
+    private int memoryStorageLimitMb;
+    private boolean memoryStorageEvict;
+    private int homeProvisionThreads;
+    private boolean dedupEnabled;
+    private String dedupDir;
+    private String userStore;
+    private int userCacheSize;
+    private boolean loginThrottleEnabled;
+    private int loginFailureWindowSeconds;
+    private int loginDelayAfterFailures;
+    private int loginBanAfterFailures;
+    private int userLockoutAfterFailures;
+    private int loginBanSeconds;
+    private String ipAllowFile;
+    private String aclFile;
+    private String ipDenyFile;
+    private String uploadChecksum;
+    private String uploadArchiveDir;
+    private String uploadProcessedDir;
+    private String uploadScript;
+    private String uploadNotifyDir;
+    private int uploadWorkers;
+    private int uploadQueueCapacity;
+    private boolean uploadResumeChecksum;
+    private int uploadPartialExpiryHours;
+    private boolean journalEnabled;
+    private String journalFile;
+    private int journalMaxMb;
+    private int journalKeepFiles;
+    private int sessionIdleSeconds;
+    private int transferStallSeconds;
+    private int loginTimeoutSeconds;
+    private boolean adminEnabled;
+    private String adminAddress;
+    private int adminPort;
+    private String adminToken;
+    private boolean ldapEnabled;
+    private String ldapUrl;
+    private String ldapBindDn;
+    private String ldapBindPassword;
+    private String ldapUserBase;
+    private String ldapUserFilter;
+    private String ldapGroupAttribute;
+    private String ldapGroupPermissions;
+    private String ldapHomeAttribute;
+    private int ldapPoolSize;
+    private int ldapTimeoutMillis;
+    private int ldapCacheSeconds;
+    private int ldapFailureCacheSeconds;
+    private int ldapCacheSize;
+    private final AtomicReference<UserSnapshot> users = new AtomicReference<>(UserSnapshot.EMPTY);
+    private volatile Supplier<UserSnapshot> userLoader;
+    private volatile Map<String, UserGroup> groups = Collections.emptyMap();
 
     public ServerConfig() {
         this.port = 2121;
@@ -20,10 +88,64 @@ public class ServerConfig {
         this.maxLogins = 10;
         this.anonymousEnabled = false;
         this.baseFolder = System.getProperty("user.home") + "/ftp";
-        this.users = new ArrayList<>();
-        
+        this.anonymousRoot = baseFolder + "/pub";
+        this.anonymousMaxLogins = 5;
+        this.anonymousMaxLoginsPerIp = 2;
+        this.anonymousMaxDownloadKbps = 0;
+        this.anonymousCacheMb = 64;
+        this.memoryStorageLimitMb = 256;
+        this.memoryStorageEvict = false;
+        this.homeProvisionThreads = 0;
+        this.dedupEnabled = false;
+        this.dedupDir = System.getProperty("user.home") + "/.simpleftp/content";
+        this.userStore = "file";
+        this.userCacheSize = 10000;
+        this.loginThrottleEnabled = true;
+        this.loginFailureWindowSeconds = 600;
+        this.loginDelayAfterFailures = 3;
+        this.loginBanAfterFailures = 10;
+        this.userLockoutAfterFailures = 20;
+        this.loginBanSeconds = 900;
+        this.ipAllowFile = System.getProperty("user.home") + "/.simpleftp/ip-allow.txt";
+        this.aclFile = System.getProperty("user.home") + "/.simpleftp/acl.txt";
+        this.ipDenyFile = System.getProperty("user.home") + "/.simpleftp/ip-deny.txt";
+        this.uploadChecksum = "";
+        this.uploadArchiveDir = "";
+        this.uploadProcessedDir = "";
+        this.uploadScript = "";
+        this.uploadNotifyDir = "";
+        this.uploadWorkers = 2;
+        this.uploadQueueCapacity = 256;
+        this.uploadResumeChecksum = false;
+        this.uploadPartialExpiryHours = 24;
+        this.journalEnabled = false;
+        this.journalFile = System.getProperty("user.home") + "/.simpleftp/changes.journal";
+        this.journalMaxMb = 64;
+        this.journalKeepFiles = 4;
+        this.sessionIdleSeconds = 900;
+        this.transferStallSeconds = 60;
+        this.loginTimeoutSeconds = 30;
+        this.adminEnabled = false;
+        this.adminAddress = "127.0.0.1";
+        this.adminPort = 8021;
+        this.adminToken = "";
+        this.ldapEnabled = false;
+        this.ldapUrl = "ldap://localhost:389";
+        this.ldapBindDn = "";
+        this.ldapBindPassword = "";
+        this.ldapUserBase = "";
+        this.ldapUserFilter = "(uid={0})";
+        this.ldapGroupAttribute = "memberOf";
+        this.ldapGroupPermissions = "";
+        this.ldapHomeAttribute = "";
+        this.ldapPoolSize = 4;
+        this.ldapTimeoutMillis = 3000;
+        this.ldapCacheSeconds = 300;
+        this.ldapFailureCacheSeconds = 30;
+        this.ldapCacheSize = 10000;
+
         // Add a default admin user
-        users.add(new UserAccount("admin", "admin", 
+        addUser(new UserAccount("admin", "admin",
                 baseFolder, true, 300));
     }
 
@@ -59,6 +181,55 @@ public class ServerConfig {
         this.anonymousEnabled = anonymousEnabled;
     }
 
+    /**
+     * Directory served (read-only) to anonymous users
+     */
+    public String getAnonymousRoot() {
+        return anonymousRoot;
+    }
+
+    public void setAnonymousRoot(String anonymousRoot) {
+        this.anonymousRoot = anonymousRoot;
+    }
+
+    public int getAnonymousMaxLogins() {
+        return anonymousMaxLogins;
+    }
+
+    public void setAnonymousMaxLogins(int anonymousMaxLogins) {
+        this.anonymousMaxLogins = anonymousMaxLogins;
+    }
+
+    public int getAnonymousMaxLoginsPerIp() {
+        return anonymousMaxLoginsPerIp;
+    }
+
+    public void setAnonymousMaxLoginsPerIp(int anonymousMaxLoginsPerIp) {
+        this.anonymousMaxLoginsPerIp = anonymousMaxLoginsPerIp;
+    }
+
+    /**
+     * Download rate limit per anonymous session in KB/s (0 = unlimited)
+     */
+    public int getAnonymousMaxDownloadKbps() {
+        return anonymousMaxDownloadKbps;
+    }
+
+    public void setAnonymousMaxDownloadKbps(int anonymousMaxDownloadKbps) {
+        this.anonymousMaxDownloadKbps = anonymousMaxDownloadKbps;
+    }
+
+    /**
+     * Memory used to cache hot public files for anonymous downloads (0 = no cache)
+     */
+    public int getAnonymousCacheMb() {
+        return anonymousCacheMb;
+    }
+
+    public void setAnonymousCacheMb(int anonymousCacheMb) {
+        this.anonymousCacheMb = anonymousCacheMb;
+    }
+
     public String getBaseFolder() {
         return baseFolder;
     }
@@ -67,23 +238,714 @@ public class ServerConfig {
         this.baseFolder = baseFolder;
     }
 
+    /**
+     * Total memory shared by all users with in-memory storage
+     */
+    public int getMemoryStorageLimitMb() {
+        return memoryStorageLimitMb;
+    }
+
+    public void setMemoryStorageLimitMb(int memoryStorageLimitMb) {
+        this.memoryStorageLimitMb = memoryStorageLimitMb;
+    }
+
+    /**
+     * Whether the least recently used in-memory files are dropped when the limit is reached
+     */
+    public boolean isMemoryStorageEvict() {
+        return memoryStorageEvict;
+    }
+
+    public void setMemoryStorageEvict(boolean memoryStorageEvict) {
+        this.memoryStorageEvict = memoryStorageEvict;
+    }
+
+    /**
+     * Threads used to create all users' home directories in the background after
+     * startup, 0 = only create them on first login
+     */
+    public int getHomeProvisionThreads() {
+        return homeProvisionThreads;
+    }
+
+    public void setHomeProvisionThreads(int homeProvisionThreads) {
+        this.homeProvisionThreads = homeProvisionThreads;
+    }
+
+    /**
+     * Whether identical uploads to local storage are stored once and hard-linked
+     */
+    public boolean isDedupEnabled() {
+        return dedupEnabled;
+    }
+
+    public void setDedupEnabled(boolean dedupEnabled) {
+        this.dedupEnabled = dedupEnabled;
+    }
+
+    /**
+     * Directory of the deduplicated content, on the same volume as the home directories
+     */
+    public String getDedupDir() {
+        return dedupDir;
+    }
+
+    public void setDedupDir(String dedupDir) {
+        this.dedupDir = dedupDir;
+    }
+
+    /**
+     * Where accounts are kept: "file" (users.dat, all loaded at startup) or
+     * "embedded" (users.db, loaded on demand at login)
+     */
+    public String getUserStore() {
+        return userStore;
+    }
+
+    public void setUserStore(String userStore) {
+        this.userStore = userStore;
+    }
+
+    public boolean isEmbeddedUserStore() {
+        return "embedded".equalsIgnoreCase(userStore);
+    }
+
+    /**
+     * Accounts kept in memory by the server when the embedded user store is used
+     */
+    public int getUserCacheSize() {
+        return userCacheSize;
+    }
+
+    public void setUserCacheSize(int userCacheSize) {
+        this.userCacheSize = userCacheSize;
+    }
+
+    /**
+     * Whether repeated failed logins are delayed and banned
+     */
+    public boolean isLoginThrottleEnabled() {
+        return loginThrottleEnabled;
+    }
+
+    public void setLoginThrottleEnabled(boolean loginThrottleEnabled) {
+        this.loginThrottleEnabled = loginThrottleEnabled;
+    }
+
+    /**
+     * Period over which failed logins are counted
+     */
+    public int getLoginFailureWindowSeconds() {
+        return loginFailureWindowSeconds;
+    }
+
+    public void setLoginFailureWindowSeconds(int loginFailureWindowSeconds) {
+        this.loginFailureWindowSeconds = loginFailureWindowSeconds;
+    }
+
+    /**
+     * Failures from one IP after which new connections from it are delayed
+     */
+    public int getLoginDelayAfterFailures() {
+        return loginDelayAfterFailures;
+    }
+
+    public void setLoginDelayAfterFailures(int loginDelayAfterFailures) {
+        this.loginDelayAfterFailures = loginDelayAfterFailures;
+    }
+
+    /**
+     * Failures from one IP after which it is banned
+     */
+    public int getLoginBanAfterFailures() {
+        return loginBanAfterFailures;
+    }
+
+    public void setLoginBanAfterFailures(int loginBanAfterFailures) {
+        this.loginBanAfterFailures = loginBanAfterFailures;
+    }
+
+    /**
+     * Failures for one username (from any IP) after which it is locked
+     */
+    public int getUserLockoutAfterFailures() {
+        return userLockoutAfterFailures;
+    }
+
+    public void setUserLockoutAfterFailures(int userLockoutAfterFailures) {
+        this.userLockoutAfterFailures = userLockoutAfterFailures;
+    }
+
+    public int getLoginBanSeconds() {
+        return loginBanSeconds;
+    }
+
+    public void setLoginBanSeconds(int loginBanSeconds) {
+        this.loginBanSeconds = loginBanSeconds;
+    }
+
+    /**
+     * File of path-scoped permission rules, one "subject pattern permissions" per line
+     */
+    public String getAclFile() {
+        return aclFile;
+    }
+
+    public void setAclFile(String aclFile) {
+        this.aclFile = aclFile;
+    }
+
+    /**
+     * File of addresses/CIDR ranges allowed to connect; missing or empty allows all
+     */
+    public String getIpAllowFile() {
+        return ipAllowFile;
+    }
+
+    public void setIpAllowFile(String ipAllowFile) {
+        this.ipAllowFile = ipAllowFile;
+    }
+
+    /**
+     * File of addresses/CIDR ranges refused at connect time
+     */
+    public String getIpDenyFile() {
+        return ipDenyFile;
+    }
+
+    public void setIpDenyFile(String ipDenyFile) {
+        this.ipDenyFile = ipDenyFile;
+    }
+
+    /**
+     * Digest computed for each upload (e.g. SHA-256, MD5, CRC32); empty skips the checksum stage
+     */
+    public String getUploadChecksum() {
+        return uploadChecksum;
+    }
+
+    public void setUploadChecksum(String uploadChecksum) {
+        this.uploadChecksum = uploadChecksum;
+    }
+
+    /**
+     * Directory receiving a gzip copy of each upload; empty skips archiving
+     */
+    public String getUploadArchiveDir() {
+        return uploadArchiveDir;
+    }
+
+    public void setUploadArchiveDir(String uploadArchiveDir) {
+        this.uploadArchiveDir = uploadArchiveDir;
+    }
+
+    /**
+     * Directory uploads are moved into once complete; empty leaves them in place
+     */
+    public String getUploadProcessedDir() {
+        return uploadProcessedDir;
+    }
+
+    public void setUploadProcessedDir(String uploadProcessedDir) {
+        this.uploadProcessedDir = uploadProcessedDir;
+    }
+
+    /**
+     * Program run for each upload with the file, user and checksum as arguments; empty runs nothing
+     */
+    public String getUploadScript() {
+        return uploadScript;
+    }
+
+    public void setUploadScript(String uploadScript) {
+        this.uploadScript = uploadScript;
+    }
+
+    /**
+     * Directory where a notification file is written for each upload; empty writes none
+     */
+    public String getUploadNotifyDir() {
+        return uploadNotifyDir;
+    }
+
+    public void setUploadNotifyDir(String uploadNotifyDir) {
+        this.uploadNotifyDir = uploadNotifyDir;
+    }
+
+    public int getUploadWorkers() {
+        return uploadWorkers;
+    }
+
+    public void setUploadWorkers(int uploadWorkers) {
+        this.uploadWorkers = uploadWorkers;
+    }
+
+    /**
+     * Uploads waiting for processing before new uploads are refused
+     */
+    public int getUploadQueueCapacity() {
+        return uploadQueueCapacity;
+    }
+
+    public void setUploadQueueCapacity(int uploadQueueCapacity) {
+        this.uploadQueueCapacity = uploadQueueCapacity;
+    }
+
+    /**
+     * Whether interrupted uploads get a CRC-32 of the received prefix, answered by XCRC/HASH
+     */
+    public boolean isUploadResumeChecksum() {
+        return uploadResumeChecksum;
+    }
+
+    public void setUploadResumeChecksum(boolean uploadResumeChecksum) {
+        this.uploadResumeChecksum = uploadResumeChecksum;
+    }
+
+    /**
+     * Hours after which an interrupted upload that was not resumed is deleted (0 = keep)
+     */
+    public int getUploadPartialExpiryHours() {
+        return uploadPartialExpiryHours;
+    }
+
+    public void setUploadPartialExpiryHours(int uploadPartialExpiryHours) {
+        this.uploadPartialExpiryHours = uploadPartialExpiryHours;
+    }
+
+    /**
+     * Whether uploads, deletes, renames and directory changes are written to the change journal
+     */
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+
+    public void setJournalEnabled(boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+    }
+
+    public String getJournalFile() {
+        return journalFile;
+    }
+
+    public void setJournalFile(String journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Size in MB at which the journal file is rotated
+     */
+    public int getJournalMaxMb() {
+        return journalMaxMb;
+    }
+
+    public void setJournalMaxMb(int journalMaxMb) {
+        this.journalMaxMb = journalMaxMb;
+    }
+
+    /**
+     * Number of rotated journal files kept besides the current one
+     */
+    public int getJournalKeepFiles() {
+        return journalKeepFiles;
+    }
+
+    public void setJournalKeepFiles(int journalKeepFiles) {
+        this.journalKeepFiles = journalKeepFiles;
+    }
+
+    /**
+     * Seconds a logged-in session may sit between commands before it is closed,
+     * 0 = no limit; a user's own idle time applies if it is lower
+     */
+    public int getSessionIdleSeconds() {
+        return sessionIdleSeconds;
+    }
+
+    public void setSessionIdleSeconds(int sessionIdleSeconds) {
+        this.sessionIdleSeconds = sessionIdleSeconds;
+    }
+
+    /**
+     * Seconds a transfer may go without moving any data before the session is closed, 0 = no limit
+     */
+    public int getTransferStallSeconds() {
+        return transferStallSeconds;
+    }
+
+    public void setTransferStallSeconds(int transferStallSeconds) {
+        this.transferStallSeconds = transferStallSeconds;
+    }
+
+    /**
+     * Seconds a connection has to log in before it is closed, 0 = no limit
+     */
+    public int getLoginTimeoutSeconds() {
+        return loginTimeoutSeconds;
+    }
+
+    public void setLoginTimeoutSeconds(int loginTimeoutSeconds) {
+        this.loginTimeoutSeconds = loginTimeoutSeconds;
+    }
+
+    /**
+     * Whether the HTTP admin API is started along with the application
+     */
+    public boolean isAdminEnabled() {
+        return adminEnabled;
+    }
+
+    public void setAdminEnabled(boolean adminEnabled) {
+        this.adminEnabled = adminEnabled;
+    }
+
+    public String getAdminAddress() {
+        return adminAddress;
+    }
+
+    public void setAdminAddress(String adminAddress) {
+        this.adminAddress = adminAddress;
+    }
+
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    public void setAdminPort(int adminPort) {
+        this.adminPort = adminPort;
+    }
+
+    /**
+     * Bearer token required by the admin API; empty disables auth (only allowed on loopback)
+     */
+    public String getAdminToken() {
+        return adminToken;
+    }
+
+    public void setAdminToken(String adminToken) {
+        this.adminToken = adminToken;
+    }
+
+    /**
+     * Whether users without a local account are looked up in an LDAP directory
+     */
+    public boolean isLdapEnabled() {
+        return ldapEnabled;
+    }
+
+    public void setLdapEnabled(boolean ldapEnabled) {
+        this.ldapEnabled = ldapEnabled;
+    }
+
+    public String getLdapUrl() {
+        return ldapUrl;
+    }
+
+    public void setLdapUrl(String ldapUrl) {
+        this.ldapUrl = ldapUrl;
+    }
+
+    /**
+     * DN the server binds as to search for users; empty binds anonymously
+     */
+    public String getLdapBindDn() {
+        return ldapBindDn;
+    }
+
+    public void setLdapBindDn(String ldapBindDn) {
+        this.ldapBindDn = ldapBindDn;
+    }
+
+    public String getLdapBindPassword() {
+        return ldapBindPassword;
+    }
+
+    public void setLdapBindPassword(String ldapBindPassword) {
+        this.ldapBindPassword = ldapBindPassword;
+    }
+
+    public String getLdapUserBase() {
+        return ldapUserBase;
+    }
+
+    public void setLdapUserBase(String ldapUserBase) {
+        this.ldapUserBase = ldapUserBase;
+    }
+
+    /**
+     * Search filter for a user's entry; {0} is replaced by the escaped username
+     */
+    public String getLdapUserFilter() {
+        return ldapUserFilter;
+    }
+
+    public void setLdapUserFilter(String ldapUserFilter) {
+        this.ldapUserFilter = ldapUserFilter;
+    }
+
+    public String getLdapGroupAttribute() {
+        return ldapGroupAttribute;
+    }
+
+    public void setLdapGroupAttribute(String ldapGroupAttribute) {
+        this.ldapGroupAttribute = ldapGroupAttribute;
+    }
+
+    /**
+     * Group to permission mapping, e.g. "ftp-admins:full;ftp-staff:read+list+write"
+     */
+    public String getLdapGroupPermissions() {
+        return ldapGroupPermissions;
+    }
+
+    public void setLdapGroupPermissions(String ldapGroupPermissions) {
+        this.ldapGroupPermissions = ldapGroupPermissions;
+    }
+
+    /**
+     * Attribute holding a user's home directory; empty uses the base folder
+     */
+    public String getLdapHomeAttribute() {
+        return ldapHomeAttribute;
+    }
+
+    public void setLdapHomeAttribute(String ldapHomeAttribute) {
+        this.ldapHomeAttribute = ldapHomeAttribute;
+    }
+
+    public int getLdapPoolSize() {
+        return ldapPoolSize;
+    }
+
+    public void setLdapPoolSize(int ldapPoolSize) {
+        this.ldapPoolSize = ldapPoolSize;
+    }
+
+    /**
+     * Longest wait for the directory per request, including waiting for a pooled connection
+     */
+    public int getLdapTimeoutMillis() {
+        return ldapTimeoutMillis;
+    }
+
+    public void setLdapTimeoutMillis(int ldapTimeoutMillis) {
+        this.ldapTimeoutMillis = ldapTimeoutMillis;
+    }
+
+    public int getLdapCacheSeconds() {
+        return ldapCacheSeconds;
+    }
+
+    public void setLdapCacheSeconds(int ldapCacheSeconds) {
+        this.ldapCacheSeconds = ldapCacheSeconds;
+    }
+
+    /**
+     * How long unknown users and rejected passwords are remembered
+     */
+    public int getLdapFailureCacheSeconds() {
+        return ldapFailureCacheSeconds;
+    }
+
+    public void setLdapFailureCacheSeconds(int ldapFailureCacheSeconds) {
+        this.ldapFailureCacheSeconds = ldapFailureCacheSeconds;
+    }
+
+    public int getLdapCacheSize() {
+        return ldapCacheSize;
+    }
+
+    public void setLdapCacheSize(int ldapCacheSize) {
+        this.ldapCacheSize = ldapCacheSize;
+    }
+
+    /**
+     * Returns the current accounts; the list is read-only and does not change afterwards
+     */
     public List<UserAccount> getUsers() {
-        return users;
+        return getUserSnapshot().asList();
+    }
+
+    public UserSnapshot getUserSnapshot() {
+        UserSnapshot snapshot = users.get();
+        return snapshot != null ? snapshot : loadUsers();
+    }
+
+    private synchronized UserSnapshot loadUsers() {
+        if (users.get() == null) {
+            users.set(userLoader.get());
+            userLoader = null;
+        }
+        return users.get();
+    }
+
+    /**
+     * Returns the account with this username, or null
+     */
+    public UserAccount getUser(String username) {
+        return getUserSnapshot().get(username);
+    }
+
+    public synchronized void setUsers(Collection<UserAccount> accounts) {
+        userLoader = null;
+        users.set(UserSnapshot.of(accounts));
+    }
+
+    /**
+     * Defers reading the accounts until they are first needed
+     */
+    public synchronized void setUserLoader(Supplier<UserSnapshot> loader) {
+        userLoader = loader;
+        users.set(null);
+    }
+
+    public boolean isUsersLoaded() {
+        return users.get() != null;
+    }
+
+    /**
+     * Takes over another configuration's accounts without loading them
+     */
+    public synchronized void copyUsersFrom(ServerConfig other) {
+        synchronized (other) {
+            userLoader = other.userLoader;
+            users.set(other.users.get());
+        }
+    }
+
+    /**
+     * Takes over all of another configuration's settings except the accounts and groups
+     */
+    public synchronized void copySettingsFrom(ServerConfig other) {
+        synchronized (other) {
+            port = other.port;
+            serverAddress = other.serverAddress;
+            maxLogins = other.maxLogins;
+            anonymousEnabled = other.anonymousEnabled;
+            anonymousRoot = other.anonymousRoot;
+            anonymousMaxLogins = other.anonymousMaxLogins;
+            anonymousMaxLoginsPerIp = other.anonymousMaxLoginsPerIp;
+            anonymousMaxDownloadKbps = other.anonymousMaxDownloadKbps;
+            anonymousCacheMb = other.anonymousCacheMb;
+            baseFolder = other.baseFolder;
+            memoryStorageLimitMb = other.memoryStorageLimitMb;
+            memoryStorageEvict = other.memoryStorageEvict;
+            homeProvisionThreads = other.homeProvisionThreads;
+            dedupEnabled = other.dedupEnabled;
+            dedupDir = other.dedupDir;
+            userStore = other.userStore;
+            userCacheSize = other.userCacheSize;
+            loginThrottleEnabled = other.loginThrottleEnabled;
+            loginFailureWindowSeconds = other.loginFailureWindowSeconds;
+            loginDelayAfterFailures = other.loginDelayAfterFailures;
+            loginBanAfterFailures = other.loginBanAfterFailures;
+            userLockoutAfterFailures = other.userLockoutAfterFailures;
+            loginBanSeconds = other.loginBanSeconds;
+            ipAllowFile = other.ipAllowFile;
+            aclFile = other.aclFile;
+            ipDenyFile = other.ipDenyFile;
+            uploadChecksum = other.uploadChecksum;
+            uploadArchiveDir = other.uploadArchiveDir;
+            uploadProcessedDir = other.uploadProcessedDir;
+            uploadScript = other.uploadScript;
+            uploadNotifyDir = other.uploadNotifyDir;
+            uploadWorkers = other.uploadWorkers;
+            uploadQueueCapacity = other.uploadQueueCapacity;
+            uploadResumeChecksum = other.uploadResumeChecksum;
+            uploadPartialExpiryHours = other.uploadPartialExpiryHours;
+            journalEnabled = other.journalEnabled;
+            journalFile = other.journalFile;
+            journalMaxMb = other.journalMaxMb;
+            journalKeepFiles = other.journalKeepFiles;
+            sessionIdleSeconds = other.sessionIdleSeconds;
+            transferStallSeconds = other.transferStallSeconds;
+            loginTimeoutSeconds = other.loginTimeoutSeconds;
+            adminEnabled = other.adminEnabled;
+            adminAddress = other.adminAddress;
+            adminPort = other.adminPort;
+            adminToken = other.adminToken;
+            ldapEnabled = other.ldapEnabled;
+            ldapUrl = other.ldapUrl;
+            ldapBindDn = other.ldapBindDn;
+            ldapBindPassword = other.ldapBindPassword;
+            ldapUserBase = other.ldapUserBase;
+            ldapUserFilter = other.ldapUserFilter;
+            ldapGroupAttribute = other.ldapGroupAttribute;
+            ldapGroupPermissions = other.ldapGroupPermissions;
+            ldapHomeAttribute = other.ldapHomeAttribute;
+            ldapPoolSize = other.ldapPoolSize;
+            ldapTimeoutMillis = other.ldapTimeoutMillis;
+            ldapCacheSeconds = other.ldapCacheSeconds;
+            ldapFailureCacheSeconds = other.ldapFailureCacheSeconds;
+            ldapCacheSize = other.ldapCacheSize;
+        }
+    }
+
+    /**
+     * Applies an edit to the accounts atomically and returns the result. The
+     * edit may be retried if another one lands first, and may throw to abort.
+     */
+    public UserSnapshot updateUsers(UnaryOperator<UserSnapshot> edit) {
+        // The accounts may be unloaded again (setUserLoader) between a load and the swap
+        return users.updateAndGet(snapshot -> edit.apply(snapshot != null ? snapshot : loadUsers()));
     }
 
+    /**
+     * Adds an account, replacing one with the same username
+     */
     public void addUser(UserAccount user) {
-        this.users.add(user);
+        updateUsers(snapshot -> snapshot.with(user));
     }
 
     public void removeUser(UserAccount user) {
-        this.users.remove(user);
+        updateUsers(snapshot -> snapshot.without(user.getUsername()));
     }
 
     public void updateUser(UserAccount oldUser, UserAccount newUser) {
-        int index = users.indexOf(oldUser);
-        if (index != -1) {
-            users.set(index, newUser);
+        updateUsers(snapshot -> snapshot.replace(oldUser.getUsername(), newUser));
+    }
+
+    /**
+     * Returns the user groups; the list is read-only and does not change afterwards
+     */
+    public List<UserGroup> getGroups() {
+        return Collections.unmodifiableList(new ArrayList<>(groups.values()));
+    }
+
+    /**
+     * Returns the group with this name, or null
+     */
+    public UserGroup getGroup(String name) {
+        return groups.get(name);
+    }
+
+    public synchronized void setGroups(Collection<UserGroup> list) {
+        Map<String, UserGroup> map = new LinkedHashMap<>();
+        for (UserGroup group : list) {
+            map.put(group.getName(), group);
         }
+        groups = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Adds a group, replacing one with the same name
+     */
+    public synchronized void putGroup(UserGroup group) {
+        Map<String, UserGroup> map = new LinkedHashMap<>(groups);
+        map.put(group.getName(), group);
+        groups = Collections.unmodifiableMap(map);
     }
-}
 
+    /**
+     * Removes a group; returns false if there was none with this name
+     */
+    public synchronized boolean removeGroup(String name) {
+        if (!groups.containsKey(name)) {
+            return false;
+        }
+        Map<String, UserGroup> map = new LinkedHashMap<>(groups);
+        map.remove(name);
+        groups = Collections.unmodifiableMap(map);
+        return true;
+    }
+}
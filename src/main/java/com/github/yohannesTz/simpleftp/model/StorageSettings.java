@@ -0,0 +1,129 @@
+package com.github.yohannesTz.simpleftp.model;
+
+import java.io.Serializable;
+
+/**
+ * Storage backend used for a user's home directory
+ */
+public class StorageSettings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String TYPE_LOCAL = "local";
+    public static final String TYPE_S3 = "s3";
+    public static final String TYPE_MEMORY = "memory";
+
+    private String type;
+    private String endpoint;
+    private String region;
+    private String bucket;
+    private String prefix;
+    private String accessKey;
+    private String secretKey;
+
+    public StorageSettings() {
+        this.type = TYPE_LOCAL;
+        this.endpoint = "";
+        this.region = "us-east-1";
+        this.bucket = "";
+        this.prefix = "";
+        this.accessKey = "";
+        this.secretKey = "";
+    }
+
+    /**
+     * Creates settings for an S3-compatible object store (AWS, MinIO, ...)
+     */
+    public static StorageSettings s3(String endpoint, String region, String bucket, String prefix,
+                                     String accessKey, String secretKey) {
+        StorageSettings settings = new StorageSettings();
+        settings.type = TYPE_S3;
+        settings.endpoint = endpoint;
+        settings.region = region;
+        settings.bucket = bucket;
+        settings.prefix = prefix;
+        settings.accessKey = accessKey;
+        settings.secretKey = secretKey;
+        return settings;
+    }
+
+    /**
+     * Creates settings for scratch storage held in memory; contents are lost when the application exits
+     */
+    public static StorageSettings memory() {
+        StorageSettings settings = new StorageSettings();
+        settings.type = TYPE_MEMORY;
+        return settings;
+    }
+
+    public boolean isLocal() {
+        return !TYPE_S3.equals(type) && !TYPE_MEMORY.equals(type);
+    }
+
+    public boolean isMemory() {
+        return TYPE_MEMORY.equals(type);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(String bucket) {
+        this.bucket = bucket;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getAccessKey() {
+        return accessKey;
+    }
+
+    public void setAccessKey(String accessKey) {
+        this.accessKey = accessKey;
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    public void setSecretKey(String secretKey) {
+        this.secretKey = secretKey;
+    }
+
+    @Override
+    public String toString() {
+        if (isMemory()) {
+            return "In-Memory";
+        }
+        return isLocal() ? "Local Disk" : "s3://" + bucket + "/" + prefix;
+    }
+}
@@ -1,6 +1,9 @@
 package com.github.yohannesTz.simpleftp.model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
@@ -14,6 +17,14 @@ public class UserAccount implements Serializable {
     private boolean writePermission; // Legacy field - kept for compatibility
     private FTPPermissions permissions;
     private int maxIdleTime;
+    private long quotaBytes; // 0 = unlimited
+    private int quotaFiles; // 0 = unlimited
+    private List<MountPoint> mounts = new ArrayList<>();
+    private StorageSettings storage; // Defaults to the local home directory
+    private List<String> allowedIps = new ArrayList<>(); // Empty = any address
+    private List<String> deniedIps = new ArrayList<>();
+    private boolean atomicUploads; // Stage uploads to a temp file, rename when complete
+    private List<String> groups = new ArrayList<>(); // Lower-case group names, for path rules
 
     public UserAccount(String username, String password, String homeDirectory, 
                       boolean writePermission, int maxIdleTime) {
@@ -24,11 +35,7 @@ public class UserAccount implements Serializable {
         this.maxIdleTime = maxIdleTime;
         
         // Initialize permissions based on legacy writePermission
-        if (writePermission) {
-            this.permissions = FTPPermissions.fullAccess();
-        } else {
-            this.permissions = FTPPermissions.readOnly();
-        }
+        this.permissions = legacyPermissions(writePermission);
     }
     
     public UserAccount(String username, String password, String homeDirectory, 
@@ -36,7 +43,7 @@ public class UserAccount implements Serializable {
         this.username = username;
         this.password = password;
         this.homeDirectory = homeDirectory;
-        this.permissions = permissions;
+        this.permissions = FTPPermissions.shared(permissions);
         this.writePermission = permissions.hasWriteAccess();
         this.maxIdleTime = maxIdleTime;
     }
@@ -73,30 +80,32 @@ public class UserAccount implements Serializable {
     public void setWritePermission(boolean writePermission) {
         this.writePermission = writePermission;
         // Update permissions object to maintain consistency
-        if (writePermission && permissions != null) {
-            permissions = FTPPermissions.fullAccess();
-        } else if (!writePermission && permissions != null) {
-            permissions = FTPPermissions.readOnly();
+        if (permissions != null) {
+            permissions = legacyPermissions(writePermission);
         }
     }
     
+    /**
+     * The account's own permissions, a shared immutable instance; to change
+     * them set new ones. Permissions of the account's groups take precedence.
+     */
     public FTPPermissions getPermissions() {
         if (permissions == null) {
             // Migrate from legacy writePermission
-            if (writePermission) {
-                permissions = FTPPermissions.fullAccess();
-            } else {
-                permissions = FTPPermissions.readOnly();
-            }
+            permissions = legacyPermissions(writePermission);
         }
         return permissions;
     }
     
     public void setPermissions(FTPPermissions permissions) {
-        this.permissions = permissions;
+        this.permissions = FTPPermissions.shared(permissions);
         this.writePermission = permissions.hasWriteAccess();
     }
 
+    private static FTPPermissions legacyPermissions(boolean writePermission) {
+        return FTPPermissions.shared(writePermission ? FTPPermissions.fullAccess() : FTPPermissions.readOnly());
+    }
+
     public int getMaxIdleTime() {
         return maxIdleTime;
     }
@@ -105,6 +114,115 @@ public class UserAccount implements Serializable {
         this.maxIdleTime = maxIdleTime;
     }
 
+    public long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public void setQuotaBytes(long quotaBytes) {
+        this.quotaBytes = quotaBytes;
+    }
+
+    public int getQuotaFiles() {
+        return quotaFiles;
+    }
+
+    public void setQuotaFiles(int quotaFiles) {
+        this.quotaFiles = quotaFiles;
+    }
+
+    public List<MountPoint> getMounts() {
+        if (mounts == null) {
+            mounts = new ArrayList<>();
+        }
+        return mounts;
+    }
+
+    public void setMounts(List<MountPoint> mounts) {
+        this.mounts = new ArrayList<>(mounts);
+    }
+
+    public StorageSettings getStorage() {
+        if (storage == null) {
+            storage = new StorageSettings();
+        }
+        return storage;
+    }
+
+    public void setStorage(StorageSettings storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Addresses or CIDR ranges this user may log in from; empty allows any
+     */
+    public List<String> getAllowedIps() {
+        if (allowedIps == null) {
+            allowedIps = new ArrayList<>();
+        }
+        return allowedIps;
+    }
+
+    public void setAllowedIps(List<String> allowedIps) {
+        this.allowedIps = new ArrayList<>(allowedIps);
+    }
+
+    /**
+     * Addresses or CIDR ranges this user may never log in from
+     */
+    public List<String> getDeniedIps() {
+        if (deniedIps == null) {
+            deniedIps = new ArrayList<>();
+        }
+        return deniedIps;
+    }
+
+    public void setDeniedIps(List<String> deniedIps) {
+        this.deniedIps = new ArrayList<>(deniedIps);
+    }
+
+    /**
+     * Whether new uploads are written to a hidden temp file and renamed into place when complete
+     */
+    public boolean isAtomicUploads() {
+        return atomicUploads;
+    }
+
+    public void setAtomicUploads(boolean atomicUploads) {
+        this.atomicUploads = atomicUploads;
+    }
+
+    /**
+     * Groups the user belongs to, in lower case. A group's permissions, quotas,
+     * rate limit and path rules apply to all its members.
+     */
+    public List<String> getGroups() {
+        if (groups == null) {
+            groups = new ArrayList<>();
+        }
+        return groups;
+    }
+
+    /**
+     * Sets the groups; names are lower-cased and interned, as many accounts share them
+     */
+    public void setGroups(List<String> groups) {
+        List<String> names = new ArrayList<>(groups.size());
+        for (String group : groups) {
+            String name = group.trim().toLowerCase(Locale.ROOT).intern();
+            if (!name.isEmpty() && !names.contains(name)) {
+                names.add(name);
+            }
+        }
+        this.groups = names;
+    }
+
+    /**
+     * Returns true if either a byte or a file-count quota is set
+     */
+    public boolean hasQuota() {
+        return quotaBytes > 0 || quotaFiles > 0;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
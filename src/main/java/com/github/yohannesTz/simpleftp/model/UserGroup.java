@@ -0,0 +1,102 @@
+package com.github.yohannesTz.simpleftp.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable group (role) of user accounts. A group holds the policy its
+ * members share: permissions, quotas, a transfer rate limit and path rules.
+ * Accounts refer to groups by name, so changing a group changes it for all
+ * members at once. To edit a group, create a new one with the same name.
+ */
+public final class UserGroup implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Pattern NAME = Pattern.compile("[a-z0-9][a-z0-9._-]*");
+
+    private final String name;
+    private final FTPPermissions permissions; // null = members keep their own
+    private final long quotaBytes; // 0 = not set
+    private final int quotaFiles; // 0 = not set
+    private final long rateLimitKbps; // 0 = not set
+    private final List<String> rules;
+
+    /**
+     * @param permissions the members' permissions, or null to leave each member's own
+     * @param rules path rules for the members, each "pattern permissions" as in the ACL file
+     */
+    public UserGroup(String name, FTPPermissions permissions, long quotaBytes, int quotaFiles,
+                     long rateLimitKbps, List<String> rules) {
+        this.name = name.trim().toLowerCase(Locale.ROOT).intern();
+        if (!NAME.matcher(this.name).matches()) {
+            throw new IllegalArgumentException("Group names use letters, digits, '.', '_' and '-': " + name);
+        }
+        if (quotaBytes < 0 || quotaFiles < 0 || rateLimitKbps < 0) {
+            throw new IllegalArgumentException("Quotas and rate limits cannot be negative");
+        }
+        this.permissions = permissions == null ? null : FTPPermissions.shared(permissions);
+        this.quotaBytes = quotaBytes;
+        this.quotaFiles = quotaFiles;
+        this.rateLimitKbps = rateLimitKbps;
+        List<String> checked = new ArrayList<>(rules.size());
+        for (String rule : rules) {
+            String trimmed = rule.trim();
+            if (!trimmed.isEmpty()) {
+                String[] fields = trimmed.split("\\s+");
+                if (fields.length != 2 || !fields[0].startsWith("/")) {
+                    throw new IllegalArgumentException("Rules are \"/pattern permissions\": " + rule);
+                }
+                FTPPermissions.parse(fields[1]);
+                checked.add(fields[0] + " " + fields[1]);
+            }
+        }
+        this.rules = Collections.unmodifiableList(checked);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The shared permissions of all members, or null if each member keeps their own
+     */
+    public FTPPermissions getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * Byte quota for members without one of their own, 0 if not set
+     */
+    public long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    /**
+     * File-count quota for members without one of their own, 0 if not set
+     */
+    public int getQuotaFiles() {
+        return quotaFiles;
+    }
+
+    /**
+     * Transfer rate limit per session in KB/s, 0 if not set
+     */
+    public long getRateLimitKbps() {
+        return rateLimitKbps;
+    }
+
+    /**
+     * Path rules for the members, each "pattern permissions"
+     */
+    public List<String> getRules() {
+        return rules;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
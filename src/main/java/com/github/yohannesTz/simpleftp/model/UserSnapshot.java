@@ -0,0 +1,162 @@
+package com.github.yohannesTz.simpleftp.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable set of user accounts keyed by username, in the order they were
+ * added. Edits return a new snapshot, so a snapshot can be handed to other
+ * threads and read without locking. Accounts are treated as values: an edit
+ * replaces the UserAccount object instead of changing it in place.
+ */
+public final class UserSnapshot {
+    public static final UserSnapshot EMPTY = new UserSnapshot(new LinkedHashMap<>());
+
+    private final Map<String, UserAccount> users;
+    private final List<UserAccount> list;
+
+    private UserSnapshot(LinkedHashMap<String, UserAccount> users) {
+        this.users = Collections.unmodifiableMap(users);
+        this.list = Collections.unmodifiableList(new ArrayList<>(users.values()));
+    }
+
+    public static UserSnapshot of(Collection<UserAccount> accounts) {
+        LinkedHashMap<String, UserAccount> users = new LinkedHashMap<>();
+        for (UserAccount account : accounts) {
+            users.put(account.getUsername(), account);
+        }
+        return new UserSnapshot(users);
+    }
+
+    /**
+     * Returns the account with this username, or null
+     */
+    public UserAccount get(String username) {
+        return users.get(username);
+    }
+
+    public boolean contains(String username) {
+        return users.containsKey(username);
+    }
+
+    public List<UserAccount> asList() {
+        return list;
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    public boolean isEmpty() {
+        return users.isEmpty();
+    }
+
+    /**
+     * Adds an account, replacing one with the same username
+     */
+    public UserSnapshot with(UserAccount account) {
+        LinkedHashMap<String, UserAccount> copy = new LinkedHashMap<>(users);
+        copy.put(account.getUsername(), account);
+        return new UserSnapshot(copy);
+    }
+
+    /**
+     * Adds or replaces many accounts with a single copy; later ones win on duplicate usernames
+     */
+    public UserSnapshot withAll(Collection<UserAccount> accounts) {
+        if (accounts.isEmpty()) {
+            return this;
+        }
+        LinkedHashMap<String, UserAccount> copy = new LinkedHashMap<>(users);
+        for (UserAccount account : accounts) {
+            copy.put(account.getUsername(), account);
+        }
+        return new UserSnapshot(copy);
+    }
+
+    public UserSnapshot without(String username) {
+        if (!users.containsKey(username)) {
+            return this;
+        }
+        LinkedHashMap<String, UserAccount> copy = new LinkedHashMap<>(users);
+        copy.remove(username);
+        return new UserSnapshot(copy);
+    }
+
+    /**
+     * Replaces an account, which may be renamed, keeping its position
+     */
+    public UserSnapshot replace(String username, UserAccount account) {
+        if (!users.containsKey(username)) {
+            return with(account);
+        }
+        LinkedHashMap<String, UserAccount> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, UserAccount> entry : users.entrySet()) {
+            if (entry.getKey().equals(username)) {
+                copy.put(account.getUsername(), account);
+            } else if (!entry.getKey().equals(account.getUsername())) {
+                copy.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new UserSnapshot(copy);
+    }
+
+    /**
+     * Compares this snapshot with a newer one; accounts count as changed when
+     * they are a different object under the same username
+     */
+    public Diff diff(UserSnapshot newer) {
+        List<UserAccount> added = new ArrayList<>();
+        List<UserAccount> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (UserAccount account : newer.list) {
+            UserAccount old = users.get(account.getUsername());
+            if (old == null) {
+                added.add(account);
+            } else if (old != account) {
+                changed.add(account);
+            }
+        }
+        for (String username : users.keySet()) {
+            if (!newer.users.containsKey(username)) {
+                removed.add(username);
+            }
+        }
+        return new Diff(added, changed, removed);
+    }
+
+    /**
+     * Differences between two snapshots
+     */
+    public static final class Diff {
+        private final List<UserAccount> added;
+        private final List<UserAccount> changed;
+        private final List<String> removed;
+
+        Diff(List<UserAccount> added, List<UserAccount> changed, List<String> removed) {
+            this.added = Collections.unmodifiableList(added);
+            this.changed = Collections.unmodifiableList(changed);
+            this.removed = Collections.unmodifiableList(removed);
+        }
+
+        public List<UserAccount> getAdded() {
+            return added;
+        }
+
+        public List<UserAccount> getChanged() {
+            return changed;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+}
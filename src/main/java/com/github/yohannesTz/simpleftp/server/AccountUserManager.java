@@ -0,0 +1,84 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import org.apache.ftpserver.ftplet.Authentication;
+import org.apache.ftpserver.ftplet.AuthenticationFailedException;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.usermanager.AnonymousAuthentication;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * UserManager holding the FTP users built from the configuration's accounts.
+ * Users are returned exactly as saved, authorities included; ftpserver's
+ * properties-backed manager rebuilds them from properties and keeps only its
+ * own authority types, which drops the granular and path-rule permissions.
+ */
+public class AccountUserManager implements UserManager {
+    private static final String ANONYMOUS = "anonymous";
+
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+
+    @Override
+    public User getUserByName(String username) {
+        return username == null ? null : users.get(username);
+    }
+
+    @Override
+    public String[] getAllUserNames() {
+        String[] names = users.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Override
+    public void delete(String username) {
+        users.remove(username);
+    }
+
+    @Override
+    public void save(User user) {
+        users.put(user.getName(), user);
+    }
+
+    @Override
+    public boolean doesExist(String username) {
+        return username != null && users.containsKey(username);
+    }
+
+    @Override
+    public User authenticate(Authentication authentication) throws AuthenticationFailedException {
+        if (authentication instanceof UsernamePasswordAuthentication) {
+            UsernamePasswordAuthentication login = (UsernamePasswordAuthentication) authentication;
+            User user = getUserByName(login.getUsername());
+            String password = login.getPassword();
+            if (user != null && password != null && user.getPassword() != null && MessageDigest.isEqual(
+                    password.getBytes(StandardCharsets.UTF_8), user.getPassword().getBytes(StandardCharsets.UTF_8))) {
+                return user;
+            }
+            throw new AuthenticationFailedException("Authentication failed");
+        }
+        if (authentication instanceof AnonymousAuthentication) {
+            User user = users.get(ANONYMOUS);
+            if (user != null) {
+                return user;
+            }
+        }
+        throw new AuthenticationFailedException("Authentication failed");
+    }
+
+    @Override
+    public String getAdminName() {
+        return "admin";
+    }
+
+    @Override
+    public boolean isAdmin(String username) {
+        return "admin".equals(username);
+    }
+}
@@ -0,0 +1,539 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only journal of file system changes (uploads, deletes, renames,
+ * new directories) so consumers can follow new files instead of polling
+ * with LIST. The file is memory-mapped one fixed region at a time; appending
+ * is a copy into the mapping, with no system call per event.
+ *
+ * Each event is one UTF-8 line: time, event, user, path and, for renames,
+ * the new path, separated by tabs (tab, newline and backslash in paths are
+ * escaped). A line never spans two regions; the rest of a region that cannot
+ * hold the next line stays zero, and the unused tail of the file is zero too,
+ * so readers tailing the file skip NUL bytes.
+ *
+ * Once the file reaches its size limit it is renamed to file.1 (older ones
+ * move on to file.2 and so on, and the oldest beyond the number kept is
+ * deleted) and a new file is started. Offsets keep growing across files:
+ * each file starts with a "#base" line giving the offset of its first byte,
+ * and an event's offset is that plus the byte position of its line. Reading
+ * from an offset whose file was deleted starts at the oldest event kept.
+ */
+public class ChangeJournal implements Closeable {
+    public static final String UPLOAD = "upload";
+    public static final String DELETE = "delete";
+    public static final String RENAME = "rename";
+    public static final String MKDIR = "mkdir";
+    public static final String RMDIR = "rmdir";
+
+    static final int REGION_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_PATH_CHARS = 4096;
+    private static final String BASE_PREFIX = "#base\t";
+    private static final int READ_CHUNK = 64 * 1024;
+
+    private final File file;
+    private final long maxBytes;
+    private final int keepFiles;
+    /** Rotated files still kept, oldest first */
+    private final List<Segment> rotated = new ArrayList<>();
+    private FileChannel channel;
+    private long base;
+    private MappedByteBuffer region;
+    private long regionStart = -1;
+    private volatile long end;
+
+    /**
+     * Opens a journal of at most 64 MB per file, keeping 4 rotated files
+     */
+    public ChangeJournal(File file) throws IOException {
+        this(file, 64L * 1024 * 1024, 4);
+    }
+
+    /**
+     * @param maxBytes size at which the file is rotated, rounded up to whole 8 MB regions
+     * @param keepFiles number of rotated files kept besides the current one
+     */
+    public ChangeJournal(File file, long maxBytes, int keepFiles) throws IOException {
+        this.file = file;
+        this.maxBytes = fileSize(maxBytes);
+        this.keepFiles = Math.max(0, keepFiles);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        for (int i = 1; rotatedFile(i).isFile(); i++) {
+            File older = rotatedFile(i);
+            long olderBase = readBase(older);
+            if (olderBase >= 0) {
+                rotated.add(0, new Segment(older, olderBase, older.length()));
+            }
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            Segment newest = rotated.isEmpty() ? null : rotated.get(rotated.size() - 1);
+            start(newest == null ? 0 : newest.base + newest.length);
+        } else {
+            // A journal written before rotation existed has no base line and starts at 0
+            base = Math.max(0, readBase(file));
+            end = base + recoverEnd();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getKeepFiles() {
+        return keepFiles;
+    }
+
+    /**
+     * Returns the size a file is rotated at for a requested limit: whole regions, at least one
+     */
+    public static long fileSize(long maxBytes) {
+        return Math.max(1, (maxBytes + REGION_SIZE - 1) / REGION_SIZE) * REGION_SIZE;
+    }
+
+    /**
+     * Offset just past the last event; reading from here returns only new events
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Appends an event and returns its offset
+     *
+     * @param target new path for renames, otherwise null
+     */
+    public long append(String event, String user, String path, String target) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        line.append(System.currentTimeMillis()).append('\t').append(event).append('\t');
+        escape(user == null ? "" : user, line);
+        line.append('\t');
+        escape(path, line);
+        if (target != null) {
+            line.append('\t');
+            escape(target, line);
+        }
+        line.append('\n');
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+
+        synchronized (this) {
+            long position = place(end - base, bytes.length);
+            if (position + bytes.length > maxBytes) {
+                rotate();
+                position = place(end - base, bytes.length);
+            }
+            ByteBuffer into = mapRegion(position - position % REGION_SIZE).duplicate();
+            into.position((int) (position % REGION_SIZE));
+            into.put(bytes);
+            end = base + position + bytes.length;
+            notifyAll();
+            return base + position;
+        }
+    }
+
+    /**
+     * Reads up to max events starting at an offset returned earlier (or 0)
+     */
+    public synchronized List<Event> read(long from, int max) {
+        List<Event> events = new ArrayList<>();
+        List<Segment> segments = new ArrayList<>(rotated);
+        segments.add(new Segment(file, base, end - base));
+        long position = Math.max(from, segments.get(0).base);
+        for (Segment segment : segments) {
+            if (events.size() >= max) {
+                break;
+            }
+            long next = segment.base + segment.length;
+            if (position >= next) {
+                continue;
+            }
+            position = Math.max(position, segment.base);
+            try {
+                position = segment.file == file ? readCurrent(position, max, events)
+                    : readRotated(segment, position, max, events);
+            } catch (IOException e) {
+                // Deleted or unreadable; carry on with the next file
+                System.err.println("Failed to read change journal " + segment.file + ": " + e.getMessage());
+                position = next;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Waits until events exist beyond the offset or the timeout passes
+     */
+    public synchronized void await(long offset, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (end <= offset) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return;
+            }
+            wait(remaining);
+        }
+    }
+
+    /**
+     * Writes the mapped pages to disk
+     */
+    public synchronized void flush() {
+        if (region != null) {
+            region.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        region = null;
+        regionStart = -1;
+        channel.close();
+    }
+
+    /**
+     * Returns where a line of the given length goes in the current file: at
+     * the position, or at the next region if it does not fit in this one
+     */
+    private static long place(long position, int length) {
+        long inRegion = position % REGION_SIZE;
+        return inRegion + length > REGION_SIZE ? position + REGION_SIZE - inRegion : position;
+    }
+
+    /**
+     * Maps the region starting at a position of the current file, dropping the
+     * previous mapping so only one region is mapped at a time
+     */
+    private MappedByteBuffer mapRegion(long start) throws IOException {
+        if (start != regionStart) {
+            if (region != null) {
+                region.force();
+            }
+            region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+            regionStart = start;
+        }
+        return region;
+    }
+
+    /**
+     * Starts the current file, empty but for its base line
+     */
+    private void start(long offset) throws IOException {
+        base = offset;
+        byte[] header = (BASE_PREFIX + offset + "\n").getBytes(StandardCharsets.UTF_8);
+        mapRegion(0).duplicate().put(header);
+        end = offset + header.length;
+    }
+
+    /**
+     * Moves the current file to file.1, shifting and dropping older ones, and starts a new one
+     */
+    private void rotate() throws IOException {
+        flush();
+        region = null;
+        regionStart = -1;
+        long length = channel.size();
+        channel.close();
+
+        rotated.add(new Segment(file, base, length));
+        while (rotated.size() > keepFiles) {
+            Segment oldest = rotated.remove(0);
+            if (!oldest.file.delete() && oldest.file.exists()) {
+                System.err.println("Failed to delete old change journal " + oldest.file);
+            }
+        }
+        for (int i = 0; i < rotated.size(); i++) {
+            Segment segment = rotated.get(i);
+            File target = rotatedFile(rotated.size() - i);
+            Files.move(segment.file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            segment.file = target;
+        }
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        start(base + length);
+    }
+
+    private File rotatedFile(int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    /**
+     * Returns the offset on a file's base line, or -1 if it has none
+     */
+    private static long readBase(File journal) throws IOException {
+        byte[] prefix = BASE_PREFIX.getBytes(StandardCharsets.UTF_8);
+        byte[] head = new byte[prefix.length + 20];
+        int length;
+        try (FileChannel in = FileChannel.open(journal.toPath(), StandardOpenOption.READ)) {
+            length = in.read(ByteBuffer.wrap(head));
+        }
+        String text = new String(head, 0, Math.max(0, length), StandardCharsets.UTF_8);
+        int newline = text.indexOf('\n');
+        if (!text.startsWith(BASE_PREFIX) || newline < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(text.substring(BASE_PREFIX.length(), newline));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the current file from an offset; returns the offset to continue from
+     */
+    private long readCurrent(long from, int max, List<Event> events) throws IOException {
+        return scan(base, from, end, max, events, (position, buffer) -> {
+            if (position >= regionStart && regionStart >= 0) {
+                // Written through the mapping, so read it from there
+                ByteBuffer source = region.duplicate();
+                source.position((int) (position - regionStart));
+                source.limit(Math.min(REGION_SIZE, source.position() + buffer.remaining()));
+                buffer.put(source);
+            } else {
+                while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                    // Until the requested bytes are in
+                }
+            }
+        });
+    }
+
+    private static long readRotated(Segment segment, long from, int max, List<Event> events) throws IOException {
+        try (FileChannel in = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ)) {
+            return scan(segment.base, from, segment.base + segment.length, max, events, (position, buffer) -> {
+                while (buffer.hasRemaining() && in.read(buffer, position + buffer.position()) > 0) {
+                    // Until the requested bytes are in
+                }
+            });
+        }
+    }
+
+    private interface Source {
+        /**
+         * Fills the buffer with the bytes of the file at a position
+         */
+        void read(long position, ByteBuffer buffer) throws IOException;
+    }
+
+    /**
+     * Parses the lines of one file between two offsets, skipping region padding;
+     * returns the offset after the last complete line read
+     */
+    private static long scan(long base, long from, long limit, int max, List<Event> events, Source source)
+            throws IOException {
+        long offset = from;
+        byte[] chunk = new byte[READ_CHUNK];
+        while (offset < limit && events.size() < max) {
+            long position = offset - base;
+            long regionEnd = position - position % REGION_SIZE + REGION_SIZE;
+            int length = (int) Math.min(chunk.length, Math.min(limit - base, regionEnd) - position);
+            ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+            source.read(position, buffer);
+            length = buffer.position();
+            int i = 0;
+            while (i < length && events.size() < max) {
+                if (chunk[i] == 0) {
+                    // Padding at the end of a region
+                    i = -1;
+                    break;
+                }
+                int newline = i;
+                while (newline < length && chunk[newline] != '\n') {
+                    newline++;
+                }
+                if (newline == length) {
+                    break;
+                }
+                Event event = Event.parse(offset + i, offset + newline + 1,
+                    new String(chunk, i, newline - i, StandardCharsets.UTF_8));
+                if (event != null) {
+                    events.add(event);
+                }
+                i = newline + 1;
+            }
+            if (i < 0) {
+                offset = base + regionEnd;
+            } else if (i > 0) {
+                offset += i;
+            } else if (length == chunk.length) {
+                // A line longer than the chunk
+                chunk = new byte[chunk.length * 2];
+            } else {
+                // The rest is a line still being written
+                break;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Finds the end of the last complete line; a line torn by a crash is cleared.
+     * Returns a position in the current file.
+     */
+    private long recoverEnd() throws IOException {
+        long size = channel.size();
+        for (long start = (size - 1) / REGION_SIZE * REGION_SIZE; start >= 0; start -= REGION_SIZE) {
+            MappedByteBuffer mapped = mapRegion(start);
+            int last = REGION_SIZE - 1;
+            while (last >= 0 && mapped.get(last) == 0) {
+                last--;
+            }
+            if (last < 0) {
+                continue;
+            }
+            int complete = last;
+            while (complete >= 0 && mapped.get(complete) != '\n') {
+                complete--;
+            }
+            for (int i = complete + 1; i <= last; i++) {
+                mapped.put(i, (byte) 0);
+            }
+            return start + complete + 1;
+        }
+        return 0;
+    }
+
+    private static void escape(String value, StringBuilder out) {
+        int length = Math.min(value.length(), MAX_PATH_CHARS);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * A journal file and the offset of its first byte
+     */
+    private static class Segment {
+        File file;
+        final long base;
+        final long length;
+
+        Segment(File file, long base, long length) {
+            this.file = file;
+            this.base = base;
+            this.length = length;
+        }
+    }
+
+    /**
+     * One journal entry
+     */
+    public static class Event {
+        private final long offset;
+        private final long next;
+        private final long time;
+        private final String type;
+        private final String user;
+        private final String path;
+        private final String target;
+
+        Event(long offset, long next, long time, String type, String user, String path, String target) {
+            this.offset = offset;
+            this.next = next;
+            this.time = time;
+            this.type = type;
+            this.user = user;
+            this.path = path;
+            this.target = target;
+        }
+
+        static Event parse(long offset, long next, String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 4) {
+                return null;
+            }
+            try {
+                return new Event(offset, next, Long.parseLong(fields[0]), fields[1], unescape(fields[2]),
+                    unescape(fields[3]), fields.length > 4 ? unescape(fields[4]) : null);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Offset to continue reading from after this event
+         */
+        public long getNext() {
+            return next;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * New path of a rename, otherwise null
+         */
+        public String getTarget() {
+            return target;
+        }
+    }
+}
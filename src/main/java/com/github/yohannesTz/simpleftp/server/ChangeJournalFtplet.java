@@ -0,0 +1,100 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FileActionFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.User;
+
+import java.io.IOException;
+
+/**
+ * Records successful uploads, deletes, renames and directory changes in the
+ * ChangeJournal, with paths as the user sees them.
+ */
+public class ChangeJournalFtplet extends DefaultFtplet {
+    private static final String ATTR_RENAME_FROM = "journal.renameFrom";
+
+    private final ChangeJournal journal;
+
+    public ChangeJournalFtplet(ChangeJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public FtpletResult beforeCommand(FtpSession session, FtpRequest request)
+            throws FtpException, IOException {
+        if ("RNFR".equals(request.getCommand()) && request.hasArgument()) {
+            // Resolve now, the working directory may change before RNTO
+            session.setAttribute(ATTR_RENAME_FROM, path(session, request.getArgument()));
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply)
+            throws FtpException, IOException {
+        User user = session.getUser();
+        if (user == null || reply == null || !request.hasArgument() && !"STOU".equals(request.getCommand())) {
+            return FtpletResult.DEFAULT;
+        }
+        int code = reply.getCode();
+        String argument = request.getArgument();
+        try {
+            switch (request.getCommand()) {
+                case "STOR":
+                case "APPE":
+                    if (code == 226) {
+                        journal.append(ChangeJournal.UPLOAD, user.getName(), path(session, argument), null);
+                    }
+                    break;
+                case "STOU":
+                    // The generated name is only known from the reply, which carries the file
+                    if (code == 226 && reply instanceof FileActionFtpReply
+                            && ((FileActionFtpReply) reply).getFile() != null) {
+                        journal.append(ChangeJournal.UPLOAD, user.getName(),
+                            ((FileActionFtpReply) reply).getFile().getAbsolutePath(), null);
+                    }
+                    break;
+                case "DELE":
+                    if (code == 250) {
+                        journal.append(ChangeJournal.DELETE, user.getName(), path(session, argument), null);
+                    }
+                    break;
+                case "MKD":
+                    if (code == 257) {
+                        journal.append(ChangeJournal.MKDIR, user.getName(), path(session, argument), null);
+                    }
+                    break;
+                case "RMD":
+                    if (code == 250) {
+                        journal.append(ChangeJournal.RMDIR, user.getName(), path(session, argument), null);
+                    }
+                    break;
+                case "RNTO":
+                    Object from = session.getAttribute(ATTR_RENAME_FROM);
+                    session.removeAttribute(ATTR_RENAME_FROM);
+                    if (code == 250 && from != null) {
+                        journal.append(ChangeJournal.RENAME, user.getName(), (String) from, path(session, argument));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write change journal: " + e.getMessage());
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    private static String path(FtpSession session, String argument) {
+        try {
+            return session.getFileSystemView().getFile(argument).getAbsolutePath();
+        } catch (FtpException e) {
+            return argument;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.CommandFactoryFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Server-side checksum commands (HASH, XCRC, XMD5, XSHA1, XSHA256) so clients
+ * can verify files without downloading them again
+ */
+public class ChecksumCommand implements Command {
+    private final String algorithm;
+    private final int replyCode;
+    private final boolean hashReply;
+    private final FileDigester digester;
+    private final DigestCache cache;
+
+    public ChecksumCommand(String algorithm, int replyCode, boolean hashReply,
+                           FileDigester digester, DigestCache cache) {
+        this.algorithm = algorithm;
+        this.replyCode = replyCode;
+        this.hashReply = hashReply;
+        this.digester = digester;
+        this.cache = cache;
+    }
+
+    /**
+     * Registers all checksum commands with the given command factory. Requests
+     * drop a leading X from command names (XMD5 arrives as MD5), so the X forms
+     * are registered without it; MD5 replaces ftpserver's own on purpose so it
+     * shares the digest cache.
+     */
+    public static void register(CommandFactoryFactory factory, FileDigester digester, DigestCache cache) {
+        factory.addCommand("HASH", new ChecksumCommand(FileDigester.SHA256, 213, true, digester, cache));
+        factory.addCommand("CRC", new ChecksumCommand(FileDigester.CRC32, 250, false, digester, cache));
+        factory.addCommand("MD5", new ChecksumCommand(FileDigester.MD5, 251, false, digester, cache));
+        factory.addCommand("SHA1", new ChecksumCommand(FileDigester.SHA1, 250, false, digester, cache));
+        factory.addCommand("SHA256", new ChecksumCommand(FileDigester.SHA256, 250, false, digester, cache));
+    }
+
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        session.resetState();
+
+        String fileName = request.getArgument();
+        if (fileName == null || fileName.trim().isEmpty()) {
+            session.write(new DefaultFtpReply(501, "Syntax error in parameters or arguments."));
+            return;
+        }
+        fileName = fileName.trim();
+        if (fileName.length() > 1 && fileName.startsWith("\"") && fileName.endsWith("\"")) {
+            fileName = fileName.substring(1, fileName.length() - 1);
+        }
+
+        FtpFile file;
+        try {
+            file = session.getFileSystemView().getFile(fileName);
+        } catch (Exception e) {
+            file = null;
+        }
+        if (file == null || !file.doesExist() || !file.isFile()) {
+            session.write(new DefaultFtpReply(550, fileName + ": No such file."));
+            return;
+        }
+        if (!file.isReadable() || !canRead(session.getUser(), file.getAbsolutePath())) {
+            session.write(new DefaultFtpReply(550, fileName + ": Permission denied."));
+            return;
+        }
+
+        String digest;
+        try {
+            digest = digest(session.getUser(), file);
+        } catch (IOException | RuntimeException e) {
+            session.write(new DefaultFtpReply(451, "Failed to compute checksum: " + e.getMessage()));
+            return;
+        }
+
+        if (hashReply) {
+            long end = Math.max(0, file.getSize() - 1);
+            session.write(new DefaultFtpReply(replyCode,
+                algorithm + " 0-" + end + " " + digest + " " + fileName));
+        } else if (FileDigester.MD5.equals(algorithm) && !isXCommand(request)) {
+            // Plain MD5 answers like ftpserver's own: file name, then the digest in upper case
+            session.write(new DefaultFtpReply(replyCode, fileName + " " + digest.toUpperCase(Locale.ROOT)));
+        } else {
+            session.write(new DefaultFtpReply(replyCode, digest));
+        }
+    }
+
+    private String digest(User user, FtpFile file) throws IOException {
+        long size = file.getSize();
+        long lastModified = file.getLastModified();
+        Object physical = file.getPhysicalFile();
+        String key = physical instanceof File
+            ? ((File) physical).getAbsolutePath()
+            : user.getName() + ":" + file.getAbsolutePath();
+
+        String digest = cache.get(algorithm, key, size, lastModified);
+        if (digest != null) {
+            return digest;
+        }
+
+        if (physical instanceof File) {
+            digest = digester.digest((File) physical, algorithm);
+        } else {
+            try (InputStream in = file.createInputStream(0)) {
+                digest = digester.digest(in, algorithm);
+            }
+        }
+        cache.put(algorithm, key, size, lastModified, digest);
+        return digest;
+    }
+
+    private static boolean isXCommand(FtpRequest request) {
+        String line = request.getRequestLine();
+        return line != null && line.trim().regionMatches(true, 0, "X", 0, 1);
+    }
+
+    private static boolean canRead(User user, String path) {
+        List<? extends Authority> authorities = user.getAuthorities(GranularWritePermission.class);
+        if (authorities == null || authorities.isEmpty()) {
+            return true;
+        }
+        for (Authority authority : authorities) {
+            if (((GranularWritePermission) authority).getPermissions(path).isCanRead()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
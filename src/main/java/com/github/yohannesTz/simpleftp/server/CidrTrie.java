@@ -0,0 +1,160 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable set of IPv4/IPv6 CIDR ranges compiled into a binary prefix trie,
+ * one per address family. Nodes are stored in flat int arrays, so a lookup
+ * is at most 32 (or 128) array reads regardless of how many ranges there are.
+ */
+public final class CidrTrie {
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    public static final CidrTrie EMPTY = new Builder().build();
+
+    private final Family v4;
+    private final Family v6;
+    private final int size;
+
+    private CidrTrie(Family v4, Family v6, int size) {
+        this.v4 = v4;
+        this.v6 = v6;
+        this.size = size;
+    }
+
+    public boolean contains(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        return (address instanceof Inet4Address ? v4 : v6).matches(bytes);
+    }
+
+    /**
+     * Number of ranges added to the trie
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Throws IllegalArgumentException if the text is not an IP address or CIDR range
+     */
+    public static void validate(String cidr) {
+        new Builder().add(cidr);
+    }
+
+    /**
+     * Collects ranges and compiles them into a CidrTrie
+     */
+    public static final class Builder {
+        private final Family v4 = new Family();
+        private final Family v6 = new Family();
+        private int size;
+
+        /**
+         * Adds "a.b.c.d", "a.b.c.d/n", an IPv6 literal or "v6/n". Only literals are
+         * accepted, so this never triggers a DNS lookup.
+         */
+        public Builder add(String cidr) {
+            String text = cidr.trim();
+            int slash = text.indexOf('/');
+            String host = slash < 0 ? text : text.substring(0, slash);
+            if (!IPV4.matcher(host).matches() && host.indexOf(':') < 0) {
+                throw new IllegalArgumentException("Not an IP address or CIDR range: " + cidr);
+            }
+            InetAddress address;
+            try {
+                address = InetAddress.getByName(host);
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Not an IP address or CIDR range: " + cidr);
+            }
+
+            byte[] bytes = address.getAddress();
+            int prefix = bytes.length * 8;
+            if (slash >= 0) {
+                try {
+                    prefix = Integer.parseInt(text.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    prefix = -1;
+                }
+                if (prefix < 0 || prefix > bytes.length * 8) {
+                    throw new IllegalArgumentException("Invalid prefix length: " + cidr);
+                }
+            }
+            (address instanceof Inet4Address ? v4 : v6).insert(bytes, prefix);
+            size++;
+            return this;
+        }
+
+        public CidrTrie build() {
+            return new CidrTrie(v4.compact(), v6.compact(), size);
+        }
+    }
+
+    /**
+     * Trie nodes for one address family. Node n has children at [2n] and [2n+1];
+     * 0 means "no child" since the root is never anyone's child.
+     */
+    private static final class Family {
+        private int[] children = new int[128];
+        private boolean[] terminal = new boolean[64];
+        private int nodes = 1;
+
+        void insert(byte[] address, int prefix) {
+            int node = 0;
+            for (int i = 0; i < prefix; i++) {
+                if (terminal[node]) {
+                    return; // Already covered by a shorter range
+                }
+                int slot = 2 * node + bit(address, i);
+                if (children[slot] == 0) {
+                    int child = newNode(); // May grow (and replace) the children array
+                    children[slot] = child;
+                }
+                node = children[slot];
+            }
+            terminal[node] = true;
+        }
+
+        boolean matches(byte[] address) {
+            int node = 0;
+            int bits = address.length * 8;
+            for (int i = 0; ; i++) {
+                if (terminal[node]) {
+                    return true;
+                }
+                if (i == bits) {
+                    return false;
+                }
+                node = children[2 * node + bit(address, i)];
+                if (node == 0) {
+                    return false;
+                }
+            }
+        }
+
+        private int newNode() {
+            if (nodes == terminal.length) {
+                terminal = Arrays.copyOf(terminal, nodes * 2);
+                children = Arrays.copyOf(children, nodes * 4);
+            }
+            return nodes++;
+        }
+
+        Family compact() {
+            terminal = Arrays.copyOf(terminal, nodes);
+            children = Arrays.copyOf(children, nodes * 2);
+            return this;
+        }
+
+        private static int bit(byte[] address, int index) {
+            return (address[index >> 3] >> (7 - (index & 7))) & 1;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache of computed file digests.
+ * Entries are keyed by algorithm and path and are only valid while the
+ * file's size and modification time are unchanged. New entries are appended
+ * to a small tab-separated index file that is compacted on load.
+ */
+public class DigestCache {
+    private final File indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public DigestCache(File indexFile) {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    /**
+     * Returns the cached digest, or null if missing or the file has changed since
+     */
+    public String get(String algorithm, String path, long size, long lastModified) {
+        Entry entry = entries.get(key(algorithm, path));
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            return entry.digest;
+        }
+        return null;
+    }
+
+    public void put(String algorithm, String path, long size, long lastModified, String digest) {
+        Entry entry = new Entry(algorithm, path, size, lastModified, digest);
+        entries.put(key(algorithm, path), entry);
+        synchronized (this) {
+            try (Writer writer = openWriter(true)) {
+                writer.write(entry.toLine());
+            } catch (IOException e) {
+                System.err.println("Failed to persist digest: " + e.getMessage());
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        int lines = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                Entry entry = Entry.parse(line);
+                if (entry != null) {
+                    entries.put(key(entry.algorithm, entry.path), entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to load digest cache: " + e.getMessage());
+            return;
+        }
+
+        // Drop superseded lines so the index does not grow without bound
+        if (lines > entries.size() * 2 + 100) {
+            compact();
+        }
+    }
+
+    private synchronized void compact() {
+        try (Writer writer = openWriter(false)) {
+            for (Entry entry : entries.values()) {
+                File file = new File(entry.path);
+                if (file.isAbsolute() && !file.exists()) {
+                    continue;
+                }
+                writer.write(entry.toLine());
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to compact digest cache: " + e.getMessage());
+        }
+    }
+
+    private Writer openWriter(boolean append) throws IOException {
+        File parent = indexFile.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        return new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(indexFile, append), StandardCharsets.UTF_8));
+    }
+
+    private static String key(String algorithm, String path) {
+        return algorithm + '\t' + path;
+    }
+
+    private static class Entry {
+        final String algorithm;
+        final String path;
+        final long size;
+        final long lastModified;
+        final String digest;
+
+        Entry(String algorithm, String path, long size, long lastModified, String digest) {
+            this.algorithm = algorithm;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+        String toLine() {
+            return algorithm + '\t' + size + '\t' + lastModified + '\t' + digest + '\t' + path + '\n';
+        }
+
+        static Entry parse(String line) {
+            String[] parts = line.split("\t", 5);
+            if (parts.length != 5) {
+                return null;
+            }
+            try {
+                return new Entry(parts[0], parts[4], Long.parseLong(parts[1]),
+                    Long.parseLong(parts[2]), parts[3]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache whose entries expire after their own time to live. When it
+ * is full the least recently used entry is dropped.
+ */
+class ExpiringCache<K, V> {
+    private final Map<K, Cached<V>> entries;
+
+    ExpiringCache(int maxEntries) {
+        int limit = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<K, Cached<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Cached<V>> eldest) {
+                return size() > limit;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value, or null if there is none or it expired
+     */
+    synchronized V get(K key) {
+        Cached<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Caches a value for the given time; a time of zero or less caches nothing
+     */
+    synchronized void put(K key, V value, long ttlMillis) {
+        if (ttlMillis <= 0) {
+            entries.remove(key);
+            return;
+        }
+        entries.put(key, new Cached<>(value, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis)));
+    }
+
+    synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Cached<V> {
+        final V value;
+        final long expiresAt;
+
+        Cached(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,35 +1,112 @@
 package com.github.yohannesTz.simpleftp.server;
 
+import com.github.yohannesTz.simpleftp.config.ConfigManager;
+import com.github.yohannesTz.simpleftp.config.UserStore;
 import com.github.yohannesTz.simpleftp.model.FTPPermissions;
 import com.github.yohannesTz.simpleftp.model.ServerConfig;
 import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.model.UserSnapshot;
+import com.github.yohannesTz.simpleftp.server.fs.ContentCache;
+import com.github.yohannesTz.simpleftp.server.fs.ContentStore;
+import com.github.yohannesTz.simpleftp.server.fs.HomeProvisioner;
+import com.github.yohannesTz.simpleftp.server.fs.MemoryChunkPool;
+import com.github.yohannesTz.simpleftp.server.fs.UploadStaging;
+import com.github.yohannesTz.simpleftp.server.fs.VirtualFileSystemFactory;
+import org.apache.ftpserver.ConnectionConfigFactory;
 import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.command.CommandFactoryFactory;
 import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
 import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.Ftplet;
 import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.listener.Listener;
 import org.apache.ftpserver.listener.ListenerFactory;
-import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
 import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.TransferRatePermission;
 import org.apache.ftpserver.usermanager.impl.WritePermission;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 /**
- * Manages the FTP Server lifecycle
+ * Manages the FTP Server lifecycle. Transitions are serialized on this
+ * object; start(), stop() and reload() run them on a background thread so
+ * callers such as the Swing UI never wait for binding or user setup.
  */
 public class FTPServerManager {
+    private static final String ANONYMOUS = "anonymous";
+    private static final int ANONYMOUS_IDLE_SECONDS = 300;
+    private static final long DRAIN_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * Lifecycle states; a stop goes RUNNING, DRAINING, STOPPING, STOPPED
+     */
+    public enum State {
+        STOPPED,
+        STARTING,
+        RUNNING,
+        /** No new connections are accepted, running commands get a chance to finish */
+        DRAINING,
+        STOPPING
+    }
+
     private FtpServer server;
-    private ServerConfig config;
-    private boolean running;
-    private List<ServerStatusListener> listeners;
+    private volatile ServerConfig config;
+    private volatile State state = State.STOPPED;
+    private final List<ServerStatusListener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService lifecycle = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ftp-lifecycle");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private DigestCache digestCache;
+    private final UsageTracker usageTracker = new UsageTracker();
+    private MemoryChunkPool memoryPool;
+    private ContentCache anonymousCache;
+    private volatile ContentStore contentStore;
+    private final SessionRegistry sessionRegistry = new SessionRegistry();
+    private Listener listener;
+    private UploadPipeline uploadPipeline;
+    private PartialUploadRegistry partialUploads;
+    private ChangeJournal changeJournal;
+    private SessionReaper sessionReaper;
+    private HomeProvisioner homeProvisioner;
+
+    // Users of the current run, kept so account edits can be applied without a restart
+    private UserManager userManager;
+    private Map<String, UserAccount> accounts;
+    private StoreUserManager storeUsers;
+    private LdapUserManager ldapUsers;
+    private UserStore userStore;
+    private final Consumer<String> storeListener = this::storedUserChanged;
+    private boolean builtInAnonymous;
+    private volatile PathRules pathRules = PathRules.EMPTY;
+    private volatile UserGroups userGroups = UserGroups.EMPTY;
+    private VirtualFileSystemFactory fileSystemFactory;
+    private IpAccessFtplet ipAccess;
+    private UserSnapshot appliedUsers = UserSnapshot.EMPTY;
 
     public FTPServerManager(ServerConfig config) {
         this.config = config;
-        this.running = false;
-        this.listeners = new ArrayList<>();
     }
 
     public interface ServerStatusListener {
@@ -46,87 +123,768 @@ public class FTPServerManager {
         }
     }
 
-    public void startServer() throws FtpException {
-        if (running) {
+    /**
+     * Returns the pool behind in-memory user storage. It outlives server restarts,
+     * but is replaced (dropping its contents) when the memory settings change.
+     */
+    private MemoryChunkPool getMemoryPool() {
+        long maxBytes = (long) config.getMemoryStorageLimitMb() * 1024 * 1024;
+        if (memoryPool == null || memoryPool.getMaxBytes() != maxBytes
+                || memoryPool.isEvictOldFiles() != config.isMemoryStorageEvict()) {
+            memoryPool = new MemoryChunkPool(maxBytes, config.isMemoryStorageEvict());
+        }
+        return memoryPool;
+    }
+
+    /**
+     * Returns the cache of public files served to anonymous users, or null if it is disabled
+     */
+    private ContentCache getAnonymousCache() {
+        long maxBytes = (long) config.getAnonymousCacheMb() * 1024 * 1024;
+        if (maxBytes <= 0) {
+            return null;
+        }
+        if (anonymousCache == null || anonymousCache.getMaxBytes() != maxBytes) {
+            // Large files would push out many small hot ones, so cap entries at 1/8 of the cache
+            anonymousCache = new ContentCache(maxBytes, maxBytes / 8);
+        }
+        return anonymousCache;
+    }
+
+    /**
+     * Opens the store of deduplicated uploads, or returns null if deduplication is off or
+     * unavailable. Opening again on each start drops content that lost its last reference
+     * while the server was stopped.
+     */
+    private ContentStore openContentStore() {
+        contentStore = null;
+        if (!config.isDedupEnabled()) {
+            return null;
+        }
+        try {
+            contentStore = ContentStore.open(new File(config.getDedupDir()));
+        } catch (IOException e) {
+            System.err.println("Deduplication is disabled: " + e.getMessage());
+        }
+        return contentStore;
+    }
+
+    /**
+     * Creates the read-only anonymous user with its own session and bandwidth limits
+     */
+    private BaseUser createAnonymousUser() {
+        File root = new File(config.getAnonymousRoot());
+        if (!root.exists()) {
+            root.mkdirs();
+        }
+
+        BaseUser user = new BaseUser();
+        user.setName(ANONYMOUS);
+        user.setHomeDirectory(root.getAbsolutePath());
+        // Idle time is enforced by the SessionReaper
+        user.setMaxIdleTime(0);
+
+        List<Authority> authorities = new ArrayList<>();
+        authorities.add(new GranularWritePermission(FTPPermissions.readOnly()));
+        authorities.add(new ConcurrentLoginPermission(config.getAnonymousMaxLogins(),
+            config.getAnonymousMaxLoginsPerIp()));
+        authorities.add(new TransferRatePermission(config.getAnonymousMaxDownloadKbps() * 1024, 0));
+        user.setAuthorities(authorities);
+        return user;
+    }
+
+    /**
+     * Starts the server in the background; the future fails if it cannot start
+     */
+    public CompletableFuture<Void> start() {
+        return submit(this::startServer);
+    }
+
+    /**
+     * Drains and stops the server in the background
+     */
+    public CompletableFuture<Void> stop() {
+        return submit(this::stopServer);
+    }
+
+    /**
+     * Applies group edits to the running server in the background, without a restart
+     */
+    public CompletableFuture<Void> reloadGroups() {
+        return submit(this::applyGroupChanges);
+    }
+
+    /**
+     * Switches to a new configuration in the background, restarting the server if it is running
+     */
+    public CompletableFuture<Void> reload(ServerConfig newConfig) {
+        return submit(() -> updateConfig(newConfig));
+    }
+
+    private interface LifecycleAction {
+        void run() throws FtpException;
+    }
+
+    private CompletableFuture<Void> submit(LifecycleAction action) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lifecycle.execute(() -> {
+            try {
+                action.run();
+                future.complete(null);
+            } catch (FtpException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Starts the server on the calling thread
+     */
+    public synchronized void startServer() throws FtpException {
+        awaitDrained();
+        if (state != State.STOPPED) {
             throw new FtpException("Server is already running");
         }
+        state = State.STARTING;
+        long startedAt = System.currentTimeMillis();
+        try {
+            createAndStartServer();
+        } catch (FtpException | RuntimeException e) {
+            releaseRunResources();
+            state = State.STOPPED;
+            throw e;
+        }
+        state = State.RUNNING;
+        notifyListeners(true, "Server started on port " + config.getPort()
+            + " in " + (System.currentTimeMillis() - startedAt) + " ms");
+    }
 
+    private void createAndStartServer() throws FtpException {
         FtpServerFactory serverFactory = new FtpServerFactory();
 
         // Configure listener
         ListenerFactory listenerFactory = new ListenerFactory();
         listenerFactory.setPort(config.getPort());
         listenerFactory.setServerAddress(config.getServerAddress());
-        serverFactory.addListener("default", listenerFactory.createListener());
+        // Idle and stalled sessions are closed by the SessionReaper, not per-session timers
+        listenerFactory.setIdleTimeout(0);
+        listener = listenerFactory.createListener();
+        serverFactory.addListener("default", listener);
+
+        // Configure connection limits (anonymous sessions have their own cap)
+        ConnectionConfigFactory connectionConfigFactory = new ConnectionConfigFactory();
+        connectionConfigFactory.setMaxLogins(config.getMaxLogins());
+        connectionConfigFactory.setAnonymousLoginEnabled(config.isAnonymousEnabled());
+        connectionConfigFactory.setMaxAnonymousLogins(config.getAnonymousMaxLogins());
+        serverFactory.setConnectionConfig(connectionConfigFactory.createConnectionConfig());
+
+        // Groups and path rules are compiled once per start and on group edits; sessions read them on every check
+        userGroups = new UserGroups(config.getGroups());
+        pathRules = compilePathRules(userGroups);
+        if (!pathRules.isEmpty()) {
+            System.out.println("Loaded " + pathRules.size() + " path rules from " + config.getAclFile()
+                + " and " + userGroups.size() + " groups");
+        }
 
         // Configure user manager
-        PropertiesUserManagerFactory userManagerFactory = new PropertiesUserManagerFactory();
-        UserManager userManager = userManagerFactory.createUserManager();
-
-        // Add users from config
-        for (UserAccount userAccount : config.getUsers()) {
-            BaseUser user = new BaseUser();
-            user.setName(userAccount.getUsername());
-            user.setPassword(userAccount.getPassword());
-            user.setHomeDirectory(userAccount.getHomeDirectory());
-            
-            // Ensure home directory exists
-            File homeDir = new File(userAccount.getHomeDirectory());
-            if (!homeDir.exists()) {
-                homeDir.mkdirs();
-            }
-
-            List<Authority> authorities = new ArrayList<>();
-            
-            // Use granular permissions if available
-            FTPPermissions permissions = userAccount.getPermissions();
-            if (permissions.hasWriteAccess()) {
-                // Add our custom granular permission
-                authorities.add(new GranularWritePermission(permissions));
-            } else {
-                // For read-only users, still add granular permission
-                // so read/list permissions can be enforced
-                authorities.add(new GranularWritePermission(permissions));
-            }
-            
-            user.setAuthorities(authorities);
-            user.setMaxIdleTime(userAccount.getMaxIdleTime());
+        Set<String> quotaHomes = new LinkedHashSet<>();
+        UserStore store = config.isEmbeddedUserStore() ? ConfigManager.getUserStore() : null;
+        if (store != null) {
+            // Accounts are read at login; edits reach the server through the store's listener
+            builtInAnonymous = config.isAnonymousEnabled() && !containsUser(store, ANONYMOUS);
+            storeUsers = new StoreUserManager(store, config.getUserCacheSize(),
+                builtInAnonymous ? createAnonymousUser() : null, this::accountLoaded, this::createFtpUser);
+            userManager = storeUsers;
+            accounts = null;
+            userStore = store;
+            store.addListener(storeListener);
+        } else {
+            storeUsers = null;
+            // Keeps the users exactly as built, so their granular permissions survive login
+            userManager = new AccountUserManager();
 
+            // Add users from a snapshot of the config; later edits are applied by applyUserChanges()
+            appliedUsers = config.getUserSnapshot();
+            accounts = new ConcurrentHashMap<>();
+            for (UserAccount userAccount : appliedUsers.asList()) {
+                accounts.put(userAccount.getUsername(), userAccount);
+                if (hasLocalQuota(userAccount)) {
+                    quotaHomes.add(userAccount.getHomeDirectory());
+                }
+                saveUser(userAccount);
+            }
+
+            // Add the built-in anonymous user unless an account already uses that name
+            builtInAnonymous = config.isAnonymousEnabled() && !accounts.containsKey(ANONYMOUS);
+            if (builtInAnonymous) {
+                userManager.save(createAnonymousUser());
+            }
+        }
+        boolean anonymous = builtInAnonymous;
+
+        // Users without a local account are looked up in the directory
+        if (config.isLdapEnabled()) {
             try {
-                userManager.save(user);
-            } catch (FtpException e) {
-                throw new FtpException("Failed to save user: " + userAccount.getUsername(), e);
+                ldapUsers = new LdapUserManager(config, userManager, this::accountLoaded, this::createFtpUser);
+            } catch (IllegalArgumentException e) {
+                throw new FtpException("Invalid LDAP settings: " + e.getMessage(), e);
             }
+            userManager = ldapUsers;
         }
 
         serverFactory.setUserManager(userManager);
 
+        // Configure file system (home directory plus per-user mount points)
+        fileSystemFactory = new VirtualFileSystemFactory(this::getAccount, getMemoryPool());
+        if (anonymous) {
+            fileSystemFactory.setAnonymousCache(getAnonymousCache());
+        }
+        // Quota limits apply to the stream as written to storage, inside the session's metering
+        QuotaFtplet quota = new QuotaFtplet(usageTracker, this::getAccount, () -> userGroups);
+        fileSystemFactory.setTransferDecorator(quota.andThen(sessionRegistry));
+        fileSystemFactory.setContentStore(openContentStore());
+        UploadStaging uploadStaging = new UploadStaging();
+        fileSystemFactory.setUploadStaging(uploadStaging);
+        homeProvisioner = new HomeProvisioner();
+        fileSystemFactory.setHomeProvisioner(homeProvisioner);
+        serverFactory.setFileSystem(fileSystemFactory);
+
+        if (digestCache == null) {
+            digestCache = new DigestCache(new File(ConfigManager.getConfigDir(), "digests.idx"));
+        }
+        FileDigester digester = new FileDigester();
+
+        // Configure ftplets
+        Map<String, Ftplet> ftplets = new LinkedHashMap<>();
+        ipAccess = new IpAccessFtplet(new File(config.getIpAllowFile()), new File(config.getIpDenyFile()),
+            this::getAccount);
+        ftplets.put("ipAccess", ipAccess);
+        if (config.isLoginThrottleEnabled()) {
+            ftplets.put("loginThrottle", new LoginThrottleFtplet(config));
+        }
+        partialUploads = new PartialUploadRegistry(digester, digestCache, config.isUploadResumeChecksum(),
+            config.getUploadPartialExpiryHours());
+        ftplets.put("resumableUploads", new ResumableUploadFtplet(partialUploads, this::getAccount));
+        ftplets.put("quota", quota);
+
+        if (config.isJournalEnabled()) {
+            ftplets.put("changeJournal", new ChangeJournalFtplet(openChangeJournal()));
+        }
+
+        // Post-upload processing, after quota so usage is accounted before files are moved away
+        UploadPipeline pipeline = new UploadPipeline(config, digester, digestCache, usageTracker);
+        if (pipeline.isEmpty()) {
+            pipeline.shutdown();
+            uploadPipeline = null;
+        } else {
+            uploadPipeline = pipeline;
+            ftplets.put("uploadPipeline", new UploadPipelineFtplet(pipeline));
+        }
+        sessionReaper = new SessionReaper(config, sessionRegistry, this::closeExpiredSessions);
+        ftplets.put("sessions", new SessionTrackingFtplet(sessionRegistry, sessionReaper, this::getIdleSeconds,
+            this::getRateLimit));
+        serverFactory.setFtplets(ftplets);
+
+        // Seed quota usage in the background; uploads are accounted incrementally from here on
+        usageTracker.seed(quotaHomes);
+
+        // Register checksum commands (HASH, XCRC, XMD5, XSHA1, XSHA256) and the upload commands
+        // that publish staged uploads before replying
+        CommandFactoryFactory commandFactoryFactory = new CommandFactoryFactory();
+        ChecksumCommand.register(commandFactoryFactory, digester, digestCache);
+        UploadCommand.register(commandFactoryFactory, uploadStaging);
+        serverFactory.setCommandFactory(commandFactoryFactory.createCommandFactory());
+
         // Create and start server
         server = serverFactory.createServer();
         server.start();
-        running = true;
-        
-        notifyListeners(true, "Server started on port " + config.getPort());
+        sessionReaper.start();
+        if (accounts != null) {
+            homeProvisioner.provisionAllAsync(accounts.values(), config.getHomeProvisionThreads());
+        }
+    }
+
+    /**
+     * Returns the account of a user of the current run, or null (e.g. for the built-in anonymous user)
+     */
+    private UserAccount getAccount(String username) {
+        StoreUserManager store = storeUsers;
+        Map<String, UserAccount> current = accounts;
+        UserAccount account = store != null ? store.getAccount(username)
+            : current != null ? current.get(username) : null;
+        LdapUserManager ldap = ldapUsers;
+        if (account == null && ldap != null && !(builtInAnonymous && ANONYMOUS.equals(username))) {
+            account = ldap.getAccount(username);
+        }
+        return account;
+    }
+
+    /**
+     * Returns a user's own idle limit in seconds, or null if unknown
+     */
+    private Integer getIdleSeconds(String username) {
+        UserAccount account = getAccount(username);
+        if (account != null) {
+            return account.getMaxIdleTime();
+        }
+        return builtInAnonymous && ANONYMOUS.equals(username) ? ANONYMOUS_IDLE_SECONDS : null;
+    }
+
+    /**
+     * Returns where a user's transfer rate limit comes from: their groups', read as data moves
+     */
+    private LongSupplier getRateLimit(String username) {
+        UserAccount account = getAccount(username);
+        if (account == null || account.getGroups().isEmpty()) {
+            return () -> 0;
+        }
+        List<String> groups = account.getGroups();
+        return () -> userGroups.rateLimit(groups);
+    }
+
+    /**
+     * Whether usage of the account's home must be counted for a quota of its own or of its groups
+     */
+    private boolean hasLocalQuota(UserAccount account) {
+        return userGroups.hasQuota(account) && account.getStorage().isLocal();
+    }
+
+    /**
+     * Compiles the groups' path rules and those of the ACL file, which win over group rules for the same pattern
+     */
+    private PathRules compilePathRules(UserGroups groups) throws FtpException {
+        PathRules.Builder builder = new PathRules.Builder();
+        groups.addRules(builder);
+        try {
+            return builder.read(new File(config.getAclFile())).build();
+        } catch (IOException e) {
+            throw new FtpException("Failed to read path rules: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean containsUser(UserStore store, String username) throws FtpException {
+        try {
+            return store.contains(username);
+        } catch (IOException e) {
+            throw new FtpException("Failed to read the user store", e);
+        }
+    }
+
+    /**
+     * Starts counting quota usage for a user read from the embedded store
+     */
+    private void accountLoaded(UserAccount account) {
+        if (hasLocalQuota(account)) {
+            usageTracker.seed(Collections.singleton(account.getHomeDirectory()));
+        }
+    }
+
+    /**
+     * Applies an account written to the embedded store; it is read again at its next login
+     */
+    private void storedUserChanged(String username) {
+        StoreUserManager store = storeUsers;
+        if (store == null) {
+            return;
+        }
+        store.invalidate(username);
+        forgetUser(username);
+        if (ANONYMOUS.equals(username) && config.isAnonymousEnabled()) {
+            // An account taking over or giving back the built-in anonymous user
+            reload(config);
+        }
+    }
+
+    /**
+     * Registers an account with the user manager
+     */
+    private void saveUser(UserAccount userAccount) throws FtpException {
+        userManager.save(createFtpUser(userAccount));
+    }
+
+    /**
+     * Creates the FTP user for an account, with its granular permissions and the current path rules
+     */
+    private BaseUser createFtpUser(UserAccount userAccount) {
+        BaseUser user = new BaseUser();
+        user.setName(userAccount.getUsername());
+        user.setPassword(userAccount.getPassword());
+        user.setHomeDirectory(userAccount.getHomeDirectory());
+        // Home and mount directories are created on first login by the HomeProvisioner
+
+        List<Authority> authorities = new ArrayList<>();
+
+        // Granular permissions, replaced by the groups' and by path rules under the paths they match
+        authorities.add(new GranularWritePermission(userAccount.getPermissions(), userAccount.getUsername(),
+            Collections.unmodifiableList(new ArrayList<>(userAccount.getGroups())), () -> pathRules,
+            () -> userGroups));
+        // Login limits are the server's (maxLogins); without this authority every login is refused
+        authorities.add(new ConcurrentLoginPermission(0, 0));
+
+        user.setAuthorities(authorities);
+        user.setMaxIdleTime(0);
+        return user;
+    }
+
+    /**
+     * Applies account edits made since the server started in the background, without a restart
+     */
+    public CompletableFuture<Void> reloadUsers() {
+        return submit(this::applyUserChanges);
+    }
+
+    /**
+     * Brings the running server's users in line with the configuration. Only the
+     * added, changed and removed accounts are touched; sessions already logged in
+     * keep the settings they started with.
+     */
+    public synchronized void applyUserChanges() throws FtpException {
+        if (!isRunning() || storeUsers != null) {
+            return; // the next start reads the configuration; store edits arrive through storedUserChanged()
+        }
+        UserSnapshot current = config.getUserSnapshot();
+        UserSnapshot.Diff diff = appliedUsers.diff(current);
+        if (diff.isEmpty()) {
+            return;
+        }
+        if (current.contains(ANONYMOUS) != appliedUsers.contains(ANONYMOUS)) {
+            // An account taking over or giving back the built-in anonymous user
+            updateConfig(config);
+            return;
+        }
+
+        for (String username : diff.getRemoved()) {
+            userManager.delete(username);
+            accounts.remove(username);
+            forgetUser(username);
+        }
+        List<UserAccount> updated = new ArrayList<>(diff.getAdded());
+        updated.addAll(diff.getChanged());
+        Set<String> quotaHomes = new LinkedHashSet<>();
+        for (UserAccount userAccount : updated) {
+            saveUser(userAccount);
+            accounts.put(userAccount.getUsername(), userAccount);
+            forgetUser(userAccount.getUsername());
+            if (hasLocalQuota(userAccount)) {
+                quotaHomes.add(userAccount.getHomeDirectory());
+            }
+        }
+        usageTracker.seed(quotaHomes);
+        appliedUsers = current;
+        notifyListeners(true, "Users updated: " + diff.getAdded().size() + " added, "
+            + diff.getChanged().size() + " changed, " + diff.getRemoved().size() + " removed");
     }
 
-    public void stopServer() {
-        if (server != null && running) {
-            server.stop();
-            running = false;
-            notifyListeners(false, "Server stopped");
+    /**
+     * Switches the running server to the configuration's groups. Sessions look
+     * groups up on every check, so members already logged in get the new
+     * permissions, quotas, rate limits and path rules at once.
+     */
+    public synchronized void applyGroupChanges() throws FtpException {
+        if (!isRunning()) {
+            return; // the next start reads the configuration
+        }
+        UserGroups groups = new UserGroups(config.getGroups());
+        PathRules rules = compilePathRules(groups);
+        userGroups = groups;
+        pathRules = rules;
+        if (accounts != null) {
+            // A group quota may now cover homes that were not counted so far
+            Set<String> quotaHomes = new LinkedHashSet<>();
+            for (UserAccount userAccount : accounts.values()) {
+                if (hasLocalQuota(userAccount)) {
+                    quotaHomes.add(userAccount.getHomeDirectory());
+                }
+            }
+            usageTracker.seed(quotaHomes);
         }
+        notifyListeners(true, "Groups updated: " + groups.size() + " groups, " + rules.size() + " path rules");
+    }
+
+    /**
+     * Returns the groups the running server applies
+     */
+    public UserGroups getUserGroups() {
+        return userGroups;
+    }
+
+    /**
+     * Drops what was cached for a user at login so their next login uses the new settings
+     */
+    private void forgetUser(String username) {
+        fileSystemFactory.invalidate(username);
+        ipAccess.invalidateUser(username);
+    }
+
+    /**
+     * Stops the server on the calling thread: new connections are refused first,
+     * then commands still running get up to DRAIN_TIMEOUT_MILLIS to finish
+     */
+    public synchronized void stopServer() {
+        awaitDrained();
+        if (state != State.RUNNING) {
+            return;
+        }
+        state = State.DRAINING;
+        server.suspend();
+        drain();
+        state = State.STOPPING;
+        notifyAll();
+        server.stop();
+        releaseRunResources();
+        state = State.STOPPED;
+        notifyListeners(false, "Server stopped");
+    }
+
+    /**
+     * Waits for running commands with timed waits on this object, so its lock is free
+     * meanwhile; other transitions hold off in awaitDrained() until the drain is over
+     */
+    private void drain() {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (hasCommandsRunning()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return;
+            }
+            try {
+                wait(Math.min(remaining, 100));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits while another thread drains the server
+     */
+    private void awaitDrained() {
+        while (state == State.DRAINING) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean hasCommandsRunning() {
+        for (SessionInfo session : sessionRegistry.getSessions()) {
+            if (session.getCommand() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the helpers of a server run; safe to call for a run that failed to start
+     */
+    private void releaseRunResources() {
+        if (ldapUsers != null) {
+            ldapUsers.close();
+            ldapUsers = null;
+        }
+        if (userStore != null) {
+            userStore.removeListener(storeListener);
+            userStore = null;
+        }
+        if (sessionReaper != null) {
+            sessionReaper.stop();
+        }
+        if (homeProvisioner != null) {
+            homeProvisioner.shutdown();
+        }
+        sessionRegistry.clear();
+        if (uploadPipeline != null) {
+            uploadPipeline.shutdown();
+        }
+        if (partialUploads != null) {
+            partialUploads.shutdown();
+        }
+        if (changeJournal != null) {
+            changeJournal.flush();
+        }
+    }
+
+    public State getState() {
+        return state;
     }
 
     public boolean isRunning() {
-        return running;
+        return state == State.RUNNING;
+    }
+
+    /**
+     * Returns the connected sessions with their current command, file and transfer rate
+     */
+    public List<SessionInfo> getSessions() {
+        return sessionRegistry.getSessions();
+    }
+
+    public SessionRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
+    /**
+     * Closes a session; a transfer in progress is aborted
+     */
+    public boolean disconnectSession(UUID sessionId) {
+        SessionInfo info = sessionRegistry.get(sessionId);
+        if (info == null) {
+            return false;
+        }
+        info.kill();
+        if (listener != null) {
+            for (FtpIoSession session : listener.getActiveSessions()) {
+                if (sessionId.equals(session.getSessionId())) {
+                    session.closeNow();
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the sessions the reaper found idle, stalled or not logged in, in one pass over the listener
+     */
+    private void closeExpiredSessions(Map<UUID, String> expired) {
+        Listener current = listener;
+        if (current == null) {
+            return;
+        }
+        for (FtpIoSession session : current.getActiveSessions()) {
+            String reason = expired.get(session.getSessionId());
+            if (reason == null) {
+                continue;
+            }
+            SessionInfo info = sessionRegistry.get(session.getSessionId());
+            if (info != null) {
+                info.kill();
+            }
+            System.out.println("Closing session " + session.getSessionId() + " (" + reason + ")");
+            session.write(new DefaultFtpReply(421, "Closing connection: " + reason + "."));
+            session.closeOnFlush();
+        }
+    }
+
+    /**
+     * Returns the reaper of the current or last server run, or null if the server never started
+     */
+    public SessionReaper getSessionReaper() {
+        return sessionReaper;
+    }
+
+    /**
+     * Changes a session's transfer rate limit (bytes per second, 0 = unlimited) with immediate effect
+     */
+    public boolean throttleSession(UUID sessionId, long bytesPerSecond) {
+        return sessionRegistry.throttle(sessionId, bytesPerSecond);
+    }
+
+    /**
+     * Bytes currently held by in-memory user storage
+     */
+    public long getMemoryStorageUsedBytes() {
+        MemoryChunkPool pool = memoryPool;
+        return pool == null ? 0 : pool.getUsedBytes();
+    }
+
+    /**
+     * Returns the anonymous download cache if one has been created, without creating it
+     */
+    public ContentCache getAnonymousCacheIfPresent() {
+        return anonymousCache;
+    }
+
+    /**
+     * Returns the store of deduplicated uploads, or null if deduplication is off
+     */
+    public ContentStore getContentStore() {
+        return contentStore;
+    }
+
+    /**
+     * Returns the post-upload pipeline of the running server, or null if no stage is configured
+     */
+    public UploadPipeline getUploadPipeline() {
+        return uploadPipeline;
+    }
+
+    /**
+     * Returns the change journal, opening it on first use; it stays open across restarts
+     */
+    private ChangeJournal openChangeJournal() throws FtpException {
+        File file = new File(config.getJournalFile());
+        long maxBytes = config.getJournalMaxMb() * 1024L * 1024;
+        if (changeJournal != null && (!changeJournal.getFile().equals(file)
+                || changeJournal.getMaxBytes() != ChangeJournal.fileSize(maxBytes)
+                || changeJournal.getKeepFiles() != config.getJournalKeepFiles())) {
+            try {
+                changeJournal.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close change journal: " + e.getMessage());
+            }
+            changeJournal = null;
+        }
+        if (changeJournal == null) {
+            try {
+                changeJournal = new ChangeJournal(file, maxBytes, config.getJournalKeepFiles());
+            } catch (IOException e) {
+                throw new FtpException("Failed to open change journal " + file, e);
+            }
+        }
+        return changeJournal;
+    }
+
+    UsageTracker getUsageTracker() {
+        return usageTracker;
+    }
+
+    /**
+     * Returns the change journal if it has been opened, otherwise null
+     */
+    public ChangeJournal getChangeJournal() {
+        return changeJournal;
+    }
+
+    /**
+     * Number of interrupted uploads currently waiting to be resumed
+     */
+    public int getPartialUploadCount() {
+        PartialUploadRegistry registry = partialUploads;
+        return registry == null ? 0 : registry.size();
+    }
+
+    /**
+     * Returns how many accounts of the embedded user store are cached, or -1 when it is not in use
+     */
+    public int getCachedUserCount() {
+        StoreUserManager store = storeUsers;
+        return store == null ? -1 : store.getCachedCount();
+    }
+
+    /**
+     * Returns the directory user manager of the current run, or null when LDAP is off
+     */
+    public LdapUserManager getLdapUserManager() {
+        return ldapUsers;
     }
 
     public ServerConfig getConfig() {
         return config;
     }
 
-    public void updateConfig(ServerConfig newConfig) {
-        boolean wasRunning = running;
+    /**
+     * Switches to a new configuration on the calling thread, restarting the server if it is running
+     */
+    public synchronized void updateConfig(ServerConfig newConfig) {
+        awaitDrained();
+        boolean wasRunning = isRunning();
         if (wasRunning) {
             stopServer();
         }
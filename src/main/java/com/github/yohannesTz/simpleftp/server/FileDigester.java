@@ -0,0 +1,236 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+
+/**
+ * Computes file checksums for the checksum commands.
+ * Reads go through a FileChannel into a large direct buffer; CRC-32 of big
+ * files is computed in parallel chunks on a ForkJoinPool and the partial
+ * CRCs are combined. MD5/SHA digests are inherently sequential.
+ */
+public class FileDigester {
+    public static final String CRC32 = "CRC32";
+    public static final String MD5 = "MD5";
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long PARALLEL_THRESHOLD = 256L * 1024 * 1024;
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private final ForkJoinPool pool;
+
+    public FileDigester() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public FileDigester(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Computes the digest of a file on the local disk as a lower-case hex string
+     */
+    public String digest(File file, String algorithm) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (CRC32.equals(algorithm)) {
+                long crc;
+                if (size >= PARALLEL_THRESHOLD && pool.getParallelism() > 1) {
+                    crc = pool.invoke(new CrcTask(channel, 0, size));
+                } else {
+                    crc = crcRange(channel, 0, size);
+                }
+                return String.format("%08x", crc);
+            }
+
+            MessageDigest md = newDigest(algorithm);
+            ByteBuffer buffer = BUFFERS.get();
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                md.update(buffer);
+                position += read;
+            }
+            return toHex(md.digest());
+        }
+    }
+
+    /**
+     * Computes the CRC-32 of a byte range of a local file
+     */
+    public long crc32(File file, long start, long end) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return crcRange(channel, start, Math.min(end, channel.size()));
+        }
+    }
+
+    /**
+     * Computes the digest of arbitrary content, for files that are not backed by the local disk
+     */
+    public String digest(InputStream in, String algorithm) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        if (CRC32.equals(algorithm)) {
+            CRC32 crc = new CRC32();
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+            return String.format("%08x", crc.getValue());
+        }
+
+        MessageDigest md = newDigest(algorithm);
+        while ((read = in.read(buffer)) != -1) {
+            md.update(buffer, 0, read);
+        }
+        return toHex(md.digest());
+    }
+
+    private static long crcRange(FileChannel channel, long start, long end) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = BUFFERS.get();
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            if (end - position < buffer.capacity()) {
+                buffer.limit((int) (end - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    private static MessageDigest newDigest(String algorithm) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported digest algorithm: " + algorithm, e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Splits a byte range in halves until it fits in one chunk, then combines the CRCs
+     */
+    private static class CrcTask extends RecursiveTask<Long> {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        CrcTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Long compute() {
+            try {
+                if (end - start <= CHUNK_SIZE) {
+                    return crcRange(channel, start, end);
+                }
+                long middle = start + ((end - start) / 2);
+                CrcTask left = new CrcTask(channel, start, middle);
+                CrcTask right = new CrcTask(channel, middle, end);
+                left.fork();
+                long rightCrc = right.compute();
+                long leftCrc = left.join();
+                return crc32Combine(leftCrc, rightCrc, end - middle);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Combines CRC-32 values of two adjacent blocks (port of zlib's crc32_combine)
+     */
+    static long crc32Combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // Operator for one zero bit
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); // two zero bits
+        gf2MatrixSquare(odd, even); // four zero bits
+
+        // Apply len2 zero bytes to crc1
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        int i = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+            vec >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+}
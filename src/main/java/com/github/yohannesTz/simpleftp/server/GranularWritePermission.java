@@ -1,27 +1,76 @@
 package com.github.yohannesTz.simpleftp.server;
 
 import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.server.fs.ReadRequest;
 import org.apache.ftpserver.ftplet.Authority;
 import org.apache.ftpserver.ftplet.AuthorizationRequest;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginRequest;
+import org.apache.ftpserver.usermanager.impl.TransferRateRequest;
+import org.apache.ftpserver.usermanager.impl.WriteRequest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
- * Custom write permission that supports granular FTP operations
+ * Custom write permission that supports granular FTP operations. The
+ * permissions of the user's groups replace the user's own, and path rules
+ * replace both under the paths they match.
  */
 public class GranularWritePermission implements Authority {
     private final FTPPermissions permissions;
+    private final String username;
+    private final List<String> groups;
+    private final Supplier<PathRules> rules;
+    private final Supplier<UserGroups> groupPolicies;
     
     public GranularWritePermission(FTPPermissions permissions) {
+        this(permissions, null, Collections.emptyList(), () -> PathRules.EMPTY, () -> UserGroups.EMPTY);
+    }
+
+    /**
+     * @param rules the current path rules, read on every check so reloaded rules apply to live sessions
+     * @param groupPolicies the current user groups, likewise read on every check
+     */
+    public GranularWritePermission(FTPPermissions permissions, String username, List<String> groups,
+                                   Supplier<PathRules> rules, Supplier<UserGroups> groupPolicies) {
         this.permissions = permissions;
+        this.username = username;
+        this.groups = groups;
+        this.rules = rules;
+        this.groupPolicies = groupPolicies;
+    }
+    
+    /**
+     * The permissions that apply where no path rule does: the groups' or else the user's own
+     */
+    public FTPPermissions getPermissions() {
+        return groupPolicies.get().permissions(groups, permissions);
+    }
+
+    /**
+     * Returns the permissions that apply at a virtual path
+     */
+    public FTPPermissions getPermissions(String path) {
+        FTPPermissions scoped = path == null ? null : rules.get().resolve(path, username, groups);
+        return scoped != null ? scoped : getPermissions();
     }
     
     @Override
     public AuthorizationRequest authorize(AuthorizationRequest request) {
+        if (request instanceof WriteRequest) {
+            return getPermissions(((WriteRequest) request).getFile()).isCanWrite() ? request : null;
+        }
+        if (request instanceof ReadRequest) {
+            ReadRequest read = (ReadRequest) request;
+            FTPPermissions effective = getPermissions(read.getPath());
+            return (read.isListing() ? effective.isCanList() : effective.isCanRead()) ? request : null;
+        }
         String requestType = request.getClass().getSimpleName();
+        FTPPermissions permissions = getPermissions();
         
         // Handle different request types based on our granular permissions
         switch (requestType) {
-            case "WriteRequest":
-                return permissions.isCanWrite() ? request : null;
             case "DeleteRequest":
                 return permissions.isCanDelete() ? request : null;
             case "RenameRequest":
@@ -43,7 +92,8 @@ public class GranularWritePermission implements Authority {
     
     @Override
     public boolean canAuthorize(AuthorizationRequest request) {
-        return true; // We handle all request types
+        // Login and transfer-rate limits are left to their own authorities
+        return !(request instanceof ConcurrentLoginRequest) && !(request instanceof TransferRateRequest);
     }
 }
 
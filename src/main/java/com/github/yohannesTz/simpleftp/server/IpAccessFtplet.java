@@ -0,0 +1,142 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletContext;
+import org.apache.ftpserver.ftplet.FtpletResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Applies IP allow/deny lists. The server-wide lists are read from files
+ * that are re-read whenever they change, so threat feeds can be updated
+ * without restarting; they are checked when a connection opens. Per-user
+ * lists are checked when that user sends PASS.
+ */
+public class IpAccessFtplet extends DefaultFtplet {
+    private static final String ATTR_USERNAME = "ipAccess.username";
+    private static final long RELOAD_CHECK_SECONDS = 5;
+
+    private final File allowFile;
+    private final File denyFile;
+    private final Function<String, UserAccount> accounts;
+    private final Map<String, IpFilter> userFilters = new ConcurrentHashMap<>();
+    private volatile IpFilter serverFilter = IpFilter.ALLOW_ALL;
+    private long allowStamp;
+    private long denyStamp;
+    private ScheduledExecutorService reloader;
+
+    public IpAccessFtplet(File allowFile, File denyFile, Function<String, UserAccount> accounts) {
+        this.allowFile = allowFile;
+        this.denyFile = denyFile;
+        this.accounts = accounts;
+    }
+
+    @Override
+    public void init(FtpletContext ftpletContext) throws FtpException {
+        reloadIfChanged();
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ip-list-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(this::reloadIfChanged,
+            RELOAD_CHECK_SECONDS, RELOAD_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    /**
+     * Re-reads the server-wide list files now
+     */
+    public synchronized void reload() {
+        try {
+            IpFilter filter = new IpFilter(IpFilter.load(allowFile), IpFilter.load(denyFile));
+            serverFilter = filter;
+            System.out.println("Loaded IP lists: " + filter.getAllow().size() + " allowed, "
+                + filter.getDeny().size() + " denied ranges");
+        } catch (IOException e) {
+            System.err.println("Failed to load IP lists: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops the compiled lists of a user so edits apply to their next login
+     */
+    public void invalidateUser(String username) {
+        userFilters.remove(username);
+    }
+
+    private synchronized void reloadIfChanged() {
+        long allow = stamp(allowFile);
+        long deny = stamp(denyFile);
+        if (allow != allowStamp || deny != denyStamp) {
+            allowStamp = allow;
+            denyStamp = deny;
+            reload();
+        }
+    }
+
+    private static long stamp(File file) {
+        return file.isFile() ? file.lastModified() ^ (file.length() << 20) : 0;
+    }
+
+    @Override
+    public FtpletResult onConnect(FtpSession session) throws FtpException, IOException {
+        InetAddress address = clientAddress(session);
+        if (address != null && !serverFilter.permits(address)) {
+            session.write(new DefaultFtpReply(421, "Access denied from your address."));
+            return FtpletResult.DISCONNECT;
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult beforeCommand(FtpSession session, FtpRequest request)
+            throws FtpException, IOException {
+        if ("USER".equals(request.getCommand()) && request.hasArgument()) {
+            session.setAttribute(ATTR_USERNAME, request.getArgument());
+            return FtpletResult.DEFAULT;
+        }
+        if (!"PASS".equals(request.getCommand())) {
+            return FtpletResult.DEFAULT;
+        }
+
+        String username = (String) session.getAttribute(ATTR_USERNAME);
+        UserAccount account = username == null ? null : accounts.apply(username);
+        InetAddress address = clientAddress(session);
+        if (account == null || address == null) {
+            return FtpletResult.DEFAULT;
+        }
+        IpFilter filter = userFilters.computeIfAbsent(username,
+            name -> IpFilter.of(account.getAllowedIps(), account.getDeniedIps()));
+        if (!filter.permits(address)) {
+            session.write(new DefaultFtpReply(530, "Login not allowed from your address."));
+            return FtpletResult.SKIP;
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    private static InetAddress clientAddress(FtpSession session) {
+        InetSocketAddress address = session.getClientAddress();
+        return address == null ? null : address.getAddress();
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Allow and deny lists of CIDR ranges. An address is refused if it matches
+ * the deny list, or if the allow list is non-empty and it does not match it.
+ */
+public final class IpFilter {
+    public static final IpFilter ALLOW_ALL = new IpFilter(CidrTrie.EMPTY, CidrTrie.EMPTY);
+    public static final IpFilter DENY_ALL = new IpFilter(CidrTrie.EMPTY, CidrTrie.EMPTY, true);
+
+    private final CidrTrie allow;
+    private final CidrTrie deny;
+    private final boolean denyAll;
+
+    public IpFilter(CidrTrie allow, CidrTrie deny) {
+        this(allow, deny, false);
+    }
+
+    private IpFilter(CidrTrie allow, CidrTrie deny, boolean denyAll) {
+        this.allow = allow;
+        this.deny = deny;
+        this.denyAll = denyAll;
+    }
+
+    /**
+     * Compiles a filter from lists of ranges. Invalid deny entries are skipped, but
+     * an invalid allow entry refuses every address: skipping it would widen the
+     * list, or with nothing valid left, open it to everyone.
+     */
+    public static IpFilter of(Collection<String> allowed, Collection<String> denied) {
+        if (allowed.isEmpty() && denied.isEmpty()) {
+            return ALLOW_ALL;
+        }
+        CidrTrie.Builder allow = new CidrTrie.Builder();
+        for (String range : allowed) {
+            try {
+                allow.add(range);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Refusing all addresses, invalid allowed IP range: " + e.getMessage());
+                return DENY_ALL;
+            }
+        }
+        return new IpFilter(allow.build(), compile(denied));
+    }
+
+    public boolean permits(InetAddress address) {
+        if (denyAll || deny.contains(address)) {
+            return false;
+        }
+        return allow.isEmpty() || allow.contains(address);
+    }
+
+    public CidrTrie getAllow() {
+        return allow;
+    }
+
+    public CidrTrie getDeny() {
+        return deny;
+    }
+
+    private static CidrTrie compile(Collection<String> ranges) {
+        CidrTrie.Builder builder = new CidrTrie.Builder();
+        for (String range : ranges) {
+            try {
+                builder.add(range);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring IP range: " + e.getMessage());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads a list file with one address or CIDR range per line. Blank lines,
+     * '#' and ';' comments and invalid lines are skipped; a missing file is an empty list.
+     */
+    public static CidrTrie load(File file) throws IOException {
+        CidrTrie.Builder builder = new CidrTrie.Builder();
+        if (!file.isFile()) {
+            return builder.build();
+        }
+        int skipped = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = indexOfComment(line);
+                String range = (comment < 0 ? line : line.substring(0, comment)).trim();
+                if (range.isEmpty()) {
+                    continue;
+                }
+                try {
+                    builder.add(range);
+                } catch (IllegalArgumentException e) {
+                    skipped++;
+                }
+            }
+        }
+        if (skipped > 0) {
+            System.err.println("Skipped " + skipped + " invalid entries in " + file);
+        }
+        return builder.build();
+    }
+
+    private static int indexOfComment(String line) {
+        int hash = line.indexOf('#');
+        int semicolon = line.indexOf(';');
+        if (hash < 0) {
+            return semicolon;
+        }
+        return semicolon < 0 ? hash : Math.min(hash, semicolon);
+    }
+}
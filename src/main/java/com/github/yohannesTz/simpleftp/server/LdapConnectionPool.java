@@ -0,0 +1,216 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import java.io.Closeable;
+import java.util.Hashtable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-size pool of LDAP connections. A connection is bound as the search
+ * account when it is handed out, and can be re-bound as a user on the same
+ * socket to check a password, so a login costs a bind rather than a new TCP
+ * (and TLS) connection. Waiting for a free connection counts as a request
+ * and is limited by the same timeout as reads from the directory.
+ * <p>
+ * A server that drops idle connections is only noticed when one is next
+ * used, so operations run through execute() are retried once on a new
+ * connection when a pooled one fails as if it had been closed.
+ */
+class LdapConnectionPool implements Closeable {
+    private final Hashtable<String, Object> environment;
+    private final String bindDn;
+    private final String bindPassword;
+    private final long timeoutMillis;
+    private final Semaphore permits;
+    private final BlockingQueue<Connection> idle;
+    private volatile boolean closed;
+
+    /**
+     * @param environment JNDI settings for new connections, without credentials
+     * @param bindDn the search account, or empty to search anonymously
+     */
+    LdapConnectionPool(Hashtable<String, Object> environment, String bindDn, String bindPassword,
+                       int size, long timeoutMillis) {
+        this.environment = new Hashtable<>(environment);
+        String timeout = String.valueOf(timeoutMillis);
+        this.environment.put("com.sun.jndi.ldap.connect.timeout", timeout);
+        this.environment.put("com.sun.jndi.ldap.read.timeout", timeout);
+        this.environment.put("java.naming.ldap.version", "3");
+        this.bindDn = bindDn == null ? "" : bindDn;
+        this.bindPassword = bindPassword == null ? "" : bindPassword;
+        this.timeoutMillis = timeoutMillis;
+        int connections = Math.max(1, size);
+        this.permits = new Semaphore(connections, true);
+        this.idle = new ArrayBlockingQueue<>(connections);
+    }
+
+    /**
+     * An operation on a connection bound as the search account
+     */
+    interface Operation<T> {
+        T run(Connection connection) throws NamingException;
+    }
+
+    /**
+     * Runs an operation on a pooled connection, and once more on a new connection if
+     * the pooled one turns out to have been closed by the server
+     */
+    <T> T execute(Operation<T> operation) throws NamingException {
+        for (boolean retry = false; ; retry = true) {
+            Connection connection = acquire(retry);
+            boolean reusable = false;
+            try {
+                T result = operation.run(connection);
+                reusable = true;
+                return result;
+            } catch (NamingException e) {
+                if (retry || !connection.pooled || !isDropped(e)) {
+                    throw e;
+                }
+            } finally {
+                release(connection, reusable);
+            }
+        }
+    }
+
+    /**
+     * Whether a failure may come from a connection the server has closed. JNDI reports it as a
+     * CommunicationException, or as a plain NamingException if it already saw the socket close.
+     */
+    private static boolean isDropped(NamingException e) {
+        return e instanceof CommunicationException || e.getClass() == NamingException.class;
+    }
+
+    /**
+     * Takes a connection bound as the search account, a new one if fresh is set; it must
+     * be given back with release()
+     */
+    private Connection acquire(boolean fresh) throws NamingException {
+        if (closed) {
+            throw new NamingException("LDAP connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new NamingException("Timed out waiting for an LDAP connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedNamingException("Interrupted waiting for an LDAP connection");
+        }
+        try {
+            Connection connection = fresh ? null : idle.poll();
+            if (connection != null) {
+                try {
+                    connection.bindAsSearchAccount();
+                    connection.pooled = true;
+                    return connection;
+                } catch (NamingException e) {
+                    // Dropped by the server or left unusable by a failed bind; replace it
+                    connection.close();
+                }
+            }
+            return new Connection(new InitialLdapContext(credentials(bindDn, bindPassword), null));
+        } catch (NamingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a connection back; connections that failed are closed rather than reused
+     */
+    private void release(Connection connection, boolean reusable) {
+        if (!reusable || closed || !idle.offer(connection)) {
+            connection.close();
+        }
+        permits.release();
+    }
+
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    private Hashtable<String, Object> credentials(String dn, String password) {
+        Hashtable<String, Object> env = new Hashtable<>(environment);
+        if (dn.isEmpty()) {
+            env.put(Context.SECURITY_AUTHENTICATION, "none");
+        } else {
+            env.put(Context.SECURITY_AUTHENTICATION, "simple");
+            env.put(Context.SECURITY_PRINCIPAL, dn);
+            env.put(Context.SECURITY_CREDENTIALS, password);
+        }
+        return env;
+    }
+
+    /**
+     * A pooled connection and the identity it is currently bound as
+     */
+    class Connection {
+        private final LdapContext context;
+        private boolean searchAccount = true;
+        /** Taken from the idle connections rather than opened for this use */
+        private boolean pooled;
+
+        private Connection(LdapContext context) {
+            this.context = context;
+        }
+
+        LdapContext context() {
+            return context;
+        }
+
+        /**
+         * Re-binds the connection as a user; AuthenticationException means the password was wrong
+         */
+        void bind(String dn, String password) throws NamingException {
+            searchAccount = false;
+            rebind(dn, password);
+        }
+
+        private void bindAsSearchAccount() throws NamingException {
+            if (!searchAccount) {
+                rebind(bindDn, bindPassword);
+                searchAccount = true;
+            }
+        }
+
+        private void rebind(String dn, String password) throws NamingException {
+            if (dn.isEmpty()) {
+                context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "none");
+                context.removeFromEnvironment(Context.SECURITY_PRINCIPAL);
+                context.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+            } else {
+                context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+                context.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+                context.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+            }
+            // Binds again over the existing connection
+            context.reconnect(null);
+        }
+
+        private void close() {
+            try {
+                context.close();
+            } catch (NamingException e) {
+                // Already gone
+            }
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.ftpserver.ftplet.Authentication;
+import org.apache.ftpserver.ftplet.AuthenticationFailedException;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+import java.io.Closeable;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * UserManager that checks users without a local account against an LDAP
+ * directory. A user's entry is found with a search as the configured
+ * account, and their password is checked by binding as them over a pooled
+ * connection. Directory groups map to FTP permissions, and a user in no
+ * mapped group cannot log in. Found and unknown users, and accepted and
+ * rejected passwords, are cached for a while so repeated logins and commands
+ * do not go back to the directory; errors and timeouts are never cached.
+ * Local accounts always take precedence and are saved to the local manager.
+ */
+public class LdapUserManager implements UserManager, Closeable {
+    private final UserManager local;
+    private final LdapConnectionPool pool;
+    private final String userBase;
+    private final String userFilter;
+    private final String groupAttribute;
+    private final String homeAttribute;
+    private final String baseFolder;
+    private final int timeoutMillis;
+    private final Map<String, FTPPermissions> groupPermissions;
+    private final long cacheMillis;
+    private final long failureCacheMillis;
+    private final ExpiringCache<String, Lookup> lookups;
+    /** Outcomes of recent binds, by a salted digest of the username and password */
+    private final ExpiringCache<String, Boolean> logins;
+    private final Consumer<UserAccount> onLoad;
+    private final Function<UserAccount, User> toUser;
+    private final byte[] salt = new byte[16];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param local the manager of local accounts, consulted first
+     * @param onLoad called with each account read from the directory
+     * @param toUser creates the FTP user for an account
+     */
+    public LdapUserManager(ServerConfig config, UserManager local, Consumer<UserAccount> onLoad,
+                           Function<UserAccount, User> toUser) {
+        this(config, local, onLoad, toUser, ldapEnvironment(config));
+    }
+
+    LdapUserManager(ServerConfig config, UserManager local, Consumer<UserAccount> onLoad,
+                    Function<UserAccount, User> toUser, Hashtable<String, Object> environment) {
+        this.local = local;
+        this.onLoad = onLoad;
+        this.toUser = toUser;
+        this.userBase = config.getLdapUserBase();
+        this.userFilter = config.getLdapUserFilter();
+        this.groupAttribute = config.getLdapGroupAttribute();
+        this.homeAttribute = config.getLdapHomeAttribute();
+        this.baseFolder = config.getBaseFolder();
+        this.timeoutMillis = Math.max(1, config.getLdapTimeoutMillis());
+        this.groupPermissions = parseGroupPermissions(config.getLdapGroupPermissions());
+        this.cacheMillis = config.getLdapCacheSeconds() * 1000L;
+        this.failureCacheMillis = config.getLdapFailureCacheSeconds() * 1000L;
+        this.lookups = new ExpiringCache<>(config.getLdapCacheSize());
+        this.logins = new ExpiringCache<>(config.getLdapCacheSize());
+        this.pool = new LdapConnectionPool(environment, config.getLdapBindDn(), config.getLdapBindPassword(),
+            config.getLdapPoolSize(), timeoutMillis);
+        new SecureRandom().nextBytes(salt);
+        if (groupPermissions.isEmpty()) {
+            System.err.println("ldap.groupPermissions is empty; no directory user can log in");
+        }
+    }
+
+    private static Hashtable<String, Object> ldapEnvironment(ServerConfig config) {
+        Hashtable<String, Object> env = new Hashtable<>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        env.put(Context.PROVIDER_URL, config.getLdapUrl());
+        return env;
+    }
+
+    /**
+     * Parses "group:permissions;..." with permissions as understood by FTPPermissions.parse()
+     */
+    static Map<String, FTPPermissions> parseGroupPermissions(String mapping) {
+        Map<String, FTPPermissions> groups = new HashMap<>();
+        for (String entry : mapping.split(";")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Expected group:permissions in ldap.groupPermissions: " + entry.trim());
+            }
+            String group = entry.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            groups.put(group, FTPPermissions.parse(entry.substring(colon + 1).trim()));
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the directory account of a user, from the cache or the directory, or
+     * null if the user is unknown, in no mapped group or the directory failed
+     */
+    public UserAccount getAccount(String username) {
+        try {
+            Lookup lookup = lookup(username);
+            return lookup == null ? null : lookup.account;
+        } catch (NamingException e) {
+            directoryFailed("look up " + username, e);
+            return null;
+        }
+    }
+
+    private Lookup lookup(String username) throws NamingException {
+        if (!isValidName(username)) {
+            return null;
+        }
+        Lookup cached = lookups.get(username);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        Lookup lookup = search(username);
+        lookups.put(username, lookup, lookup.account != null ? cacheMillis : failureCacheMillis);
+        if (lookup.account != null) {
+            onLoad.accept(lookup.account);
+        }
+        return lookup;
+    }
+
+    private static boolean isValidName(String username) {
+        // The name becomes a directory under the base folder
+        return username != null && !username.isEmpty() && !username.equals(".") && !username.equals("..")
+            && username.indexOf('/') < 0 && username.indexOf('\\') < 0;
+    }
+
+    private Lookup search(String username) throws NamingException {
+        List<String> attributes = new ArrayList<>();
+        attributes.add(groupAttribute);
+        if (!homeAttribute.isEmpty()) {
+            attributes.add(homeAttribute);
+        }
+        SearchControls controls = new SearchControls(SearchControls.SUBTREE_SCOPE, 2, timeoutMillis,
+            attributes.toArray(new String[0]), false, false);
+
+        return pool.execute(connection -> {
+            SearchResult entry = null;
+            boolean ambiguous = false;
+            // The filter arguments are escaped by JNDI
+            NamingEnumeration<SearchResult> results = connection.context().search(userBase, userFilter,
+                new Object[]{username}, controls);
+            try {
+                if (results.hasMore()) {
+                    entry = results.next();
+                    ambiguous = results.hasMore();
+                }
+            } catch (SizeLimitExceededException e) {
+                ambiguous = true;
+            } finally {
+                results.close();
+            }
+            if (ambiguous) {
+                System.err.println("LDAP filter matches more than one entry for " + username);
+                return new Lookup(null, null);
+            }
+            if (entry == null) {
+                return new Lookup(null, null);
+            }
+            return new Lookup(entry.getNameInNamespace(), toAccount(username, entry.getAttributes()));
+        });
+    }
+
+    /**
+     * Creates the account of a directory user, or returns null if none of their groups is mapped
+     */
+    private UserAccount toAccount(String username, Attributes attributes) throws NamingException {
+        FTPPermissions permissions = groupPermissions.get("*");
+        List<String> names = new ArrayList<>();
+        Attribute groups = attributes.get(groupAttribute);
+        if (groups != null) {
+            NamingEnumeration<?> values = groups.getAll();
+            while (values.hasMore()) {
+                String group = String.valueOf(values.next());
+                String name = groupName(group);
+                names.add(name);
+                // Mapped by full DN or by name
+                FTPPermissions granted = groupPermissions.get(group.toLowerCase(Locale.ROOT));
+                if (granted == null) {
+                    granted = groupPermissions.get(name);
+                }
+                if (granted != null) {
+                    permissions = permissions == null ? granted : FTPPermissions.union(permissions, granted);
+                }
+            }
+        }
+        if (permissions == null) {
+            return null;
+        }
+
+        String home = null;
+        Attribute homeValue = homeAttribute.isEmpty() ? null : attributes.get(homeAttribute);
+        if (homeValue != null && homeValue.get() != null) {
+            home = String.valueOf(homeValue.get());
+        }
+        if (home == null || home.isEmpty()) {
+            home = new File(baseFolder, username).getPath();
+        }
+        // Idle time 0 uses the server's default
+        UserAccount account = new UserAccount(username, "", home, permissions, 0);
+        account.setGroups(names);
+        return account;
+    }
+
+    /**
+     * Returns a group's name in lower case: the value of its first RDN (e.g. its cn)
+     * if it is a DN, else the value itself
+     */
+    private static String groupName(String group) {
+        try {
+            LdapName name = new LdapName(group);
+            if (name.size() > 0) {
+                return String.valueOf(name.getRdn(name.size() - 1).getValue()).toLowerCase(Locale.ROOT);
+            }
+        } catch (NamingException | IllegalArgumentException e) {
+            // Not a DN, e.g. a plain group name
+        }
+        return group.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Checks a directory user's password, from the cache if the same password was checked recently
+     */
+    private UserAccount verify(String username, String password) throws AuthenticationFailedException {
+        String digest = digest(username, password);
+        Boolean cached = logins.get(digest);
+        if (cached != null) {
+            hits.incrementAndGet();
+            if (!cached) {
+                throw new AuthenticationFailedException("Authentication failed");
+            }
+            UserAccount account = getAccount(username);
+            if (account != null) {
+                return account;
+            }
+            throw new AuthenticationFailedException("Authentication failed");
+        }
+
+        try {
+            Lookup lookup = lookup(username);
+            if (lookup == null || lookup.account == null) {
+                throw new AuthenticationFailedException("Authentication failed");
+            }
+            misses.incrementAndGet();
+            boolean accepted = pool.execute(connection -> {
+                try {
+                    connection.bind(lookup.dn, password);
+                    return true;
+                } catch (AuthenticationException e) {
+                    return false;
+                }
+            });
+            logins.put(digest, accepted, accepted ? cacheMillis : failureCacheMillis);
+            if (!accepted) {
+                throw new AuthenticationFailedException("Authentication failed");
+            }
+            return lookup.account;
+        } catch (NamingException e) {
+            directoryFailed("authenticate " + username, e);
+            throw new AuthenticationFailedException("Authentication failed");
+        }
+    }
+
+    private String digest(String username, String password) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(salt);
+            sha.update(username.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            return Base64.getEncoder().encodeToString(sha.digest(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void directoryFailed(String action, NamingException e) {
+        errors.incrementAndGet();
+        System.err.println("LDAP: failed to " + action + ": " + e);
+    }
+
+    private boolean isLocal(String username) {
+        try {
+            return local.doesExist(username);
+        } catch (FtpException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public User authenticate(Authentication authentication) throws AuthenticationFailedException {
+        if (!(authentication instanceof UsernamePasswordAuthentication)) {
+            return local.authenticate(authentication);
+        }
+        UsernamePasswordAuthentication login = (UsernamePasswordAuthentication) authentication;
+        String username = login.getUsername();
+        String password = login.getPassword();
+        if (username == null || isLocal(username)) {
+            return local.authenticate(authentication);
+        }
+        // An empty password would be an unauthenticated bind, which directories accept
+        if (password == null || password.isEmpty()) {
+            throw new AuthenticationFailedException("Authentication failed");
+        }
+        return toUser.apply(verify(username, password));
+    }
+
+    @Override
+    public User getUserByName(String username) throws FtpException {
+        if (isLocal(username)) {
+            return local.getUserByName(username);
+        }
+        UserAccount account = getAccount(username);
+        return account == null ? null : toUser.apply(account);
+    }
+
+    /**
+     * Returns the local users; directory users are not listed
+     */
+    @Override
+    public String[] getAllUserNames() throws FtpException {
+        return local.getAllUserNames();
+    }
+
+    @Override
+    public void delete(String username) throws FtpException {
+        local.delete(username);
+    }
+
+    @Override
+    public void save(User user) throws FtpException {
+        local.save(user);
+    }
+
+    @Override
+    public boolean doesExist(String username) throws FtpException {
+        return local.doesExist(username) || getAccount(username) != null;
+    }
+
+    @Override
+    public String getAdminName() throws FtpException {
+        return local.getAdminName();
+    }
+
+    @Override
+    public boolean isAdmin(String username) throws FtpException {
+        return local.isAdmin(username);
+    }
+
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    public long getCacheMisses() {
+        return misses.get();
+    }
+
+    public long getDirectoryErrors() {
+        return errors.get();
+    }
+
+    public int getCachedUserCount() {
+        return lookups.size();
+    }
+
+    public int getIdleConnectionCount() {
+        return pool.getIdleCount();
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * The result of a user search; account is null for unknown or unmapped users
+     */
+    private static class Lookup {
+        final String dn;
+        final UserAccount account;
+
+        Lookup(String dn, UserAccount account) {
+            this.dn = dn;
+            this.account = account;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts failed logins per key (an IP address or a username) over a sliding
+ * window. Keys are spread over independent stripes and every window is a
+ * ring of atomic buckets, so recording a failure never takes a lock.
+ * Idle keys are swept from a stripe every few thousand updates.
+ */
+public class LoginFailureTracker {
+    private static final int STRIPES = 16;
+    private static final int BUCKETS = 12;
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final int SWEEP_INTERVAL = 4096;
+
+    private final long windowMillis;
+    private final long bucketMillis;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Map<String, Long> bannedUntil = new ConcurrentHashMap<>();
+    private final AtomicInteger bans = new AtomicInteger();
+
+    public LoginFailureTracker(long windowMillis) {
+        this.bucketMillis = Math.max(1, windowMillis / BUCKETS);
+        this.windowMillis = bucketMillis * BUCKETS;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Records a failure and returns the number of failures within the window, including this one
+     */
+    public int recordFailure(String key) {
+        long now = System.currentTimeMillis();
+        Stripe stripe = stripe(key);
+        Window window = stripe.windows.computeIfAbsent(key, k -> new Window());
+        int count = window.increment(now / bucketMillis);
+        if (stripe.updates.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            stripe.sweep(now - windowMillis);
+            bannedUntil.values().removeIf(until -> until <= now);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of failures within the window
+     */
+    public int failures(String key) {
+        Window window = stripe(key).windows.get(key);
+        return window == null ? 0 : window.count(System.currentTimeMillis() / bucketMillis);
+    }
+
+    public void reset(String key) {
+        stripe(key).windows.remove(key);
+    }
+
+    public void ban(String key, long durationMillis) {
+        long now = System.currentTimeMillis();
+        bannedUntil.put(key, now + durationMillis);
+        // Short bans may never be checked again, so expired ones are swept here too
+        if (bans.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            bannedUntil.values().removeIf(until -> until <= now);
+        }
+    }
+
+    public boolean isBanned(String key) {
+        Long until = bannedUntil.get(key);
+        if (until == null) {
+            return false;
+        }
+        if (until <= System.currentTimeMillis()) {
+            bannedUntil.remove(key, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of keys currently tracked
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.windows.size();
+        }
+        return size;
+    }
+
+    private Stripe stripe(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static class Stripe {
+        final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+        final AtomicInteger updates = new AtomicInteger();
+
+        void sweep(long idleBefore) {
+            Iterator<Window> it = windows.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().lastUpdate < idleBefore) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ring of buckets; each slot packs its bucket number (high bits) and count (low bits)
+     * so a stale slot can be recycled with a single CAS
+     */
+    private static class Window {
+        final AtomicLongArray slots = new AtomicLongArray(BUCKETS);
+        volatile long lastUpdate = System.currentTimeMillis();
+
+        int increment(long bucket) {
+            int index = (int) (bucket % BUCKETS);
+            while (true) {
+                long slot = slots.get(index);
+                long next = (slot >>> COUNT_BITS) == bucket
+                    ? Math.min(slot + 1, (bucket << COUNT_BITS) | COUNT_MASK)
+                    : (bucket << COUNT_BITS) | 1;
+                if (slots.compareAndSet(index, slot, next)) {
+                    break;
+                }
+            }
+            lastUpdate = System.currentTimeMillis();
+            return count(bucket);
+        }
+
+        int count(long currentBucket) {
+            int total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                long slot = slots.get(i);
+                if (currentBucket - (slot >>> COUNT_BITS) < BUCKETS) {
+                    total += (int) (slot & COUNT_MASK);
+                }
+            }
+            return total;
+        }
+    }
+}
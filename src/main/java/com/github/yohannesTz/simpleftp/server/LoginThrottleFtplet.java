@@ -0,0 +1,149 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Slows down and bans clients that keep failing to log in.
+ * Failures are counted per IP and per username; connections from a banned
+ * IP are dropped in onConnect, before any login processing. Slowing down
+ * never holds a thread: after repeated failures an IP is penalized for a
+ * delay that doubles with every failure, and logins it attempts meanwhile
+ * are refused at once without checking the password (and count as failures).
+ */
+public class LoginThrottleFtplet extends DefaultFtplet {
+    private static final String ATTR_USERNAME = "loginThrottle.username";
+    private static final long BASE_DELAY_MILLIS = 250;
+    private static final long MAX_DELAY_MILLIS = 5000;
+
+    private final LoginFailureTracker ipFailures;
+    private final LoginFailureTracker userFailures;
+    /** IPs whose logins are refused until their delay is over, as short bans */
+    private final LoginFailureTracker ipPenalties;
+    private final int delayAfterFailures;
+    private final int banAfterFailures;
+    private final int lockoutAfterFailures;
+    private final long banMillis;
+
+    public LoginThrottleFtplet(ServerConfig config) {
+        long windowMillis = config.getLoginFailureWindowSeconds() * 1000L;
+        this.ipFailures = new LoginFailureTracker(windowMillis);
+        this.userFailures = new LoginFailureTracker(windowMillis);
+        this.ipPenalties = new LoginFailureTracker(MAX_DELAY_MILLIS);
+        this.delayAfterFailures = config.getLoginDelayAfterFailures();
+        this.banAfterFailures = config.getLoginBanAfterFailures();
+        this.lockoutAfterFailures = config.getUserLockoutAfterFailures();
+        this.banMillis = config.getLoginBanSeconds() * 1000L;
+    }
+
+    @Override
+    public FtpletResult onConnect(FtpSession session) throws FtpException, IOException {
+        String ip = clientIp(session);
+        if (ip == null) {
+            return FtpletResult.DEFAULT;
+        }
+        if (ipFailures.isBanned(ip)) {
+            session.write(new DefaultFtpReply(421, "Too many failed logins. Try again later."));
+            return FtpletResult.DISCONNECT;
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult beforeCommand(FtpSession session, FtpRequest request)
+            throws FtpException, IOException {
+        if ("USER".equals(request.getCommand()) && request.hasArgument()) {
+            session.setAttribute(ATTR_USERNAME, request.getArgument());
+        }
+        if (!"PASS".equals(request.getCommand())) {
+            return FtpletResult.DEFAULT;
+        }
+        String ip = clientIp(session);
+        if (ip != null && ipFailures.isBanned(ip)) {
+            session.write(new DefaultFtpReply(421, "Too many failed logins. Try again later."));
+            return FtpletResult.DISCONNECT;
+        }
+        if (ip != null && ipPenalties.isBanned(ip)) {
+            if (recordIpFailure(ip)) {
+                session.write(new DefaultFtpReply(421, "Too many failed logins. Try again later."));
+                return FtpletResult.DISCONNECT;
+            }
+            session.write(new DefaultFtpReply(530, "Too many failed logins. Wait a moment before trying again."));
+            return FtpletResult.SKIP;
+        }
+        String username = (String) session.getAttribute(ATTR_USERNAME);
+        if (username != null && userFailures.isBanned(username)) {
+            session.write(new DefaultFtpReply(530, "Too many failed logins for this user. Try again later."));
+            return FtpletResult.SKIP;
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply)
+            throws FtpException, IOException {
+        if (!"PASS".equals(request.getCommand()) || reply == null) {
+            return FtpletResult.DEFAULT;
+        }
+        String ip = clientIp(session);
+        String username = (String) session.getAttribute(ATTR_USERNAME);
+
+        if (reply.getCode() == 230) {
+            // Only the account is cleared; the IP keeps its history so one valid login cannot reset it
+            if (username != null) {
+                userFailures.reset(username);
+            }
+            return FtpletResult.DEFAULT;
+        }
+        if (reply.getCode() != 530) {
+            return FtpletResult.DEFAULT;
+        }
+
+        if (username != null && userFailures.recordFailure(username) >= lockoutAfterFailures) {
+            userFailures.ban(username, banMillis);
+            System.out.println("Locked user '" + username + "' for " + banMillis / 1000 + "s after repeated failed logins");
+        }
+        if (ip != null && recordIpFailure(ip)) {
+            return FtpletResult.DISCONNECT;
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    /**
+     * Counts a failed login from an IP and penalizes or bans it
+     *
+     * @return true if the IP is now banned
+     */
+    private boolean recordIpFailure(String ip) {
+        int failures = ipFailures.recordFailure(ip);
+        if (failures >= banAfterFailures) {
+            ipFailures.ban(ip, banMillis);
+            ipFailures.reset(ip);
+            System.out.println("Banned " + ip + " for " + banMillis / 1000 + "s after repeated failed logins");
+            return true;
+        }
+        if (failures >= delayAfterFailures) {
+            // Progressive delay: doubles with every failure past the threshold
+            int shift = Math.min(failures - delayAfterFailures, 5);
+            ipPenalties.ban(ip, Math.min(BASE_DELAY_MILLIS << shift, MAX_DELAY_MILLIS));
+        }
+        return false;
+    }
+
+    private static String clientIp(FtpSession session) {
+        InetSocketAddress address = session.getClientAddress();
+        if (address == null || address.getAddress() == null) {
+            return null;
+        }
+        return address.getAddress().getHostAddress();
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory bookkeeping of interrupted uploads on the local disk, so a
+ * client can resume with REST + STOR or APPE. Each partial records the
+ * length and modification time it was left with; a resume may only start
+ * within that verified prefix. Optionally the CRC-32 of the prefix is
+ * computed in the background and put into the DigestCache, so a client can
+ * check the prefix with XCRC/HASH before resuming and the final file's
+ * CRC-32 is known without reading the prefix again. Partials that are not
+ * resumed within the expiry are deleted.
+ */
+public class PartialUploadRegistry {
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private final Map<String, Partial> partials = new ConcurrentHashMap<>();
+    private final FileDigester digester;
+    private final DigestCache digestCache;
+    private final boolean checksums;
+    private final long expiryMillis;
+    private final ScheduledExecutorService worker;
+
+    /**
+     * @param expiryHours hours after which an abandoned partial is deleted, 0 keeps them
+     */
+    public PartialUploadRegistry(FileDigester digester, DigestCache digestCache, boolean checksums,
+                                 int expiryHours) {
+        this.digester = digester;
+        this.digestCache = digestCache;
+        this.checksums = checksums;
+        this.expiryMillis = TimeUnit.HOURS.toMillis(expiryHours);
+        this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "partial-uploads");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (expiryMillis > 0) {
+            worker.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns how far an upload to this file may be resumed: the recorded length
+     * if the partial is unchanged since, otherwise what is on disk
+     */
+    public long resumableLength(File file) {
+        Partial partial = find(file);
+        if (partial != null) {
+            return partial.length;
+        }
+        return file.isFile() ? file.length() : 0;
+    }
+
+    /**
+     * Records an upload that ended without completing
+     */
+    public void recordPartial(File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        Partial partial = new Partial(file.length(), file.lastModified());
+        partials.put(file.getAbsolutePath(), partial);
+        if (checksums) {
+            worker.execute(() -> computePrefixCrc(file, partial));
+        }
+    }
+
+    /**
+     * Returns the partial recorded for a file if it is unchanged since, otherwise null
+     */
+    Partial find(File file) {
+        Partial partial = partials.get(file.getAbsolutePath());
+        return partial != null && partial.matches(file) ? partial : null;
+    }
+
+    /**
+     * Forgets a file whose upload completed
+     *
+     * @param resumed the partial the upload continued from, or null if it did not resume one
+     */
+    void complete(File file, Partial resumed) {
+        partials.remove(file.getAbsolutePath());
+        if (checksums && resumed != null && resumed.crc >= 0) {
+            worker.execute(() -> computeCompletedCrc(file, resumed));
+        }
+    }
+
+    public int size() {
+        return partials.size();
+    }
+
+    public void shutdown() {
+        worker.shutdownNow();
+        partials.clear();
+    }
+
+    private void computePrefixCrc(File file, Partial partial) {
+        try {
+            long crc = digester.crc32(file, 0, partial.length);
+            // The client may have resumed meanwhile; only a still-current prefix is worth caching
+            if (partials.get(file.getAbsolutePath()) == partial && partial.matches(file)) {
+                partial.crc = crc;
+                digestCache.put(FileDigester.CRC32, file.getAbsolutePath(), partial.length,
+                    partial.lastModified, String.format("%08x", crc));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to checksum partial upload " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void computeCompletedCrc(File file, Partial prefix) {
+        try {
+            long length = file.length();
+            long lastModified = file.lastModified();
+            long suffix = digester.crc32(file, prefix.length, length);
+            long crc = FileDigester.crc32Combine(prefix.crc, suffix, length - prefix.length);
+            digestCache.put(FileDigester.CRC32, file.getAbsolutePath(), length, lastModified,
+                String.format("%08x", crc));
+        } catch (IOException e) {
+            System.err.println("Failed to checksum upload " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void sweep() {
+        long cutoff = System.currentTimeMillis() - expiryMillis;
+        Iterator<Map.Entry<String, Partial>> it = partials.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Partial> entry = it.next();
+            Partial partial = entry.getValue();
+            if (partial.recordedAt < cutoff) {
+                it.remove();
+                File file = new File(entry.getKey());
+                // Leave it alone if it was written to since, it is no longer the abandoned partial
+                if (partial.matches(file) && file.delete()) {
+                    System.out.println("Deleted abandoned partial upload " + file);
+                }
+            }
+        }
+    }
+
+    static class Partial {
+        final long length;
+        final long lastModified;
+        final long recordedAt = System.currentTimeMillis();
+        volatile long crc = -1;
+
+        Partial(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        boolean matches(File file) {
+            return file.isFile() && file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+}
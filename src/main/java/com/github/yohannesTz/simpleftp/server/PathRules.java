@@ -0,0 +1,367 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable set of path-scoped permission rules compiled into a trie of path
+ * segments. Each rule gives a user, a group or everyone ("*") permissions
+ * under a glob pattern: "*" and "?" match within one segment and "**" matches
+ * any number of segments. A lookup walks the path once, following literal
+ * segments by hash and testing only the glob segments present at each level,
+ * so its cost grows with the depth of the path, not the number of rules. The
+ * trie states reached for a directory are memoised, so checking the files of
+ * one directory only steps the last segment.
+ * <p>
+ * Where several rules match, the most specific pattern wins: more literal
+ * segments first, then "*" over "**". At the same pattern a user's rule beats
+ * their groups' rules, which are combined, and those beat rules for everyone;
+ * otherwise the later rule wins.
+ */
+public final class PathRules {
+    private static final int MEMO_LIMIT = 8192;
+    private static final String EVERYONE = "*";
+
+    public static final PathRules EMPTY = new Builder().build();
+
+    private final Node root;
+    private final int size;
+    private final Map<String, Node[]> memo = new ConcurrentHashMap<>();
+
+    private PathRules(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Number of rules in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the permissions the rules give a user at an absolute virtual
+     * path, or null if no rule matches
+     *
+     * @param groups the user's group names in lower case
+     */
+    public FTPPermissions resolve(String path, String username, Collection<String> groups) {
+        if (size == 0) {
+            return null;
+        }
+        int slash = path.lastIndexOf('/');
+        String last = slash < 0 ? path : path.substring(slash + 1);
+        Node[] states = directoryStates(slash <= 0 ? "/" : path.substring(0, slash));
+        if (!last.isEmpty() && !last.equals(".")) {
+            states = last.equals("..") ? walk(path) : step(states, last);
+        }
+        return select(states, username, groups);
+    }
+
+    private Node[] directoryStates(String directory) {
+        Node[] states = memo.get(directory);
+        if (states == null) {
+            states = walk(directory);
+            if (memo.size() >= MEMO_LIMIT) {
+                memo.clear();
+            }
+            memo.put(directory, states);
+        }
+        return states;
+    }
+
+    private Node[] walk(String path) {
+        List<Node> start = new ArrayList<>();
+        enter(root, start);
+        Node[] states = start.toArray(new Node[0]);
+        for (String segment : normalize(path)) {
+            states = step(states, segment);
+        }
+        return states;
+    }
+
+    private static List<String> normalize(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private static Node[] step(Node[] states, String segment) {
+        List<Node> next = new ArrayList<>(4);
+        for (Node node : states) {
+            if (node.anySegments) {
+                add(node, next);
+            }
+            Node literal = node.literals.get(segment);
+            if (literal != null) {
+                enter(literal, next);
+            }
+            for (Node glob : node.globs) {
+                if (glob.glob.matcher(segment).matches()) {
+                    enter(glob, next);
+                }
+            }
+        }
+        return next.toArray(new Node[0]);
+    }
+
+    /**
+     * Adds a node and, since "**" may match no segments, the "**" node below it
+     */
+    private static void enter(Node node, List<Node> states) {
+        add(node, states);
+        if (node.anyChild != null) {
+            add(node.anyChild, states);
+        }
+    }
+
+    private static void add(Node node, List<Node> states) {
+        if (!states.contains(node)) {
+            states.add(node);
+        }
+    }
+
+    private static FTPPermissions select(Node[] states, String username, Collection<String> groups) {
+        Node best = null;
+        int bestRank = 0;
+        for (Node node : states) {
+            if (!node.hasRules) {
+                continue;
+            }
+            int rank = node.rank(username, groups);
+            if (rank == 0) {
+                continue;
+            }
+            if (best == null || node.specificity > best.specificity
+                    || node.specificity == best.specificity && rank > bestRank
+                    || node.specificity == best.specificity && rank == bestRank && node.order > best.order) {
+                best = node;
+                bestRank = rank;
+            }
+        }
+        return best == null ? null : best.permissions(bestRank, username, groups);
+    }
+
+    /**
+     * Reads rules from a file, one "subject pattern permissions" per line, where
+     * subject is user:NAME, group:NAME or *. A missing file has no rules.
+     */
+    public static PathRules load(File file) throws IOException {
+        return new Builder().read(file).build();
+    }
+
+    /**
+     * Collects rules and compiles them into PathRules
+     */
+    public static final class Builder {
+        private final Node root = new Node();
+        private int size;
+
+        /**
+         * Adds a rule; subject is "user:NAME", "group:NAME" or "*", and pattern an absolute path glob
+         */
+        public Builder add(String subject, String pattern, FTPPermissions permissions) {
+            boolean user = subject.startsWith("user:") && subject.length() > 5;
+            boolean group = subject.startsWith("group:") && subject.length() > 6;
+            if (!user && !group && !subject.equals(EVERYONE)) {
+                throw new IllegalArgumentException("Subject must be user:NAME, group:NAME or *: " + subject);
+            }
+            if (!pattern.startsWith("/")) {
+                throw new IllegalArgumentException("Pattern must start with /: " + pattern);
+            }
+            Node node = root;
+            int literals = 0;
+            int globs = 0;
+            for (String segment : normalize(pattern)) {
+                if (segment.equals("**")) {
+                    if (node.anyChild == null) {
+                        node.anyChild = new Node();
+                        node.anyChild.anySegments = true;
+                    }
+                    node = node.anyChild;
+                } else if (segment.indexOf('*') < 0 && segment.indexOf('?') < 0) {
+                    node = node.literals.computeIfAbsent(segment, s -> new Node());
+                    literals++;
+                } else {
+                    node = node.glob(segment);
+                    globs++;
+                }
+            }
+            node.specificity = ((long) literals << 32) | ((long) globs << 16) | (node.anySegments ? 0 : 1);
+            node.order = size++;
+            node.hasRules = true;
+            if (user) {
+                node.users = put(node.users, subject.substring(5), permissions);
+            } else if (group) {
+                node.groups = put(node.groups, subject.substring(6).toLowerCase(Locale.ROOT), permissions);
+            } else {
+                node.everyone = permissions;
+            }
+            return this;
+        }
+
+        private static Map<String, FTPPermissions> put(Map<String, FTPPermissions> rules, String name,
+                                                       FTPPermissions permissions) {
+            Map<String, FTPPermissions> map = rules != null ? rules : new HashMap<>(4);
+            map.put(name, permissions);
+            return map;
+        }
+
+        /**
+         * Adds the rules of a file in the format load() reads; invalid lines are logged and skipped
+         */
+        public Builder read(File file) throws IOException {
+            if (!file.isFile()) {
+                return this;
+            }
+            int skipped = 0;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                int number = 0;
+                while ((line = reader.readLine()) != null) {
+                    number++;
+                    int comment = line.indexOf('#');
+                    String rule = (comment < 0 ? line : line.substring(0, comment)).trim();
+                    if (rule.isEmpty()) {
+                        continue;
+                    }
+                    String[] fields = rule.split("\\s+");
+                    try {
+                        if (fields.length != 3) {
+                            throw new IllegalArgumentException("expected subject, pattern and permissions");
+                        }
+                        add(fields[0], fields[1], FTPPermissions.parse(fields[2]));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(file + ":" + number + ": " + e.getMessage());
+                        skipped++;
+                    }
+                }
+            }
+            if (skipped > 0) {
+                System.err.println("Skipped " + skipped + " invalid rules in " + file);
+            }
+            return this;
+        }
+
+        public PathRules build() {
+            return new PathRules(root, size);
+        }
+    }
+
+    private static final class Node {
+        final Map<String, Node> literals = new HashMap<>();
+        final List<Node> globs = new ArrayList<>(0);
+        /** For a node reached through a glob segment, the segment's pattern */
+        Pattern glob;
+        String globText;
+        /** The node reached through "**" */
+        Node anyChild;
+        /** True for "**" nodes, which also match every further segment */
+        boolean anySegments;
+        /** Rules ending at this node, by user name and by group name */
+        boolean hasRules;
+        Map<String, FTPPermissions> users;
+        Map<String, FTPPermissions> groups;
+        FTPPermissions everyone;
+        long specificity;
+        int order;
+
+        Node glob(String segment) {
+            for (Node node : globs) {
+                if (node.globText.equals(segment)) {
+                    return node;
+                }
+            }
+            Node node = new Node();
+            node.globText = segment;
+            node.glob = Pattern.compile(toRegex(segment));
+            globs.add(node);
+            return node;
+        }
+
+        /**
+         * 3 if a rule names the user, 2 if one names one of their groups, 1 for everyone, else 0
+         */
+        int rank(String username, Collection<String> memberOf) {
+            if (users != null && users.containsKey(username)) {
+                return 3;
+            }
+            if (groups != null) {
+                for (String group : memberOf) {
+                    if (groups.containsKey(group)) {
+                        return 2;
+                    }
+                }
+            }
+            return everyone != null ? 1 : 0;
+        }
+
+        FTPPermissions permissions(int rank, String username, Collection<String> memberOf) {
+            if (rank == 3) {
+                return users.get(username);
+            }
+            if (rank == 1) {
+                return everyone;
+            }
+            FTPPermissions combined = null;
+            for (String group : memberOf) {
+                FTPPermissions granted = groups.get(group);
+                if (granted != null) {
+                    combined = combined == null ? granted : FTPPermissions.union(combined, granted);
+                }
+            }
+            return combined;
+        }
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+}
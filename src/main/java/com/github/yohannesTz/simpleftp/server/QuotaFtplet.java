@@ -0,0 +1,255 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.server.fs.TransferDecorator;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.User;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Enforces per-user byte and file-count quotas on uploads, the user's own or
+ * else their groups'. Usage comes from the in-memory UsageTracker and is
+ * adjusted after every successful upload, delete and rename.
+ * <p>
+ * An upload is refused with 552 if the quota is already used up, and its
+ * stream (see TransferDecorator) reserves room in the usage as it writes, so
+ * an upload that would go past the byte quota, alone or together with the
+ * user's other uploads in progress, fails with what it wrote so far. The
+ * upload command runs on the thread that passed the check, which is how the
+ * stream finds its allowance.
+ */
+public class QuotaFtplet extends DefaultFtplet implements TransferDecorator {
+    private static final String ATTR_SIZE_BEFORE = "quota.sizeBefore";
+    private static final String ATTR_EXISTED_BEFORE = "quota.existedBefore";
+    private static final String ATTR_RENAME_FROM = "quota.renameFrom";
+
+    private final UsageTracker tracker;
+    private final Function<String, UserAccount> accounts;
+    private final Supplier<UserGroups> groups;
+    /** Byte allowance of the upload command running on this thread */
+    private final ThreadLocal<Allowance> allowance = new ThreadLocal<>();
+
+    /**
+     * @param groups the current user groups, read on every upload so group quota changes apply at once
+     */
+    public QuotaFtplet(UsageTracker tracker, Function<String, UserAccount> accounts, Supplier<UserGroups> groups) {
+        this.tracker = tracker;
+        this.accounts = accounts;
+        this.groups = groups;
+    }
+
+    @Override
+    public FtpletResult beforeCommand(FtpSession session, FtpRequest request)
+            throws FtpException, IOException {
+        // Every command passes here first, so no allowance outlives its upload
+        allowance.remove();
+        User user = session.getUser();
+        if (user == null || !request.hasArgument() && !"STOU".equals(request.getCommand())) {
+            return FtpletResult.DEFAULT;
+        }
+
+        switch (request.getCommand()) {
+            case "STOR":
+            case "APPE":
+            case "STOU":
+                rememberFile(session, request);
+                UserAccount account = accounts.apply(user.getName());
+                if (account != null && isOverQuota(account, user, request.getCommand(), session)) {
+                    session.write(new DefaultFtpReply(552,
+                        "Requested file action aborted. Exceeded storage allocation."));
+                    return FtpletResult.SKIP;
+                }
+                long quotaBytes = account == null ? 0 : groups.get().quotaBytes(account);
+                if (quotaBytes > 0) {
+                    // Overwriting with STOR frees the old file from the restart offset on
+                    long freed = "STOR".equals(request.getCommand())
+                        ? Math.max(0, sizeBefore(session) - session.getFileOffset()) : 0;
+                    allowance.set(new Allowance(tracker.get(user.getHomeDirectory()), quotaBytes, freed));
+                }
+                break;
+            case "DELE":
+            case "RNTO":
+                rememberFile(session, request);
+                break;
+            case "RNFR":
+                session.setAttribute(ATTR_RENAME_FROM, request.getArgument());
+                break;
+            default:
+                break;
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply)
+            throws FtpException, IOException {
+        allowance.remove();
+        User user = session.getUser();
+        if (user == null || reply == null) {
+            return FtpletResult.DEFAULT;
+        }
+        String home = user.getHomeDirectory();
+        boolean success = reply.getCode() >= 200 && reply.getCode() < 300;
+
+        switch (request.getCommand()) {
+            case "STOR":
+            case "APPE":
+                // Count partial transfers too, the bytes are on disk either way
+                FtpFile uploaded = getFile(session, request.getArgument());
+                if (uploaded != null && uploaded.doesExist()) {
+                    long before = sizeBefore(session);
+                    boolean existed = existedBefore(session);
+                    tracker.add(home, uploaded.getSize() - before, existed ? 0 : 1);
+                }
+                break;
+            case "STOU":
+                // The generated name is not known here; recount this home in the background
+                if (success) {
+                    tracker.rescan(home);
+                }
+                break;
+            case "DELE":
+                if (success && existedBefore(session)) {
+                    tracker.add(home, -sizeBefore(session), -1);
+                }
+                break;
+            case "RNTO":
+                // Renaming onto an existing file replaces it
+                if (success && existedBefore(session)) {
+                    tracker.add(home, -sizeBefore(session), -1);
+                }
+                session.removeAttribute(ATTR_RENAME_FROM);
+                break;
+            default:
+                break;
+        }
+        session.removeAttribute(ATTR_SIZE_BEFORE);
+        session.removeAttribute(ATTR_EXISTED_BEFORE);
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public InputStream decorateInput(InputStream in) {
+        return in;
+    }
+
+    @Override
+    public OutputStream decorateOutput(OutputStream out) {
+        Allowance limit = allowance.get();
+        return limit == null ? out : new LimitedOutputStream(out, limit);
+    }
+
+    private boolean isOverQuota(UserAccount account, User user, String command, FtpSession session) {
+        UserGroups policies = groups.get();
+        long quotaBytes = policies.quotaBytes(account);
+        int quotaFiles = policies.quotaFiles(account);
+        if (quotaBytes <= 0 && quotaFiles <= 0) {
+            return false;
+        }
+        UsageTracker.Usage usage = tracker.get(user.getHomeDirectory());
+        if (!usage.isSeeded() && account.getStorage().isLocal()) {
+            // A quota given through a group after start; counted from the next upload on
+            tracker.seed(Collections.singleton(user.getHomeDirectory()));
+        }
+        if (quotaBytes > 0 && usage.getBytes() >= quotaBytes) {
+            return true;
+        }
+        // APPE and overwriting STOR do not add a file
+        boolean addsFile = "STOU".equals(command) || !existedBefore(session);
+        return addsFile && quotaFiles > 0 && usage.getFiles() >= quotaFiles;
+    }
+
+    private void rememberFile(FtpSession session, FtpRequest request) {
+        FtpFile file = request.hasArgument() ? getFile(session, request.getArgument()) : null;
+        boolean exists = file != null && file.doesExist() && file.isFile();
+        session.setAttribute(ATTR_EXISTED_BEFORE, exists);
+        session.setAttribute(ATTR_SIZE_BEFORE, exists ? file.getSize() : 0L);
+    }
+
+    private static long sizeBefore(FtpSession session) {
+        Object size = session.getAttribute(ATTR_SIZE_BEFORE);
+        return size instanceof Long ? (Long) size : 0L;
+    }
+
+    private static boolean existedBefore(FtpSession session) {
+        return Boolean.TRUE.equals(session.getAttribute(ATTR_EXISTED_BEFORE));
+    }
+
+    private static FtpFile getFile(FtpSession session, String name) {
+        try {
+            return session.getFileSystemView().getFile(name);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static class Allowance {
+        final UsageTracker.Usage usage;
+        final long quotaBytes;
+        /** Bytes the upload may write without new room, as it replaces them */
+        final long freed;
+
+        Allowance(UsageTracker.Usage usage, long quotaBytes, long freed) {
+            this.usage = usage;
+            this.quotaBytes = quotaBytes;
+            this.freed = freed;
+        }
+    }
+
+    /**
+     * Fails a write that would take the upload past the byte quota; the reservation is
+     * given back on close, when the upload is counted in full
+     */
+    private static class LimitedOutputStream extends FilterOutputStream {
+        private final Allowance allowance;
+        private long written;
+        private long reserved;
+
+        LimitedOutputStream(OutputStream out, Allowance allowance) {
+            super(out);
+            this.allowance = allowance;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long needed = written + len - allowance.freed - reserved;
+            if (needed > 0) {
+                if (!allowance.usage.reserve(needed, allowance.quotaBytes)) {
+                    throw new IOException("Exceeded storage allocation");
+                }
+                reserved += needed;
+            }
+            out.write(b, off, len);
+            written += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                allowance.usage.release(reserved);
+                reserved = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Keeps the PartialUploadRegistry in step with STOR/APPE on the local disk:
+ * a REST offset beyond the data already received is refused, uploads that
+ * end without 226 are recorded as partials, and completed ones are dropped.
+ */
+public class ResumableUploadFtplet extends DefaultFtplet {
+    private static final String ATTR_UPLOAD = "resumable.upload";
+
+    private final PartialUploadRegistry registry;
+    private final Function<String, UserAccount> accounts;
+
+    public ResumableUploadFtplet(PartialUploadRegistry registry, Function<String, UserAccount> accounts) {
+        this.registry = registry;
+        this.accounts = accounts;
+    }
+
+    @Override
+    public FtpletResult beforeCommand(FtpSession session, FtpRequest request)
+            throws FtpException, IOException {
+        session.removeAttribute(ATTR_UPLOAD);
+        User user = session.getUser();
+        if (user == null || !isUpload(request)) {
+            return FtpletResult.DEFAULT;
+        }
+        File file = physicalFile(session, request.getArgument());
+        if (file == null) {
+            return FtpletResult.DEFAULT;
+        }
+
+        boolean append = "APPE".equals(request.getCommand());
+        long offset = append ? (file.isFile() ? file.length() : 0) : session.getFileOffset();
+        if (!append && offset > 0) {
+            long resumable = registry.resumableLength(file);
+            if (offset > resumable) {
+                session.write(new DefaultFtpReply(554,
+                    "Restart offset " + offset + " is beyond the " + resumable + " bytes received."));
+                return FtpletResult.SKIP;
+            }
+        }
+
+        // A new atomic upload goes to a temp file, the target itself is never partial
+        UserAccount account = accounts.apply(user.getName());
+        if (offset == 0 && account != null && account.isAtomicUploads()) {
+            return FtpletResult.DEFAULT;
+        }
+        Upload upload = new Upload(file, file.isFile() ? file.length() : -1, file.lastModified());
+        PartialUploadRegistry.Partial partial = registry.find(file);
+        if (partial != null && offset > 0 && offset == partial.length) {
+            upload.resumed = partial;
+        }
+        session.setAttribute(ATTR_UPLOAD, upload);
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply)
+            throws FtpException, IOException {
+        Object attribute = session.getAttribute(ATTR_UPLOAD);
+        if (!(attribute instanceof Upload)) {
+            return FtpletResult.DEFAULT;
+        }
+        session.removeAttribute(ATTR_UPLOAD);
+        Upload upload = (Upload) attribute;
+        if (reply != null && reply.getCode() == 226) {
+            registry.complete(upload.file, upload.resumed);
+        } else if (upload.wasWritten()) {
+            // A transfer refused before writing leaves the file as it was, which may be complete
+            registry.recordPartial(upload.file);
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    private static boolean isUpload(FtpRequest request) {
+        String command = request.getCommand();
+        return ("STOR".equals(command) || "APPE".equals(command)) && request.hasArgument();
+    }
+
+    private static File physicalFile(FtpSession session, String name) {
+        try {
+            FtpFile file = session.getFileSystemView().getFile(name);
+            Object physical = file.getPhysicalFile();
+            return physical instanceof File ? (File) physical : null;
+        } catch (FtpException e) {
+            return null;
+        }
+    }
+
+    private static class Upload {
+        final File file;
+        final long lengthBefore;
+        final long modifiedBefore;
+        PartialUploadRegistry.Partial resumed;
+
+        Upload(File file, long lengthBefore, long modifiedBefore) {
+            this.file = file;
+            this.lengthBefore = lengthBefore;
+            this.modifiedBefore = modifiedBefore;
+        }
+
+        boolean wasWritten() {
+            return file.isFile() && (file.length() != lengthBefore || file.lastModified() != modifiedBefore);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Live state of one connected session. Written by the session's own thread
+ * (commands and transfer streams) and read by snapshots from any thread.
+ */
+public class SessionInfo {
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final UUID id;
+    private final String remoteAddress;
+    private final long connectedAt = System.currentTimeMillis();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private volatile String username;
+    private volatile String command;
+    private volatile String file;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile long bytesPerSecond;
+    private volatile long rateLimit; // bytes per second, 0 = unlimited
+    private volatile LongSupplier userRateLimit = () -> 0; // the user's groups' limit, used when rateLimit is 0
+    private volatile int maxIdleSeconds; // the user's own idle limit, 0 = server default
+    private volatile boolean killed;
+
+    // Guarded by this; only the session thread updates them
+    private long windowStart = System.nanoTime();
+    private long windowBytes;
+    private long throttleStart;
+    private long throttleBytes;
+    private long throttleLimit;
+
+    SessionInfo(UUID id, String remoteAddress) {
+        this.id = id;
+        this.remoteAddress = remoteAddress;
+    }
+
+    void setUsername(String username) {
+        this.username = username;
+    }
+
+    void setMaxIdleSeconds(int maxIdleSeconds) {
+        this.maxIdleSeconds = maxIdleSeconds;
+    }
+
+    synchronized void commandStarted(String command, String file) {
+        this.command = command;
+        this.file = file;
+        this.lastActivity = System.currentTimeMillis();
+        this.throttleStart = 0;
+    }
+
+    void commandFinished() {
+        this.command = null;
+        this.file = null;
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Records progress of a command that moves no file data, e.g. a long listing
+     */
+    void active() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Records bytes moved by a transfer stream, and sleeps if the session is over its rate limit
+     */
+    void transferred(int count) throws IOException {
+        if (killed) {
+            throw new IOException("Session was disconnected by the administrator");
+        }
+        bytesTransferred.addAndGet(count);
+        long sleepNanos = 0;
+        synchronized (this) {
+            long now = System.nanoTime();
+            windowBytes += count;
+            long elapsed = now - windowStart;
+            if (elapsed >= RATE_WINDOW_NANOS) {
+                bytesPerSecond = windowBytes * 1_000_000_000L / elapsed;
+                windowStart = now;
+                windowBytes = 0;
+            }
+
+            long limit = rateLimit > 0 ? rateLimit : userRateLimit.getAsLong();
+            if (limit != throttleLimit) {
+                // The limit changed under a running transfer; pace from here on
+                throttleLimit = limit;
+                throttleStart = 0;
+            }
+            if (limit > 0) {
+                if (throttleStart == 0) {
+                    throttleStart = now;
+                    throttleBytes = 0;
+                }
+                throttleBytes += count;
+                long due = throttleStart + throttleBytes * 1_000_000_000L / limit;
+                sleepNanos = due - now;
+            }
+        }
+        lastActivity = System.currentTimeMillis();
+        if (sleepNanos > 0) {
+            try {
+                Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Transfer interrupted");
+            }
+        }
+    }
+
+    synchronized void setRateLimit(long bytesPerSecond) {
+        this.rateLimit = Math.max(0, bytesPerSecond);
+        this.throttleStart = 0;
+    }
+
+    /**
+     * Sets where the logged-in user's own limit comes from; it is read as data moves
+     */
+    void setUserRateLimit(LongSupplier userRateLimit) {
+        this.userRateLimit = userRateLimit;
+    }
+
+    void kill() {
+        killed = true;
+    }
+
+    boolean isKilled() {
+        return killed;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    /**
+     * Returns the logged-in user, or null before login
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns the command being executed, or null if the session is idle
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /**
+     * Transfer rate over the last second; drops to 0 once the session stops moving data
+     */
+    public long getBytesPerSecond() {
+        return System.currentTimeMillis() - lastActivity > 2000 ? 0 : bytesPerSecond;
+    }
+
+    /**
+     * The session's rate limit in bytes per second, set by an administrator or else by the user's groups
+     */
+    public long getRateLimit() {
+        long limit = rateLimit;
+        return limit > 0 ? limit : userRateLimit.getAsLong();
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * The logged-in user's idle limit in seconds, 0 if the server-wide limit applies
+     */
+    public int getMaxIdleSeconds() {
+        return maxIdleSeconds;
+    }
+}
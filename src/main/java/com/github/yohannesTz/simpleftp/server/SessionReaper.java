@@ -0,0 +1,235 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Closes sessions that stay unauthenticated too long, idle between commands,
+ * or stall during a data transfer. Sessions sit in a hashed timing wheel:
+ * each tick only looks at the sessions due in that slot, so the cost per
+ * tick does not grow with the number of mostly idle sessions. Activity does
+ * not touch the wheel; when a session comes due, its real deadline is
+ * recomputed from its last activity and it is either closed or put back
+ * into the slot of that deadline.
+ */
+public class SessionReaper {
+    public static final String LOGIN_TIMEOUT = "login timeout";
+    public static final String IDLE = "idle";
+    public static final String STALLED = "stalled transfer";
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 512;
+    private static final long DEFAULT_RECHECK_MILLIS = 60000;
+
+    private final SessionRegistry registry;
+    private final long loginTimeoutMillis;
+    private final long idleMillis;
+    private final long stallMillis;
+    /** How soon a session without a deadline of its own is looked at again */
+    private final long recheckMillis;
+    private final Consumer<Map<UUID, String>> closer;
+    private final Slot[] wheel;
+    private final long startMillis = System.currentTimeMillis();
+    private final AtomicLong loginTimeouts = new AtomicLong();
+    private final AtomicLong idleTimeouts = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private long tick;
+    private ScheduledExecutorService timer;
+
+    /**
+     * @param closer closes the given sessions, with the reason for each
+     */
+    public SessionReaper(ServerConfig config, SessionRegistry registry, Consumer<Map<UUID, String>> closer) {
+        this.registry = registry;
+        this.loginTimeoutMillis = TimeUnit.SECONDS.toMillis(config.getLoginTimeoutSeconds());
+        this.idleMillis = TimeUnit.SECONDS.toMillis(config.getSessionIdleSeconds());
+        this.stallMillis = TimeUnit.SECONDS.toMillis(config.getTransferStallSeconds());
+        long recheck = Long.MAX_VALUE;
+        for (long threshold : new long[]{loginTimeoutMillis, idleMillis, stallMillis}) {
+            if (threshold > 0) {
+                recheck = Math.min(recheck, threshold);
+            }
+        }
+        // With every limit off, per-user idle times still need a look now and then
+        this.recheckMillis = recheck == Long.MAX_VALUE ? DEFAULT_RECHECK_MILLIS : recheck;
+        this.closer = closer;
+        this.wheel = new Slot[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new Slot();
+        }
+    }
+
+    public void start() {
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        synchronized (this) {
+            for (Slot slot : wheel) {
+                slot.clear();
+            }
+        }
+    }
+
+    /**
+     * Starts watching a newly connected session
+     */
+    public void watch(SessionInfo info) {
+        schedule(new Entry(info), deadline(info, System.currentTimeMillis()));
+    }
+
+    public long getLoginTimeouts() {
+        return loginTimeouts.get();
+    }
+
+    public long getIdleTimeouts() {
+        return idleTimeouts.get();
+    }
+
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    private synchronized void schedule(Entry entry, long deadline) {
+        long due = (deadline - startMillis + TICK_MILLIS - 1) / TICK_MILLIS;
+        entry.dueTick = Math.max(due, tick + 1);
+        wheel[(int) (entry.dueTick % WHEEL_SIZE)].add(entry);
+    }
+
+    private void tick() {
+        List<Entry> due = new ArrayList<>();
+        synchronized (this) {
+            tick++;
+            Slot slot = wheel[(int) (tick % WHEEL_SIZE)];
+            int count = slot.size();
+            for (int i = 0; i < count; i++) {
+                Entry entry = slot.poll();
+                if (entry.dueTick <= tick) {
+                    due.add(entry);
+                } else {
+                    // Due in a later turn of the wheel
+                    slot.add(entry);
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        Map<UUID, String> expired = new LinkedHashMap<>();
+        for (Entry entry : due) {
+            SessionInfo info = entry.info;
+            if (registry.get(info.getId()) != info) {
+                continue; // disconnected
+            }
+            long deadline = deadline(info, now);
+            if (deadline > now) {
+                schedule(entry, deadline);
+                continue;
+            }
+            String reason = reason(info);
+            expired.put(info.getId(), reason);
+            if (LOGIN_TIMEOUT.equals(reason)) {
+                loginTimeouts.incrementAndGet();
+            } else if (STALLED.equals(reason)) {
+                stalls.incrementAndGet();
+            } else {
+                idleTimeouts.incrementAndGet();
+            }
+        }
+        if (!expired.isEmpty()) {
+            try {
+                closer.accept(expired);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to close expired sessions: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Time at which the session is closed unless there is activity before then.
+     * A session no limit applies to right now is looked at again after the
+     * shortest limit, since a command may finish or the user may log in.
+     */
+    private long deadline(SessionInfo info, long now) {
+        long recheck = now + recheckMillis;
+        if (info.getUsername() == null) {
+            return loginTimeoutMillis > 0 ? info.getConnectedAt() + loginTimeoutMillis : recheck;
+        }
+        if (isTransfer(info.getCommand())) {
+            return stallMillis > 0 ? info.getLastActivity() + stallMillis : recheck;
+        }
+        if (info.getCommand() != null) {
+            // Other commands (e.g. checksums of large files) may legitimately take a while
+            return recheck;
+        }
+        long limit = idleLimit(info);
+        return limit > 0 ? info.getLastActivity() + limit : recheck;
+    }
+
+    /**
+     * The user's own idle time, capped by the server-wide limit
+     */
+    private long idleLimit(SessionInfo info) {
+        long user = TimeUnit.SECONDS.toMillis(info.getMaxIdleSeconds());
+        if (user <= 0) {
+            return idleMillis;
+        }
+        return idleMillis > 0 ? Math.min(user, idleMillis) : user;
+    }
+
+    private String reason(SessionInfo info) {
+        if (info.getUsername() == null) {
+            return LOGIN_TIMEOUT;
+        }
+        return isTransfer(info.getCommand()) ? STALLED : IDLE;
+    }
+
+    private static boolean isTransfer(String command) {
+        if (command == null) {
+            return false;
+        }
+        switch (command) {
+            case "RETR":
+            case "STOR":
+            case "APPE":
+            case "STOU":
+            case "LIST":
+            case "NLST":
+            case "MLSD":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static class Slot extends ArrayDeque<Entry> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class Entry {
+        final SessionInfo info;
+        long dueTick;
+
+        Entry(SessionInfo info) {
+            this.info = info;
+        }
+    }
+}
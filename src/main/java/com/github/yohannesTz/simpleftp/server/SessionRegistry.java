@@ -0,0 +1,135 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.server.fs.TransferDecorator;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of connected sessions, maintained by SessionTrackingFtplet.
+ * Commands and their data transfers run on the session's thread, so the
+ * session bound to the current thread is the one a transfer stream
+ * belongs to.
+ */
+public class SessionRegistry implements TransferDecorator {
+    private final Map<UUID, SessionInfo> sessions = new ConcurrentHashMap<>();
+    private final ThreadLocal<SessionInfo> current = new ThreadLocal<>();
+
+    SessionInfo register(UUID id, String remoteAddress) {
+        SessionInfo info = new SessionInfo(id, remoteAddress);
+        sessions.put(id, info);
+        return info;
+    }
+
+    void unregister(UUID id) {
+        sessions.remove(id);
+    }
+
+    void bind(SessionInfo info) {
+        current.set(info);
+    }
+
+    void unbind() {
+        current.remove();
+    }
+
+    public SessionInfo get(UUID id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * Returns the connected sessions, oldest first
+     */
+    public List<SessionInfo> getSessions() {
+        List<SessionInfo> list = new ArrayList<>(sessions.values());
+        list.sort(Comparator.comparingLong(SessionInfo::getConnectedAt));
+        return list;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Limits a session's transfer rate immediately, including a transfer in progress
+     *
+     * @param bytesPerSecond limit in bytes per second, 0 to remove the limit
+     */
+    public boolean throttle(UUID id, long bytesPerSecond) {
+        SessionInfo info = sessions.get(id);
+        if (info == null) {
+            return false;
+        }
+        info.setRateLimit(bytesPerSecond);
+        return true;
+    }
+
+    void clear() {
+        sessions.clear();
+    }
+
+    @Override
+    public void listingProgress() {
+        SessionInfo info = current.get();
+        if (info != null) {
+            info.active();
+        }
+    }
+
+    @Override
+    public InputStream decorateInput(InputStream in) {
+        SessionInfo info = current.get();
+        if (info == null) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    info.transferred(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    info.transferred(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public OutputStream decorateOutput(OutputStream out) {
+        SessionInfo info = current.get();
+        if (info == null) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                info.transferred(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                info.transferred(len);
+                out.write(b, off, len);
+            }
+        };
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.User;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the SessionRegistry up to date: who is connected, from where, and
+ * what each session is doing, and hands new sessions to the SessionReaper.
+ * Registered last so it only sees connections and commands the other
+ * ftplets let through.
+ */
+public class SessionTrackingFtplet extends DefaultFtplet {
+    private final SessionRegistry registry;
+    private final SessionReaper reaper;
+    private final Function<String, Integer> idleSeconds;
+    private final Function<String, LongSupplier> rateLimits;
+
+    /**
+     * @param idleSeconds each user's own idle limit in seconds
+     * @param rateLimits each user's transfer rate limit in bytes per second, read as data moves
+     */
+    public SessionTrackingFtplet(SessionRegistry registry, SessionReaper reaper, Function<String, Integer> idleSeconds,
+                                 Function<String, LongSupplier> rateLimits) {
+        this.registry = registry;
+        this.reaper = reaper;
+        this.idleSeconds = idleSeconds;
+        this.rateLimits = rateLimits;
+    }
+
+    @Override
+    public FtpletResult onConnect(FtpSession session) throws FtpException, IOException {
+        InetSocketAddress address = session.getClientAddress();
+        String remote = address == null ? "?" : address.getAddress() != null
+            ? address.getAddress().getHostAddress() : address.getHostString();
+        reaper.watch(registry.register(session.getSessionId(), remote));
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult onDisconnect(FtpSession session) throws FtpException, IOException {
+        registry.unregister(session.getSessionId());
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult beforeCommand(FtpSession session, FtpRequest request)
+            throws FtpException, IOException {
+        SessionInfo info = registry.get(session.getSessionId());
+        if (info == null) {
+            return FtpletResult.DEFAULT;
+        }
+        if (info.isKilled()) {
+            return FtpletResult.DISCONNECT;
+        }
+        info.commandStarted(request.getCommand(), fileArgument(session, request));
+        registry.bind(info);
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply)
+            throws FtpException, IOException {
+        registry.unbind();
+        SessionInfo info = registry.get(session.getSessionId());
+        if (info == null) {
+            return FtpletResult.DEFAULT;
+        }
+        User user = session.getUser();
+        if (user != null && info.getUsername() == null) {
+            Integer maxIdle = idleSeconds.apply(user.getName());
+            info.setMaxIdleSeconds(maxIdle == null ? 0 : maxIdle);
+            info.setUserRateLimit(rateLimits.apply(user.getName()));
+            info.setUsername(user.getName());
+        }
+        info.commandFinished();
+        return info.isKilled() ? FtpletResult.DISCONNECT : FtpletResult.DEFAULT;
+    }
+
+    private static String fileArgument(FtpSession session, FtpRequest request) {
+        switch (request.getCommand()) {
+            case "RETR":
+            case "STOR":
+            case "APPE":
+            case "DELE":
+            case "RNFR":
+            case "RNTO":
+            case "MKD":
+            case "RMD":
+                break;
+            default:
+                return null;
+        }
+        if (!request.hasArgument()) {
+            return null;
+        }
+        try {
+            FileSystemView view = session.getFileSystemView();
+            return view == null ? request.getArgument() : view.getFile(request.getArgument()).getAbsolutePath();
+        } catch (FtpException e) {
+            return request.getArgument();
+        }
+    }
+}
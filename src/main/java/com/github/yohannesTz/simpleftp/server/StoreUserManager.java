@@ -0,0 +1,197 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.config.UserStore;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.ftpserver.ftplet.Authentication;
+import org.apache.ftpserver.ftplet.AuthenticationFailedException;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.usermanager.AnonymousAuthentication;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * UserManager over the embedded UserStore. Nothing is loaded at startup: an
+ * account is read from disk when its user logs in and kept in a bounded LRU
+ * cache, so memory and startup time do not depend on the number of accounts.
+ * Edits written to the store evict the edited account from the cache, and an
+ * account read while it was being edited is not cached. The
+ * store is only changed through the configuration, so save() and delete()
+ * are not supported here.
+ */
+public class StoreUserManager implements UserManager {
+    private final UserStore store;
+    private final User anonymous;
+    private final Consumer<UserAccount> onLoad;
+    private final Function<UserAccount, User> toUser;
+    private final Map<String, UserAccount> cache;
+    private final Map<String, Load> loads = new HashMap<>();
+
+    /**
+     * @param anonymous the built-in anonymous user, or null if anonymous login is disabled
+     * @param onLoad called with each account read from the store, e.g. to start counting quota usage
+     * @param toUser creates the FTP user for an account
+     */
+    public StoreUserManager(UserStore store, int cacheSize, User anonymous, Consumer<UserAccount> onLoad,
+                            Function<UserAccount, User> toUser) {
+        this.store = store;
+        this.anonymous = anonymous;
+        this.onLoad = onLoad;
+        this.toUser = toUser;
+        int maxEntries = Math.max(1, cacheSize);
+        this.cache = new LinkedHashMap<String, UserAccount>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserAccount> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the account of a user, from the cache or the store, or null
+     */
+    public UserAccount getAccount(String username) {
+        Load load;
+        long generation;
+        synchronized (cache) {
+            UserAccount account = cache.get(username);
+            if (account != null) {
+                return account;
+            }
+            load = loads.computeIfAbsent(username, name -> new Load());
+            load.readers++;
+            generation = load.generation;
+        }
+        UserAccount account = null;
+        try {
+            account = store.get(username);
+            if (account != null) {
+                onLoad.accept(account);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read user " + username + ": " + e.getMessage());
+        } finally {
+            synchronized (cache) {
+                // An invalidate() since the read means the account may be stale: use it, but do not keep it
+                if (account != null && load.generation == generation) {
+                    cache.put(username, account);
+                }
+                if (--load.readers == 0) {
+                    loads.remove(username);
+                }
+            }
+        }
+        return account;
+    }
+
+    /**
+     * Drops a user from the cache so the next lookup reads the store
+     */
+    public void invalidate(String username) {
+        synchronized (cache) {
+            cache.remove(username);
+            Load load = loads.get(username);
+            if (load != null) {
+                load.generation++;
+            }
+        }
+    }
+
+    public int getCachedCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public User getUserByName(String username) throws FtpException {
+        UserAccount account = getAccount(username);
+        if (account != null) {
+            return toUser.apply(account);
+        }
+        return anonymous != null && anonymous.getName().equals(username) ? anonymous : null;
+    }
+
+    @Override
+    public String[] getAllUserNames() throws FtpException {
+        try {
+            List<UserAccount> accounts = store.loadAll();
+            String[] names = new String[accounts.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = accounts.get(i).getUsername();
+            }
+            return names;
+        } catch (IOException e) {
+            throw new FtpException("Failed to read the user store", e);
+        }
+    }
+
+    @Override
+    public void delete(String username) throws FtpException {
+        throw new FtpException("Users are edited through the configuration");
+    }
+
+    @Override
+    public void save(User user) throws FtpException {
+        throw new FtpException("Users are edited through the configuration");
+    }
+
+    @Override
+    public boolean doesExist(String username) throws FtpException {
+        return getAccount(username) != null || anonymous != null && anonymous.getName().equals(username);
+    }
+
+    @Override
+    public User authenticate(Authentication authentication) throws AuthenticationFailedException {
+        if (authentication instanceof UsernamePasswordAuthentication) {
+            UsernamePasswordAuthentication login = (UsernamePasswordAuthentication) authentication;
+            String username = login.getUsername();
+            String password = login.getPassword();
+            UserAccount account = username == null ? null : getAccount(username);
+            if (account != null && password != null && MessageDigest.isEqual(
+                    password.getBytes(StandardCharsets.UTF_8), account.getPassword().getBytes(StandardCharsets.UTF_8))) {
+                return toUser.apply(account);
+            }
+            throw new AuthenticationFailedException("Authentication failed");
+        }
+        if (authentication instanceof AnonymousAuthentication) {
+            // As with the file store, an account named anonymous takes the place of the built-in one
+            UserAccount account = getAccount("anonymous");
+            if (account != null) {
+                return toUser.apply(account);
+            }
+            if (anonymous != null) {
+                return anonymous;
+            }
+        }
+        throw new AuthenticationFailedException("Authentication failed");
+    }
+
+    @Override
+    public String getAdminName() {
+        return "admin";
+    }
+
+    @Override
+    public boolean isAdmin(String username) {
+        return "admin".equals(username);
+    }
+
+    /**
+     * Reads of one user from the store in progress; generation counts the invalidations since they began
+     */
+    private static class Load {
+        long generation;
+        int readers;
+    }
+}
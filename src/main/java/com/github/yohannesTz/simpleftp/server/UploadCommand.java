@@ -0,0 +1,54 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.server.fs.UploadStaging;
+import org.apache.ftpserver.command.Command;
+import org.apache.ftpserver.command.CommandFactoryFactory;
+import org.apache.ftpserver.command.impl.APPE;
+import org.apache.ftpserver.command.impl.STOR;
+import org.apache.ftpserver.command.impl.STOU;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+
+import java.io.IOException;
+
+/**
+ * Runs ftpserver's upload commands with the session's replies visible to
+ * UploadStaging: when the upload stream is closed, a failure reply already
+ * sent means the transfer broke and the upload is dropped; otherwise it is
+ * published, and an error in doing so becomes ftpserver's 551 reply.
+ */
+public class UploadCommand implements Command {
+    private final Command command;
+    private final UploadStaging staging;
+
+    public UploadCommand(Command command, UploadStaging staging) {
+        this.command = command;
+        this.staging = staging;
+    }
+
+    /**
+     * Registers STOR, STOU and APPE with the given command factory, replacing ftpserver's own
+     */
+    public static void register(CommandFactoryFactory factory, UploadStaging staging) {
+        factory.addCommand("STOR", new UploadCommand(new STOR(), staging));
+        factory.addCommand("STOU", new UploadCommand(new STOU(), staging));
+        factory.addCommand("APPE", new UploadCommand(new APPE(), staging));
+    }
+
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request)
+            throws IOException, FtpException {
+        staging.beginTransfer(() -> {
+            FtpReply reply = session.getLastReply();
+            return reply != null && reply.getCode() >= 400;
+        });
+        try {
+            command.execute(session, context, request);
+        } finally {
+            staging.endTransfer();
+        }
+    }
+}
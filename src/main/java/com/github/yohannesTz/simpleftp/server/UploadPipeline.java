@@ -0,0 +1,362 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs completed uploads through the configured post-processing stages
+ * (checksum, archive, move, script, notification) on a small worker pool.
+ * The queue is bounded: when it is full, UploadPipelineFtplet refuses new
+ * uploads with a transient error instead of slowing down replies.
+ */
+public class UploadPipeline {
+    private static final long SCRIPT_TIMEOUT_SECONDS = 60;
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final Map<String, StageStats> stats = new LinkedHashMap<>();
+    private final ThreadPoolExecutor executor;
+    private final ArrayBlockingQueue<Runnable> queue;
+    private final FileDigester digester;
+    private final DigestCache digestCache;
+    private final UsageTracker usageTracker;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public UploadPipeline(ServerConfig config, FileDigester digester, DigestCache digestCache,
+                          UsageTracker usageTracker) {
+        this.digester = digester;
+        this.digestCache = digestCache;
+        this.usageTracker = usageTracker;
+
+        if (!config.getUploadChecksum().isEmpty()) {
+            stages.add(new ChecksumStage(config.getUploadChecksum()));
+        }
+        if (!config.getUploadArchiveDir().isEmpty()) {
+            stages.add(new ArchiveStage(new File(config.getUploadArchiveDir())));
+        }
+        if (!config.getUploadProcessedDir().isEmpty()) {
+            stages.add(new MoveStage(new File(config.getUploadProcessedDir())));
+        }
+        if (!config.getUploadScript().isEmpty()) {
+            stages.add(new ScriptStage(config.getUploadScript()));
+        }
+        if (!config.getUploadNotifyDir().isEmpty()) {
+            stages.add(new NotifyStage(new File(config.getUploadNotifyDir())));
+        }
+        for (Stage stage : stages) {
+            stats.put(stage.name(), new StageStats());
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        queue = new ArrayBlockingQueue<>(Math.max(1, config.getUploadQueueCapacity()));
+        int workers = Math.max(1, config.getUploadWorkers());
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, queue, r -> {
+            Thread thread = new Thread(r, "upload-pipeline-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Whether no stage is configured, so uploads need no processing
+     */
+    public boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    /**
+     * Whether the queue is full; new uploads should be refused until it drains
+     */
+    public boolean isSaturated() {
+        return queue.remainingCapacity() == 0;
+    }
+
+    /**
+     * Queues an uploaded file without blocking; returns false if the queue is full
+     */
+    public boolean submit(String username, String homeDirectory, String virtualPath, File file) {
+        Job job = new Job(username, homeDirectory, virtualPath, file);
+        try {
+            executor.execute(() -> process(job));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            System.err.println("Upload pipeline is full, not processing " + file);
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        // Queued uploads are still processed, the workers are daemons
+        executor.shutdown();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns count, failures and latency per stage, in pipeline order
+     */
+    public Map<String, StageStats> getStageStats() {
+        return stats;
+    }
+
+    private void process(Job job) {
+        for (Stage stage : stages) {
+            StageStats stageStats = stats.get(stage.name());
+            long start = System.nanoTime();
+            try {
+                stage.process(job);
+                stageStats.record(System.nanoTime() - start, true);
+            } catch (Exception e) {
+                stageStats.record(System.nanoTime() - start, false);
+                System.err.println("Upload " + stage.name() + " failed for " + job.file + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Latency counters of one stage
+     */
+    public static class StageStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean success) {
+            count.incrementAndGet();
+            if (!success) {
+                failures.incrementAndGet();
+            }
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getAverageMillis() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / n / 1_000_000;
+        }
+
+        public long getMaxMillis() {
+            return maxNanos.get() / 1_000_000;
+        }
+    }
+
+    private static class Job {
+        final String username;
+        final String homeDirectory;
+        final String virtualPath;
+        File file;
+        String checksum;
+
+        Job(String username, String homeDirectory, String virtualPath, File file) {
+            this.username = username;
+            this.homeDirectory = homeDirectory;
+            this.virtualPath = virtualPath;
+            this.file = file;
+        }
+
+        /**
+         * Path of the file relative to the user, used to lay out output directories
+         */
+        String relativePath() {
+            return username + virtualPath;
+        }
+    }
+
+    private interface Stage {
+        String name();
+
+        void process(Job job) throws Exception;
+    }
+
+    private class ChecksumStage implements Stage {
+        private final String algorithm;
+
+        ChecksumStage(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String name() {
+            return "checksum";
+        }
+
+        @Override
+        public void process(Job job) throws IOException {
+            job.checksum = digester.digest(job.file, algorithm);
+            // Lets HASH/XSHA answer from the cache as long as the file stays in place
+            digestCache.put(algorithm, job.file.getAbsolutePath(), job.file.length(),
+                job.file.lastModified(), job.checksum);
+        }
+    }
+
+    private static class ArchiveStage implements Stage {
+        private final File archiveDir;
+
+        ArchiveStage(File archiveDir) {
+            this.archiveDir = archiveDir;
+        }
+
+        @Override
+        public String name() {
+            return "archive";
+        }
+
+        @Override
+        public void process(Job job) throws IOException {
+            File target = new File(archiveDir, job.relativePath() + "." + System.currentTimeMillis() + ".gz");
+            target.getParentFile().mkdirs();
+            File temp = new File(target.getParentFile(), "." + target.getName() + ".tmp");
+            try (InputStream in = new FileInputStream(job.file);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            move(temp.toPath(), target.toPath());
+        }
+    }
+
+    private class MoveStage implements Stage {
+        private final File processedDir;
+
+        MoveStage(File processedDir) {
+            this.processedDir = processedDir;
+        }
+
+        @Override
+        public String name() {
+            return "move";
+        }
+
+        @Override
+        public void process(Job job) throws IOException {
+            File target = new File(processedDir, job.relativePath());
+            target.getParentFile().mkdirs();
+            long size = job.file.length();
+            move(job.file.toPath(), target.toPath());
+            if (!isInside(target, job.homeDirectory)) {
+                usageTracker.add(job.homeDirectory, -size, -1);
+            }
+            job.file = target;
+        }
+    }
+
+    private static class ScriptStage implements Stage {
+        private final String script;
+
+        ScriptStage(String script) {
+            this.script = script;
+        }
+
+        @Override
+        public String name() {
+            return "script";
+        }
+
+        @Override
+        public void process(Job job) throws Exception {
+            ProcessBuilder builder = new ProcessBuilder(script, job.file.getAbsolutePath(), job.username,
+                job.checksum == null ? "" : job.checksum);
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            Process process = builder.start();
+            if (!process.waitFor(SCRIPT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("Script timed out after " + SCRIPT_TIMEOUT_SECONDS + "s");
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("Script exited with " + process.exitValue());
+            }
+        }
+    }
+
+    private static class NotifyStage implements Stage {
+        private final File notifyDir;
+        private final AtomicLong sequence = new AtomicLong();
+
+        NotifyStage(File notifyDir) {
+            this.notifyDir = notifyDir;
+        }
+
+        @Override
+        public String name() {
+            return "notify";
+        }
+
+        @Override
+        public void process(Job job) throws IOException {
+            notifyDir.mkdirs();
+            String name = System.currentTimeMillis() + "-" + sequence.incrementAndGet() + ".upload";
+            File temp = new File(notifyDir, "." + name + ".tmp");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                writer.write("user=" + job.username + "\n");
+                writer.write("path=" + job.virtualPath + "\n");
+                writer.write("file=" + job.file.getAbsolutePath() + "\n");
+                writer.write("size=" + job.file.length() + "\n");
+                if (job.checksum != null) {
+                    writer.write("checksum=" + job.checksum + "\n");
+                }
+            }
+            // Watchers only ever see complete notification files
+            move(temp.toPath(), new File(notifyDir, name).toPath());
+        }
+    }
+
+    /**
+     * Renames atomically, falling back to a copy when source and target are on different file systems
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static boolean isInside(File file, String directory) {
+        Path dir = new File(directory).toPath().toAbsolutePath().normalize();
+        return file.toPath().toAbsolutePath().normalize().startsWith(dir);
+    }
+}
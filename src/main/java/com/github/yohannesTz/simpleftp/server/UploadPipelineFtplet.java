@@ -0,0 +1,59 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.User;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Hands every successful STOR/APPE of a file on the local disk to the
+ * UploadPipeline. The transfer reply has already been sent by the time
+ * afterCommand runs, and submitting never blocks. While the pipeline's
+ * queue is full, new uploads are refused with 450 so clients retry later.
+ * STOU is not processed because the generated name is not known here.
+ */
+public class UploadPipelineFtplet extends DefaultFtplet {
+    private final UploadPipeline pipeline;
+
+    public UploadPipelineFtplet(UploadPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public FtpletResult beforeCommand(FtpSession session, FtpRequest request)
+            throws FtpException, IOException {
+        if (isUpload(request) && pipeline.isSaturated()) {
+            session.write(new DefaultFtpReply(450, "Upload processing is busy, try again later."));
+            return FtpletResult.SKIP;
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    @Override
+    public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply)
+            throws FtpException, IOException {
+        User user = session.getUser();
+        if (user == null || reply == null || reply.getCode() != 226 || !isUpload(request)) {
+            return FtpletResult.DEFAULT;
+        }
+        FtpFile file = session.getFileSystemView().getFile(request.getArgument());
+        Object physical = file.getPhysicalFile();
+        if (physical instanceof File && ((File) physical).isFile()) {
+            pipeline.submit(user.getName(), user.getHomeDirectory(), file.getAbsolutePath(), (File) physical);
+        }
+        return FtpletResult.DEFAULT;
+    }
+
+    private static boolean isUpload(FtpRequest request) {
+        String command = request.getCommand();
+        return ("STOR".equals(command) || "APPE".equals(command)) && request.hasArgument();
+    }
+}
@@ -0,0 +1,172 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks storage usage (bytes and file count) per home directory.
+ * Usage is seeded once by a parallel scan and then kept up to date
+ * incrementally, so quota checks never walk the directory tree.
+ */
+public class UsageTracker {
+    private final Map<String, Usage> usage = new ConcurrentHashMap<>();
+    private final ForkJoinPool pool;
+
+    public UsageTracker() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public UsageTracker(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Usage counters for one home directory
+     */
+    public static class Usage {
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder files = new LongAdder();
+        /** Bytes written by uploads in progress, not yet counted in bytes */
+        private final AtomicLong reserved = new AtomicLong();
+        private volatile boolean seeded;
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getFiles() {
+            return files.sum();
+        }
+
+        public boolean isSeeded() {
+            return seeded;
+        }
+
+        /**
+         * Reserves room for bytes an upload is about to write; false if the usage and the
+         * uploads in progress would then go past the limit
+         */
+        boolean reserve(long count, long limit) {
+            long current;
+            do {
+                current = reserved.get();
+                if (getBytes() + current + count > limit) {
+                    return false;
+                }
+            } while (!reserved.compareAndSet(current, current + count));
+            return true;
+        }
+
+        /**
+         * Gives back a reservation when the upload has ended, before its size is counted
+         */
+        void release(long count) {
+            reserved.addAndGet(-count);
+        }
+    }
+
+    public Usage get(String homeDirectory) {
+        return usage.computeIfAbsent(normalize(homeDirectory), k -> new Usage());
+    }
+
+    public void add(String homeDirectory, long bytes, long files) {
+        Usage u = get(homeDirectory);
+        if (bytes != 0) {
+            u.bytes.add(bytes);
+        }
+        if (files != 0) {
+            u.files.add(files);
+        }
+    }
+
+    /**
+     * Scans the given home directories in parallel and adds what is found to their counters.
+     * Directories that were already seeded are skipped.
+     */
+    public CompletableFuture<Void> seed(Collection<String> homeDirectories) {
+        List<CompletableFuture<Void>> scans = new ArrayList<>();
+        for (String home : homeDirectories) {
+            Usage u = get(home);
+            if (u.seeded) {
+                continue;
+            }
+            u.seeded = true;
+            scans.add(CompletableFuture.runAsync(() -> scanInto(home, u), pool));
+        }
+        return CompletableFuture.allOf(scans.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Re-counts one home directory from scratch, for operations whose effect cannot be tracked exactly
+     */
+    public CompletableFuture<Void> rescan(String homeDirectory) {
+        Usage u = get(homeDirectory);
+        return CompletableFuture.runAsync(() -> {
+            long bytesBefore = u.getBytes();
+            long filesBefore = u.getFiles();
+            long[] totals = pool.invoke(new ScanTask(new File(homeDirectory)));
+            u.bytes.add(totals[0] - bytesBefore);
+            u.files.add(totals[1] - filesBefore);
+        }, pool);
+    }
+
+    private void scanInto(String home, Usage u) {
+        long[] totals = pool.invoke(new ScanTask(new File(home)));
+        u.bytes.add(totals[0]);
+        u.files.add(totals[1]);
+    }
+
+    private static String normalize(String homeDirectory) {
+        return new File(homeDirectory).getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * Sums file sizes and counts for a directory, forking one subtask per subdirectory
+     */
+    private static class ScanTask extends RecursiveTask<long[]> {
+        private final File directory;
+
+        ScanTask(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected long[] compute() {
+            long[] totals = new long[2];
+            File[] children = directory.listFiles();
+            if (children == null) {
+                return totals;
+            }
+            List<ScanTask> subtasks = new ArrayList<>();
+            for (File child : children) {
+                if (Files.isSymbolicLink(child.toPath())) {
+                    continue;
+                }
+                if (child.isDirectory()) {
+                    ScanTask task = new ScanTask(child);
+                    task.fork();
+                    subtasks.add(task);
+                } else {
+                    totals[0] += child.length();
+                    totals[1]++;
+                }
+            }
+            for (ScanTask task : subtasks) {
+                long[] sub = task.join();
+                totals[0] += sub[0];
+                totals[1] += sub[1];
+            }
+            return totals;
+        }
+    }
+}
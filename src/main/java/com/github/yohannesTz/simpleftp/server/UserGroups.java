@@ -0,0 +1,120 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.model.UserGroup;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable set of user groups, resolving the policy an account gets from
+ * the groups it belongs to. Sessions look this up on every check through
+ * the server's current instance, so replacing it changes the policy of
+ * all members, including those already logged in, in one step.
+ * <p>
+ * Permissions of a member's groups replace the member's own and are
+ * combined when there are several. A member's own quota wins over their
+ * groups'; otherwise, like rate limits, the most generous group value
+ * applies.
+ */
+public final class UserGroups {
+    public static final UserGroups EMPTY = new UserGroups(Collections.emptyList());
+
+    private final Map<String, UserGroup> groups;
+
+    public UserGroups(Collection<UserGroup> groups) {
+        Map<String, UserGroup> map = new HashMap<>();
+        for (UserGroup group : groups) {
+            map.put(group.getName(), group);
+        }
+        this.groups = map;
+    }
+
+    public int size() {
+        return groups.size();
+    }
+
+    /**
+     * Returns the permissions of the named groups combined, or own if none of them sets any
+     */
+    public FTPPermissions permissions(List<String> names, FTPPermissions own) {
+        FTPPermissions combined = null;
+        for (int i = 0; i < names.size(); i++) {
+            UserGroup group = groups.get(names.get(i));
+            FTPPermissions granted = group == null ? null : group.getPermissions();
+            if (granted != null) {
+                combined = combined == null ? granted : FTPPermissions.shared(FTPPermissions.union(combined, granted));
+            }
+        }
+        return combined != null ? combined : own;
+    }
+
+    /**
+     * The account's byte quota, its own or else its groups', 0 for none
+     */
+    public long quotaBytes(UserAccount account) {
+        if (account.getQuotaBytes() > 0) {
+            return account.getQuotaBytes();
+        }
+        long quota = 0;
+        for (String name : account.getGroups()) {
+            UserGroup group = groups.get(name);
+            if (group != null) {
+                quota = Math.max(quota, group.getQuotaBytes());
+            }
+        }
+        return quota;
+    }
+
+    /**
+     * The account's file-count quota, its own or else its groups', 0 for none
+     */
+    public int quotaFiles(UserAccount account) {
+        if (account.getQuotaFiles() > 0) {
+            return account.getQuotaFiles();
+        }
+        int quota = 0;
+        for (String name : account.getGroups()) {
+            UserGroup group = groups.get(name);
+            if (group != null) {
+                quota = Math.max(quota, group.getQuotaFiles());
+            }
+        }
+        return quota;
+    }
+
+    public boolean hasQuota(UserAccount account) {
+        return quotaBytes(account) > 0 || quotaFiles(account) > 0;
+    }
+
+    /**
+     * The transfer rate limit of the named groups in bytes per second, 0 for none
+     */
+    public long rateLimit(List<String> names) {
+        long limit = 0;
+        for (int i = 0; i < names.size(); i++) {
+            UserGroup group = groups.get(names.get(i));
+            if (group != null) {
+                limit = Math.max(limit, group.getRateLimitKbps() * 1024);
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Adds the groups' path rules to a rule set under "group:NAME" subjects
+     */
+    void addRules(PathRules.Builder builder) {
+        for (UserGroup group : groups.values()) {
+            for (String rule : group.getRules()) {
+                int space = rule.indexOf(' ');
+                builder.add("group:" + group.getName(), rule.substring(0, space),
+                    FTPPermissions.parse(rule.substring(space + 1)));
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Read-only view of another backend that serves small, frequently read files
+ * from a ContentCache. Used for the anonymous public area.
+ */
+public class CachingReadOnlyBackend implements StorageBackend {
+    private final StorageBackend delegate;
+    private final ContentCache cache;
+
+    public CachingReadOnlyBackend(StorageBackend delegate, ContentCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws IOException {
+        return delegate.stat(path);
+    }
+
+    @Override
+    public List<StorageEntry> list(String directory) throws IOException {
+        return delegate.list(directory);
+    }
+
+    @Override
+    public InputStream openRead(String path, long offset) throws IOException {
+        StorageEntry entry = delegate.stat(path);
+        if (entry == null || entry.isDirectory() || !cache.accepts(entry.getSize())) {
+            return delegate.openRead(path, offset);
+        }
+
+        byte[] content = cache.get(path, entry.getSize(), entry.getLastModified());
+        if (content == null) {
+            content = readFully(path, entry.getSize());
+            if (content.length == entry.getSize()) {
+                cache.put(path, content, entry.getLastModified());
+            }
+        }
+        int start = (int) Math.min(offset, content.length);
+        return new ByteArrayInputStream(content, start, content.length - start);
+    }
+
+    private byte[] readFully(String path, long size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) size);
+        try (InputStream in = delegate.openRead(path, 0)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public OutputStream openWrite(String path, long offset) throws IOException {
+        throw new IOException("Read-only storage: " + path);
+    }
+
+    @Override
+    public boolean mkdir(String path) {
+        return false;
+    }
+
+    @Override
+    public boolean delete(String path) {
+        return false;
+    }
+
+    @Override
+    public boolean rename(String from, String to) {
+        return false;
+    }
+
+    @Override
+    public boolean setLastModified(String path, long time) {
+        return false;
+    }
+
+    @Override
+    public boolean supportsOffsetWrites() {
+        return false;
+    }
+
+    @Override
+    public File toFile(String path) {
+        return delegate.toFile(path);
+    }
+}
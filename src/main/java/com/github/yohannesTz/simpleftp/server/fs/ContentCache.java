@@ -0,0 +1,95 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of whole file contents. An entry is only served while
+ * the file's size and modification time still match, so edits on disk are
+ * picked up on the next read.
+ */
+public class ContentCache {
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes total size of cached content
+     * @param maxEntryBytes files larger than this are never cached
+     */
+    public ContentCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean accepts(long size) {
+        return size <= maxEntryBytes && size <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the cached content of a file, or null if it is missing or stale
+     */
+    public synchronized byte[] get(String key, long size, long lastModified) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.content.length != size || entry.lastModified != lastModified) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.content;
+    }
+
+    public synchronized void put(String key, byte[] content, long lastModified) {
+        if (!accepts(content.length)) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(content, lastModified));
+        if (previous != null) {
+            currentBytes -= previous.content.length;
+        }
+        currentBytes += content.length;
+
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            currentBytes -= it.next().getValue().content.length;
+            it.remove();
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.content.length;
+        }
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class Entry {
+        final byte[] content;
+        final long lastModified;
+
+        Entry(byte[] content, long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Content-addressable store for deduplicated uploads. Each distinct file
+ * content is kept once under its SHA-256 ("ab/abcd...") and users' files
+ * are hard links to it, so identical uploads share their disk blocks.
+ * <p>
+ * The reference count of a content is the link count the file system keeps
+ * for it: the store's own link plus one per user file. Removing or replacing
+ * a user file releases its reference, and the content is deleted with the
+ * last one. Opening the store drops content nobody refers to anymore, such
+ * as after a file was moved away by other means. It needs a file system with
+ * hard links and link counts, and the store on the same volume as the homes;
+ * elsewhere uploads are kept as plain files.
+ */
+public class ContentStore {
+    private final Path root;
+    /** Hash of each stored content by file key (device and inode) */
+    private final Map<Object, String> hashes = new ConcurrentHashMap<>();
+    private final AtomicBoolean warned = new AtomicBoolean();
+    private long storedBytes;
+    private long savedBytes;
+    private long dedupedUploads;
+
+    private ContentStore(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Opens or creates a store, indexing its content and dropping unreferenced content
+     *
+     * @throws IOException if the directory cannot be used or the file system has no link counts
+     */
+    public static ContentStore open(File directory) throws IOException {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("unix")) {
+            throw new IOException("Deduplication needs a file system with hard link counts");
+        }
+        ContentStore store = new ContentStore(directory.toPath());
+        Files.createDirectories(store.root);
+        int dropped = 0;
+        try (DirectoryStream<Path> fans = Files.newDirectoryStream(store.root)) {
+            for (Path fan : fans) {
+                if (!Files.isDirectory(fan)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> blobs = Files.newDirectoryStream(fan)) {
+                    for (Path blob : blobs) {
+                        int links = links(blob);
+                        if (links <= 1) {
+                            Files.deleteIfExists(blob);
+                            dropped++;
+                            continue;
+                        }
+                        long size = Files.size(blob);
+                        store.hashes.put(fileKey(blob), blob.getFileName().toString());
+                        store.storedBytes += size;
+                        store.savedBytes += size * (links - 2);
+                    }
+                }
+            }
+        }
+        if (dropped > 0) {
+            System.out.println("Dropped " + dropped + " unreferenced files from " + directory);
+        }
+        return store;
+    }
+
+    /**
+     * Places a finished upload: links it to stored content with the same hash, or
+     * adds it to the store, then moves it over the target. The written file may be
+     * the target itself.
+     */
+    void commit(Path written, Path target, String hash, long size) throws IOException {
+        Path placed = written;
+        if (size > 0) {
+            placed = link(written, hash, size);
+        }
+        if (!placed.equals(target)) {
+            replace(placed, target);
+        }
+    }
+
+    private synchronized Path link(Path written, String hash, long size) throws IOException {
+        Path blob = root.resolve(hash.substring(0, 2)).resolve(hash);
+        try {
+            if (Files.exists(blob, LinkOption.NOFOLLOW_LINKS)) {
+                Path linked = written.resolveSibling(written.getFileName() + ".link.partial");
+                Files.createLink(linked, blob);
+                Files.delete(written);
+                if (links(blob) > 2) {
+                    savedBytes += size;
+                }
+                dedupedUploads++;
+                // Copies share one inode, so show the upload's time on all of them
+                Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+                return linked;
+            }
+            Files.createDirectories(blob.getParent());
+            Files.createLink(blob, written);
+            hashes.put(fileKey(blob), hash);
+            storedBytes += size;
+        } catch (IOException | UnsupportedOperationException e) {
+            if (warned.compareAndSet(false, true)) {
+                System.err.println("Cannot deduplicate " + written.getParent() + " into " + root
+                    + ", keeping plain files: " + e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Moves a file over another, releasing the content the replaced file referred to
+     */
+    void replace(Path source, Path target) throws IOException {
+        Object replaced = Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS) ? fileKey(target) : null;
+        if (replaced != null && replaced.equals(fileKey(source))) {
+            // Same content linked again: a rename would leave both names in place
+            Files.delete(source);
+            release(replaced);
+            return;
+        }
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        release(replaced);
+    }
+
+    /**
+     * Returns the key to release after removing a file, or null if it is not stored content
+     */
+    Object referenceOf(Path file) {
+        try {
+            Object key = fileKey(file);
+            return hashes.containsKey(key) ? key : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Drops one reference to the content with the given file key, deleting the
+     * content if it was the last one
+     */
+    synchronized void release(Object key) {
+        String hash = key == null ? null : hashes.get(key);
+        if (hash == null) {
+            return;
+        }
+        Path blob = root.resolve(hash.substring(0, 2)).resolve(hash);
+        try {
+            long size = Files.size(blob);
+            if (links(blob) <= 1) {
+                Files.delete(blob);
+                hashes.remove(key);
+                storedBytes -= size;
+            } else {
+                savedBytes -= size;
+            }
+        } catch (NoSuchFileException e) {
+            hashes.remove(key);
+        } catch (IOException e) {
+            System.err.println("Failed to release stored content " + hash + ": " + e.getMessage());
+        }
+    }
+
+    public int getContentCount() {
+        return hashes.size();
+    }
+
+    /**
+     * Bytes of distinct content in the store
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * Bytes the users' files would take beyond the stored content without deduplication
+     */
+    public synchronized long getSavedBytes() {
+        return savedBytes;
+    }
+
+    /**
+     * Uploads that were linked to content already in the store
+     */
+    public synchronized long getDedupedUploads() {
+        return dedupedUploads;
+    }
+
+    static Object fileKey(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+    }
+
+    static int links(Path file) throws IOException {
+        return (Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+    }
+}
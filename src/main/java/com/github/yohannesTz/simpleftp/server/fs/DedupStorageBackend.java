@@ -0,0 +1,158 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local storage that deduplicates uploads through a ContentStore. A new
+ * upload is written to a hidden temp file and hashed as it streams; once
+ * complete it becomes a link to the stored content with the same hash, or
+ * is added to the store. Stored content is never written in place: appends
+ * and resumed uploads first give the file its own copy.
+ */
+public class DedupStorageBackend extends LocalStorageBackend {
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final ContentStore store;
+
+    public DedupStorageBackend(File root, ContentStore store) {
+        super(root);
+        this.store = store;
+    }
+
+    ContentStore getStore() {
+        return store;
+    }
+
+    @Override
+    public OutputStream openWrite(String path, long offset) throws IOException {
+        Path target = toFile(path).toPath();
+        if (offset > 0) {
+            unshare(target);
+            return super.openWrite(path, offset);
+        }
+        // Temp files of atomic uploads are already hidden, so hash those in place
+        String name = target.getFileName().toString();
+        Path written = UploadStaging.isStagingName(name) ? target
+            : target.resolveSibling("." + name + "." + Long.toHexString(System.nanoTime()) + "-"
+                + SEQUENCE.incrementAndGet() + ".dedup.partial");
+        return new HashingOutputStream(super.openWrite(relative(written), 0), written, target);
+    }
+
+    @Override
+    public boolean delete(String path) {
+        Object reference = store.referenceOf(toFile(path).toPath());
+        if (!super.delete(path)) {
+            return false;
+        }
+        store.release(reference);
+        return true;
+    }
+
+    @Override
+    public boolean rename(String from, String to) {
+        Path source = toFile(from).toPath();
+        Object moved = store.referenceOf(source);
+        Object replaced = store.referenceOf(toFile(to).toPath());
+        if (!super.rename(from, to)) {
+            return false;
+        }
+        if (replaced != null && replaced.equals(moved)) {
+            // Renaming over a link to the same content leaves the source in place
+            return delete(from);
+        }
+        store.release(replaced);
+        if (moved != null && store.referenceOf(toFile(to).toPath()) == null) {
+            store.release(moved); // copied to another volume
+        }
+        return true;
+    }
+
+    /**
+     * Gives a file linked to stored content a copy of its own before it is written in place
+     */
+    private void unshare(Path file) throws IOException {
+        if (store.referenceOf(file) == null) {
+            return;
+        }
+        Path copy = file.resolveSibling("." + file.getFileName() + "." + Long.toHexString(System.nanoTime())
+            + "-" + SEQUENCE.incrementAndGet() + ".dedup.partial");
+        Files.copy(file, copy);
+        try {
+            store.replace(copy, file);
+        } catch (IOException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+    }
+
+    private String relative(Path file) {
+        return getRoot().toPath().relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private class HashingOutputStream extends FilterOutputStream {
+        private final Path written;
+        private final Path target;
+        private final MessageDigest digest;
+        private long size;
+        private boolean closed;
+
+        HashingOutputStream(OutputStream out, Path written, Path target) throws IOException {
+            super(out);
+            this.written = written;
+            this.target = target;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                out.close();
+                throw new IOException("SHA-256 is not available", e);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            digest.update(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+                store.commit(written, target, hex(digest.digest()), size);
+            } catch (IOException e) {
+                if (!written.equals(target)) {
+                    Files.deleteIfExists(written);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
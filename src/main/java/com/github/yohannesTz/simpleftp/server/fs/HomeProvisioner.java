@@ -0,0 +1,98 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import com.github.yohannesTz.simpleftp.model.MountPoint;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates users' home and mount directories when they are first needed
+ * instead of for every account at startup, which on network storage with
+ * many accounts would hold up binding the port. A user is provisioned on
+ * first login and remembered, so later logins cost a set lookup.
+ * Optionally a background pass provisions all accounts in parallel.
+ */
+public class HomeProvisioner {
+    private final Set<String> provisioned = ConcurrentHashMap.newKeySet();
+    private ExecutorService workers;
+
+    /**
+     * Makes sure the user's directories exist; false if one could not be created
+     */
+    public boolean provision(UserAccount account) {
+        if (provisioned.contains(account.getUsername())) {
+            return true;
+        }
+        // Object storage and in-memory homes need no directory
+        boolean ok = !account.getStorage().isLocal() || ensureDirectory(new File(account.getHomeDirectory()));
+        for (MountPoint mount : account.getMounts()) {
+            ok &= ensureDirectory(new File(mount.getPhysicalPath()));
+        }
+        if (ok) {
+            provisioned.add(account.getUsername());
+        }
+        return ok;
+    }
+
+    /**
+     * Forgets a user so their directories are checked again on the next login
+     */
+    public void invalidate(String username) {
+        provisioned.remove(username);
+    }
+
+    /**
+     * Provisions the given accounts in the background with the given number of threads
+     */
+    public synchronized void provisionAllAsync(Collection<UserAccount> accounts, int threads) {
+        if (threads <= 0 || accounts.isEmpty()) {
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "home-provisioner-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<UserAccount> pending = new ArrayList<>(accounts);
+        long start = System.currentTimeMillis();
+        AtomicInteger remaining = new AtomicInteger(pending.size());
+        AtomicInteger failed = new AtomicInteger();
+        for (UserAccount account : pending) {
+            workers.execute(() -> {
+                if (!provision(account)) {
+                    failed.incrementAndGet();
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    System.out.println("Provisioned " + pending.size() + " home directories in "
+                        + (System.currentTimeMillis() - start) + " ms"
+                        + (failed.get() > 0 ? " (" + failed.get() + " failed)" : ""));
+                }
+            });
+        }
+        workers.shutdown();
+    }
+
+    public synchronized void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+    }
+
+    private static boolean ensureDirectory(File dir) {
+        if (dir.isDirectory() || dir.mkdirs() || dir.isDirectory()) {
+            return true;
+        }
+        System.err.println("Failed to create directory " + dir);
+        return false;
+    }
+}
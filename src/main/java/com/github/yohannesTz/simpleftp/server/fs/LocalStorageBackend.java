@@ -0,0 +1,166 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Storage backend on a directory of the local file system
+ */
+public class LocalStorageBackend implements StorageBackend {
+    private final File root;
+
+    public LocalStorageBackend(File root) {
+        this.root = root;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    @Override
+    public File toFile(String path) {
+        File file = root;
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                file = new File(file, segment);
+            }
+        }
+        return file;
+    }
+
+    @Override
+    public StorageEntry stat(String path) {
+        File file = toFile(path);
+        if (!file.exists()) {
+            return null;
+        }
+        return toEntry(file);
+    }
+
+    @Override
+    public List<StorageEntry> list(String directory) {
+        File[] children = toFile(directory).listFiles();
+        if (children == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(children);
+        List<StorageEntry> entries = new ArrayList<>(children.length);
+        for (File child : children) {
+            entries.add(toEntry(child));
+        }
+        return entries;
+    }
+
+    @Override
+    public InputStream openRead(String path, long offset) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(toFile(path), "r");
+        raf.seek(offset);
+        return new FileInputStream(raf.getFD()) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                raf.close();
+            }
+        };
+    }
+
+    @Override
+    public OutputStream openWrite(String path, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(toFile(path).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (offset > channel.size()) {
+                throw new IOException("Offset " + offset + " is beyond the end of " + path);
+            }
+            channel.truncate(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new PositionalOutputStream(channel, offset);
+    }
+
+    /**
+     * Writes at an explicit position, so a resumed upload continues exactly at its offset
+     */
+    private static class PositionalOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private long position;
+
+        PositionalOutputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    @Override
+    public boolean mkdir(String path) {
+        return toFile(path).mkdir();
+    }
+
+    @Override
+    public boolean delete(String path) {
+        return toFile(path).delete();
+    }
+
+    @Override
+    public boolean rename(String from, String to) {
+        File source = toFile(from);
+        File target = toFile(to);
+        if (source.renameTo(target)) {
+            return true;
+        }
+        // Different volumes under one root (e.g. a symlinked directory)
+        try {
+            Files.move(source.toPath(), target.toPath());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean setLastModified(String path, long time) {
+        return toFile(path).setLastModified(time);
+    }
+
+    @Override
+    public boolean supportsOffsetWrites() {
+        return true;
+    }
+
+    private static StorageEntry toEntry(File file) {
+        boolean directory = file.isDirectory();
+        return new StorageEntry(file.getName(), directory, directory ? 0 : file.length(), file.lastModified());
+    }
+}
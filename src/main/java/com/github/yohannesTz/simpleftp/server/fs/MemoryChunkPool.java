@@ -0,0 +1,124 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of fixed-size off-heap chunks shared by all in-memory storage, with a
+ * global memory cap. Freed chunks are recycled; when the cap is reached and
+ * eviction is enabled the least recently used closed file is dropped.
+ */
+public class MemoryChunkPool {
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private final long maxBytes;
+    private final boolean evictOldFiles;
+    private final ConcurrentLinkedQueue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final Map<String, MemoryStorageBackend> backends = new ConcurrentHashMap<>();
+
+    // Access-ordered: eldest entry is the least recently used file
+    private final LinkedHashMap<MemoryFile, MemoryStorageBackend> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+    public MemoryChunkPool(long maxBytes, boolean evictOldFiles) {
+        this.maxBytes = maxBytes;
+        this.evictOldFiles = evictOldFiles;
+    }
+
+    /**
+     * Returns the in-memory storage of a user, creating it on first use.
+     * Contents survive server restarts but not the process.
+     */
+    public MemoryStorageBackend backendFor(String username) {
+        return backends.computeIfAbsent(username, name -> new MemoryStorageBackend(this));
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isEvictOldFiles() {
+        return evictOldFiles;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    ByteBuffer acquire() throws IOException {
+        while (true) {
+            ByteBuffer chunk = freeChunks.poll();
+            if (chunk != null) {
+                chunk.clear();
+                usedBytes.addAndGet(CHUNK_SIZE);
+                return chunk;
+            }
+            long allocated = allocatedBytes.get();
+            if (allocated + CHUNK_SIZE <= maxBytes) {
+                if (allocatedBytes.compareAndSet(allocated, allocated + CHUNK_SIZE)) {
+                    usedBytes.addAndGet(CHUNK_SIZE);
+                    return ByteBuffer.allocateDirect(CHUNK_SIZE);
+                }
+                continue;
+            }
+            if (!evictOldFiles || !evictOne()) {
+                throw new IOException("In-memory storage is full (" + (maxBytes / (1024 * 1024)) + " MB)");
+            }
+        }
+    }
+
+    void release(Collection<ByteBuffer> chunks) {
+        for (ByteBuffer chunk : chunks) {
+            freeChunks.offer(chunk);
+            usedBytes.addAndGet(-CHUNK_SIZE);
+        }
+    }
+
+    void touch(MemoryFile file, MemoryStorageBackend owner) {
+        synchronized (lru) {
+            lru.put(file, owner);
+        }
+    }
+
+    void forget(MemoryFile file) {
+        synchronized (lru) {
+            lru.remove(file);
+        }
+    }
+
+    /**
+     * Frees the least recently used closed file. No file or backend lock is taken
+     * while holding the LRU lock; the pick is re-checked under the file's own lock,
+     * so a file opened in the meantime is skipped.
+     */
+    private boolean evictOne() {
+        while (true) {
+            MemoryFile victim = null;
+            MemoryStorageBackend owner = null;
+            synchronized (lru) {
+                for (Map.Entry<MemoryFile, MemoryStorageBackend> entry : lru.entrySet()) {
+                    if (!entry.getKey().isOpen()) {
+                        victim = entry.getKey();
+                        owner = entry.getValue();
+                        break;
+                    }
+                }
+            }
+            if (victim == null) {
+                return false;
+            }
+            if (victim.freeIfClosed()) {
+                forget(victim);
+                owner.evict(victim);
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content of one in-memory file: a list of pooled chunks, so appending is O(1)
+ * and truncation only returns whole chunks to the pool
+ */
+class MemoryFile {
+    private final MemoryChunkPool pool;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private long size;
+    private volatile long lastModified = System.currentTimeMillis();
+    // Changed under this file's lock, read without it by the pool's eviction scan
+    private volatile int openCount;
+    private boolean freed;
+
+    MemoryFile(MemoryChunkPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the size, or -1 once the file was deleted or evicted
+     */
+    synchronized long liveSize() {
+        return freed ? -1 : size;
+    }
+
+    long lastModified() {
+        return lastModified;
+    }
+
+    void setLastModified(long time) {
+        lastModified = time;
+    }
+
+    boolean isOpen() {
+        return openCount > 0;
+    }
+
+    synchronized boolean isFreed() {
+        return freed;
+    }
+
+    /**
+     * Returns all chunks to the pool; later reads and writes fail
+     */
+    synchronized void free() {
+        if (freed) {
+            return;
+        }
+        freed = true;
+        pool.release(chunks);
+        chunks.clear();
+        size = 0;
+    }
+
+    /**
+     * Frees the file unless a stream was opened on it since the pool picked it,
+     * which is re-checked here under the same lock that opening takes
+     */
+    synchronized boolean freeIfClosed() {
+        if (openCount > 0) {
+            return false;
+        }
+        free();
+        return true;
+    }
+
+    synchronized InputStream openInput(long offset) throws IOException {
+        checkNotFreed();
+        openCount++;
+        return new ChunkInputStream(offset);
+    }
+
+    OutputStream openOutput(long offset) throws IOException {
+        long padding;
+        synchronized (this) {
+            checkNotFreed();
+            openCount++;
+            padding = offset - size;
+            if (padding <= 0) {
+                truncate(offset);
+            }
+        }
+        ChunkOutputStream out = new ChunkOutputStream();
+        try {
+            // Writing past the end pads with zeros, like RandomAccessFile.setLength
+            byte[] zeros = new byte[(int) Math.min(Math.max(padding, 0), 8192)];
+            while (padding > 0) {
+                int n = (int) Math.min(padding, zeros.length);
+                write(zeros, 0, n);
+                padding -= n;
+            }
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return out;
+    }
+
+    private void truncate(long length) {
+        int keepChunks = chunksFor(length);
+        if (keepChunks < chunks.size()) {
+            List<ByteBuffer> dropped = new ArrayList<>(chunks.subList(keepChunks, chunks.size()));
+            chunks.subList(keepChunks, chunks.size()).clear();
+            pool.release(dropped);
+        }
+        size = length;
+    }
+
+    private static int chunksFor(long length) {
+        return (int) ((length + MemoryChunkPool.CHUNK_SIZE - 1) / MemoryChunkPool.CHUNK_SIZE);
+    }
+
+    /**
+     * Appends at the end of the file. Chunks are acquired without holding this
+     * file's lock, since acquiring may evict other files and take their locks.
+     */
+    private void write(byte[] b, int off, int len) throws IOException {
+        List<ByteBuffer> spare = new ArrayList<>();
+        try {
+            while (true) {
+                int missing;
+                synchronized (this) {
+                    checkNotFreed();
+                    missing = chunksFor(size + len) - chunks.size() - spare.size();
+                    if (missing <= 0) {
+                        append(b, off, len, spare);
+                        return;
+                    }
+                }
+                for (int i = 0; i < missing; i++) {
+                    spare.add(pool.acquire());
+                }
+            }
+        } finally {
+            if (!spare.isEmpty()) {
+                pool.release(spare);
+            }
+        }
+    }
+
+    private void append(byte[] b, int off, int len, List<ByteBuffer> spare) {
+        while (len > 0) {
+            int used = (int) (size % MemoryChunkPool.CHUNK_SIZE);
+            if (used == 0 && size / MemoryChunkPool.CHUNK_SIZE == chunks.size()) {
+                chunks.add(spare.remove(spare.size() - 1));
+            }
+            ByteBuffer chunk = chunks.get((int) (size / MemoryChunkPool.CHUNK_SIZE));
+            int n = Math.min(len, MemoryChunkPool.CHUNK_SIZE - used);
+            ByteBuffer target = chunk.duplicate();
+            target.position(used);
+            target.put(b, off, n);
+            size += n;
+            off += n;
+            len -= n;
+        }
+        lastModified = System.currentTimeMillis();
+    }
+
+    private synchronized int read(long position, byte[] b, int off, int len) throws IOException {
+        checkNotFreed();
+        if (position >= size) {
+            return -1;
+        }
+        int total = 0;
+        while (len > 0 && position < size) {
+            ByteBuffer chunk = chunks.get((int) (position / MemoryChunkPool.CHUNK_SIZE));
+            int inChunk = (int) (position % MemoryChunkPool.CHUNK_SIZE);
+            int n = (int) Math.min(Math.min(len, MemoryChunkPool.CHUNK_SIZE - inChunk), size - position);
+            ByteBuffer source = chunk.duplicate();
+            source.position(inChunk);
+            source.get(b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+            total += n;
+        }
+        return total;
+    }
+
+    private synchronized void close() {
+        openCount--;
+    }
+
+    private void checkNotFreed() throws IOException {
+        if (freed) {
+            throw new IOException("File was deleted or evicted");
+        }
+    }
+
+    private class ChunkInputStream extends InputStream {
+        private long position;
+        private boolean closed;
+
+        ChunkInputStream(long offset) {
+            this.position = offset;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = MemoryFile.this.read(position, b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                MemoryFile.this.close();
+            }
+        }
+    }
+
+    private class ChunkOutputStream extends OutputStream {
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            MemoryFile.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                MemoryFile.this.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Scratch storage kept entirely in memory. File content lives in off-heap
+ * chunks from a shared MemoryChunkPool; the directory tree is a flat map of
+ * normalized paths. Nothing is written to disk.
+ */
+public class MemoryStorageBackend implements StorageBackend {
+    private final MemoryChunkPool pool;
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+    MemoryStorageBackend(MemoryChunkPool pool) {
+        this.pool = pool;
+        nodes.put("/", new Node(null));
+    }
+
+    @Override
+    public StorageEntry stat(String path) {
+        Node node = nodes.get(path);
+        return node == null ? null : node.toEntry(name(path));
+    }
+
+    @Override
+    public List<StorageEntry> list(String directory) throws IOException {
+        Node dir = nodes.get(directory);
+        if (dir == null || dir.file != null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        String prefix = directory.equals("/") ? "/" : directory + "/";
+        List<StorageEntry> entries = new ArrayList<>();
+        for (String name : dir.children) {
+            Node child = nodes.get(prefix + name);
+            StorageEntry entry = child == null ? null : child.toEntry(name);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public InputStream openRead(String path, long offset) throws IOException {
+        Node node = nodes.get(path);
+        if (node == null || node.file == null) {
+            throw new IOException("Not a file: " + path);
+        }
+        pool.touch(node.file, this);
+        return node.file.openInput(offset);
+    }
+
+    @Override
+    public OutputStream openWrite(String path, long offset) throws IOException {
+        while (true) {
+            MemoryFile file;
+            synchronized (this) {
+                Node node = nodes.get(path);
+                if (node == null || (offset == 0 && node.file != null && node.file.isFreed())) {
+                    // A file evicted but not yet unlinked is simply replaced when overwritten
+                    Node parent = nodes.get(parent(path));
+                    if (parent == null || parent.file != null) {
+                        throw new IOException("Parent directory does not exist: " + path);
+                    }
+                    node = new Node(new MemoryFile(pool));
+                    nodes.put(path, node);
+                    parent.children.add(name(path));
+                } else if (node.file == null) {
+                    throw new IOException("Is a directory: " + path);
+                }
+                file = node.file;
+            }
+            // Chunks may be acquired (and other files evicted) here, so the backend lock is not held
+            pool.touch(file, this);
+            try {
+                return file.openOutput(offset);
+            } catch (IOException e) {
+                // Evicted since the lookup; a resumed write cannot continue, an overwrite starts afresh
+                if (offset != 0 || !file.isFreed()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean mkdir(String path) {
+        if (nodes.containsKey(path)) {
+            return false;
+        }
+        Node parent = nodes.get(parent(path));
+        if (parent == null || parent.file != null) {
+            return false;
+        }
+        nodes.put(path, new Node(null));
+        parent.children.add(name(path));
+        return true;
+    }
+
+    @Override
+    public boolean delete(String path) {
+        MemoryFile removed;
+        synchronized (this) {
+            Node node = nodes.get(path);
+            if (node == null || path.equals("/") || (node.file == null && !node.children.isEmpty())) {
+                return false;
+            }
+            nodes.remove(path);
+            nodes.get(parent(path)).children.remove(name(path));
+            removed = node.file;
+        }
+        if (removed != null) {
+            pool.forget(removed);
+            removed.free();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean rename(String from, String to) {
+        Node node = nodes.get(from);
+        Node target = nodes.get(parent(to));
+        if (node == null || from.equals("/") || nodes.containsKey(to) || target == null || target.file != null
+                || to.startsWith(from + "/")) {
+            return false;
+        }
+        // Directories move with everything below them
+        String fromPrefix = from + "/";
+        List<String> descendants = new ArrayList<>();
+        for (String key : nodes.keySet()) {
+            if (key.startsWith(fromPrefix)) {
+                descendants.add(key);
+            }
+        }
+        for (String key : descendants) {
+            nodes.put(to + key.substring(from.length()), nodes.remove(key));
+        }
+        nodes.remove(from);
+        nodes.get(parent(from)).children.remove(name(from));
+        nodes.put(to, node);
+        target.children.add(name(to));
+        return true;
+    }
+
+    @Override
+    public boolean setLastModified(String path, long time) {
+        Node node = nodes.get(path);
+        if (node == null) {
+            return false;
+        }
+        if (node.file != null) {
+            node.file.setLastModified(time);
+        } else {
+            node.lastModified = time;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean supportsOffsetWrites() {
+        return true;
+    }
+
+    @Override
+    public File toFile(String path) {
+        return null;
+    }
+
+    /**
+     * Called by the pool after it freed a file to make room for new data
+     */
+    synchronized void evict(MemoryFile file) {
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            if (entry.getValue().file == file) {
+                String path = entry.getKey();
+                nodes.remove(path);
+                nodes.get(parent(path)).children.remove(name(path));
+                break;
+            }
+        }
+    }
+
+    private static String parent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+
+    private static String name(String path) {
+        return path.equals("/") ? "/" : path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static class Node {
+        final MemoryFile file;
+        final ConcurrentSkipListSet<String> children = new ConcurrentSkipListSet<>();
+        volatile long lastModified = System.currentTimeMillis();
+
+        Node(MemoryFile file) {
+            this.file = file;
+        }
+
+        /**
+         * Returns null for a file that was evicted but is not unlinked yet
+         */
+        StorageEntry toEntry(String name) {
+            if (file != null) {
+                long size = file.liveSize();
+                return size < 0 ? null : new StorageEntry(name, false, size, file.lastModified());
+            }
+            return new StorageEntry(name, true, 0, lastModified);
+        }
+    }
+}
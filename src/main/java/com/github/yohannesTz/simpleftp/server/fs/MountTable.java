@@ -0,0 +1,149 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import com.github.yohannesTz.simpleftp.model.MountPoint;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Prefix trie of virtual path segments used to resolve a virtual path to the
+ * mount that owns it. Built once per user and shared by all their sessions;
+ * a lookup costs one map probe per path segment.
+ */
+public class MountTable {
+    private final Node root = new Node();
+
+    /**
+     * Creates a table whose root ("/") is the user's home storage
+     */
+    public MountTable(String homeDirectory, StorageBackend homeBackend, Collection<MountPoint> mounts,
+                      Function<MountPoint, StorageBackend> backendFactory) {
+        root.mount = new MountPoint("/", homeDirectory, true, true);
+        root.backend = homeBackend;
+        for (MountPoint mount : mounts) {
+            add(mount, backendFactory.apply(mount));
+        }
+    }
+
+    private void add(MountPoint mount, StorageBackend backend) {
+        Node node = root;
+        for (String segment : segments(mount.getVirtualPath())) {
+            node = node.children.computeIfAbsent(segment, k -> new Node());
+        }
+        node.mount = mount;
+        node.backend = backend;
+    }
+
+    /**
+     * Resolves a normalized virtual path ("/a/b") to its mount and the path inside that mount's storage
+     */
+    public Resolution resolve(String virtualPath) {
+        Node node = root;
+        Node mountNode = root;
+        int mountDepth = 0;
+        String[] segments = segments(virtualPath);
+        for (int i = 0; i < segments.length; i++) {
+            node = node.children.get(segments[i]);
+            if (node == null) {
+                break;
+            }
+            if (node.mount != null) {
+                mountNode = node;
+                mountDepth = i + 1;
+            }
+        }
+
+        StringBuilder path = new StringBuilder();
+        for (int i = mountDepth; i < segments.length; i++) {
+            path.append('/').append(segments[i]);
+        }
+        return new Resolution(mountNode.mount, mountNode.backend, path.length() == 0 ? "/" : path.toString(),
+            mountDepth == segments.length && mountNode != root);
+    }
+
+    /**
+     * Returns the names of virtual entries directly below a directory, i.e. mount points
+     * and the intermediate directories leading to them
+     */
+    public Collection<String> virtualChildren(String virtualPath) {
+        Node node = find(virtualPath);
+        return node == null ? Collections.<String>emptySet() : node.children.keySet();
+    }
+
+    /**
+     * Returns true if the path is a mount point or lies on the way to one
+     */
+    public boolean isVirtualDirectory(String virtualPath) {
+        return find(virtualPath) != null;
+    }
+
+    public boolean hasMounts() {
+        return !root.children.isEmpty();
+    }
+
+    private Node find(String virtualPath) {
+        Node node = root;
+        for (String segment : segments(virtualPath)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private static String[] segments(String virtualPath) {
+        if (virtualPath.equals("/") || virtualPath.isEmpty()) {
+            return new String[0];
+        }
+        return virtualPath.substring(1).split("/");
+    }
+
+    /**
+     * Result of resolving a virtual path
+     */
+    public static class Resolution {
+        private final MountPoint mount;
+        private final StorageBackend backend;
+        private final String path;
+        private final boolean mountRoot;
+
+        Resolution(MountPoint mount, StorageBackend backend, String path, boolean mountRoot) {
+            this.mount = mount;
+            this.backend = backend;
+            this.path = path;
+            this.mountRoot = mountRoot;
+        }
+
+        public MountPoint getMount() {
+            return mount;
+        }
+
+        public StorageBackend getBackend() {
+            return backend;
+        }
+
+        /**
+         * Path inside the mount's backend
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * True if the path is exactly a mount point (which cannot be removed or renamed)
+         */
+        public boolean isMountRoot() {
+            return mountRoot;
+        }
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new TreeMap<>();
+        MountPoint mount;
+        StorageBackend backend;
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import org.apache.ftpserver.ftplet.AuthorizationRequest;
+
+/**
+ * Authorization request to download a file or list a directory at a virtual path
+ */
+public class ReadRequest implements AuthorizationRequest {
+    private final String path;
+    private final boolean listing;
+
+    public ReadRequest(String path, boolean listing) {
+        this.path = path;
+        this.listing = listing;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * True for listing a directory, false for reading a file
+     */
+    public boolean isListing() {
+        return listing;
+    }
+}
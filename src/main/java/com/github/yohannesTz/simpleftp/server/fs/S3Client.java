@@ -0,0 +1,306 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+import java.util.TreeMap;
+
+/**
+ * Minimal S3 REST client using path-style addressing and Signature Version 4.
+ * Works against AWS and S3-compatible stand-ins such as MinIO without an SDK.
+ */
+public class S3Client {
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 60000;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final String endpoint;
+    private final String region;
+    private final String bucket;
+    private final String accessKey;
+    private final String secretKey;
+
+    public S3Client(String endpoint, String region, String bucket, String accessKey, String secretKey) {
+        this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+        this.region = region;
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    /**
+     * Result of a request whose body fits in memory
+     */
+    public static class Response {
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        Response(int status, Map<String, String> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    /**
+     * Executes a request and buffers the response body. Requests other than POST
+     * are idempotent and are retried if the connection broke.
+     */
+    public Response execute(String method, String key, Map<String, String> query,
+                            Map<String, String> headers, byte[] body, int offset, int length) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return executeOnce(method, key, query, headers, body, offset, length);
+            } catch (IOException e) {
+                if (attempt == MAX_ATTEMPTS || !isRetryable(method, e)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a signed request without a body and waits for the response, retrying
+     * like execute(); the caller reads the response and disconnects
+     */
+    public HttpURLConnection openResponse(String method, String key, Map<String, String> query,
+                                          Map<String, String> headers) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            HttpURLConnection connection = open(method, key, query, headers, -1);
+            try {
+                connection.getResponseCode();
+                return connection;
+            } catch (IOException e) {
+                connection.disconnect();
+                if (attempt == MAX_ATTEMPTS || !isRetryable(method, e)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * A pooled keep-alive connection the server already closed fails with a reset
+     * or an unexpected end of stream; a timeout is not worth repeating
+     */
+    private static boolean isRetryable(String method, IOException e) {
+        return !"POST".equals(method) && e instanceof SocketException;
+    }
+
+    private Response executeOnce(String method, String key, Map<String, String> query,
+                                 Map<String, String> headers, byte[] body, int offset, int length) throws IOException {
+        HttpURLConnection connection = open(method, key, query, headers, body == null ? -1 : length);
+        try {
+            if (body != null) {
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body, offset, length);
+                }
+            }
+            int status = connection.getResponseCode();
+            Map<String, String> responseHeaders = new TreeMap<>();
+            for (Map.Entry<String, java.util.List<String>> header : connection.getHeaderFields().entrySet()) {
+                if (header.getKey() != null && !header.getValue().isEmpty()) {
+                    responseHeaders.put(header.getKey().toLowerCase(), header.getValue().get(0));
+                }
+            }
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            byte[] responseBody = in == null ? new byte[0] : readFully(in);
+            return new Response(status, responseHeaders, responseBody);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    public Response execute(String method, String key, Map<String, String> query) throws IOException {
+        return execute(method, key, query, Collections.<String, String>emptyMap(), null, 0, 0);
+    }
+
+    /**
+     * Opens a signed connection; the caller writes the body (if any) and reads the response
+     */
+    public HttpURLConnection open(String method, String key, Map<String, String> query,
+                                  Map<String, String> headers, long contentLength) throws IOException {
+        String canonicalUri = "/" + bucket + "/" + uriEncode(key, false);
+        String canonicalQuery = canonicalQuery(query);
+        URL url = new URL(endpoint + canonicalUri + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+        Date now = new Date();
+        String amzDate = format("yyyyMMdd'T'HHmmss'Z'", now);
+        String dateStamp = format("yyyyMMdd", now);
+
+        Map<String, String> signedHeaders = new TreeMap<>();
+        signedHeaders.put("host", hostHeader(url));
+        signedHeaders.put("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+        signedHeaders.put("x-amz-date", amzDate);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey().toLowerCase();
+            if (name.startsWith("x-amz-")) {
+                signedHeaders.put(name, header.getValue().trim());
+            }
+        }
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringBuilder signedHeaderNames = new StringBuilder();
+        for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+            if (signedHeaderNames.length() > 0) {
+                signedHeaderNames.append(';');
+            }
+            signedHeaderNames.append(header.getKey());
+        }
+
+        String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\n"
+            + canonicalHeaders + "\n" + signedHeaderNames + "\n" + UNSIGNED_PAYLOAD;
+        String scope = dateStamp + "/" + region + "/s3/aws4_request";
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n"
+            + hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+
+        byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), dateStamp);
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = hex(hmac(signingKey, stringToSign));
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        connection.setRequestProperty("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+        connection.setRequestProperty("x-amz-date", amzDate);
+        connection.setRequestProperty("Authorization", "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope
+            + ", SignedHeaders=" + signedHeaderNames + ", Signature=" + signature);
+        if (contentLength >= 0) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(contentLength);
+        }
+        return connection;
+    }
+
+    /**
+     * Builds the error for a failed request, including the S3 error body
+     */
+    public static IOException failure(String operation, String key, Response response) {
+        String body = new String(response.getBody(), StandardCharsets.UTF_8);
+        if (body.length() > 300) {
+            body = body.substring(0, 300);
+        }
+        return new IOException("S3 " + operation + " " + key + " failed (" + response.getStatus() + "): " + body);
+    }
+
+    static String uriEncode(String value, boolean encodeSlash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String canonicalQuery(Map<String, String> query) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> param : new TreeMap<>(query).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(uriEncode(param.getKey(), true)).append('=')
+              .append(uriEncode(param.getValue() == null ? "" : param.getValue(), true));
+        }
+        return sb.toString();
+    }
+
+    private static String hostHeader(URL url) {
+        int port = url.getPort();
+        if (port == -1 || port == url.getDefaultPort()) {
+            return url.getHost();
+        }
+        return url.getHost() + ":" + port;
+    }
+
+    private static String format(String pattern, Date date) {
+        SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+        sdf.setTimeZone(new SimpleTimeZone(0, "UTC"));
+        return sdf.format(date);
+    }
+
+    private static byte[] sha256(byte[] data) throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
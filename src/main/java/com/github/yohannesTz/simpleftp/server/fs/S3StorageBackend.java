@@ -0,0 +1,551 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import com.github.yohannesTz.simpleftp.model.StorageSettings;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage backend on an S3-compatible object store. Directories are key
+ * prefixes (with optional "dir/" marker objects), uploads are streamed as
+ * multipart uploads with parts sent in parallel, and reads at an offset use
+ * ranged GETs. Directory listings are cached for a few seconds.
+ */
+public class S3StorageBackend implements StorageBackend {
+    private static final int PART_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_PARTS_IN_FLIGHT = 4;
+    private static final long LISTING_TTL_MS = 5000;
+    private static final int MAX_CACHED_LISTINGS = 256;
+
+    private static final ExecutorService PART_UPLOADER = Executors.newFixedThreadPool(8, r -> {
+        Thread thread = new Thread(r, "s3-part-uploader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final S3Client client;
+    private final String prefix;
+    private final Map<String, CachedListing> listingCache = new ConcurrentHashMap<>();
+
+    public S3StorageBackend(StorageSettings settings) {
+        this(new S3Client(settings.getEndpoint(), settings.getRegion(), settings.getBucket(),
+            settings.getAccessKey(), settings.getSecretKey()), settings.getPrefix());
+    }
+
+    public S3StorageBackend(S3Client client, String prefix) {
+        this.client = client;
+        String p = prefix == null ? "" : prefix.replace('\\', '/');
+        while (p.startsWith("/")) {
+            p = p.substring(1);
+        }
+        if (!p.isEmpty() && !p.endsWith("/")) {
+            p = p + "/";
+        }
+        this.prefix = p;
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws IOException {
+        if (isRoot(path)) {
+            return new StorageEntry("/", true, 0, 0);
+        }
+
+        // A fresh listing of the parent answers without a round trip
+        CachedListing cached = listingCache.get(parentOf(path));
+        if (cached != null && !cached.isExpired()) {
+            String name = nameOf(path);
+            for (StorageEntry entry : cached.entries) {
+                if (entry.getName().equals(name)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        S3Client.Response head = client.execute("HEAD", key(path), Collections.<String, String>emptyMap());
+        if (head.isSuccess()) {
+            return new StorageEntry(nameOf(path), false, parseLong(head.getHeader("content-length")),
+                parseHttpDate(head.getHeader("last-modified")));
+        }
+        if (head.getStatus() != 404) {
+            throw S3Client.failure("HEAD", key(path), head);
+        }
+
+        Map<String, String> query = new HashMap<>();
+        query.put("list-type", "2");
+        query.put("prefix", key(path) + "/");
+        query.put("max-keys", "1");
+        S3Client.Response list = client.execute("GET", "", query);
+        if (!list.isSuccess()) {
+            throw S3Client.failure("LIST", key(path), list);
+        }
+        Document doc = parse(list.getBody());
+        if (doc.getElementsByTagName("Contents").getLength() > 0
+                || doc.getElementsByTagName("CommonPrefixes").getLength() > 0) {
+            return new StorageEntry(nameOf(path), true, 0, 0);
+        }
+        return null;
+    }
+
+    @Override
+    public List<StorageEntry> list(String directory) throws IOException {
+        CachedListing cached = listingCache.get(directory);
+        if (cached != null && !cached.isExpired()) {
+            return cached.entries;
+        }
+
+        String dirPrefix = isRoot(directory) ? prefix : key(directory) + "/";
+        List<StorageEntry> entries = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            Map<String, String> query = new HashMap<>();
+            query.put("list-type", "2");
+            query.put("prefix", dirPrefix);
+            query.put("delimiter", "/");
+            if (continuationToken != null) {
+                query.put("continuation-token", continuationToken);
+            }
+            S3Client.Response response = client.execute("GET", "", query);
+            if (!response.isSuccess()) {
+                throw S3Client.failure("LIST", dirPrefix, response);
+            }
+            Document doc = parse(response.getBody());
+
+            NodeList prefixes = doc.getElementsByTagName("CommonPrefixes");
+            for (int i = 0; i < prefixes.getLength(); i++) {
+                String sub = text((Element) prefixes.item(i), "Prefix");
+                String name = sub.substring(dirPrefix.length(), sub.length() - 1);
+                if (!name.isEmpty()) {
+                    entries.add(new StorageEntry(name, true, 0, 0));
+                }
+            }
+            NodeList contents = doc.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                Element item = (Element) contents.item(i);
+                String name = text(item, "Key").substring(dirPrefix.length());
+                if (name.isEmpty()) {
+                    continue; // directory marker object
+                }
+                entries.add(new StorageEntry(name, false, parseLong(text(item, "Size")),
+                    parseIsoDate(text(item, "LastModified"))));
+            }
+
+            continuationToken = "true".equals(text(doc.getDocumentElement(), "IsTruncated"))
+                ? text(doc.getDocumentElement(), "NextContinuationToken")
+                : null;
+        } while (continuationToken != null && !continuationToken.isEmpty());
+
+        entries.sort((a, b) -> a.getName().compareTo(b.getName()));
+        List<StorageEntry> result = Collections.unmodifiableList(entries);
+        if (listingCache.size() >= MAX_CACHED_LISTINGS) {
+            // Listings of directories nobody looks at again would otherwise stay forever
+            listingCache.values().removeIf(CachedListing::isExpired);
+        }
+        listingCache.put(directory, new CachedListing(result));
+        return result;
+    }
+
+    @Override
+    public InputStream openRead(String path, long offset) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (offset > 0) {
+            headers.put("Range", "bytes=" + offset + "-");
+        }
+        final HttpURLConnection connection = client.openResponse("GET", key(path),
+            Collections.<String, String>emptyMap(), headers);
+        int status = connection.getResponseCode();
+        if (status == 416) {
+            // Offset at the end of the object
+            connection.disconnect();
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        if (status != 200 && status != 206) {
+            connection.disconnect();
+            throw new IOException("S3 GET " + key(path) + " failed (" + status + ")");
+        }
+        return new FilterInputStream(connection.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        };
+    }
+
+    @Override
+    public OutputStream openWrite(String path, long offset) throws IOException {
+        if (offset > 0) {
+            throw new IOException("Object storage does not support writing at an offset");
+        }
+        return new MultipartOutputStream(path);
+    }
+
+    @Override
+    public boolean mkdir(String path) throws IOException {
+        S3Client.Response response = client.execute("PUT", key(path) + "/",
+            Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap(), new byte[0], 0, 0);
+        invalidate(path);
+        return response.isSuccess();
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        StorageEntry entry = stat(path);
+        if (entry == null) {
+            return false;
+        }
+        String objectKey = key(path);
+        if (entry.isDirectory()) {
+            if (!list(path).isEmpty()) {
+                return false;
+            }
+            objectKey = objectKey + "/";
+        }
+        S3Client.Response response = client.execute("DELETE", objectKey, Collections.<String, String>emptyMap());
+        invalidate(path);
+        listingCache.remove(path);
+        return response.isSuccess();
+    }
+
+    @Override
+    public boolean rename(String from, String to) throws IOException {
+        StorageEntry entry = stat(from);
+        if (entry == null || entry.isDirectory()) {
+            // Renaming a prefix would mean copying every object below it
+            return false;
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("x-amz-copy-source", "/" + client.getBucket() + "/" + S3Client.uriEncode(key(from), false));
+        S3Client.Response copy = client.execute("PUT", key(to), Collections.<String, String>emptyMap(),
+            headers, new byte[0], 0, 0);
+        invalidate(to);
+        if (!copy.isSuccess()) {
+            return false;
+        }
+        S3Client.Response delete = client.execute("DELETE", key(from), Collections.<String, String>emptyMap());
+        invalidate(from);
+        if (!delete.isSuccess() && delete.getStatus() != 404) {
+            throw new IOException("Copied " + key(from) + " to " + key(to) + " but could not delete it ("
+                + delete.getStatus() + ")");
+        }
+        return true;
+    }
+
+    @Override
+    public boolean setLastModified(String path, long time) {
+        return false;
+    }
+
+    @Override
+    public boolean supportsOffsetWrites() {
+        return false;
+    }
+
+    @Override
+    public File toFile(String path) {
+        return null;
+    }
+
+    private void invalidate(String path) {
+        listingCache.remove(parentOf(path));
+    }
+
+    private String key(String path) {
+        String relative = path.startsWith("/") ? path.substring(1) : path;
+        return prefix + relative;
+    }
+
+    private static boolean isRoot(String path) {
+        return path.isEmpty() || path.equals("/");
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static Document parse(byte[] xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch (Exception e) {
+            throw new IOException("Invalid S3 response", e);
+        }
+    }
+
+    private static String text(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? "" : nodes.item(0).getTextContent();
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value == null ? 0 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseIsoDate(String value) {
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static long parseHttpDate(String value) {
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static class CachedListing {
+        final List<StorageEntry> entries;
+        final long loadedAt = System.currentTimeMillis();
+
+        CachedListing(List<StorageEntry> entries) {
+            this.entries = entries;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - loadedAt > LISTING_TTL_MS;
+        }
+    }
+
+    /**
+     * Buffers one part at a time. Small files are sent with a single PUT; larger
+     * ones become a multipart upload whose parts are uploaded in parallel, with a
+     * semaphore bounding the number of buffered parts. Nothing replaces the
+     * object until the upload is published; a failed or aborted upload is
+     * dropped, multipart ones with AbortMultipartUpload.
+     */
+    private class MultipartOutputStream extends StagedOutputStream {
+        private final String path;
+        private final String objectKey;
+        private final Semaphore inFlight = new Semaphore(MAX_PARTS_IN_FLIGHT);
+        private final List<Future<String>> parts = new ArrayList<>();
+        private final List<String> etags = new ArrayList<>();
+        private byte[] buffer = new byte[PART_SIZE];
+        private int count;
+        private String uploadId;
+        private boolean closed;
+        /** Published or aborted */
+        private boolean finished;
+
+        MultipartOutputStream(String path) {
+            this.path = path;
+            this.objectKey = key(path);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (count == buffer.length) {
+                flushPart();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushPart();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed || finished) {
+                throw new IOException("Upload of " + objectKey + " is " + (finished ? "aborted" : "closed"));
+            }
+        }
+
+        private void flushPart() throws IOException {
+            try {
+                uploadPart();
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        private void uploadPart() throws IOException {
+            if (uploadId == null) {
+                Map<String, String> query = new HashMap<>();
+                query.put("uploads", "");
+                S3Client.Response response = client.execute("POST", objectKey, query);
+                if (!response.isSuccess()) {
+                    throw S3Client.failure("CreateMultipartUpload", objectKey, response);
+                }
+                uploadId = text(parse(response.getBody()).getDocumentElement(), "UploadId");
+            }
+
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while uploading " + objectKey, e);
+            }
+            final byte[] part = buffer;
+            final int length = count;
+            final int partNumber = parts.size() + 1;
+            final String id = uploadId;
+            parts.add(PART_UPLOADER.submit(() -> {
+                try {
+                    Map<String, String> query = new HashMap<>();
+                    query.put("partNumber", String.valueOf(partNumber));
+                    query.put("uploadId", id);
+                    S3Client.Response response = client.execute("PUT", objectKey, query,
+                        Collections.<String, String>emptyMap(), part, 0, length);
+                    if (!response.isSuccess()) {
+                        throw S3Client.failure("UploadPart", objectKey, response);
+                    }
+                    return response.getHeader("etag");
+                } finally {
+                    inFlight.release();
+                }
+            }));
+            buffer = new byte[PART_SIZE];
+            count = 0;
+        }
+
+        /**
+         * Sends the remaining data and waits for all parts, then publishes the
+         * upload unless it is deferred to commit()
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (finished) {
+                return; // aborted, the failure was reported by the write
+            }
+            if (uploadId != null) {
+                if (count > 0) {
+                    flushPart();
+                }
+                for (int i = 0; i < parts.size(); i++) {
+                    try {
+                        etags.add(parts.get(i).get(10, TimeUnit.MINUTES));
+                    } catch (Exception e) {
+                        abort();
+                        throw new IOException("Part " + (i + 1) + " of " + objectKey + " failed", e);
+                    }
+                }
+            }
+            if (!isDeferred()) {
+                commit();
+            }
+        }
+
+        @Override
+        void commit() throws IOException {
+            if (!closed || finished) {
+                throw new IOException("Upload of " + objectKey + " is not complete");
+            }
+            try {
+                if (uploadId == null) {
+                    S3Client.Response response = client.execute("PUT", objectKey,
+                        Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap(),
+                        buffer, 0, count);
+                    if (!response.isSuccess()) {
+                        throw S3Client.failure("PUT", objectKey, response);
+                    }
+                } else {
+                    completeUpload();
+                }
+                finished = true;
+            } catch (IOException e) {
+                abort();
+                throw e;
+            } finally {
+                buffer = null;
+                invalidate(path);
+            }
+        }
+
+        private void completeUpload() throws IOException {
+            StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+            for (int i = 0; i < etags.size(); i++) {
+                xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                   .append(etags.get(i)).append("</ETag></Part>");
+            }
+            xml.append("</CompleteMultipartUpload>");
+
+            Map<String, String> query = new HashMap<>();
+            query.put("uploadId", uploadId);
+            byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+            S3Client.Response response = client.execute("POST", objectKey, query,
+                Collections.<String, String>emptyMap(), body, 0, body.length);
+            if (!response.isSuccess() || new String(response.getBody(), StandardCharsets.UTF_8).contains("<Error>")) {
+                throw S3Client.failure("CompleteMultipartUpload", objectKey, response);
+            }
+        }
+
+        @Override
+        void abort() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            buffer = null;
+            for (Future<String> part : parts) {
+                part.cancel(true);
+            }
+            if (uploadId == null) {
+                return; // nothing was sent yet
+            }
+            try {
+                Map<String, String> query = new HashMap<>();
+                query.put("uploadId", uploadId);
+                client.execute("DELETE", objectKey, query);
+            } catch (IOException e) {
+                System.err.println("Failed to abort multipart upload " + objectKey + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream of a backend that publishes an upload as a whole, such as an
+ * object store. On its own, close() publishes what was written. A deferred
+ * stream's close() only finishes sending the data; the upload is then
+ * published by commit() if the transfer succeeded, or dropped by abort() if
+ * it did not, so a broken transfer never replaces the existing file with a
+ * truncated one.
+ */
+abstract class StagedOutputStream extends OutputStream {
+    private boolean deferred;
+
+    /**
+     * Leaves publishing to commit() instead of close()
+     */
+    void defer() {
+        deferred = true;
+    }
+
+    protected boolean isDeferred() {
+        return deferred;
+    }
+
+    /**
+     * Publishes the upload once the stream was closed
+     */
+    abstract void commit() throws IOException;
+
+    /**
+     * Drops the upload without publishing it
+     */
+    abstract void abort();
+}
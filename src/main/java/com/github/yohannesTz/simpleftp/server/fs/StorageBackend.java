@@ -0,0 +1,52 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Storage SPI beneath the virtual file system. Paths are backend-relative,
+ * normalized and slash-separated ("/" is the backend root).
+ */
+public interface StorageBackend {
+
+    /**
+     * Returns metadata for a path, or null if nothing exists there
+     */
+    StorageEntry stat(String path) throws IOException;
+
+    /**
+     * Lists the direct children of a directory
+     */
+    List<StorageEntry> list(String directory) throws IOException;
+
+    /**
+     * Opens a file for reading starting at the given byte offset
+     */
+    InputStream openRead(String path, long offset) throws IOException;
+
+    /**
+     * Opens a file for writing; content beyond the offset is discarded
+     */
+    OutputStream openWrite(String path, long offset) throws IOException;
+
+    boolean mkdir(String path) throws IOException;
+
+    boolean delete(String path) throws IOException;
+
+    boolean rename(String from, String to) throws IOException;
+
+    boolean setLastModified(String path, long time) throws IOException;
+
+    /**
+     * Returns true if writes may start at a non-zero offset (REST + STOR, APPE)
+     */
+    boolean supportsOffsetWrites();
+
+    /**
+     * Returns the local file behind a path, or null if the backend is not on the local disk
+     */
+    File toFile(String path);
+}
@@ -0,0 +1,34 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+/**
+ * Metadata of a file or directory in a StorageBackend
+ */
+public class StorageEntry {
+    private final String name;
+    private final boolean directory;
+    private final long size;
+    private final long lastModified;
+
+    public StorageEntry(String name, boolean directory, long size, long lastModified) {
+        this.name = name;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
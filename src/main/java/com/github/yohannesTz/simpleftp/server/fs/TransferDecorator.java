@@ -0,0 +1,55 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Hook to wrap the streams of file transfers, e.g. to meter or throttle them
+ */
+public interface TransferDecorator {
+    TransferDecorator NONE = new TransferDecorator() {
+        @Override
+        public InputStream decorateInput(InputStream in) {
+            return in;
+        }
+
+        @Override
+        public OutputStream decorateOutput(OutputStream out) {
+            return out;
+        }
+    };
+
+    InputStream decorateInput(InputStream in);
+
+    OutputStream decorateOutput(OutputStream out);
+
+    /**
+     * Called as a directory listing makes progress, so a long LIST counts as activity
+     */
+    default void listingProgress() {
+    }
+
+    /**
+     * Returns a decorator that wraps streams with this one and then with next
+     */
+    default TransferDecorator andThen(TransferDecorator next) {
+        TransferDecorator first = this;
+        return new TransferDecorator() {
+            @Override
+            public InputStream decorateInput(InputStream in) {
+                return next.decorateInput(first.decorateInput(in));
+            }
+
+            @Override
+            public OutputStream decorateOutput(OutputStream out) {
+                return next.decorateOutput(first.decorateOutput(out));
+            }
+
+            @Override
+            public void listingProgress() {
+                first.listingProgress();
+                next.listingProgress();
+            }
+        };
+    }
+}
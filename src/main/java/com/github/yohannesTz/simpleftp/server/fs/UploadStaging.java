@@ -0,0 +1,183 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Atomic uploads: a new upload is written to a hidden temp file next to its
+ * target and renamed over the target only once the transfer succeeded, so
+ * readers never see a partial file. Since the temp file is in the same
+ * directory, committing is a rename and costs no copy.
+ *
+ * Uploads are published when their stream is closed, before the client is
+ * told the transfer completed, so a failure to publish is reported as one
+ * (551) rather than following a 226. ftpserver closes the stream before its
+ * 226 reply but only after the failure reply of a broken transfer, so
+ * UploadCommand marks each upload command on its thread with a check for
+ * that reply. Concurrent uploads of one name each get their own temp file;
+ * the one that completes last replaces the others.
+ *
+ * Backends that publish uploads as a whole (StagedOutputStream, e.g. S3)
+ * need no temp file: their uploads are published or dropped the same way,
+ * whether or not atomic uploads are enabled, since a partial object must
+ * never replace the existing one.
+ */
+public class UploadStaging {
+    private static final String SUFFIX = ".partial";
+
+    private final ThreadLocal<BooleanSupplier> transferFailed = new ThreadLocal<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Returns true for names of temp files, which are hidden from listings
+     */
+    public static boolean isStagingName(String name) {
+        return name.startsWith(".") && name.endsWith(SUFFIX);
+    }
+
+    /**
+     * Marks the start of an upload command on this thread; failed tells whether the
+     * command already reported its transfer as failed
+     */
+    public void beginTransfer(BooleanSupplier failed) {
+        transferFailed.set(failed);
+    }
+
+    public void endTransfer() {
+        transferFailed.remove();
+    }
+
+    /**
+     * Opens a temp file for an upload to a path of a local backend
+     */
+    OutputStream open(StorageBackend backend, String path) throws IOException {
+        int slash = path.lastIndexOf('/');
+        String tempPath = path.substring(0, slash + 1) + "." + path.substring(slash + 1) + "."
+            + Long.toHexString(System.nanoTime()) + "-" + sequence.incrementAndGet() + SUFFIX;
+        OutputStream out = backend.openWrite(tempPath, 0);
+        ContentStore store = backend instanceof DedupStorageBackend ? ((DedupStorageBackend) backend).getStore() : null;
+        return new Publishing(out, new Staged(backend.toFile(tempPath), backend.toFile(path), store));
+    }
+
+    /**
+     * Wraps an upload that is published as a whole, so it is only published once the transfer succeeded
+     */
+    OutputStream track(StagedOutputStream out) {
+        out.defer();
+        return new Publishing(out, new Tracked(out));
+    }
+
+    private boolean transferFailed() {
+        BooleanSupplier failed = transferFailed.get();
+        return failed != null && failed.getAsBoolean();
+    }
+
+    private interface Pending {
+        void publish() throws IOException;
+
+        void discard();
+    }
+
+    /**
+     * Publishes the upload on close, or discards it if the transfer failed
+     */
+    private class Publishing extends FilterOutputStream {
+        private final Pending upload;
+        private boolean closed;
+
+        Publishing(OutputStream out, Pending upload) {
+            super(out);
+            this.upload = upload;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                upload.discard();
+                throw e;
+            }
+            if (transferFailed()) {
+                upload.discard();
+            } else {
+                upload.publish();
+            }
+        }
+    }
+
+    private static class Staged implements Pending {
+        final File temp;
+        final File target;
+        final ContentStore store;
+
+        Staged(File temp, File target, ContentStore store) {
+            this.temp = temp;
+            this.target = target;
+            this.store = store;
+        }
+
+        @Override
+        public void publish() throws IOException {
+            try {
+                if (store != null) {
+                    // Also drops the reference of a deduplicated file being replaced
+                    store.replace(temp.toPath(), target.toPath());
+                    return;
+                }
+                try {
+                    Files.move(temp.toPath(), target.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                // The client is told the upload failed, so it has no use for the data
+                discard();
+                throw new IOException("Failed to complete upload of " + target.getName() + ": " + e, e);
+            }
+        }
+
+        @Override
+        public void discard() {
+            Object reference = store == null ? null : store.referenceOf(temp.toPath());
+            if (temp.delete() && reference != null) {
+                store.release(reference);
+            }
+        }
+    }
+
+    private static class Tracked implements Pending {
+        final StagedOutputStream out;
+
+        Tracked(StagedOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void publish() throws IOException {
+            out.commit();
+        }
+
+        @Override
+        public void discard() {
+            out.abort();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import com.github.yohannesTz.simpleftp.model.MountPoint;
+import com.github.yohannesTz.simpleftp.model.StorageSettings;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.ftpserver.ftplet.FileSystemFactory;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.User;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Creates mount-aware file system views. Each user's mount table (and the
+ * storage backends behind it) is built on first login and cached, so
+ * concurrent sessions of one user share it.
+ */
+public class VirtualFileSystemFactory implements FileSystemFactory {
+    private static final String ANONYMOUS = "anonymous";
+
+    private final Function<String, UserAccount> accounts;
+    private final MemoryChunkPool memoryPool;
+    private final Map<String, MountTable> mountTables = new ConcurrentHashMap<>();
+    private ContentCache anonymousCache;
+    private TransferDecorator transferDecorator = TransferDecorator.NONE;
+    private UploadStaging uploadStaging;
+    private HomeProvisioner homeProvisioner;
+    private ContentStore contentStore;
+
+    public VirtualFileSystemFactory(Function<String, UserAccount> accounts, MemoryChunkPool memoryPool) {
+        this.accounts = accounts;
+        this.memoryPool = memoryPool;
+    }
+
+    @Override
+    public FileSystemView createFileSystemView(User user) throws FtpException {
+        UserAccount account = accounts.apply(user.getName());
+        if (homeProvisioner != null && account != null) {
+            homeProvisioner.provision(account);
+        }
+        MountTable mountTable = getMountTable(user);
+        if (mountTable.resolve("/").getBackend() instanceof LocalStorageBackend) {
+            File home = new File(user.getHomeDirectory());
+            if (!home.isDirectory()) {
+                throw new FtpException("Home directory does not exist: " + home);
+            }
+        }
+        VirtualFileSystemView view = new VirtualFileSystemView(user, mountTable, transferDecorator);
+        if (uploadStaging != null) {
+            view.setUploadStaging(uploadStaging, account != null && account.isAtomicUploads());
+        }
+        return view;
+    }
+
+    /**
+     * Serves the anonymous user's files read-only through the given cache
+     */
+    public void setAnonymousCache(ContentCache anonymousCache) {
+        this.anonymousCache = anonymousCache;
+    }
+
+    /**
+     * Wraps the streams of every upload and download
+     */
+    public void setTransferDecorator(TransferDecorator transferDecorator) {
+        this.transferDecorator = transferDecorator;
+    }
+
+    /**
+     * Staging used to complete uploads once their transfer succeeded, and for
+     * users with atomic uploads enabled to write new files to a temp file first
+     */
+    public void setUploadStaging(UploadStaging uploadStaging) {
+        this.uploadStaging = uploadStaging;
+    }
+
+    /**
+     * Creates users' directories on first login
+     */
+    public void setHomeProvisioner(HomeProvisioner homeProvisioner) {
+        this.homeProvisioner = homeProvisioner;
+    }
+
+    /**
+     * Deduplicates uploads to local homes and mounts through the given store, or null for plain files
+     */
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    /**
+     * Drops the cached mount table of a user so edits are picked up on the next login
+     */
+    public void invalidate(String username) {
+        mountTables.remove(username);
+        if (homeProvisioner != null) {
+            homeProvisioner.invalidate(username);
+        }
+    }
+
+    private MountTable getMountTable(User user) {
+        return mountTables.computeIfAbsent(user.getName(), name -> {
+            UserAccount account = accounts.apply(name);
+            List<MountPoint> mounts = account != null
+                ? account.getMounts()
+                : Collections.<MountPoint>emptyList();
+            StorageSettings storage = account != null ? account.getStorage() : null;
+            return new MountTable(user.getHomeDirectory(), createHomeBackend(user, storage), mounts,
+                mount -> localBackend(new File(mount.getPhysicalPath())));
+        });
+    }
+
+    /**
+     * Selects the storage backend for a user's home directory
+     */
+    protected StorageBackend createHomeBackend(User user, StorageSettings storage) {
+        if (storage != null && storage.isMemory()) {
+            return memoryPool.backendFor(user.getName());
+        }
+        if (storage != null && !storage.isLocal()) {
+            return new S3StorageBackend(storage);
+        }
+        File home = new File(user.getHomeDirectory());
+        if (anonymousCache != null && ANONYMOUS.equals(user.getName())) {
+            return new CachingReadOnlyBackend(new LocalStorageBackend(home), anonymousCache);
+        }
+        return localBackend(home);
+    }
+
+    private LocalStorageBackend localBackend(File root) {
+        return contentStore != null ? new DedupStorageBackend(root, contentStore) : new LocalStorageBackend(root);
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.User;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * File system view that presents a user's home directory and mount points as one tree
+ */
+public class VirtualFileSystemView implements FileSystemView {
+    private final User user;
+    private final MountTable mountTable;
+    private final TransferDecorator transferDecorator;
+    private UploadStaging uploadStaging;
+    private boolean atomicUploads;
+    private String workingDirectory = "/";
+
+    public VirtualFileSystemView(User user, MountTable mountTable) {
+        this(user, mountTable, TransferDecorator.NONE);
+    }
+
+    public VirtualFileSystemView(User user, MountTable mountTable, TransferDecorator transferDecorator) {
+        this.user = user;
+        this.mountTable = mountTable;
+        this.transferDecorator = transferDecorator;
+    }
+
+    @Override
+    public FtpFile getHomeDirectory() throws FtpException {
+        return createFile("/");
+    }
+
+    @Override
+    public FtpFile getWorkingDirectory() throws FtpException {
+        return createFile(workingDirectory);
+    }
+
+    @Override
+    public boolean changeWorkingDirectory(String dir) throws FtpException {
+        String path = resolvePath(workingDirectory, dir);
+        FtpFile file = createFile(path);
+        if (file.isDirectory() && file.isReadable()) {
+            workingDirectory = path;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public FtpFile getFile(String file) throws FtpException {
+        return createFile(resolvePath(workingDirectory, file));
+    }
+
+    @Override
+    public boolean isRandomAccessible() throws FtpException {
+        return true;
+    }
+
+    @Override
+    public void dispose() {
+        // Nothing to release
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Tracks uploads through this view until their transfer completed, and makes new
+     * uploads atomic if requested, see UploadStaging
+     */
+    public void setUploadStaging(UploadStaging uploadStaging, boolean atomicUploads) {
+        this.uploadStaging = uploadStaging;
+        this.atomicUploads = atomicUploads;
+    }
+
+    public MountTable getMountTable() {
+        return mountTable;
+    }
+
+    protected FtpFile createFile(String virtualPath) {
+        VirtualFtpFile file = new VirtualFtpFile(virtualPath, mountTable.resolve(virtualPath), mountTable, user);
+        file.setTransferDecorator(transferDecorator);
+        file.setUploadStaging(uploadStaging, atomicUploads);
+        return file;
+    }
+
+    /**
+     * Resolves a client supplied path against the working directory into a normalized
+     * absolute virtual path. ".." never climbs above the root.
+     */
+    public static String resolvePath(String workingDirectory, String path) {
+        if (path == null) {
+            path = "";
+        }
+        path = path.replace('\\', '/');
+        Deque<String> segments = new ArrayDeque<>();
+        if (!path.startsWith("/") && !path.startsWith("~")) {
+            push(segments, workingDirectory);
+        }
+        if (path.startsWith("~")) {
+            path = path.substring(1);
+        }
+        push(segments, path);
+
+        if (segments.isEmpty()) {
+            return "/";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String segment : segments) {
+            sb.append('/').append(segment);
+        }
+        return sb.toString();
+    }
+
+    private static void push(Deque<String> segments, String path) {
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else {
+                segments.addLast(segment);
+            }
+        }
+    }
+}
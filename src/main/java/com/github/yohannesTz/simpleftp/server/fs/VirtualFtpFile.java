@@ -0,0 +1,386 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import com.github.yohannesTz.simpleftp.model.MountPoint;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.impl.WriteRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A file in a VirtualFileSystemView, stored in the backend of the mount that owns it.
+ * Mount read/write flags are applied on top of the user's own permissions.
+ */
+public class VirtualFtpFile implements FtpFile {
+    private final String virtualPath;
+    private final MountTable.Resolution resolution;
+    private final MountTable mountTable;
+    private final User user;
+    private final StorageBackend backend;
+    private final String path;
+    private StorageEntry entry;
+    private boolean statLoaded;
+    private TransferDecorator transferDecorator = TransferDecorator.NONE;
+    private UploadStaging uploadStaging;
+    private boolean atomicUploads;
+
+    public VirtualFtpFile(String virtualPath, MountTable.Resolution resolution, MountTable mountTable, User user) {
+        this.virtualPath = virtualPath;
+        this.resolution = resolution;
+        this.mountTable = mountTable;
+        this.user = user;
+        this.backend = resolution.getBackend();
+        this.path = resolution.getPath();
+    }
+
+    /**
+     * Creates a file whose metadata is already known from a directory listing
+     */
+    VirtualFtpFile(String virtualPath, MountTable.Resolution resolution, MountTable mountTable, User user,
+                   StorageEntry entry) {
+        this(virtualPath, resolution, mountTable, user);
+        this.entry = entry;
+        this.statLoaded = true;
+    }
+
+    @Override
+    public String getAbsolutePath() {
+        return virtualPath;
+    }
+
+    @Override
+    public String getName() {
+        if (virtualPath.equals("/")) {
+            return "/";
+        }
+        return virtualPath.substring(virtualPath.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public boolean isHidden() {
+        File file = backend.toFile(path);
+        return file != null ? file.isHidden() : getName().startsWith(".");
+    }
+
+    @Override
+    public boolean isDirectory() {
+        StorageEntry e = stat();
+        return (e != null && e.isDirectory()) || isVirtualOnly();
+    }
+
+    @Override
+    public boolean isFile() {
+        StorageEntry e = stat();
+        return e != null && !e.isDirectory();
+    }
+
+    @Override
+    public boolean doesExist() {
+        return stat() != null || isVirtualOnly();
+    }
+
+    @Override
+    public boolean isReadable() {
+        if (!getMount().isReadable()) {
+            return false;
+        }
+        if (isVirtualOnly()) {
+            return true;
+        }
+        // Directories can always be entered; listing them is checked by listFiles()
+        if (!isDirectory() && user.authorize(new ReadRequest(virtualPath, false)) == null) {
+            return false;
+        }
+        File file = backend.toFile(path);
+        return file != null ? file.canRead() : stat() != null;
+    }
+
+    @Override
+    public boolean isWritable() {
+        if (!getMount().isWritable() || isVirtualOnly()) {
+            return false;
+        }
+        if (user.authorize(new WriteRequest(virtualPath)) == null) {
+            return false;
+        }
+        File file = backend.toFile(path);
+        return file == null || !file.exists() || file.canWrite();
+    }
+
+    @Override
+    public boolean isRemovable() {
+        // Mount points and the directories leading to them are part of the layout
+        if (virtualPath.equals("/") || resolution.isMountRoot() || mountTable.isVirtualDirectory(virtualPath)) {
+            return false;
+        }
+        if (!getMount().isWritable() || user.authorize(new WriteRequest(virtualPath)) == null) {
+            return false;
+        }
+        File file = backend.toFile(path);
+        if (file == null) {
+            return true;
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        return parent != null && parent.canWrite();
+    }
+
+    @Override
+    public String getOwnerName() {
+        return "user";
+    }
+
+    @Override
+    public String getGroupName() {
+        return "group";
+    }
+
+    @Override
+    public int getLinkCount() {
+        return isDirectory() ? 3 : 1;
+    }
+
+    @Override
+    public long getLastModified() {
+        StorageEntry e = stat();
+        return e == null ? 0 : e.getLastModified();
+    }
+
+    @Override
+    public boolean setLastModified(long time) {
+        try {
+            statLoaded = false;
+            return backend.setLastModified(path, time);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public long getSize() {
+        StorageEntry e = stat();
+        return e == null ? 0 : e.getSize();
+    }
+
+    /**
+     * Returns the local File behind this path, or null if the storage is not on the local disk
+     */
+    @Override
+    public Object getPhysicalFile() {
+        return backend.toFile(path);
+    }
+
+    void setTransferDecorator(TransferDecorator transferDecorator) {
+        this.transferDecorator = transferDecorator;
+    }
+
+    /**
+     * Holds uploads that are published as a whole until the transfer completed, and with
+     * atomic uploads stages new local uploads to a temp file (see UploadStaging); null
+     * writes directly to the target
+     */
+    void setUploadStaging(UploadStaging uploadStaging, boolean atomicUploads) {
+        this.uploadStaging = uploadStaging;
+        this.atomicUploads = atomicUploads;
+    }
+
+    public MountPoint getMount() {
+        return resolution.getMount();
+    }
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Path of this file inside its backend
+     */
+    public String getBackendPath() {
+        return path;
+    }
+
+    @Override
+    public boolean mkdir() {
+        if (!isWritable()) {
+            return false;
+        }
+        try {
+            statLoaded = false;
+            return backend.mkdir(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean delete() {
+        if (!isRemovable()) {
+            return false;
+        }
+        try {
+            statLoaded = false;
+            return backend.delete(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean move(FtpFile destination) {
+        if (!(destination instanceof VirtualFtpFile) || !isRemovable() || !destination.isWritable()) {
+            return false;
+        }
+        VirtualFtpFile target = (VirtualFtpFile) destination;
+        try {
+            if (target.backend == backend) {
+                return backend.rename(path, target.path);
+            }
+            // Moving between mounts on different storage: copy, then remove the source
+            if (!isFile()) {
+                return false;
+            }
+            try (InputStream in = backend.openRead(path, 0)) {
+                copy(in, target.backend, target.path);
+            }
+            return backend.delete(path);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            statLoaded = false;
+            target.statLoaded = false;
+        }
+    }
+
+    /**
+     * Copies a stream to a backend; an upload published as a whole is only published once the copy is complete
+     */
+    private static void copy(InputStream in, StorageBackend backend, String path) throws IOException {
+        OutputStream out = backend.openWrite(path, 0);
+        StagedOutputStream staged = out instanceof StagedOutputStream ? (StagedOutputStream) out : null;
+        if (staged != null) {
+            staged.defer();
+        }
+        try {
+            try (OutputStream target = out) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    target.write(buffer, 0, read);
+                }
+            }
+            if (staged != null) {
+                staged.commit();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (staged != null) {
+                staged.abort();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public List<? extends FtpFile> listFiles() {
+        if (!isDirectory()) {
+            return null;
+        }
+        if (!getMount().isReadable() || user.authorize(new ReadRequest(virtualPath, true)) == null) {
+            return new ArrayList<>();
+        }
+
+        String prefix = virtualPath.equals("/") ? "/" : virtualPath + "/";
+        Map<String, FtpFile> files = new TreeMap<>();
+        if (stat() != null) {
+            try {
+                List<StorageEntry> children = backend.list(path);
+                transferDecorator.listingProgress();
+                for (StorageEntry child : children) {
+                    if (UploadStaging.isStagingName(child.getName())) {
+                        continue;
+                    }
+                    if ((files.size() & 1023) == 1023) {
+                        transferDecorator.listingProgress();
+                    }
+                    String childPath = prefix + child.getName();
+                    files.put(child.getName(), new VirtualFtpFile(childPath, mountTable.resolve(childPath),
+                        mountTable, user, child));
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        for (String name : mountTable.virtualChildren(virtualPath)) {
+            // Mounts shadow whatever the parent storage has under the same name
+            String childPath = prefix + name;
+            files.put(name, new VirtualFtpFile(childPath, mountTable.resolve(childPath), mountTable, user));
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    @Override
+    public OutputStream createOutputStream(long offset) throws IOException {
+        if (!isWritable()) {
+            throw new IOException("No write permission : " + virtualPath);
+        }
+        if (offset > 0 && !backend.supportsOffsetWrites()) {
+            throw new IOException("Resuming uploads is not supported here : " + virtualPath);
+        }
+        statLoaded = false;
+        // Appends and resumed uploads extend the target in place
+        if (atomicUploads && uploadStaging != null && offset == 0 && backend.toFile(path) != null) {
+            return transferDecorator.decorateOutput(uploadStaging.open(backend, path));
+        }
+        OutputStream out = backend.openWrite(path, offset);
+        if (uploadStaging != null && out instanceof StagedOutputStream) {
+            out = uploadStaging.track((StagedOutputStream) out);
+        }
+        return transferDecorator.decorateOutput(out);
+    }
+
+    @Override
+    public InputStream createInputStream(long offset) throws IOException {
+        if (!isReadable()) {
+            throw new IOException("No read permission : " + virtualPath);
+        }
+        return transferDecorator.decorateInput(backend.openRead(path, offset));
+    }
+
+    private StorageEntry stat() {
+        if (!statLoaded) {
+            try {
+                entry = backend.stat(path);
+            } catch (IOException e) {
+                entry = null;
+            }
+            statLoaded = true;
+        }
+        return entry;
+    }
+
+    /**
+     * True for intermediate directories that exist only because a mount lies below them
+     */
+    private boolean isVirtualOnly() {
+        return mountTable.isVirtualDirectory(virtualPath) && !resolution.isMountRoot() && stat() == null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof VirtualFtpFile)) {
+            return false;
+        }
+        VirtualFtpFile other = (VirtualFtpFile) obj;
+        return backend == other.backend && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+}
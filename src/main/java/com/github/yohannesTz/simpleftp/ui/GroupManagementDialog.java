@@ -0,0 +1,313 @@
+package com.github.yohannesTz.simpleftp.ui;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.UserGroup;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dialog for editing user groups. Changes are kept in the dialog until OK;
+ * getGroups() then returns the edited list, or null if it was cancelled.
+ */
+public class GroupManagementDialog extends JDialog {
+    private final DefaultListModel<UserGroup> groupListModel = new DefaultListModel<>();
+    private final JList<UserGroup> groupList = new JList<>(groupListModel);
+    private JCheckBox overridePermissionsCheckBox;
+    private JCheckBox readCheckBox;
+    private JCheckBox writeCheckBox;
+    private JCheckBox deleteCheckBox;
+    private JCheckBox renameCheckBox;
+    private JCheckBox createDirCheckBox;
+    private JCheckBox removeDirCheckBox;
+    private JCheckBox listCheckBox;
+    private JSpinner quotaMegabytesSpinner;
+    private JSpinner quotaFilesSpinner;
+    private JSpinner rateLimitSpinner;
+    private JTextArea rulesArea;
+
+    private UserGroup editing;
+    private List<UserGroup> groups;
+
+    public GroupManagementDialog(Frame parent, List<UserGroup> groups) {
+        super(parent, "User Groups", true);
+        for (UserGroup group : groups) {
+            groupListModel.addElement(group);
+        }
+        initUI();
+        if (!groupListModel.isEmpty()) {
+            groupList.setSelectedIndex(0);
+        } else {
+            showGroup(null);
+        }
+        pack();
+        setLocationRelativeTo(parent);
+    }
+
+    private void initUI() {
+        JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
+        mainPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+
+        // Group list
+        groupList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        groupList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && groupList.getSelectedValue() != editing) {
+                if (commitEdits()) {
+                    showGroup(groupList.getSelectedValue());
+                } else {
+                    groupList.setSelectedValue(editing, true);
+                }
+            }
+        });
+        JPanel listPanel = new JPanel(new BorderLayout(5, 5));
+        JScrollPane listScroll = new JScrollPane(groupList);
+        listScroll.setPreferredSize(new Dimension(160, 300));
+        listPanel.add(listScroll, BorderLayout.CENTER);
+        JPanel listButtons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JButton addButton = new JButton("Add...");
+        addButton.addActionListener(e -> addGroup());
+        setButtonSize(addButton);
+        JButton removeButton = new JButton("Remove");
+        removeButton.addActionListener(e -> removeGroup());
+        setButtonSize(removeButton);
+        listButtons.add(addButton);
+        listButtons.add(removeButton);
+        listPanel.add(listButtons, BorderLayout.SOUTH);
+        mainPanel.add(listPanel, BorderLayout.WEST);
+
+        // Group settings
+        JPanel formPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        gbc.gridwidth = 2;
+        overridePermissionsCheckBox = new JCheckBox("Members get these permissions instead of their own");
+        formPanel.add(overridePermissionsCheckBox, gbc);
+
+        readCheckBox = new JCheckBox("Read Files");
+        writeCheckBox = new JCheckBox("Write/Upload Files");
+        deleteCheckBox = new JCheckBox("Delete Files");
+        renameCheckBox = new JCheckBox("Rename Files");
+        createDirCheckBox = new JCheckBox("Create Directories");
+        removeDirCheckBox = new JCheckBox("Remove Directories");
+        listCheckBox = new JCheckBox("List Directories");
+        JPanel checkboxPanel = new JPanel(new GridLayout(4, 2, 10, 5));
+        for (JCheckBox box : permissionBoxes()) {
+            checkboxPanel.add(box);
+        }
+        overridePermissionsCheckBox.addActionListener(e -> updatePermissionBoxes());
+        gbc.gridy = 1;
+        formPanel.add(checkboxPanel, gbc);
+
+        gbc.gridwidth = 1;
+        gbc.gridy = 2;
+        formPanel.add(new JLabel("Quota (MB, 0 = not set):"), gbc);
+        gbc.gridx = 1;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        quotaMegabytesSpinner = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 100));
+        formPanel.add(quotaMegabytesSpinner, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 3;
+        gbc.fill = GridBagConstraints.NONE;
+        formPanel.add(new JLabel("Max Files (0 = not set):"), gbc);
+        gbc.gridx = 1;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        quotaFilesSpinner = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 100));
+        formPanel.add(quotaFilesSpinner, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 4;
+        gbc.fill = GridBagConstraints.NONE;
+        formPanel.add(new JLabel("Rate Limit (KB/s, 0 = none):"), gbc);
+        gbc.gridx = 1;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        rateLimitSpinner = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 100));
+        formPanel.add(rateLimitSpinner, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 5;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.NONE;
+        formPanel.add(new JLabel("Path rules, one \"/pattern permissions\" per line:"), gbc);
+        gbc.gridy = 6;
+        gbc.fill = GridBagConstraints.BOTH;
+        gbc.weightx = 1.0;
+        gbc.weighty = 1.0;
+        rulesArea = new JTextArea(6, 30);
+        rulesArea.setToolTipText("e.g. /releases/** readonly, or /incoming/* upload");
+        formPanel.add(new JScrollPane(rulesArea), gbc);
+
+        mainPanel.add(formPanel, BorderLayout.CENTER);
+
+        // Buttons panel
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton okButton = new JButton("OK");
+        okButton.addActionListener(e -> onOK());
+        setButtonSize(okButton);
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> dispose());
+        setButtonSize(cancelButton);
+        buttonPanel.add(okButton);
+        buttonPanel.add(cancelButton);
+        mainPanel.add(buttonPanel, BorderLayout.SOUTH);
+
+        add(mainPanel);
+        getRootPane().setDefaultButton(okButton);
+    }
+
+    private List<JCheckBox> permissionBoxes() {
+        return Arrays.asList(readCheckBox, writeCheckBox, deleteCheckBox, renameCheckBox,
+            createDirCheckBox, removeDirCheckBox, listCheckBox);
+    }
+
+    private void updatePermissionBoxes() {
+        boolean enabled = editing != null && overridePermissionsCheckBox.isSelected();
+        for (JCheckBox box : permissionBoxes()) {
+            box.setEnabled(enabled);
+        }
+    }
+
+    private void showGroup(UserGroup group) {
+        editing = group;
+        FTPPermissions perms = group == null || group.getPermissions() == null
+            ? FTPPermissions.readOnly() : group.getPermissions();
+        overridePermissionsCheckBox.setSelected(group != null && group.getPermissions() != null);
+        overridePermissionsCheckBox.setEnabled(group != null);
+        readCheckBox.setSelected(perms.isCanRead());
+        writeCheckBox.setSelected(perms.isCanWrite());
+        deleteCheckBox.setSelected(perms.isCanDelete());
+        renameCheckBox.setSelected(perms.isCanRename());
+        createDirCheckBox.setSelected(perms.isCanCreateDirectory());
+        removeDirCheckBox.setSelected(perms.isCanRemoveDirectory());
+        listCheckBox.setSelected(perms.isCanList());
+        updatePermissionBoxes();
+        quotaMegabytesSpinner.setValue(group == null ? 0
+            : (int) Math.min(Integer.MAX_VALUE, group.getQuotaBytes() / (1024 * 1024)));
+        quotaFilesSpinner.setValue(group == null ? 0 : group.getQuotaFiles());
+        rateLimitSpinner.setValue(group == null ? 0 : (int) Math.min(Integer.MAX_VALUE, group.getRateLimitKbps()));
+        rulesArea.setText(group == null ? "" : String.join("\n", group.getRules()));
+        quotaMegabytesSpinner.setEnabled(group != null);
+        quotaFilesSpinner.setEnabled(group != null);
+        rateLimitSpinner.setEnabled(group != null);
+        rulesArea.setEnabled(group != null);
+    }
+
+    /**
+     * Replaces the group being edited with one built from the form; false if the form is invalid
+     */
+    private boolean commitEdits() {
+        if (editing == null) {
+            return true;
+        }
+        FTPPermissions permissions = null;
+        if (overridePermissionsCheckBox.isSelected()) {
+            permissions = new FTPPermissions();
+            permissions.setCanRead(readCheckBox.isSelected());
+            permissions.setCanWrite(writeCheckBox.isSelected());
+            permissions.setCanDelete(deleteCheckBox.isSelected());
+            permissions.setCanRename(renameCheckBox.isSelected());
+            permissions.setCanCreateDirectory(createDirCheckBox.isSelected());
+            permissions.setCanRemoveDirectory(removeDirCheckBox.isSelected());
+            permissions.setCanList(listCheckBox.isSelected());
+        }
+        UserGroup updated;
+        try {
+            updated = new UserGroup(editing.getName(), permissions,
+                (Integer) quotaMegabytesSpinner.getValue() * 1024L * 1024L,
+                (Integer) quotaFilesSpinner.getValue(),
+                (Integer) rateLimitSpinner.getValue(),
+                Arrays.asList(rulesArea.getText().split("\n")));
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this,
+                e.getMessage(),
+                "Validation Error",
+                JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        int index = groupListModel.indexOf(editing);
+        editing = updated;
+        groupListModel.set(index, updated);
+        return true;
+    }
+
+    private void addGroup() {
+        if (!commitEdits()) {
+            return;
+        }
+        String name = JOptionPane.showInputDialog(this, "Group name:", "Add Group", JOptionPane.PLAIN_MESSAGE);
+        if (name == null || name.trim().isEmpty()) {
+            return;
+        }
+        UserGroup group;
+        try {
+            group = new UserGroup(name, null, 0, 0, 0, new ArrayList<>());
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Validation Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        for (int i = 0; i < groupListModel.size(); i++) {
+            if (groupListModel.get(i).getName().equals(group.getName())) {
+                JOptionPane.showMessageDialog(this,
+                    "Group '" + group.getName() + "' already exists",
+                    "Duplicate Group",
+                    JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+        }
+        groupListModel.addElement(group);
+        groupList.setSelectedValue(group, true);
+    }
+
+    private void removeGroup() {
+        UserGroup selected = groupList.getSelectedValue();
+        if (selected == null) {
+            return;
+        }
+        int result = JOptionPane.showConfirmDialog(this,
+            "Remove group '" + selected.getName() + "'? Members keep the name but lose its settings.",
+            "Confirm Removal",
+            JOptionPane.YES_NO_OPTION);
+        if (result == JOptionPane.YES_OPTION) {
+            editing = null;
+            groupListModel.removeElement(selected);
+            if (!groupListModel.isEmpty()) {
+                groupList.setSelectedIndex(0);
+            } else {
+                showGroup(null);
+            }
+        }
+    }
+
+    private void onOK() {
+        if (!commitEdits()) {
+            return;
+        }
+        groups = new ArrayList<>();
+        for (int i = 0; i < groupListModel.size(); i++) {
+            groups.add(groupListModel.get(i));
+        }
+        dispose();
+    }
+
+    /**
+     * Returns the edited groups, or null if the dialog was cancelled
+     */
+    public List<UserGroup> getGroups() {
+        return groups;
+    }
+
+    private void setButtonSize(JButton button) {
+        Dimension prefSize = button.getPreferredSize();
+        int minWidth = Math.max(prefSize.width + 20, 80);
+        button.setPreferredSize(new Dimension(minWidth, 32));
+        button.setMinimumSize(new Dimension(minWidth, 32));
+    }
+}
@@ -1,15 +1,22 @@
 package com.github.yohannesTz.simpleftp.ui;
 
 import com.formdev.flatlaf.FlatLightLaf;
+import com.github.yohannesTz.simpleftp.admin.AdminServer;
+import com.github.yohannesTz.simpleftp.admin.UserBulkTransfer;
 import com.github.yohannesTz.simpleftp.config.ConfigManager;
 import com.github.yohannesTz.simpleftp.model.ServerConfig;
 import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.model.UserGroup;
 import com.github.yohannesTz.simpleftp.server.FTPServerManager;
-import org.apache.ftpserver.ftplet.FtpException;
+import com.github.yohannesTz.simpleftp.server.SessionInfo;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.DefaultTableModel;
 import javax.swing.text.*;
 import java.awt.*;
 import java.awt.datatransfer.StringSelection;
@@ -17,8 +24,21 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Main application window for the FTP Server
@@ -26,6 +46,7 @@ import java.util.Date;
 public class MainFrame extends JFrame {
     private ServerConfig config;
     private FTPServerManager serverManager;
+    private AdminServer adminServer;
     
     // UI Components
     private JTextField portField;
@@ -33,6 +54,10 @@ public class MainFrame extends JFrame {
     private JTextField maxLoginsField;
     private JTextField baseFolderField;
     private JCheckBox anonymousCheckBox;
+    private JTextField anonymousRootField;
+    private JTextField anonymousMaxLoginsField;
+    private JTextField anonymousMaxLoginsPerIpField;
+    private JTextField anonymousRateField;
     private JButton startButton;
     private JButton stopButton;
     private JButton configureUsersButton;
@@ -40,10 +65,16 @@ public class MainFrame extends JFrame {
     private StyledDocument logDocument;
     private LogCaptureAppender logCaptureAppender;
     private JLabel statusLabel;
-    private DefaultListModel<UserAccount> userListModel;
-    private JList<UserAccount> userList;
+    private UserTableModel userTableModel;
+    private JTable userTable;
+    private JTextField userSearchField;
+    private JLabel userPageLabel;
     private JTextField connectionCommandField;
     private JComboBox<String> themeSelector;
+    private DefaultTableModel sessionTableModel;
+    private JTable sessionTable;
+    private final List<UUID> sessionIds = new ArrayList<>();
+    private Timer sessionRefreshTimer;
     
     // Styles for log messages
     private Style infoStyle;
@@ -83,6 +114,92 @@ public class MainFrame extends JFrame {
         } else {
             logMessage("Using default configuration", "info");
         }
+
+        if (config.isAdminEnabled()) {
+            startAdminServer();
+        }
+    }
+
+    /**
+     * Starts the HTTP admin API; users changed through it are reflected in the user list
+     */
+    private void startAdminServer() {
+        adminServer = new AdminServer(serverManager, () -> SwingUtilities.invokeLater(this::reloadUserList));
+        try {
+            adminServer.start();
+        } catch (IOException e) {
+            adminServer = null;
+            logMessage("Failed to start admin API: " + e.getMessage(), "error");
+        }
+    }
+
+    /**
+     * Shows the current accounts, keeping the search, page and selected user
+     */
+    private void reloadUserList() {
+        UserAccount selected = getSelectedUser();
+        userTableModel.setUsers(config.getUserSnapshot());
+        if (selected != null) {
+            selectUser(selected.getUsername());
+        }
+        updateUserPageLabel();
+    }
+
+    /**
+     * Fills the user table, reading an embedded user store in the background
+     * so a large one does not hold up the window
+     */
+    private void loadUserList() {
+        if (config.isUsersLoaded()) {
+            reloadUserList();
+            return;
+        }
+        userPageLabel.setText("Loading users...");
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                config.getUserSnapshot();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    reloadUserList();
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    userPageLabel.setText("");
+                    logMessage("Failed to load users: " + cause.getMessage(), "error");
+                }
+            }
+        }.execute();
+    }
+
+    private UserAccount getSelectedUser() {
+        int row = userTable.getSelectedRow();
+        return row >= 0 && row < userTableModel.getRowCount() ? userTableModel.getUser(row) : null;
+    }
+
+    private void selectUser(String username) {
+        int row = userTableModel.indexOf(username);
+        if (row >= 0) {
+            userTable.setRowSelectionInterval(row, row);
+            userTable.scrollRectToVisible(userTable.getCellRect(row, 0, true));
+        }
+    }
+
+    private void showUserPage(int page) {
+        userTableModel.setPage(page);
+        updateUserPageLabel();
+    }
+
+    private void updateUserPageLabel() {
+        int matches = userTableModel.getMatchCount();
+        int first = userTableModel.getPage() * UserTableModel.PAGE_SIZE;
+        String range = matches == 0 ? "0" : (first + 1) + "-" + (first + userTableModel.getRowCount());
+        userPageLabel.setText(range + " of " + matches
+            + (matches != userTableModel.getTotalCount() ? " (" + userTableModel.getTotalCount() + " total)" : ""));
     }
 
     private void initUI() {
@@ -117,6 +234,7 @@ public class MainFrame extends JFrame {
         // Center panel with tabs
         JTabbedPane tabbedPane = new JTabbedPane();
         tabbedPane.addTab("Users", createUsersPanel());
+        tabbedPane.addTab("Sessions", createSessionsPanel());
         tabbedPane.addTab("Server Log", createLogPanel());
         mainPanel.add(tabbedPane, BorderLayout.CENTER);
 
@@ -428,6 +546,47 @@ public class MainFrame extends JFrame {
         anonymousCheckBox.setSelected(config.isAnonymousEnabled());
         settingsPanel.add(anonymousCheckBox, gbc);
 
+        // Anonymous Root
+        gbc.gridx = 0;
+        gbc.gridy = 5;
+        gbc.gridwidth = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        gbc.weightx = 0;
+        settingsPanel.add(new JLabel("Anonymous Root:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.weightx = 1.0;
+        anonymousRootField = new JTextField(config.getAnonymousRoot(), 10);
+        settingsPanel.add(anonymousRootField, gbc);
+
+        gbc.gridx = 2;
+        gbc.fill = GridBagConstraints.NONE;
+        gbc.weightx = 0;
+        JButton browseAnonymousButton = new JButton("Browse...");
+        browseAnonymousButton.addActionListener(e -> browseAnonymousRoot());
+        setButtonSize(browseAnonymousButton);
+        settingsPanel.add(browseAnonymousButton, gbc);
+
+        // Anonymous Limits
+        gbc.gridx = 0;
+        gbc.gridy = 6;
+        settingsPanel.add(new JLabel("Anonymous Limits:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridwidth = 2;
+        JPanel anonymousLimitsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        anonymousLimitsPanel.add(new JLabel("Sessions:"));
+        anonymousMaxLoginsField = new JTextField(String.valueOf(config.getAnonymousMaxLogins()), 4);
+        anonymousLimitsPanel.add(anonymousMaxLoginsField);
+        anonymousLimitsPanel.add(new JLabel("Per IP:"));
+        anonymousMaxLoginsPerIpField = new JTextField(String.valueOf(config.getAnonymousMaxLoginsPerIp()), 4);
+        anonymousLimitsPanel.add(anonymousMaxLoginsPerIpField);
+        anonymousLimitsPanel.add(new JLabel("Download KB/s (0 = unlimited):"));
+        anonymousRateField = new JTextField(String.valueOf(config.getAnonymousMaxDownloadKbps()), 6);
+        anonymousLimitsPanel.add(anonymousRateField);
+        settingsPanel.add(anonymousLimitsPanel, gbc);
+
         panel.add(settingsPanel, BorderLayout.CENTER);
 
         // Buttons panel
@@ -491,18 +650,59 @@ public class MainFrame extends JFrame {
         JPanel panel = new JPanel(new BorderLayout(10, 10));
         panel.setBorder(new EmptyBorder(10, 10, 10, 10));
 
-        // User list
-        userListModel = new DefaultListModel<>();
-        for (UserAccount user : config.getUsers()) {
-            userListModel.addElement(user);
-        }
-        
-        userList = new JList<>(userListModel);
-        userList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        JScrollPane scrollPane = new JScrollPane(userList);
+        // User table: one page of the search results, rendered lazily with a fixed row height
+        userTableModel = new UserTableModel();
+        userTable = new JTable(userTableModel);
+        userTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        userTable.setRowHeight(userTable.getFontMetrics(userTable.getFont()).getHeight() + 4);
+        userTable.setFillsViewportHeight(true);
+        userTable.getTableHeader().setReorderingAllowed(false);
+        JScrollPane scrollPane = new JScrollPane(userTable);
         scrollPane.setPreferredSize(new Dimension(400, 200));
         panel.add(scrollPane, BorderLayout.CENTER);
 
+        // Search and paging
+        JPanel searchPanel = new JPanel(new BorderLayout(5, 0));
+        searchPanel.add(new JLabel("Search:"), BorderLayout.WEST);
+        userSearchField = new JTextField();
+        // Search shortly after typing stops rather than on every keystroke
+        Timer searchTimer = new Timer(150, e -> {
+            userTableModel.setQuery(userSearchField.getText());
+            updateUserPageLabel();
+        });
+        searchTimer.setRepeats(false);
+        userSearchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+        searchPanel.add(userSearchField, BorderLayout.CENTER);
+
+        JPanel pagePanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        JButton previousPageButton = new JButton("<");
+        previousPageButton.addActionListener(e -> showUserPage(userTableModel.getPage() - 1));
+        JButton nextPageButton = new JButton(">");
+        nextPageButton.addActionListener(e -> showUserPage(userTableModel.getPage() + 1));
+        userPageLabel = new JLabel();
+        pagePanel.add(previousPageButton);
+        pagePanel.add(userPageLabel);
+        pagePanel.add(nextPageButton);
+        searchPanel.add(pagePanel, BorderLayout.EAST);
+        panel.add(searchPanel, BorderLayout.NORTH);
+
+        loadUserList();
+
         // Buttons
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         
@@ -518,6 +718,21 @@ public class MainFrame extends JFrame {
         deleteButton.addActionListener(e -> deleteUser());
         setButtonSize(deleteButton);
 
+        JButton importButton = new JButton("Import...");
+        importButton.addActionListener(e -> importUsers());
+        setButtonSize(importButton);
+
+        JButton exportButton = new JButton("Export...");
+        exportButton.addActionListener(e -> exportUsers());
+        setButtonSize(exportButton);
+
+        JButton groupsButton = new JButton("Groups...");
+        groupsButton.addActionListener(e -> editGroups());
+        setButtonSize(groupsButton);
+
+        buttonPanel.add(groupsButton);
+        buttonPanel.add(importButton);
+        buttonPanel.add(exportButton);
         buttonPanel.add(addButton);
         buttonPanel.add(editButton);
         buttonPanel.add(deleteButton);
@@ -527,6 +742,125 @@ public class MainFrame extends JFrame {
         return panel;
     }
 
+    private JPanel createSessionsPanel() {
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBorder(new EmptyBorder(10, 10, 10, 10));
+
+        sessionTableModel = new DefaultTableModel(new String[]{
+            "User", "Address", "Connected", "Command", "Idle", "File", "Transferred", "Rate", "Limit"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        sessionTable = new JTable(sessionTableModel);
+        sessionTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        JScrollPane scrollPane = new JScrollPane(sessionTable);
+        scrollPane.setPreferredSize(new Dimension(400, 200));
+        panel.add(scrollPane, BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+
+        JButton throttleButton = new JButton("Throttle...");
+        throttleButton.addActionListener(e -> throttleSelectedSession());
+        setButtonSize(throttleButton);
+
+        JButton disconnectButton = new JButton("Disconnect");
+        disconnectButton.addActionListener(e -> disconnectSelectedSession());
+        setButtonSize(disconnectButton);
+
+        buttonPanel.add(throttleButton);
+        buttonPanel.add(disconnectButton);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+
+        // Refresh from a snapshot of the registry once a second
+        sessionRefreshTimer = new Timer(1000, e -> refreshSessions());
+        sessionRefreshTimer.start();
+
+        return panel;
+    }
+
+    private void refreshSessions() {
+        UUID selected = getSelectedSessionId();
+        List<SessionInfo> sessions = serverManager.getSessions();
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+        long now = System.currentTimeMillis();
+
+        sessionIds.clear();
+        sessionTableModel.setRowCount(0);
+        for (SessionInfo session : sessions) {
+            sessionIds.add(session.getId());
+            sessionTableModel.addRow(new Object[]{
+                session.getUsername() == null ? "(not logged in)" : session.getUsername(),
+                session.getRemoteAddress(),
+                timeFormat.format(new Date(session.getConnectedAt())),
+                session.getCommand() == null ? "idle" : session.getCommand(),
+                (now - session.getLastActivity()) / 1000 + "s",
+                session.getFile() == null ? "" : session.getFile(),
+                formatBytes(session.getBytesTransferred()),
+                formatBytes(session.getBytesPerSecond()) + "/s",
+                session.getRateLimit() == 0 ? "none" : formatBytes(session.getRateLimit()) + "/s"
+            });
+        }
+
+        int row = selected == null ? -1 : sessionIds.indexOf(selected);
+        if (row >= 0) {
+            sessionTable.setRowSelectionInterval(row, row);
+        }
+    }
+
+    private UUID getSelectedSessionId() {
+        int row = sessionTable.getSelectedRow();
+        return row >= 0 && row < sessionIds.size() ? sessionIds.get(row) : null;
+    }
+
+    private void disconnectSelectedSession() {
+        UUID id = getSelectedSessionId();
+        if (id == null) {
+            JOptionPane.showMessageDialog(this, "Please select a session", "No Selection", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (serverManager.disconnectSession(id)) {
+            logMessage("Disconnected session " + id, "info");
+        }
+        refreshSessions();
+    }
+
+    private void throttleSelectedSession() {
+        UUID id = getSelectedSessionId();
+        if (id == null) {
+            JOptionPane.showMessageDialog(this, "Please select a session", "No Selection", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        String input = JOptionPane.showInputDialog(this, "Rate limit in KB/s (0 = unlimited):", "Throttle Session",
+            JOptionPane.QUESTION_MESSAGE);
+        if (input == null) {
+            return;
+        }
+        try {
+            long kbps = Long.parseLong(input.trim());
+            if (serverManager.throttleSession(id, kbps * 1024)) {
+                logMessage("Session " + id + " limited to " + (kbps == 0 ? "unlimited" : kbps + " KB/s"), "info");
+            }
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Please enter a number", "Invalid Input", JOptionPane.ERROR_MESSAGE);
+        }
+        refreshSessions();
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
     private JPanel createLogPanel() {
         JPanel panel = new JPanel(new BorderLayout(10, 10));
         panel.setBorder(new EmptyBorder(10, 10, 10, 10));
@@ -586,6 +920,16 @@ public class MainFrame extends JFrame {
         comboBox.setMinimumSize(new Dimension(minWidth, height));
     }
     
+    private void browseAnonymousRoot() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setCurrentDirectory(new File(anonymousRootField.getText().isEmpty()
+            ? System.getProperty("user.home") : anonymousRootField.getText()));
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            anonymousRootField.setText(chooser.getSelectedFile().getAbsolutePath());
+        }
+    }
+
     private void browseBaseFolder() {
         JFileChooser chooser = new JFileChooser();
         chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
@@ -652,10 +996,12 @@ public class MainFrame extends JFrame {
                         JOptionPane.YES_NO_OPTION
                     );
                     if (result == JOptionPane.YES_OPTION) {
-                        serverManager.stopServer();
-                        saveConfiguration();
-                        cleanup();
-                        System.exit(0);
+                        setButtonsBusy("Stopping server...");
+                        serverManager.stop().whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                            saveConfiguration();
+                            cleanup();
+                            System.exit(0);
+                        }));
                     }
                 } else {
                     saveConfiguration();
@@ -682,6 +1028,10 @@ public class MainFrame extends JFrame {
             config.setMaxLogins(Integer.parseInt(maxLoginsField.getText()));
             config.setAnonymousEnabled(anonymousCheckBox.isSelected());
             config.setBaseFolder(baseFolderField.getText());
+            config.setAnonymousRoot(anonymousRootField.getText());
+            config.setAnonymousMaxLogins(Integer.parseInt(anonymousMaxLoginsField.getText()));
+            config.setAnonymousMaxLoginsPerIp(Integer.parseInt(anonymousMaxLoginsPerIpField.getText()));
+            config.setAnonymousMaxDownloadKbps(Integer.parseInt(anonymousRateField.getText()));
             
             // Ensure base folder exists
             File baseDir = new File(config.getBaseFolder());
@@ -699,21 +1049,28 @@ public class MainFrame extends JFrame {
                 }
             }
 
-            serverManager.updateConfig(config);
-            serverManager.startServer();
-            updateConnectionCommand();
-            
+            // Binding and setting up users can take a while, keep it off the EDT
+            setButtonsBusy("Starting server...");
+            serverManager.reload(config)
+                .thenCompose(ignored -> serverManager.start())
+                .whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                        updateUIState(serverManager.isRunning());
+                        JOptionPane.showMessageDialog(this,
+                            "Failed to start server: " + cause.getMessage(),
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                        logMessage("ERROR: " + cause.getMessage(), "error");
+                    }
+                }));
+
         } catch (NumberFormatException ex) {
             JOptionPane.showMessageDialog(this,
                 "Invalid number format in configuration",
                 "Error",
                 JOptionPane.ERROR_MESSAGE);
-        } catch (FtpException ex) {
-            JOptionPane.showMessageDialog(this,
-                "Failed to start server: " + ex.getMessage(),
-                "Error",
-                JOptionPane.ERROR_MESSAGE);
-            logMessage("ERROR: " + ex.getMessage(), "error");
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this,
                 "Error: " + ex.getMessage(),
@@ -724,7 +1081,18 @@ public class MainFrame extends JFrame {
     }
 
     private void stopServer() {
-        serverManager.stopServer();
+        setButtonsBusy("Stopping server...");
+        serverManager.stop();
+    }
+
+    /**
+     * Disables start and stop while a lifecycle change runs in the background
+     */
+    private void setButtonsBusy(String message) {
+        startButton.setEnabled(false);
+        stopButton.setEnabled(false);
+        statusLabel.setText("  Server Status: " + message);
+        statusLabel.setForeground(Color.DARK_GRAY);
     }
 
     private void updateUIState(boolean running) {
@@ -735,6 +1103,10 @@ public class MainFrame extends JFrame {
         maxLoginsField.setEnabled(!running);
         baseFolderField.setEnabled(!running);
         anonymousCheckBox.setEnabled(!running);
+        anonymousRootField.setEnabled(!running);
+        anonymousMaxLoginsField.setEnabled(!running);
+        anonymousMaxLoginsPerIpField.setEnabled(!running);
+        anonymousRateField.setEnabled(!running);
         
         if (running) {
             statusLabel.setText("  Server Status: Running on port " + config.getPort());
@@ -818,15 +1190,24 @@ public class MainFrame extends JFrame {
         
         UserAccount newUser = dialog.getUserAccount();
         if (newUser != null) {
+            if (config.getUser(newUser.getUsername()) != null) {
+                JOptionPane.showMessageDialog(this,
+                    "User '" + newUser.getUsername() + "' already exists",
+                    "Duplicate User",
+                    JOptionPane.WARNING_MESSAGE);
+                return;
+            }
             config.addUser(newUser);
-            userListModel.addElement(newUser);
+            reloadUserList();
+            selectUser(newUser.getUsername());
             logMessage("User added: " + newUser.getUsername(), "success");
             saveConfiguration();
+            serverManager.reloadUsers();
         }
     }
 
     private void editUser() {
-        UserAccount selectedUser = userList.getSelectedValue();
+        UserAccount selectedUser = getSelectedUser();
         if (selectedUser == null) {
             JOptionPane.showMessageDialog(this,
                 "Please select a user to edit",
@@ -840,16 +1221,39 @@ public class MainFrame extends JFrame {
         
         UserAccount updatedUser = dialog.getUserAccount();
         if (updatedUser != null) {
+            if (!updatedUser.getUsername().equals(selectedUser.getUsername())
+                    && config.getUser(updatedUser.getUsername()) != null) {
+                JOptionPane.showMessageDialog(this,
+                    "User '" + updatedUser.getUsername() + "' already exists",
+                    "Duplicate User",
+                    JOptionPane.WARNING_MESSAGE);
+                return;
+            }
             config.updateUser(selectedUser, updatedUser);
-            int index = userListModel.indexOf(selectedUser);
-            userListModel.set(index, updatedUser);
+            reloadUserList();
+            selectUser(updatedUser.getUsername());
             logMessage("User updated: " + updatedUser.getUsername(), "success");
             saveConfiguration();
+            serverManager.reloadUsers();
+        }
+    }
+
+    private void editGroups() {
+        GroupManagementDialog dialog = new GroupManagementDialog(this, config.getGroups());
+        dialog.setVisible(true);
+
+        List<UserGroup> groups = dialog.getGroups();
+        if (groups != null) {
+            config.setGroups(groups);
+            logMessage("Groups updated: " + groups.size() + " groups", "success");
+            saveConfiguration();
+            // Members already logged in get the new settings at once
+            serverManager.reloadGroups();
         }
     }
 
     private void deleteUser() {
-        UserAccount selectedUser = userList.getSelectedValue();
+        UserAccount selectedUser = getSelectedUser();
         if (selectedUser == null) {
             JOptionPane.showMessageDialog(this,
                 "Please select a user to delete",
@@ -865,12 +1269,89 @@ public class MainFrame extends JFrame {
             
         if (result == JOptionPane.YES_OPTION) {
             config.removeUser(selectedUser);
-            userListModel.removeElement(selectedUser);
+            reloadUserList();
             logMessage("User deleted: " + selectedUser.getUsername(), "success");
             saveConfiguration();
+            serverManager.reloadUsers();
         }
     }
     
+    /**
+     * Imports users from a CSV or JSON file in the background, with a progress dialog
+     */
+    private void importUsers() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("User files (*.csv, *.json)", "csv", "json"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        UserBulkTransfer.Format format = UserBulkTransfer.Format.forFileName(file.getName());
+        logMessage("Importing users from " + file.getName() + "...", "info");
+        new SwingWorker<UserBulkTransfer.Result, Void>() {
+            @Override
+            protected UserBulkTransfer.Result doInBackground() throws Exception {
+                try (Reader in = new InputStreamReader(new ProgressMonitorInputStream(MainFrame.this,
+                        "Importing users from " + file.getName(), new FileInputStream(file)), StandardCharsets.UTF_8)) {
+                    return UserBulkTransfer.importUsers(in, format, config, null);
+                }
+            }
+
+            @Override
+            protected void done() {
+                reloadUserList();
+                try {
+                    UserBulkTransfer.Result result = get();
+                    logMessage("Imported users: " + result.getAdded() + " added, " + result.getUpdated()
+                        + " updated, " + result.getFailed() + " failed", result.getFailed() > 0 ? "error" : "success");
+                    for (String error : result.getErrors()) {
+                        logMessage("  " + error, "error");
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    logMessage("Import stopped: " + cause.getMessage(), "error");
+                }
+                // Records read before a failure or cancellation are kept
+                saveConfiguration();
+                serverManager.reloadUsers();
+            }
+        }.execute();
+    }
+
+    /**
+     * Exports all users, without passwords, to a CSV or JSON file in the background
+     */
+    private void exportUsers() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("User files (*.csv, *.json)", "csv", "json"));
+        chooser.setSelectedFile(new File("users.csv"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        List<UserAccount> users = config.getUsers();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                    UserBulkTransfer.export(users, UserBulkTransfer.Format.forFileName(file.getName()), out);
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    logMessage("Exported " + users.size() + " users to " + file.getName(), "success");
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    logMessage("Export failed: " + cause.getMessage(), "error");
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Saves current configuration to disk
      */
@@ -892,11 +1373,19 @@ public class MainFrame extends JFrame {
             if (anonymousCheckBox != null) {
                 config.setAnonymousEnabled(anonymousCheckBox.isSelected());
             }
+            if (anonymousRootField != null) {
+                config.setAnonymousRoot(anonymousRootField.getText());
+                config.setAnonymousMaxLogins(Integer.parseInt(anonymousMaxLoginsField.getText()));
+                config.setAnonymousMaxLoginsPerIp(Integer.parseInt(anonymousMaxLoginsPerIpField.getText()));
+                config.setAnonymousMaxDownloadKbps(Integer.parseInt(anonymousRateField.getText()));
+            }
             
             String currentTheme = themeSelector != null ? 
                 (String) themeSelector.getSelectedItem() : "Flat Light";
             
-            ConfigManager.saveConfig(config, currentTheme);
+            synchronized (config) {
+                ConfigManager.saveConfig(config, currentTheme);
+            }
             logMessage("Configuration saved", "success");
         } catch (Exception e) {
             logMessage("Failed to save configuration: " + e.getMessage(), "error");
@@ -907,6 +1396,12 @@ public class MainFrame extends JFrame {
      * Cleanup resources before exiting
      */
     private void cleanup() {
+        if (adminServer != null) {
+            adminServer.stop();
+        }
+        if (sessionRefreshTimer != null) {
+            sessionRefreshTimer.stop();
+        }
         if (logCaptureAppender != null) {
             logCaptureAppender.stopCapture();
         }
@@ -1,13 +1,19 @@
 package com.github.yohannesTz.simpleftp.ui;
 
 import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.MountPoint;
+import com.github.yohannesTz.simpleftp.model.StorageSettings;
 import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.server.CidrTrie;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Dialog for adding or editing FTP user accounts
@@ -20,6 +26,14 @@ public class UserManagementDialog extends JDialog {
     private JButton browseButton;
     private JCheckBox writePermissionCheckBox; // Legacy - kept for compatibility
     private JSpinner idleTimeSpinner;
+    private JSpinner quotaMegabytesSpinner;
+    private JSpinner quotaFilesSpinner;
+    private JComboBox<String> storageTypeCombo;
+    private StorageSettings storageSettings = new StorageSettings();
+    private JTextField allowedIpsField;
+    private JTextField deniedIpsField;
+    private JTextField groupsField;
+    private JCheckBox atomicUploadsCheckBox;
     private JButton okButton;
     private JButton cancelButton;
     
@@ -32,6 +46,10 @@ public class UserManagementDialog extends JDialog {
     private JCheckBox removeDirCheckBox;
     private JCheckBox listCheckBox;
     
+    // Mount points
+    private DefaultTableModel mountTableModel;
+    private JTable mountTable;
+    
     private UserAccount userAccount;
     private boolean isEditMode;
 
@@ -126,6 +144,126 @@ public class UserManagementDialog extends JDialog {
         return panel;
     }
     
+    private JPanel createMountsPanel() {
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createEmptyBorder(0, 10, 10, 10),
+            BorderFactory.createTitledBorder(
+                BorderFactory.createEtchedBorder(),
+                "Mount Points",
+                TitledBorder.LEFT,
+                TitledBorder.TOP,
+                new Font("SansSerif", Font.BOLD, 12)
+            )
+        ));
+        
+        mountTableModel = new DefaultTableModel(
+                new Object[]{"Virtual Path", "Physical Directory", "Read", "Write"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex >= 2 ? Boolean.class : String.class;
+            }
+        };
+        mountTable = new JTable(mountTableModel);
+        mountTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        JScrollPane scrollPane = new JScrollPane(mountTable);
+        scrollPane.setPreferredSize(new Dimension(400, 90));
+        panel.add(scrollPane, BorderLayout.CENTER);
+        
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton addMountBtn = new JButton("Add Mount...");
+        JButton removeMountBtn = new JButton("Remove Mount");
+        setButtonSize(addMountBtn);
+        setButtonSize(removeMountBtn);
+        addMountBtn.addActionListener(e -> addMount());
+        removeMountBtn.addActionListener(e -> {
+            int row = mountTable.getSelectedRow();
+            if (row >= 0) {
+                mountTableModel.removeRow(row);
+            }
+        });
+        buttonPanel.add(addMountBtn);
+        buttonPanel.add(removeMountBtn);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+        
+        return panel;
+    }
+    
+    private void addMount() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Select Directory to Mount");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File selectedDir = chooser.getSelectedFile();
+        
+        String virtualPath = JOptionPane.showInputDialog(this,
+            "Path inside the user's tree:",
+            "/" + selectedDir.getName());
+        if (virtualPath == null) {
+            return;
+        }
+        virtualPath = MountPoint.normalizeVirtualPath(virtualPath);
+        if (virtualPath.equals("/")) {
+            JOptionPane.showMessageDialog(this,
+                "The root directory cannot be a mount point",
+                "Validation Error",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        mountTableModel.addRow(new Object[]{virtualPath, selectedDir.getAbsolutePath(), true, true});
+    }
+    
+    /**
+     * Shows the object storage settings (endpoint, bucket, credentials)
+     */
+    private void configureStorage() {
+        JTextField endpointField = new JTextField(storageSettings.getEndpoint(), 25);
+        JTextField regionField = new JTextField(storageSettings.getRegion(), 25);
+        JTextField bucketField = new JTextField(storageSettings.getBucket(), 25);
+        JTextField prefixField = new JTextField(storageSettings.getPrefix(), 25);
+        JTextField accessKeyField = new JTextField(storageSettings.getAccessKey(), 25);
+        JPasswordField secretKeyField = new JPasswordField(storageSettings.getSecretKey(), 25);
+        
+        JPanel panel = new JPanel(new GridLayout(0, 2, 5, 5));
+        panel.add(new JLabel("Endpoint URL:"));
+        panel.add(endpointField);
+        panel.add(new JLabel("Region:"));
+        panel.add(regionField);
+        panel.add(new JLabel("Bucket:"));
+        panel.add(bucketField);
+        panel.add(new JLabel("Key Prefix:"));
+        panel.add(prefixField);
+        panel.add(new JLabel("Access Key:"));
+        panel.add(accessKeyField);
+        panel.add(new JLabel("Secret Key:"));
+        panel.add(secretKeyField);
+        
+        int result = JOptionPane.showConfirmDialog(this, panel, "S3-compatible Storage",
+            JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result == JOptionPane.OK_OPTION) {
+            storageSettings = StorageSettings.s3(endpointField.getText().trim(),
+                regionField.getText().trim(), bucketField.getText().trim(), prefixField.getText().trim(),
+                accessKeyField.getText().trim(), new String(secretKeyField.getPassword()));
+        }
+    }
+    
+    private List<MountPoint> getMounts() {
+        List<MountPoint> mounts = new ArrayList<>();
+        for (int row = 0; row < mountTableModel.getRowCount(); row++) {
+            String virtualPath = MountPoint.normalizeVirtualPath((String) mountTableModel.getValueAt(row, 0));
+            String physicalPath = ((String) mountTableModel.getValueAt(row, 1)).trim();
+            if (virtualPath.equals("/") || physicalPath.isEmpty()) {
+                continue;
+            }
+            mounts.add(new MountPoint(virtualPath, physicalPath,
+                (Boolean) mountTableModel.getValueAt(row, 2),
+                (Boolean) mountTableModel.getValueAt(row, 3)));
+        }
+        return mounts;
+    }
+    
     private void setFullAccess() {
         readCheckBox.setSelected(true);
         writeCheckBox.setSelected(true);
@@ -250,11 +388,112 @@ public class UserManagementDialog extends JDialog {
         idleTimeSpinner = new JSpinner(spinnerModel);
         formPanel.add(idleTimeSpinner, gbc);
 
+        // Storage Quota
+        gbc.gridx = 0;
+        gbc.gridy = 5;
+        gbc.gridwidth = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        formPanel.add(new JLabel("Quota (MB, 0 = unlimited):"), gbc);
+        
+        gbc.gridx = 1;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        quotaMegabytesSpinner = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 100));
+        formPanel.add(quotaMegabytesSpinner, gbc);
+
+        // File Count Quota
+        gbc.gridx = 0;
+        gbc.gridy = 6;
+        gbc.gridwidth = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        formPanel.add(new JLabel("Max Files (0 = unlimited):"), gbc);
+        
+        gbc.gridx = 1;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        quotaFilesSpinner = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 100));
+        formPanel.add(quotaFilesSpinner, gbc);
+
+        // Storage Backend
+        gbc.gridx = 0;
+        gbc.gridy = 7;
+        gbc.gridwidth = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        formPanel.add(new JLabel("Storage:"), gbc);
+        
+        gbc.gridx = 1;
+        gbc.gridwidth = 1;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        storageTypeCombo = new JComboBox<>(new String[]{"Local Disk", "S3-compatible", "In-Memory (scratch)"});
+        formPanel.add(storageTypeCombo, gbc);
+        
+        gbc.gridx = 2;
+        gbc.gridwidth = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        JButton configureStorageButton = new JButton("Configure...");
+        configureStorageButton.addActionListener(e -> configureStorage());
+        setButtonSize(configureStorageButton);
+        formPanel.add(configureStorageButton, gbc);
+        storageTypeCombo.addActionListener(e ->
+            configureStorageButton.setEnabled(storageTypeCombo.getSelectedIndex() == 1));
+        configureStorageButton.setEnabled(false);
+
+        // IP Restrictions
+        gbc.gridx = 0;
+        gbc.gridy = 8;
+        gbc.gridwidth = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        formPanel.add(new JLabel("Allowed IPs:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        allowedIpsField = new JTextField(20);
+        allowedIpsField.setToolTipText("Comma-separated addresses or CIDR ranges, e.g. 10.0.0.0/8, 2001:db8::/32 (empty = any)");
+        formPanel.add(allowedIpsField, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 9;
+        gbc.gridwidth = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        formPanel.add(new JLabel("Denied IPs:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        deniedIpsField = new JTextField(20);
+        deniedIpsField.setToolTipText("Comma-separated addresses or CIDR ranges this user may not log in from");
+        formPanel.add(deniedIpsField, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 10;
+        gbc.gridwidth = 1;
+        gbc.fill = GridBagConstraints.NONE;
+        formPanel.add(new JLabel("Groups:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        groupsField = new JTextField(20);
+        groupsField.setToolTipText("Comma-separated group names; a group's permissions replace the ones below");
+        formPanel.add(groupsField, gbc);
+
+        gbc.gridx = 1;
+        gbc.gridy = 11;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.NONE;
+        atomicUploadsCheckBox = new JCheckBox("Atomic uploads");
+        atomicUploadsCheckBox.setToolTipText("Write uploads to a hidden temp file and rename it into place when complete");
+        formPanel.add(atomicUploadsCheckBox, gbc);
+
         mainPanel.add(formPanel, BorderLayout.NORTH);
         
         // Permissions Panel
         JPanel permissionsPanel = createPermissionsPanel();
-        mainPanel.add(permissionsPanel, BorderLayout.CENTER);
+        JPanel centerPanel = new JPanel(new BorderLayout());
+        centerPanel.add(permissionsPanel, BorderLayout.NORTH);
+        centerPanel.add(createMountsPanel(), BorderLayout.CENTER);
+        mainPanel.add(centerPanel, BorderLayout.CENTER);
 
         // Buttons panel
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
@@ -302,6 +541,18 @@ public class UserManagementDialog extends JDialog {
         homeDirectoryField.setText(user.getHomeDirectory());
         writePermissionCheckBox.setSelected(user.isWritePermission());
         idleTimeSpinner.setValue(user.getMaxIdleTime());
+        quotaMegabytesSpinner.setValue((int) Math.min(Integer.MAX_VALUE, user.getQuotaBytes() / (1024 * 1024)));
+        quotaFilesSpinner.setValue(user.getQuotaFiles());
+        storageSettings = user.getStorage();
+        storageTypeCombo.setSelectedIndex(storageSettings.isMemory() ? 2 : storageSettings.isLocal() ? 0 : 1);
+        allowedIpsField.setText(String.join(", ", user.getAllowedIps()));
+        deniedIpsField.setText(String.join(", ", user.getDeniedIps()));
+        atomicUploadsCheckBox.setSelected(user.isAtomicUploads());
+        groupsField.setText(String.join(", ", user.getGroups()));
+        for (MountPoint mount : user.getMounts()) {
+            mountTableModel.addRow(new Object[]{mount.getVirtualPath(), mount.getPhysicalPath(),
+                mount.isReadable(), mount.isWritable()});
+        }
         
         // Load permissions
         FTPPermissions perms = user.getPermissions();
@@ -401,6 +652,32 @@ public class UserManagementDialog extends JDialog {
             }
         }
 
+        if (storageTypeCombo.getSelectedIndex() == 1
+                && (storageSettings.getEndpoint().isEmpty() || storageSettings.getBucket().isEmpty())) {
+            JOptionPane.showMessageDialog(this,
+                "Object storage needs an endpoint URL and a bucket (click Configure...)",
+                "Validation Error",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        List<String> allowedIps = splitList(allowedIpsField.getText());
+        List<String> deniedIps = splitList(deniedIpsField.getText());
+        try {
+            for (String range : allowedIps) {
+                CidrTrie.validate(range);
+            }
+            for (String range : deniedIps) {
+                CidrTrie.validate(range);
+            }
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this,
+                e.getMessage(),
+                "Validation Error",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
         int maxIdleTime = (Integer) idleTimeSpinner.getValue();
         
         // Create permissions object from checkboxes
@@ -414,9 +691,37 @@ public class UserManagementDialog extends JDialog {
         permissions.setCanList(listCheckBox.isSelected());
 
         userAccount = new UserAccount(username, password, homeDirectory, permissions, maxIdleTime);
+        userAccount.setQuotaBytes((Integer) quotaMegabytesSpinner.getValue() * 1024L * 1024L);
+        userAccount.setQuotaFiles((Integer) quotaFilesSpinner.getValue());
+        if (mountTable.isEditing()) {
+            mountTable.getCellEditor().stopCellEditing();
+        }
+        userAccount.setMounts(getMounts());
+        userAccount.setAllowedIps(allowedIps);
+        userAccount.setDeniedIps(deniedIps);
+        userAccount.setAtomicUploads(atomicUploadsCheckBox.isSelected());
+        userAccount.setGroups(splitList(groupsField.getText()));
+        if (storageTypeCombo.getSelectedIndex() == 1) {
+            storageSettings.setType(StorageSettings.TYPE_S3);
+            userAccount.setStorage(storageSettings);
+        } else if (storageTypeCombo.getSelectedIndex() == 2) {
+            userAccount.setStorage(StorageSettings.memory());
+        } else {
+            userAccount.setStorage(new StorageSettings());
+        }
         dispose();
     }
 
+    private static List<String> splitList(String text) {
+        List<String> ranges = new ArrayList<>();
+        for (String part : text.split("[,\\s]+")) {
+            if (!part.isEmpty()) {
+                ranges.add(part);
+            }
+        }
+        return ranges;
+    }
+
     private void onCancel() {
         userAccount = null;
         dispose();
@@ -0,0 +1,219 @@
+package com.github.yohannesTz.simpleftp.ui;
+
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.model.UserSnapshot;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Table model for the Users tab that stays fast with tens of thousands of
+ * accounts. It keeps the accounts sorted by lower-case username; a search
+ * takes the prefix matches from that index by binary search and scans for
+ * the remaining substring matches, and typing more of the same query only
+ * rescans the previous matches. The table shows one page of the results,
+ * and cell values are computed when a row is painted, so cost follows the
+ * visible rows rather than the number of accounts.
+ */
+public class UserTableModel extends AbstractTableModel {
+    public static final int PAGE_SIZE = 1000;
+
+    private static final String[] COLUMNS = {"Username", "Home Directory", "Storage", "Quota", "Permissions"};
+
+    private UserSnapshot snapshot;
+    private String[] keys = new String[0];
+    private UserAccount[] accounts = new UserAccount[0];
+
+    private String query = "";
+    /** Indices into the sorted arrays of all names containing the query; null when there is no query */
+    private int[] containing;
+    /** The search results, prefix matches first; null means all accounts */
+    private int[] results;
+    private int page;
+
+    /**
+     * Shows a new set of accounts, keeping the current search; rebuilds the
+     * index only when the snapshot actually changed
+     */
+    public void setUsers(UserSnapshot users) {
+        if (users == snapshot) {
+            return;
+        }
+        snapshot = users;
+        List<UserAccount> list = users.asList();
+        String[] sorted = new String[list.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            // Sort keys carry their position so the accounts can follow without boxing
+            sorted[i] = list.get(i).getUsername().toLowerCase(Locale.ROOT) + '\0' + i;
+        }
+        Arrays.sort(sorted);
+        keys = new String[sorted.length];
+        accounts = new UserAccount[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            int split = sorted[i].lastIndexOf('\0');
+            keys[i] = sorted[i].substring(0, split);
+            accounts[i] = list.get(Integer.parseInt(sorted[i].substring(split + 1)));
+        }
+        String current = query;
+        query = "";
+        containing = null;
+        search(current, true);
+    }
+
+    /**
+     * Filters to usernames containing the query, case-insensitively; those starting with it come first
+     */
+    public void setQuery(String text) {
+        search(text.trim().toLowerCase(Locale.ROOT), false);
+    }
+
+    private void search(String q, boolean keepPage) {
+        if (q.equals(query) && !keepPage) {
+            return;
+        }
+        if (q.isEmpty()) {
+            containing = null;
+            results = null;
+        } else {
+            int[] candidates = containing != null && q.startsWith(query) ? containing : null;
+            containing = scan(q, candidates);
+            results = prefixFirst(q, containing);
+        }
+        query = q;
+        if (!keepPage || page * PAGE_SIZE >= getMatchCount()) {
+            page = 0;
+        }
+        fireTableDataChanged();
+    }
+
+    private int[] scan(String q, int[] candidates) {
+        int[] found = new int[candidates != null ? candidates.length : keys.length];
+        int count = 0;
+        if (candidates != null) {
+            for (int index : candidates) {
+                if (keys[index].contains(q)) {
+                    found[count++] = index;
+                }
+            }
+        } else {
+            for (int index = 0; index < keys.length; index++) {
+                if (keys[index].contains(q)) {
+                    found[count++] = index;
+                }
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Orders the matches so the contiguous run of prefix matches in the index comes first
+     */
+    private int[] prefixFirst(String q, int[] matches) {
+        int from = lowerBound(q);
+        int to = lowerBound(q + Character.MAX_VALUE);
+        int[] ordered = new int[matches.length];
+        int count = 0;
+        for (int index = from; index < to; index++) {
+            ordered[count++] = index;
+        }
+        for (int index : matches) {
+            if (index < from || index >= to) {
+                ordered[count++] = index;
+            }
+        }
+        return ordered;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public int getMatchCount() {
+        return results != null ? results.length : accounts.length;
+    }
+
+    public int getTotalCount() {
+        return accounts.length;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getPageCount() {
+        return Math.max(1, (getMatchCount() + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    public void setPage(int page) {
+        int clamped = Math.max(0, Math.min(page, getPageCount() - 1));
+        if (clamped != this.page) {
+            this.page = clamped;
+            fireTableDataChanged();
+        }
+    }
+
+    /**
+     * Returns the account shown in a row of the current page
+     */
+    public UserAccount getUser(int row) {
+        int position = page * PAGE_SIZE + row;
+        return accounts[results != null ? results[position] : position];
+    }
+
+    /**
+     * Returns the row of the account on the current page, or -1
+     */
+    public int indexOf(String username) {
+        for (int row = 0; row < getRowCount(); row++) {
+            if (getUser(row).getUsername().equals(username)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getRowCount() {
+        return Math.max(0, Math.min(PAGE_SIZE, getMatchCount() - page * PAGE_SIZE));
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        UserAccount user = getUser(row);
+        switch (column) {
+            case 0:
+                return user.getUsername();
+            case 1:
+                return user.getStorage().isLocal() ? user.getHomeDirectory() : "";
+            case 2:
+                return user.getStorage().getType();
+            case 3:
+                return user.getQuotaBytes() > 0 ? (user.getQuotaBytes() / (1024 * 1024)) + " MB" : "";
+            default:
+                return user.getGroups().isEmpty() ? user.getPermissions().toString()
+                    : user.getPermissions() + " (groups: " + String.join(", ", user.getGroups()) + ")";
+        }
+    }
+}
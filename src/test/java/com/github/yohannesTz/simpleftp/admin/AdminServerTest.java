@@ -0,0 +1,154 @@
+package com.github.yohannesTz.simpleftp.admin;
+
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.server.FTPServerManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdminServerTest {
+    @TempDir
+    Path dir;
+    private int port;
+    private FTPServerManager serverManager;
+    private AdminServer admin;
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @BeforeEach
+    void start() throws IOException {
+        port = freePort();
+        ServerConfig config = new ServerConfig();
+        config.setUsers(Collections.emptyList());
+        config.setPort(freePort());
+        config.setServerAddress("127.0.0.1");
+        config.setBaseFolder(dir.toString());
+        config.setIpAllowFile(dir.resolve("ip-allow.txt").toString());
+        config.setIpDenyFile(dir.resolve("ip-deny.txt").toString());
+        config.setAclFile(dir.resolve("acl.txt").toString());
+        config.setJournalEnabled(true);
+        config.setJournalFile(dir.resolve("changes.journal").toString());
+        config.setAdminPort(port);
+        serverManager = new FTPServerManager(config);
+        admin = new AdminServer(serverManager, null);
+        admin.start();
+    }
+
+    @AfterEach
+    void stop() {
+        admin.stop();
+        serverManager.stopServer();
+    }
+
+    /**
+     * Sends a raw request, since HttpURLConnection does not let the Host header be chosen
+     */
+    private int request(String method, String path, String host, String... headers) throws IOException {
+        return requestWithBody(method, path, host, "", headers);
+    }
+
+    private int requestWithBody(String method, String path, String host, String body, String... headers)
+            throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            StringBuilder request = new StringBuilder(method + " " + path + " HTTP/1.1\r\n")
+                .append("Host: ").append(host).append("\r\n")
+                .append("Connection: close\r\n");
+            if (!"GET".equals(method)) {
+                request.append("Content-Length: ").append(content.length).append("\r\n");
+            }
+            for (String header : headers) {
+                request.append(header).append("\r\n");
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(request.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+            out.write(content);
+            out.flush();
+            String status = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.US_ASCII)).readLine();
+            return Integer.parseInt(status.split(" ")[1]);
+        }
+    }
+
+    @Test
+    void localScriptsNeedNoToken() throws IOException {
+        assertEquals(200, request("GET", "/api/status", "127.0.0.1:" + port));
+        assertEquals(200, request("GET", "/api/status", "localhost"));
+        assertEquals(200, request("POST", "/api/server/stop", "localhost:" + port, "X-Requested-With: test"));
+        assertEquals(200, request("POST", "/api/server/stop", "[::1]:" + port, "Content-Type: application/json"));
+    }
+
+    @Test
+    void requestsForOtherHostsAreRefused() throws IOException {
+        assertEquals(403, request("GET", "/api/status", "attacker.example:" + port));
+        assertEquals(403, request("POST", "/api/server/stop", "attacker.example", "X-Requested-With: test"));
+    }
+
+    @Test
+    void requestsBrowsersSendCrossOriginAreRefused() throws IOException {
+        assertEquals(403, request("POST", "/api/server/stop", "127.0.0.1:" + port));
+        assertEquals(403, request("POST", "/api/server/stop", "127.0.0.1:" + port, "Content-Type: text/plain"));
+        assertEquals(403, request("DELETE", "/api/users/alice", "localhost",
+            "Content-Type: application/x-www-form-urlencoded; charset=utf-8"));
+    }
+
+    @Test
+    void invalidIpRangesAreRefused() throws IOException {
+        String json = "Content-Type: application/json";
+        assertEquals(400, requestWithBody("POST", "/api/users", "localhost",
+            "{\"username\":\"bob\",\"password\":\"pw\",\"allowedIps\":[\"10.0.0.0/33\"]}", json));
+        assertNull(serverManager.getConfig().getUser("bob"));
+
+        assertEquals(200, requestWithBody("POST", "/api/users", "localhost",
+            "{\"username\":\"bob\",\"password\":\"pw\",\"allowedIps\":[\"10.0.0.0/8\"]}", json));
+        assertEquals(400, requestWithBody("PUT", "/api/users/bob", "localhost",
+            "{\"deniedIps\":[\"example.com\"]}", json));
+        assertEquals(Collections.emptyList(), serverManager.getConfig().getUser("bob").getDeniedIps());
+    }
+
+    @Test
+    void longPollsDoNotHoldUpOtherRequests() throws Exception {
+        serverManager.startServer();
+        ExecutorService clients = Executors.newCachedThreadPool();
+        try {
+            List<Future<Integer>> polls = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                polls.add(clients.submit(() -> request("GET", "/api/changes?wait=3", "localhost")));
+            }
+            Thread.sleep(500);
+            long start = System.currentTimeMillis();
+            assertEquals(200, request("GET", "/api/status", "localhost"));
+            assertTrue(System.currentTimeMillis() - start < 1000, "status waited for the long-polls");
+            for (Future<Integer> poll : polls) {
+                assertEquals(200, poll.get().intValue());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+}
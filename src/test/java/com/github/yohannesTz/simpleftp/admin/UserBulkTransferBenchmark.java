@@ -0,0 +1,70 @@
+package com.github.yohannesTz.simpleftp.admin;
+
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Import time for a large user file, as CSV into an empty configuration and as
+ * JSON over the same accounts. Off by default; run with -Dbenchmark=true, and
+ * -Dbenchmark.users=100000 to pick the number of accounts.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class UserBulkTransferBenchmark {
+    @TempDir
+    Path dir;
+
+    @Test
+    void importManyUsers() throws IOException {
+        int users = Integer.parseInt(System.getProperty("benchmark.users", "100000"));
+        StringBuilder csv = new StringBuilder("username,password,quotaBytes,permissions,allowedIps,groups\n");
+        for (int i = 0; i < users; i++) {
+            csv.append("user").append(i).append(",secret").append(i).append(',').append(i * 1024L)
+                .append(",read;list;write,10.").append(i >> 16 & 255).append('.').append(i >> 8 & 255)
+                .append(".0/24,staff\n");
+        }
+        System.out.printf("%d users (%d cores)%n", users, Runtime.getRuntime().availableProcessors());
+
+        for (String run : new String[] {"CSV cold", "CSV warm"}) {
+            ServerConfig config = config();
+            UserBulkTransfer.Result result = time(run, () -> UserBulkTransfer.importUsers(
+                new StringReader(csv.toString()), UserBulkTransfer.Format.CSV, config, null));
+            assertEquals(users, result.getAdded());
+        }
+
+        ServerConfig config = config();
+        UserBulkTransfer.importUsers(new StringReader(csv.toString()), UserBulkTransfer.Format.CSV, config, null);
+        StringWriter json = new StringWriter();
+        UserBulkTransfer.export(config.getUsers(), UserBulkTransfer.Format.JSON, json);
+        UserBulkTransfer.Result result = time("JSON re-import", () -> UserBulkTransfer.importUsers(
+            new StringReader(json.toString()), UserBulkTransfer.Format.JSON, config, null));
+        assertEquals(users, result.getUpdated());
+    }
+
+    private ServerConfig config() {
+        ServerConfig config = new ServerConfig();
+        config.setUsers(Collections.emptyList());
+        config.setBaseFolder(dir.toString());
+        return config;
+    }
+
+    private interface Import {
+        UserBulkTransfer.Result run() throws IOException;
+    }
+
+    private static UserBulkTransfer.Result time(String label, Import task) throws IOException {
+        long start = System.nanoTime();
+        UserBulkTransfer.Result result = task.run();
+        System.out.printf("  %-16s %8.2f s%n", label, (System.nanoTime() - start) / 1e9);
+        return result;
+    }
+}
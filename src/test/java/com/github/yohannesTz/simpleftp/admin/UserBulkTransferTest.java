@@ -0,0 +1,94 @@
+package com.github.yohannesTz.simpleftp.admin;
+
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserBulkTransferTest {
+    @TempDir
+    Path dir;
+
+    private ServerConfig config;
+
+    @BeforeEach
+    void setUp() {
+        config = new ServerConfig();
+        config.setUsers(Collections.emptyList());
+        config.setBaseFolder(dir.toString());
+    }
+
+    private UserBulkTransfer.Result importCsv(String... lines) throws IOException {
+        return UserBulkTransfer.importUsers(new StringReader(String.join("\n", lines) + "\n"),
+            UserBulkTransfer.Format.CSV, config, null);
+    }
+
+    @Test
+    void invalidIpRangesFailTheirRecord() throws IOException {
+        UserBulkTransfer.Result result = importCsv(
+            "username,password,allowedIps,deniedIps",
+            "alice,pw,10.0.0.0/8;192.168.0.0/16,",
+            "bob,pw,10.0.0.0/33,",
+            "carol,pw,,not-an-address");
+
+        assertEquals(1, result.getAdded());
+        assertEquals(2, result.getFailed());
+        assertEquals(2, result.getErrors().size());
+        assertTrue(result.getErrors().get(0).startsWith("Line 3: 'allowedIps'"), result.getErrors().get(0));
+        assertTrue(result.getErrors().get(1).startsWith("Line 4: 'deniedIps'"), result.getErrors().get(1));
+        assertEquals(Arrays.asList("10.0.0.0/8", "192.168.0.0/16"), config.getUser("alice").getAllowedIps());
+        assertNull(config.getUser("bob"));
+        assertNull(config.getUser("carol"));
+    }
+
+    @Test
+    void repeatedNameInOneBatchUpdatesTheEarlierRecord() throws IOException {
+        UserBulkTransfer.Result result = importCsv(
+            "username,password,quotaBytes,maxIdleTime",
+            "alice,pw,1000,",
+            "bob,pw,,",
+            "alice,,,60");
+
+        assertEquals(2, result.getAdded());
+        assertEquals(1, result.getUpdated());
+        assertEquals(2, config.getUsers().size());
+        UserAccount alice = config.getUser("alice");
+        // The second record leaves the quota and password of the first alone
+        assertEquals(1000, alice.getQuotaBytes());
+        assertEquals(60, alice.getMaxIdleTime());
+        assertEquals("pw", alice.getPassword());
+    }
+
+    @Test
+    void repeatedNewNameNeedsNoPasswordAfterTheFirst() throws IOException {
+        UserBulkTransfer.Result result = UserBulkTransfer.importUsers(new StringReader(
+            "[{\"username\":\"alice\",\"password\":\"pw\"},{\"username\":\"alice\",\"quotaFiles\":5}]"),
+            UserBulkTransfer.Format.JSON, config, null);
+
+        assertEquals(1, result.getAdded());
+        assertEquals(1, result.getUpdated());
+        assertEquals(0, result.getFailed());
+        assertEquals(5, config.getUser("alice").getQuotaFiles());
+    }
+
+    @Test
+    void existingUsersAreCountedAsUpdated() throws IOException {
+        importCsv("username,password", "alice,pw");
+        UserBulkTransfer.Result result = importCsv("username,quotaFiles", "alice,3", "alice,4");
+
+        assertEquals(0, result.getAdded());
+        assertEquals(2, result.getUpdated());
+        assertEquals(4, config.getUser("alice").getQuotaFiles());
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.yohannesTz.simpleftp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerConfigTest {
+    private static final int WRITERS = 8;
+    private static final int EDITS = 500;
+
+    private static UserAccount account(String username) {
+        return new UserAccount(username, "secret", "/tmp/" + username, FTPPermissions.readOnly(), 300);
+    }
+
+    /**
+     * Runs the writers and a reader that checks every snapshot it sees is consistent
+     */
+    private static void stress(ServerConfig config, Runnable background, Writer writer) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(WRITERS + 2);
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                int id = w;
+                writers.add(threads.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < EDITS; i++) {
+                        writer.edit(config, id, i);
+                    }
+                    return null;
+                }));
+            }
+            Future<?> reader = threads.submit(() -> {
+                start.await();
+                while (!done.get()) {
+                    UserSnapshot snapshot = config.getUserSnapshot();
+                    assertEquals(snapshot.size(), snapshot.asList().size());
+                    for (UserAccount account : snapshot.asList()) {
+                        assertTrue(snapshot.get(account.getUsername()) == account, "index out of step with list");
+                    }
+                }
+                return null;
+            });
+            Future<?> other = threads.submit(() -> {
+                start.await();
+                while (!done.get()) {
+                    background.run();
+                }
+                return null;
+            });
+
+            start.countDown();
+            for (Future<?> future : writers) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            reader.get(10, TimeUnit.SECONDS);
+            other.get(10, TimeUnit.SECONDS);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private interface Writer {
+        void edit(ServerConfig config, int writer, int edit);
+    }
+
+    @Test
+    void concurrentEditsAreAllApplied() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setUsers(Collections.emptyList());
+
+        stress(config, Thread::yield, (c, writer, edit) -> {
+            String name = "user-" + writer + "-" + edit;
+            c.addUser(account(name));
+            if (edit % 2 == 1) {
+                c.removeUser(account("user-" + writer + "-" + (edit - 1)));
+            }
+        });
+
+        UserSnapshot result = config.getUserSnapshot();
+        assertEquals(WRITERS * EDITS / 2, result.size());
+        for (int w = 0; w < WRITERS; w++) {
+            for (int i = 1; i < EDITS; i += 2) {
+                assertNotNull(result.get("user-" + w + "-" + i));
+            }
+        }
+    }
+
+    @Test
+    void editsSurviveTheAccountsBeingUnloaded() throws Exception {
+        ServerConfig config = new ServerConfig();
+        UserSnapshot stored = UserSnapshot.of(Collections.singletonList(account("stored")));
+        config.setUserLoader(() -> stored);
+
+        // Each unload drops the edits made so far, like switching to another user store would
+        stress(config, () -> config.setUserLoader(() -> stored),
+            (c, writer, edit) -> c.updateUsers(snapshot -> snapshot.with(account("user-" + writer + "-" + edit))));
+
+        assertNotNull(config.getUser("stored"));
+    }
+}
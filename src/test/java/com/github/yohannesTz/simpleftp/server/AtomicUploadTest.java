@@ -0,0 +1,113 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.server.fs.UploadStaging;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AtomicUploadTest {
+    private static final Pattern PASV = Pattern.compile("(\\d+),(\\d+),(\\d+),(\\d+),(\\d+),(\\d+)");
+
+    @TempDir
+    Path dir;
+
+    private File home;
+    private ServerConfig config;
+    private FTPServerManager manager;
+    private FTPClient client;
+
+    @BeforeEach
+    void start() throws Exception {
+        home = dir.resolve("alice").toFile();
+        home.mkdirs();
+        config = TestServers.config(dir);
+        UserAccount alice = new UserAccount("alice", "secret", home.getPath(), FTPPermissions.fullAccess(), 0);
+        alice.setAtomicUploads(true);
+        config.addUser(alice);
+        manager = new FTPServerManager(config);
+        manager.startServer();
+        client = TestServers.login(config, "alice", "secret");
+        client.setFileType(FTP.BINARY_FILE_TYPE);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        client.disconnect();
+        manager.stopServer();
+    }
+
+    private void assertNoTempFiles() {
+        String[] names = home.list();
+        for (String name : names) {
+            assertFalse(UploadStaging.isStagingName(name), "temp file left: " + name);
+        }
+    }
+
+    @Test
+    void completedUploadReplacesTheFile() throws Exception {
+        TestServers.writeFile(home, "data.txt", "old");
+        byte[] content = "new content".getBytes(StandardCharsets.UTF_8);
+        assertTrue(client.storeFile("data.txt", new ByteArrayInputStream(content)), client.getReplyString());
+
+        assertArrayEquals(content, Files.readAllBytes(home.toPath().resolve("data.txt")));
+        assertNoTempFiles();
+    }
+
+    @Test
+    void failureToPublishIsReportedInsteadOfSuccess() throws Exception {
+        // A non-empty directory cannot be replaced by the rename, whoever the server runs as
+        TestServers.writeFile(new File(home, "taken"), "inside.txt", "keep");
+
+        assertFalse(client.storeFile("taken", new ByteArrayInputStream(new byte[1000])));
+        assertEquals(551, client.getReplyCode(), client.getReplyString());
+        assertEquals("keep", new String(Files.readAllBytes(home.toPath().resolve("taken/inside.txt")),
+            StandardCharsets.UTF_8));
+        assertNoTempFiles();
+    }
+
+    @Test
+    void brokenTransferKeepsTheOldFile() throws Exception {
+        TestServers.writeFile(home, "data.txt", "old");
+
+        assertEquals(FTPReply.ENTERING_PASSIVE_MODE, client.pasv(), client.getReplyString());
+        Matcher m = PASV.matcher(client.getReplyString());
+        assertTrue(m.find(), client.getReplyString());
+        int port = Integer.parseInt(m.group(5)) * 256 + Integer.parseInt(m.group(6));
+        try (Socket data = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            assertTrue(FTPReply.isPositivePreliminary(client.sendCommand("STOR", "data.txt")),
+                client.getReplyString());
+            OutputStream out = data.getOutputStream();
+            out.write(new byte[256 * 1024]);
+            out.flush();
+            data.setSoLinger(true, 0);
+        }
+        int reply = client.getReply();
+        assertTrue(reply >= 400, "reply " + reply);
+
+        assertEquals("old", new String(Files.readAllBytes(home.toPath().resolve("data.txt")), StandardCharsets.UTF_8));
+        assertNoTempFiles();
+    }
+}
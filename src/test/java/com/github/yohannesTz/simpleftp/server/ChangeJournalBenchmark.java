@@ -0,0 +1,73 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Append rate of the change journal from one thread and from several
+ * contending ones, rotating at the default file size. Off by default; run
+ * with -Dbenchmark=true, and -Dbenchmark.events=2000000 to pick the number
+ * of events per run.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ChangeJournalBenchmark {
+    @TempDir
+    Path dir;
+
+    @Test
+    void appendRate() throws Exception {
+        int events = Integer.parseInt(System.getProperty("benchmark.events", "2000000"));
+        System.out.printf("%d events (%d cores)%n", events, Runtime.getRuntime().availableProcessors());
+        for (int threads : new int[] {1, 1, 4}) {
+            run(events, threads);
+        }
+    }
+
+    private void run(int events, int threads) throws Exception {
+        Path file = dir.resolve("changes-" + System.nanoTime() + ".journal");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (ChangeJournal journal = new ChangeJournal(file.toFile())) {
+            long start = System.nanoTime();
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                writers.add(pool.submit(() -> {
+                    for (int i = id; i < events; i += threads) {
+                        journal.append(ChangeJournal.UPLOAD, "user" + id, "/incoming/file-" + i + ".csv", null);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  %d thread(s) %8.2f s %10.0f appends/s%n", threads, seconds, events / seconds);
+
+            start = System.nanoTime();
+            long read = 0;
+            long offset = 0;
+            List<ChangeJournal.Event> batch;
+            while (!(batch = journal.read(offset, 10000)).isEmpty()) {
+                read += batch.size();
+                offset = batch.get(batch.size() - 1).getNext();
+            }
+            seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  read back    %8.2f s %10.0f events/s (%d kept)%n", seconds, read / seconds, read);
+            // Older files beyond the number kept are gone
+            assertTrue(read > 0 && read <= events);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
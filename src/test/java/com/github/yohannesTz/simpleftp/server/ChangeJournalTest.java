@@ -0,0 +1,189 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeJournalTest {
+    @TempDir
+    Path dir;
+
+    private static String longName(int i) {
+        char[] name = new char[4000];
+        Arrays.fill(name, 'x');
+        return "/" + i + new String(name);
+    }
+
+    private static List<ChangeJournal.Event> readAll(ChangeJournal journal, long from) {
+        List<ChangeJournal.Event> events = new ArrayList<>();
+        long offset = from;
+        List<ChangeJournal.Event> batch;
+        while (!(batch = journal.read(offset, 500)).isEmpty()) {
+            events.addAll(batch);
+            offset = batch.get(batch.size() - 1).getNext();
+        }
+        return events;
+    }
+
+    @Test
+    void eventsAreReadBackWithTheirFields() throws IOException {
+        try (ChangeJournal journal = new ChangeJournal(dir.resolve("changes.journal").toFile())) {
+            long start = journal.getEnd();
+            long first = journal.append(ChangeJournal.UPLOAD, "alice", "/in\tbox/a\\b\nc.txt", null);
+            journal.append(ChangeJournal.RENAME, "bob", "/a.txt", "/b.txt");
+            journal.append(ChangeJournal.MKDIR, null, "/new", null);
+
+            List<ChangeJournal.Event> events = journal.read(0, 10);
+            assertEquals(3, events.size());
+            ChangeJournal.Event upload = events.get(0);
+            assertEquals(first, upload.getOffset());
+            assertEquals(start, first);
+            assertEquals(ChangeJournal.UPLOAD, upload.getType());
+            assertEquals("alice", upload.getUser());
+            assertEquals("/in\tbox/a\\b\nc.txt", upload.getPath());
+            assertNull(upload.getTarget());
+            assertEquals("/b.txt", events.get(1).getTarget());
+            assertEquals("", events.get(2).getUser());
+            assertEquals(journal.getEnd(), events.get(2).getNext());
+
+            // Continuing from an event's next offset, and a limit on the count
+            assertEquals(Arrays.asList("/a.txt"), paths(journal.read(upload.getNext(), 1)));
+            assertTrue(journal.read(journal.getEnd(), 10).isEmpty());
+        }
+    }
+
+    private static List<String> paths(List<ChangeJournal.Event> events) {
+        List<String> paths = new ArrayList<>();
+        for (ChangeJournal.Event event : events) {
+            paths.add(event.getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    void tornLineIsClearedOnReopen() throws IOException {
+        File file = dir.resolve("changes.journal").toFile();
+        long end;
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            journal.append(ChangeJournal.UPLOAD, "alice", "/a.txt", null);
+            journal.append(ChangeJournal.DELETE, "alice", "/b.txt", null);
+            end = journal.getEnd();
+        }
+        // A crash in the middle of an append leaves part of a line
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.seek(end);
+            raw.write("1700000000000\tupload\tal".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (ChangeJournal journal = new ChangeJournal(file)) {
+            assertEquals(end, journal.getEnd());
+            assertEquals(Arrays.asList("/a.txt", "/b.txt"), paths(journal.read(0, 10)));
+            journal.append(ChangeJournal.UPLOAD, "carol", "/c.txt", null);
+            List<ChangeJournal.Event> events = journal.read(0, 10);
+            assertEquals(Arrays.asList("/a.txt", "/b.txt", "/c.txt"), paths(events));
+            assertEquals("carol", events.get(2).getUser());
+        }
+    }
+
+    @Test
+    void lineThatDoesNotFitStartsTheNextRegion() throws IOException {
+        try (ChangeJournal journal = new ChangeJournal(dir.resolve("changes.journal").toFile())) {
+            int count = 0;
+            long offset;
+            do {
+                offset = journal.append(ChangeJournal.UPLOAD, "alice", longName(count++), null);
+            } while (offset < ChangeJournal.REGION_SIZE);
+            journal.append(ChangeJournal.UPLOAD, "alice", "/after", null);
+
+            // The line crossing the boundary was moved to the start of the next region
+            assertEquals(ChangeJournal.REGION_SIZE, offset);
+            List<ChangeJournal.Event> events = readAll(journal, 0);
+            assertEquals(count + 1, events.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(longName(i), events.get(i).getPath());
+            }
+            assertEquals(offset, events.get(count - 1).getOffset());
+            assertEquals("/after", events.get(count).getPath());
+        }
+    }
+
+    @Test
+    void fullFileIsRotatedAndOldestDropped() throws IOException {
+        File file = dir.resolve("changes.journal").toFile();
+        List<Long> offsets = new ArrayList<>();
+        try (ChangeJournal journal = new ChangeJournal(file, 1, 1)) {
+            // Three files' worth: the first is dropped, one is kept besides the current file
+            long offset = 0;
+            for (int i = 0; offset < 2L * ChangeJournal.REGION_SIZE + 1000; i++) {
+                offset = journal.append(ChangeJournal.UPLOAD, "alice", longName(i), null);
+                offsets.add(offset);
+            }
+            assertTrue(file.length() <= ChangeJournal.REGION_SIZE);
+            assertTrue(new File(file.getPath() + ".1").isFile());
+            assertFalse(new File(file.getPath() + ".2").exists());
+            for (int i = 1; i < offsets.size(); i++) {
+                assertTrue(offsets.get(i) > offsets.get(i - 1));
+            }
+        }
+
+        try (ChangeJournal journal = new ChangeJournal(file, 1, 1)) {
+            List<ChangeJournal.Event> events = readAll(journal, 0);
+            // Reading from a dropped offset starts at the oldest event kept, in the rotated file
+            int firstKept = offsets.indexOf(events.get(0).getOffset());
+            assertTrue(firstKept > 0);
+            assertEquals(offsets.size() - firstKept, events.size());
+            for (int i = 0; i < events.size(); i++) {
+                assertEquals(offsets.get(firstKept + i).longValue(), events.get(i).getOffset());
+                assertEquals(longName(firstKept + i), events.get(i).getPath());
+            }
+            long end = journal.getEnd();
+            assertEquals(end, journal.append(ChangeJournal.DELETE, "alice", "/x", null));
+        }
+    }
+
+    @Test
+    void stouIsJournaledWithTheGeneratedName() throws Exception {
+        File home = dir.resolve("alice").toFile();
+        home.mkdirs();
+        ServerConfig config = TestServers.config(dir);
+        config.setJournalEnabled(true);
+        config.setJournalFile(dir.resolve("changes.journal").toString());
+        config.addUser(new UserAccount("alice", "secret", home.getPath(), FTPPermissions.fullAccess(), 0));
+        FTPServerManager manager = new FTPServerManager(config);
+        manager.startServer();
+        try {
+            FTPClient client = TestServers.login(config, "alice", "secret");
+            try {
+                assertTrue(client.storeUniqueFile(new ByteArrayInputStream(new byte[10])), client.getReplyString());
+            } finally {
+                client.disconnect();
+            }
+            String[] names = home.list();
+            assertEquals(1, names.length);
+            List<ChangeJournal.Event> events = manager.getChangeJournal().read(0, 10);
+            assertEquals(1, events.size());
+            assertEquals(ChangeJournal.UPLOAD, events.get(0).getType());
+            assertEquals("/" + names[0], events.get(0).getPath());
+        } finally {
+            manager.stopServer();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChecksumCommandTest {
+    @TempDir
+    static Path dir;
+
+    private static FTPServerManager manager;
+    private static ServerConfig config;
+
+    @BeforeAll
+    static void start() throws Exception {
+        File home = dir.resolve("alice").toFile();
+        TestServers.writeFile(home, "f.txt", "hello");
+        config = TestServers.config(dir);
+        config.addUser(new UserAccount("alice", "secret", home.getPath(), FTPPermissions.readOnly(), 0));
+        manager = new FTPServerManager(config);
+        manager.startServer();
+    }
+
+    @AfterAll
+    static void stop() {
+        manager.stopServer();
+    }
+
+    private static String reply(String command, String argument) throws Exception {
+        FTPClient client = TestServers.login(config, "alice", "secret");
+        try {
+            client.sendCommand(command, argument);
+            return client.getReplyString().trim();
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    void xPrefixedCommandsReachTheChecksumCommand() throws Exception {
+        assertEquals("250 3610a686", reply("XCRC", "f.txt"));
+        assertEquals("251 5d41402abc4b2a76b9719d911017c592", reply("XMD5", "f.txt"));
+        assertEquals("250 aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d", reply("XSHA1", "f.txt"));
+        assertEquals("250 2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824",
+            reply("XSHA256", "f.txt"));
+    }
+
+    @Test
+    void plainMd5AnswersLikeFtpserver() throws Exception {
+        assertEquals("251 f.txt 5D41402ABC4B2A76B9719D911017C592", reply("MD5", "f.txt"));
+    }
+
+    @Test
+    void hashRepliesWithRangeAndName() throws Exception {
+        assertEquals("213 SHA-256 0-4 2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824 f.txt",
+            reply("HASH", "f.txt"));
+    }
+
+    @Test
+    void missingFileIsRefused() throws Exception {
+        assertEquals("550 nope.txt: No such file.", reply("XSHA256", "nope.txt"));
+    }
+}
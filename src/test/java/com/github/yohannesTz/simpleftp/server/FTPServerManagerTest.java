@@ -0,0 +1,127 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.model.UserGroup;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FTPServerManagerTest {
+    @TempDir
+    Path dir;
+
+    private FTPServerManager manager;
+
+    @AfterEach
+    void stop() {
+        if (manager != null && manager.isRunning()) {
+            manager.stopServer();
+        }
+    }
+
+    private ServerConfig start(ServerConfig config) throws Exception {
+        manager = new FTPServerManager(config);
+        manager.startServer();
+        return config;
+    }
+
+    @Test
+    void namedUserCanListAndRetrieveAfterLogin() throws Exception {
+        File home = dir.resolve("alice").toFile();
+        TestServers.writeFile(home, "hello.txt", "hello");
+        ServerConfig config = TestServers.config(dir);
+        config.addUser(new UserAccount("alice", "secret", home.getPath(), FTPPermissions.readOnly(), 0));
+        start(config);
+
+        FTPClient client = TestServers.login(config, "alice", "secret");
+        try {
+            assertArrayEquals(new String[]{"hello.txt"}, client.listNames());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(client.retrieveFile("hello.txt", out), client.getReplyString());
+            assertEquals("hello", new String(out.toByteArray(), StandardCharsets.UTF_8));
+            // Read-only: the granular permissions survive login
+            assertFalse(client.deleteFile("hello.txt"));
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    void anonymousUserCanListAndRetrieve() throws Exception {
+        ServerConfig config = TestServers.config(dir);
+        config.setAnonymousEnabled(true);
+        TestServers.writeFile(new File(config.getAnonymousRoot()), "readme.txt", "public");
+        start(config);
+
+        FTPClient client = TestServers.login(config, "anonymous", "guest@example.com");
+        try {
+            assertArrayEquals(new String[]{"readme.txt"}, client.listNames());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(client.retrieveFile("readme.txt", out), client.getReplyString());
+            assertEquals("public", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    void pathRulesAndGroupPermissionsApplyAfterLogin() throws Exception {
+        File home = dir.resolve("carol").toFile();
+        TestServers.writeFile(home, "notes.txt", "notes");
+        TestServers.writeFile(new File(home, "private"), "secret.txt", "secret");
+        ServerConfig config = TestServers.config(dir);
+        Files.write(new File(config.getAclFile()).toPath(),
+            "user:carol /private/** none\n".getBytes(StandardCharsets.UTF_8));
+        config.putGroup(new UserGroup("editors", FTPPermissions.fullAccess(), 0, 0, 0,
+            Collections.<String>emptyList()));
+        UserAccount carol = new UserAccount("carol", "secret", home.getPath(), FTPPermissions.readOnly(), 0);
+        carol.setGroups(Collections.singletonList("editors"));
+        config.addUser(carol);
+        start(config);
+
+        FTPClient client = TestServers.login(config, "carol", "secret");
+        try {
+            assertEquals(0, client.listNames("/private").length);
+            assertFalse(client.retrieveFile("/private/secret.txt", new ByteArrayOutputStream()));
+            // The group grants full access outside the rule
+            assertTrue(client.storeFile("upload.txt",
+                new ByteArrayInputStream("new".getBytes(StandardCharsets.UTF_8))), client.getReplyString());
+            assertTrue(client.deleteFile("notes.txt"), client.getReplyString());
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    void wrongPasswordIsRejected() throws Exception {
+        File home = dir.resolve("bob").toFile();
+        home.mkdirs();
+        ServerConfig config = TestServers.config(dir);
+        config.addUser(new UserAccount("bob", "secret", home.getPath(), FTPPermissions.fullAccess(), 0));
+        start(config);
+
+        FTPClient client = TestServers.connect(config);
+        try {
+            assertFalse(client.login("bob", "wrong"));
+        } finally {
+            client.disconnect();
+        }
+        assertTrue(Files.isDirectory(home.toPath()));
+    }
+}
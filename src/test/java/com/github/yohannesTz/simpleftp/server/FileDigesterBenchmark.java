@@ -0,0 +1,87 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Digest throughput on large files, cold and through the digest cache. Off by
+ * default; run with -Dbenchmark=true, and -Dbenchmark.sizesMb=1024,10240 to
+ * pick the file sizes (they need that much free space in the temp directory).
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class FileDigesterBenchmark {
+    @TempDir
+    Path dir;
+
+    @Test
+    void digestLargeFiles() throws IOException {
+        for (String size : System.getProperty("benchmark.sizesMb", "1024,10240").split(",")) {
+            File file = dir.resolve(size.trim() + "mb.bin").toFile();
+            write(file, Long.parseLong(size.trim()) << 20);
+            run(file);
+            file.delete();
+        }
+    }
+
+    private static void run(File file) throws IOException {
+        FileDigester parallel = new FileDigester();
+        FileDigester sequential = new FileDigester(new ForkJoinPool(1));
+        DigestCache cache = new DigestCache(new File(file.getParentFile(), "digests.idx"));
+        System.out.printf("%s (%d MB, %d cores)%n", file.getName(), file.length() >> 20,
+            Runtime.getRuntime().availableProcessors());
+        String crc = time("CRC32 parallel", file, () -> parallel.digest(file, FileDigester.CRC32));
+        assertEquals(crc, time("CRC32 one thread", file, () -> sequential.digest(file, FileDigester.CRC32)));
+        time("MD5", file, () -> parallel.digest(file, FileDigester.MD5));
+        time("SHA-1", file, () -> parallel.digest(file, FileDigester.SHA1));
+        String sha = time("SHA-256", file, () -> parallel.digest(file, FileDigester.SHA256));
+        cache.put(FileDigester.SHA256, file.getAbsolutePath(), file.length(), file.lastModified(), sha);
+
+        long start = System.nanoTime();
+        int lookups = 100000;
+        for (int i = 0; i < lookups; i++) {
+            assertEquals(sha, cache.get(FileDigester.SHA256, file.getAbsolutePath(), file.length(),
+                file.lastModified()));
+        }
+        System.out.printf("  cached lookup       %8.0f ns%n", (System.nanoTime() - start) / (double) lookups);
+    }
+
+    private interface Digest {
+        String compute() throws IOException;
+    }
+
+    private static String time(String label, File file, Digest digest) throws IOException {
+        long start = System.nanoTime();
+        String result = digest.compute();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("  %-19s %8.2f s %8.0f MB/s%n", label, seconds, (file.length() >> 20) / seconds);
+        return result;
+    }
+
+    private static void write(File file, long size) throws IOException {
+        byte[] block = new byte[8 << 20];
+        new Random(1).nextBytes(block);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            for (long written = 0; written < size; written += block.length) {
+                // Vary each block so no two are alike
+                block[0]++;
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - written));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+}
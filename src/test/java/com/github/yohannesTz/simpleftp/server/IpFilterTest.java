@@ -0,0 +1,42 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpFilterTest {
+    private static InetAddress ip(String address) throws Exception {
+        return InetAddress.getByName(address);
+    }
+
+    @Test
+    void allowListAdmitsOnlyItsRanges() throws Exception {
+        IpFilter filter = IpFilter.of(Arrays.asList("10.0.0.0/8"), Arrays.asList("10.1.0.0/16"));
+        assertTrue(filter.permits(ip("10.2.3.4")));
+        assertFalse(filter.permits(ip("10.1.3.4")));
+        assertFalse(filter.permits(ip("8.8.8.8")));
+    }
+
+    @Test
+    void invalidAllowEntryRefusesEveryone() throws Exception {
+        IpFilter typo = IpFilter.of(Arrays.asList("10.0.0.0/33"), Collections.<String>emptyList());
+        assertFalse(typo.permits(ip("8.8.8.8")));
+        assertFalse(typo.permits(ip("10.0.0.1")));
+
+        IpFilter mixed = IpFilter.of(Arrays.asList("10.0.0.0/8", "192.168.1.300"), Collections.<String>emptyList());
+        assertFalse(mixed.permits(ip("10.0.0.1")));
+        assertFalse(mixed.permits(ip("192.168.1.30")));
+    }
+
+    @Test
+    void invalidDenyEntryIsSkipped() throws Exception {
+        IpFilter filter = IpFilter.of(Collections.<String>emptyList(), Arrays.asList("nonsense", "10.0.0.0/8"));
+        assertFalse(filter.permits(ip("10.0.0.1")));
+        assertTrue(filter.permits(ip("8.8.8.8")));
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.schema.Schema;
+import org.apache.ftpserver.ftplet.AuthenticationFailedException;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LdapUserManagerTest {
+    private static final String BASE = "dc=example,dc=com";
+
+    private InMemoryDirectoryServer directory;
+    private final AccountUserManager local = new AccountUserManager();
+    private final List<UserAccount> loaded = new ArrayList<>();
+    private LdapUserManager ldap;
+
+    @BeforeEach
+    void start() throws Exception {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+        config.addAdditionalBindCredentials("cn=Directory Manager", "manager");
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap",
+            InetAddress.getLoopbackAddress(), 0, null));
+        config.setSchema((Schema) null); // memberOf is an operational attribute elsewhere
+        directory = new InMemoryDirectoryServer(config);
+        directory.add("dn: " + BASE, "objectClass: domain", "dc: example");
+        directory.add("dn: ou=people," + BASE, "objectClass: organizationalUnit", "ou: people");
+        addUser("alice", "wonderland", "cn=ftpusers,ou=groups," + BASE);
+        addUser("mallory", "secret", "cn=others,ou=groups," + BASE);
+        directory.startListening();
+
+        ldap = create();
+    }
+
+    @AfterEach
+    void stop() {
+        ldap.close();
+        directory.shutDown(true);
+    }
+
+    private void addUser(String uid, String password, String group) throws Exception {
+        directory.add("dn: uid=" + uid + ",ou=people," + BASE, "objectClass: inetOrgPerson", "uid: " + uid,
+            "cn: " + uid, "sn: " + uid, "userPassword: " + password, "memberOf: " + group);
+    }
+
+    private LdapUserManager create() {
+        ServerConfig config = new ServerConfig();
+        config.setLdapUrl("ldap://127.0.0.1:" + directory.getListenPort());
+        config.setLdapBindDn("cn=Directory Manager");
+        config.setLdapBindPassword("manager");
+        config.setLdapUserBase("ou=people," + BASE);
+        config.setLdapGroupPermissions("ftpusers:readonly");
+        config.setLdapFailureCacheSeconds(1);
+        config.setLdapTimeoutMillis(2000);
+        return new LdapUserManager(config, local, loaded::add, account -> {
+            BaseUser user = new BaseUser();
+            user.setName(account.getUsername());
+            user.setHomeDirectory(account.getHomeDirectory());
+            return user;
+        });
+    }
+
+    private User login(String username, String password) throws AuthenticationFailedException {
+        return ldap.authenticate(new UsernamePasswordAuthentication(username, password));
+    }
+
+    @Test
+    void bindChecksThePassword() throws Exception {
+        assertEquals("alice", login("alice", "wonderland").getName());
+        assertThrows(AuthenticationFailedException.class, () -> login("alice", "wrong"));
+        assertThrows(AuthenticationFailedException.class, () -> login("alice", ""));
+        assertThrows(AuthenticationFailedException.class, () -> login("nobody", "wonderland"));
+        // Known to the directory, but in no mapped group
+        assertThrows(AuthenticationFailedException.class, () -> login("mallory", "secret"));
+        assertEquals(0, ldap.getDirectoryErrors());
+    }
+
+    @Test
+    void acceptedLoginIsAnsweredFromTheCache() throws Exception {
+        login("alice", "wonderland");
+        assertEquals(1, loaded.size());
+        long misses = ldap.getCacheMisses();
+
+        directory.shutDown(true);
+        assertEquals("alice", login("alice", "wonderland").getName());
+        assertNotNull(ldap.getUserByName("alice"));
+        assertEquals(misses, ldap.getCacheMisses());
+        assertEquals(0, ldap.getDirectoryErrors());
+        assertEquals(1, loaded.size());
+    }
+
+    @Test
+    void rejectionsAreCachedUntilTheyExpire() throws Exception {
+        assertThrows(AuthenticationFailedException.class, () -> login("alice", "wrong"));
+        assertNull(ldap.getAccount("bob"));
+        addUser("bob", "builder", "cn=ftpusers,ou=groups," + BASE);
+        long misses = ldap.getCacheMisses();
+
+        // Within the failure TTL neither the password nor the unknown user is asked again
+        assertThrows(AuthenticationFailedException.class, () -> login("alice", "wrong"));
+        assertNull(ldap.getAccount("bob"));
+        assertEquals(misses, ldap.getCacheMisses());
+
+        Thread.sleep(1200);
+        assertEquals("bob", login("bob", "builder").getName());
+        assertTrue(ldap.getCacheMisses() > misses);
+    }
+
+    @Test
+    void connectionDroppedByTheServerIsReplaced() throws Exception {
+        assertNotNull(ldap.getAccount("alice"));
+        assertEquals(1, ldap.getIdleConnectionCount());
+        addUser("bob", "builder", "cn=ftpusers,ou=groups," + BASE);
+
+        // The idle connection is still bound as the search account, so it is only found closed once used
+        directory.closeAllConnections(false);
+        assertNotNull(ldap.getAccount("bob"));
+        assertEquals("bob", login("bob", "builder").getName());
+        assertEquals(0, ldap.getDirectoryErrors());
+        assertEquals(1, ldap.getIdleConnectionCount());
+    }
+
+    @Test
+    void localAccountShadowsDirectoryUser() throws Exception {
+        BaseUser alice = new BaseUser();
+        alice.setName("alice");
+        alice.setPassword("local");
+        alice.setHomeDirectory("/srv/alice");
+        local.save(alice);
+
+        assertEquals("/srv/alice", login("alice", "local").getHomeDirectory());
+        assertThrows(AuthenticationFailedException.class, () -> login("alice", "wonderland"));
+        assertEquals("/srv/alice", ldap.getUserByName("alice").getHomeDirectory());
+        assertEquals(0, ldap.getCacheMisses(), "the directory was asked about a local user");
+        assertTrue(loaded.isEmpty());
+    }
+
+    @Test
+    void directoryUsersGetTheirGroupsPermissions() {
+        UserAccount account = ldap.getAccount("alice");
+        assertNotNull(account);
+        assertEquals(FTPPermissions.readOnly(), account.getPermissions());
+        assertEquals("ftpusers", account.getGroups().get(0));
+    }
+}
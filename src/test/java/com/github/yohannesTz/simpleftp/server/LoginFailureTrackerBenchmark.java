@@ -0,0 +1,66 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Cost of recording a failed login, from one thread and from several
+ * contending ones, over many distinct addresses. Off by default; run with
+ * -Dbenchmark=true, and -Dbenchmark.failures=1000000, -Dbenchmark.ips=50000
+ * and -Dbenchmark.threads=8 to pick the load.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class LoginFailureTrackerBenchmark {
+    @Test
+    void recordFailures() throws Exception {
+        int failures = Integer.getInteger("benchmark.failures", 1000000);
+        int ips = Integer.getInteger("benchmark.ips", 50000);
+        int threads = Integer.getInteger("benchmark.threads", 8);
+        String[] keys = new String[ips];
+        for (int i = 0; i < ips; i++) {
+            keys[i] = "10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+        }
+        System.out.printf("%d failures over %d IPs (%d cores)%n", failures, ips,
+            Runtime.getRuntime().availableProcessors());
+        for (int count : new int[] {1, 1, threads}) {
+            run(keys, failures, count);
+        }
+    }
+
+    private static void run(String[] keys, int failures, int threads) throws Exception {
+        // A window long enough that nothing expires during the run
+        LoginFailureTracker tracker = new LoginFailureTracker(3600_000);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                workers.add(pool.submit(() -> {
+                    for (int i = id; i < failures; i += threads) {
+                        tracker.recordFailure(keys[i % keys.length]);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            double nanos = System.nanoTime() - start;
+            System.out.printf("  %d thread(s) %8.2f s %8.2f us per failure%n", threads, nanos / 1e9,
+                nanos / 1e3 / failures);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(Math.min(keys.length, failures), tracker.size());
+        assertEquals((failures + keys.length - 1) / keys.length, tracker.failures(keys[0]));
+    }
+}
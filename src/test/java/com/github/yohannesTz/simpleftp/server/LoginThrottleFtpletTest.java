@@ -0,0 +1,64 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoginThrottleFtpletTest {
+    @TempDir
+    Path dir;
+
+    private FTPServerManager manager;
+
+    @AfterEach
+    void stop() {
+        manager.stopServer();
+    }
+
+    @Test
+    void penalizedLoginsAreRefusedWithoutHoldingAThread() throws Exception {
+        File home = dir.resolve("alice").toFile();
+        home.mkdirs();
+        ServerConfig config = TestServers.config(dir);
+        config.setLoginThrottleEnabled(true);
+        config.setLoginDelayAfterFailures(1);
+        config.setLoginBanAfterFailures(50);
+        config.setUserLockoutAfterFailures(50);
+        config.addUser(new UserAccount("alice", "secret", home.getPath(), FTPPermissions.readOnly(), 0));
+        manager = new FTPServerManager(config);
+        manager.startServer();
+
+        FTPClient client = TestServers.connect(config);
+        try {
+            assertFalse(client.login("alice", "wrong"));
+            // Within the delay even the right password is refused, immediately
+            long start = System.currentTimeMillis();
+            assertFalse(client.login("alice", "secret"));
+            assertEquals(530, client.getReplyCode());
+            assertTrue(System.currentTimeMillis() - start < 200, "login was delayed on the server");
+
+            // Other clients are not held up meanwhile
+            long connectStart = System.currentTimeMillis();
+            FTPClient other = TestServers.connect(config);
+            other.disconnect();
+            assertTrue(System.currentTimeMillis() - connectStart < 200, "connect was delayed");
+
+            // Once the delay (doubled to 500 ms by the refused attempt) is over, logins work again
+            Thread.sleep(600);
+            assertTrue(client.login("alice", "secret"), client.getReplyString());
+        } finally {
+            client.disconnect();
+        }
+    }
+}
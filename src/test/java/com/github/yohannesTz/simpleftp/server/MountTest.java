@@ -0,0 +1,86 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.MountPoint;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class MountTest {
+    @TempDir
+    static Path dir;
+
+    private static FTPServerManager manager;
+    private static ServerConfig config;
+
+    @BeforeAll
+    static void start() throws Exception {
+        File home = dir.resolve("alice").toFile();
+        home.mkdirs();
+        File readable = dir.resolve("shared").toFile();
+        TestServers.writeFile(readable, "visible.txt", "a");
+        File hidden = dir.resolve("dropbox").toFile();
+        TestServers.writeFile(hidden, "secret.txt", "b");
+
+        config = TestServers.config(dir);
+        UserAccount alice = new UserAccount("alice", "secret", home.getPath(), FTPPermissions.fullAccess(), 0);
+        alice.setMounts(Arrays.asList(
+            new MountPoint("/shared", readable.getPath(), true, false),
+            new MountPoint("/dropbox", hidden.getPath(), false, true)));
+        config.addUser(alice);
+        manager = new FTPServerManager(config);
+        manager.startServer();
+    }
+
+    @AfterAll
+    static void stop() {
+        manager.stopServer();
+    }
+
+    private static String[] names(String path) throws Exception {
+        FTPClient client = TestServers.login(config, "alice", "secret");
+        try {
+            FTPFile[] files = client.listFiles(path);
+            String[] names = new String[files.length];
+            for (int i = 0; i < files.length; i++) {
+                names[i] = files[i].getName();
+            }
+            return names;
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    void readableMountIsListed() throws Exception {
+        assertEquals(Arrays.asList("visible.txt"), Arrays.asList(names("/shared")));
+    }
+
+    @Test
+    void unreadableMountListsNothing() throws Exception {
+        assertEquals(0, names("/dropbox").length);
+        assertEquals(0, names("/dropbox/").length);
+    }
+
+    @Test
+    void unreadableMountCannotBeEntered() throws Exception {
+        FTPClient client = TestServers.login(config, "alice", "secret");
+        try {
+            assertFalse(client.changeWorkingDirectory("/dropbox"));
+        } finally {
+            client.disconnect();
+        }
+    }
+}
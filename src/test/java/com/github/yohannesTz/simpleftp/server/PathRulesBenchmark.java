@@ -0,0 +1,152 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Permission checks against a large rule set: through the trie with the
+ * directory memoised, with a cold walk for every check, and as a linear scan
+ * of the rules' globs for comparison. Off by default; run with
+ * -Dbenchmark=true, and -Dbenchmark.users=2000 to pick the number of users
+ * (each has 3 rules, plus one group rule per 10 users).
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PathRulesBenchmark {
+    private static final int CHECKS = 200000;
+
+    @Test
+    void resolve() {
+        int users = Integer.getInteger("benchmark.users", 2000);
+        int groups = Math.max(1, users / 10);
+        PathRules.Builder builder = new PathRules.Builder();
+        List<Rule> scan = new ArrayList<>();
+        for (int u = 0; u < users; u++) {
+            String user = "user:u" + u;
+            add(builder, scan, user, "/home/u" + u + "/**", FTPPermissions.fullAccess());
+            add(builder, scan, user, "/home/u" + u + "/inbox/*.tmp", FTPPermissions.readOnly());
+            add(builder, scan, user, "/projects/p" + u % 100 + "/u" + u + "/**", FTPPermissions.fullAccess());
+        }
+        for (int g = 0; g < groups; g++) {
+            add(builder, scan, "group:g" + g, "/shared/g" + g + "/**/archive/**", FTPPermissions.readOnly());
+        }
+        PathRules rules = builder.build();
+
+        // Paths 4 to 7 segments deep, each checked as the user who owns them
+        Random random = new Random(1);
+        int directories = 50000;
+        String[] dirs = new String[directories];
+        String[] paths = new String[directories];
+        String[] files = new String[directories];
+        String[] owners = new String[directories];
+        List<List<String>> memberships = new ArrayList<>();
+        for (int i = 0; i < directories; i++) {
+            int u = random.nextInt(users);
+            StringBuilder path = new StringBuilder(random.nextBoolean() ? "/home/u" + u
+                : "/shared/g" + u % groups + "/archive");
+            for (int depth = 2 + random.nextInt(4); depth > 0; depth--) {
+                path.append("/d").append(random.nextInt(8));
+            }
+            dirs[i] = path.toString();
+            paths[i] = dirs[i] + "/file";
+            // Many files in the first 1000 directories, for the memoised case
+            files[i] = dirs[i % 1000] + "/file" + i / 1000;
+            owners[i] = "u" + u;
+            memberships.add(Collections.singletonList("g" + u % groups));
+        }
+        System.out.printf("%d rules, %d directories%n", rules.size(), directories);
+
+        // The same 1000 directories: only the file name is stepped
+        int memoised = time("trie, memoised", i -> rules.resolve(files[i % directories], owners[i % 1000],
+            memberships.get(i % 1000)));
+        // More directories than the memo holds: every check walks the whole path
+        int cold = time("trie, cold walk", i -> rules.resolve(paths[i % directories], owners[i % directories],
+            memberships.get(i % directories)));
+        int scanned = time("linear scan", i -> scan(scan, paths[i % directories], "user:" + owners[i % directories],
+            "group:" + memberships.get(i % directories).get(0)));
+        assertEquals(cold, scanned);
+        assertTrue(memoised > 0);
+
+        String sample = "/home/u0/inbox/draft.tmp";
+        assertEquals(FTPPermissions.readOnly(), rules.resolve(sample, "u0", Collections.emptyList()));
+        assertEquals(FTPPermissions.readOnly(), scan(scan, sample, "user:u0", "group:"));
+    }
+
+    private interface Check {
+        FTPPermissions run(int i);
+    }
+
+    private static int time(String label, Check check) {
+        int matched = 0;
+        // Warm up, then measure
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            matched = 0;
+            for (int i = 0; i < CHECKS; i++) {
+                if (check.run(i) != null) {
+                    matched++;
+                }
+            }
+            double micros = (System.nanoTime() - start) / 1e3 / CHECKS;
+            if (round == 1) {
+                System.out.printf("  %-16s %8.2f us per check (%d matched)%n", label, micros, matched);
+            }
+        }
+        return matched;
+    }
+
+    private static void add(PathRules.Builder builder, List<Rule> scan, String subject, String pattern,
+                            FTPPermissions permissions) {
+        builder.add(subject, pattern, permissions);
+        scan.add(new Rule(subject, pattern, permissions));
+    }
+
+    /**
+     * The most specific matching rule by the number of literal characters, user rules first
+     */
+    private static FTPPermissions scan(List<Rule> rules, String path, String userSubject, String groupSubject) {
+        Rule best = null;
+        for (Rule rule : rules) {
+            if (rule.appliesTo(userSubject, groupSubject) && rule.glob.matcher(path).matches()
+                    && (best == null || rule.rank() > best.rank())) {
+                best = rule;
+            }
+        }
+        return best == null ? null : best.permissions;
+    }
+
+    private static class Rule {
+        final String subject;
+        final Pattern glob;
+        final String pattern;
+        final FTPPermissions permissions;
+        final int rank;
+
+        Rule(String subject, String pattern, FTPPermissions permissions) {
+            this.subject = subject;
+            this.pattern = pattern;
+            this.permissions = permissions;
+            // "/**" also matches no segments at all
+            this.glob = Pattern.compile(pattern.replace(".", "\\.").replace("/**", "\u0000")
+                .replace("*", "[^/]*").replace("\u0000", "(/.*)?"));
+            this.rank = pattern.replace("*", "").length() * 2 + (subject.startsWith("user:") ? 1 : 0);
+        }
+
+        boolean appliesTo(String userSubject, String groupSubject) {
+            return subject.equals(userSubject) || subject.equals(groupSubject) || subject.equals("*");
+        }
+
+        int rank() {
+            return rank;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuotaTest {
+    @TempDir
+    Path dir;
+
+    private File home;
+    private FTPServerManager manager;
+    private FTPClient client;
+
+    private void start(long quotaBytes, int quotaFiles) throws Exception {
+        home = dir.resolve("alice").toFile();
+        home.mkdirs();
+        ServerConfig config = TestServers.config(dir);
+        UserAccount alice = new UserAccount("alice", "secret", home.getPath(), FTPPermissions.fullAccess(), 0);
+        alice.setQuotaBytes(quotaBytes);
+        alice.setQuotaFiles(quotaFiles);
+        config.addUser(alice);
+        manager = new FTPServerManager(config);
+        manager.startServer();
+        client = TestServers.login(config, "alice", "secret");
+        client.setFileType(FTP.BINARY_FILE_TYPE);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        if (client != null) {
+            client.disconnect();
+        }
+        if (manager != null) {
+            manager.stopServer();
+        }
+    }
+
+    private boolean store(String name, int size) throws Exception {
+        return client.storeFile(name, new ByteArrayInputStream(new byte[size]));
+    }
+
+    private UsageTracker.Usage usage() {
+        return manager.getUsageTracker().get(home.getPath());
+    }
+
+    /**
+     * Waits for the usage to be counted: replies are sent before the ftplet sees the command end
+     */
+    private void assertUsage(long bytes, long files) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((usage().getBytes() != bytes || usage().getFiles() != files) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(bytes, usage().getBytes());
+        assertEquals(files, usage().getFiles());
+    }
+
+    private long bytesOnDisk() {
+        long total = 0;
+        for (File file : home.listFiles()) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    @Test
+    void uploadsStopAtTheByteQuota() throws Exception {
+        start(1000, 0);
+        assertTrue(store("a.bin", 600), client.getReplyString());
+        assertUsage(600, 1);
+
+        // Room is left when it starts, but not for all of it
+        assertFalse(store("b.bin", 600));
+        assertTrue(new File(home, "b.bin").length() <= 400);
+        assertUsage(bytesOnDisk(), 2);
+        assertTrue(client.deleteFile("b.bin"), client.getReplyString());
+        assertUsage(600, 1);
+
+        assertTrue(store("c.bin", 400), client.getReplyString());
+        assertUsage(1000, 2);
+        // Used up: refused before any data is sent
+        assertFalse(store("d.bin", 1));
+        assertEquals(552, client.getReplyCode());
+        assertFalse(new File(home, "d.bin").exists());
+    }
+
+    @Test
+    void overwriteMayReuseTheRoomOfTheFileItReplaces() throws Exception {
+        start(1000, 0);
+        assertTrue(store("a.bin", 900), client.getReplyString());
+        assertUsage(900, 1);
+        assertTrue(store("a.bin", 1000), client.getReplyString());
+        assertUsage(1000, 1);
+    }
+
+    @Test
+    void fileQuotaCountsNewFilesOnly() throws Exception {
+        start(0, 2);
+        assertTrue(store("x.bin", 10), client.getReplyString());
+        assertTrue(store("y.bin", 10), client.getReplyString());
+        assertUsage(20, 2);
+        assertFalse(store("z.bin", 10));
+        assertEquals(552, client.getReplyCode());
+
+        assertTrue(store("x.bin", 20), client.getReplyString());
+        assertTrue(client.appendFile("y.bin", new ByteArrayInputStream(new byte[5])), client.getReplyString());
+        assertUsage(35, 2);
+
+        assertTrue(client.deleteFile("y.bin"), client.getReplyString());
+        assertUsage(20, 1);
+        assertTrue(store("z.bin", 10), client.getReplyString());
+    }
+
+    @Test
+    void renameOverAFileReleasesIt() throws Exception {
+        start(1000, 0);
+        assertTrue(store("a.bin", 600), client.getReplyString());
+        assertTrue(store("b.bin", 300), client.getReplyString());
+        assertUsage(900, 2);
+
+        assertTrue(client.rename("b.bin", "a.bin"), client.getReplyString());
+        assertUsage(300, 1);
+        assertTrue(store("c.bin", 700), client.getReplyString());
+    }
+
+    @Test
+    void stouIsCountedByARescan() throws Exception {
+        start(1000, 0);
+        assertTrue(client.storeUniqueFile(new ByteArrayInputStream(new byte[700])), client.getReplyString());
+        assertUsage(700, 1);
+        assertFalse(store("more.bin", 400));
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResumableUploadTest {
+    private static final int SIZE = 4 * 1024 * 1024;
+    private static final int CUTS = 6;
+    private static final Pattern PASV = Pattern.compile("(\\d+),(\\d+),(\\d+),(\\d+),(\\d+),(\\d+)");
+
+    @TempDir
+    Path dir;
+
+    private FTPServerManager manager;
+
+    @AfterEach
+    void stop() {
+        if (manager != null) {
+            manager.stopServer();
+        }
+    }
+
+    /**
+     * Opens a passive data connection by hand, so the test can reset it instead of closing it
+     */
+    private static Socket openData(FTPClient client) throws IOException {
+        assertEquals(FTPReply.ENTERING_PASSIVE_MODE, client.pasv(), client.getReplyString());
+        Matcher m = PASV.matcher(client.getReplyString());
+        assertTrue(m.find(), client.getReplyString());
+        int port = Integer.parseInt(m.group(5)) * 256 + Integer.parseInt(m.group(6));
+        return new Socket(InetAddress.getLoopbackAddress(), port);
+    }
+
+    private SessionInfo session(String username) {
+        for (SessionInfo session : manager.getSessionRegistry().getSessions()) {
+            if (username.equals(session.getUsername())) {
+                return session;
+            }
+        }
+        throw new AssertionError("No session of " + username);
+    }
+
+    @Test
+    void uploadCutAtRandomOffsetsResumesToTheSameFile() throws Exception {
+        File home = dir.resolve("field").toFile();
+        home.mkdirs();
+        ServerConfig config = TestServers.config(dir);
+        config.addUser(new UserAccount("field", "secret", home.getPath(), FTPPermissions.fullAccess(), 0));
+        manager = new FTPServerManager(config);
+        manager.startServer();
+
+        byte[] content = new byte[SIZE];
+        Random random = new Random(7);
+        random.nextBytes(content);
+
+        FTPClient client = TestServers.login(config, "field", "secret");
+        try {
+            client.setFileType(FTP.BINARY_FILE_TYPE);
+            long sent = 0;
+            long lost = 0;
+            int offset = 0;
+            for (int attempt = 0; ; attempt++) {
+                boolean last = attempt == CUTS;
+                int end = last ? SIZE : offset + 1 + random.nextInt((SIZE - offset) / 2);
+                try (Socket data = openData(client)) {
+                    if (offset > 0) {
+                        assertEquals(FTPReply.FILE_ACTION_PENDING, client.rest(String.valueOf(offset)),
+                            client.getReplyString());
+                    }
+                    assertTrue(FTPReply.isPositivePreliminary(client.sendCommand("STOR", "data.bin")),
+                        client.getReplyString());
+                    OutputStream out = data.getOutputStream();
+                    out.write(content, offset, end - offset);
+                    out.flush();
+                    sent += end - offset;
+                    if (!last) {
+                        // Drop the link: a reset, not the end of the file
+                        data.setSoLinger(true, 0);
+                    }
+                }
+                int reply = client.getReply();
+                if (last) {
+                    assertEquals(FTPReply.CLOSING_DATA_CONNECTION, reply, client.getReplyString());
+                    break;
+                }
+
+                // Continue from what the server kept, which may be less than was sent
+                String size = client.getSize("data.bin");
+                int kept = size == null ? 0 : Integer.parseInt(size.trim());
+                assertTrue(kept >= offset && kept <= end, "kept " + kept + " of " + offset + ".." + end);
+                lost += end - kept;
+                offset = kept;
+            }
+
+            assertArrayEquals(content, Files.readAllBytes(home.toPath().resolve("data.bin")));
+            // The client re-sent only what resets dropped, and the server wrote every byte exactly once
+            assertEquals(SIZE + lost, sent);
+            assertEquals(SIZE, session("field").getBytesTransferred());
+        } finally {
+            client.disconnect();
+        }
+    }
+}
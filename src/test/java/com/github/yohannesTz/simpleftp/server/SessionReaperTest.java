@@ -0,0 +1,91 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class SessionReaperTest {
+    private final SessionRegistry registry = new SessionRegistry();
+    private final Map<UUID, String> closed = new ConcurrentHashMap<>();
+    private SessionReaper reaper;
+
+    @AfterEach
+    void stop() {
+        reaper.stop();
+    }
+
+    private SessionReaper start(int loginTimeout, int idle, int stall) {
+        ServerConfig config = new ServerConfig();
+        config.setLoginTimeoutSeconds(loginTimeout);
+        config.setSessionIdleSeconds(idle);
+        config.setTransferStallSeconds(stall);
+        reaper = new SessionReaper(config, registry, expired -> {
+            closed.putAll(expired);
+            expired.keySet().forEach(registry::unregister);
+        });
+        reaper.start();
+        return reaper;
+    }
+
+    private static void await(Map<UUID, String> closed, UUID id, long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while (!closed.containsKey(id) && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    void sessionIsClosedOnceALongCommandFinishes() throws Exception {
+        start(0, 1, 0);
+        SessionInfo info = registry.register(UUID.randomUUID(), "127.0.0.1");
+        info.setUsername("alice");
+        info.commandStarted("MD5", null);
+        reaper.watch(info);
+
+        Thread.sleep(2500);
+        assertFalse(closed.containsKey(info.getId()), "closed while its command was running");
+        info.commandFinished();
+        await(closed, info.getId(), 5000);
+        assertEquals(SessionReaper.IDLE, closed.get(info.getId()));
+    }
+
+    @Test
+    void sessionWatchedBeforeLoginIsClosedWhenIdleWithoutLoginTimeout() throws Exception {
+        start(0, 1, 0);
+        SessionInfo info = registry.register(UUID.randomUUID(), "127.0.0.1");
+        reaper.watch(info);
+        Thread.sleep(500);
+        info.setUsername("alice");
+        info.commandFinished();
+        await(closed, info.getId(), 5000);
+        assertEquals(SessionReaper.IDLE, closed.get(info.getId()));
+    }
+
+    @Test
+    void listingProgressKeepsATransferAlive() throws Exception {
+        start(0, 0, 1);
+        SessionInfo info = registry.register(UUID.randomUUID(), "127.0.0.1");
+        info.setUsername("alice");
+        info.commandStarted("LIST", null);
+        reaper.watch(info);
+        registry.bind(info);
+        try {
+            for (int i = 0; i < 25; i++) {
+                registry.listingProgress();
+                Thread.sleep(100);
+            }
+        } finally {
+            registry.unbind();
+        }
+        assertFalse(closed.containsKey(info.getId()), "listing making progress was closed as stalled");
+        await(closed, info.getId(), 5000);
+        assertEquals(SessionReaper.STALLED, closed.get(info.getId()));
+    }
+}
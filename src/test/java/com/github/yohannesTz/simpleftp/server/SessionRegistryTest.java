@@ -0,0 +1,117 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionRegistryTest {
+    @TempDir
+    Path dir;
+
+    private ServerConfig config;
+    private FTPServerManager manager;
+
+    @BeforeEach
+    void start() throws Exception {
+        File home = dir.resolve("bob").toFile();
+        home.mkdirs();
+        config = TestServers.config(dir);
+        config.addUser(new UserAccount("bob", "secret", home.getPath(), FTPPermissions.fullAccess(), 0));
+        manager = new FTPServerManager(config);
+        manager.startServer();
+    }
+
+    @AfterEach
+    void stop() {
+        manager.stopServer();
+    }
+
+    private SessionInfo awaitSession(String username) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < end) {
+            for (SessionInfo session : manager.getSessionRegistry().getSessions()) {
+                if (username.equals(session.getUsername())) {
+                    return session;
+                }
+            }
+            Thread.sleep(20);
+        }
+        return null;
+    }
+
+    private void awaitGone(SessionInfo session) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (manager.getSessionRegistry().get(session.getId()) != null && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertNull(manager.getSessionRegistry().get(session.getId()), "session still registered");
+    }
+
+    private static boolean isConnected(FTPClient client) {
+        try {
+            return client.sendNoOp();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Test
+    void killedIdleSessionIsDisconnected() throws Exception {
+        FTPClient client = TestServers.login(config, "bob", "secret");
+        try {
+            SessionInfo session = awaitSession("bob");
+            assertNotNull(session);
+            assertTrue(manager.disconnectSession(session.getId()));
+
+            awaitGone(session);
+            assertFalse(isConnected(client));
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    void killedSessionLosesItsTransfer() throws Exception {
+        FTPClient client = TestServers.login(config, "bob", "secret");
+        try {
+            client.setFileType(FTP.BINARY_FILE_TYPE);
+            OutputStream upload = client.storeFileStream("big.bin");
+            assertNotNull(upload, client.getReplyString());
+            byte[] chunk = new byte[64 * 1024];
+            upload.write(chunk);
+            upload.flush();
+            SessionInfo session = awaitSession("bob");
+            assertNotNull(session);
+            assertTrue(manager.disconnectSession(session.getId()));
+
+            // The server stops reading, so the client's writes fail once the socket buffers are full
+            assertThrows(IOException.class, () -> {
+                for (int i = 0; i < 4096; i++) {
+                    upload.write(chunk);
+                }
+                upload.close();
+            });
+            awaitGone(session);
+            assertFalse(isConnected(client));
+        } finally {
+            client.disconnect();
+        }
+    }
+}
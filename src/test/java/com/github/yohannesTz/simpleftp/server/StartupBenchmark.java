@@ -0,0 +1,106 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import com.github.yohannesTz.simpleftp.server.fs.HomeProvisioner;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Time until the server accepts connections with many local accounts, and the
+ * cost of creating home directories on login instead. Off by default; run with
+ * -Dbenchmark=true, and -Dbenchmark.users=50000 to pick the number of accounts
+ * (-Djava.io.tmpdir on the storage to measure, e.g. a network mount).
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class StartupBenchmark {
+    private static final int THREADS = 8;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void timeToListening() throws Exception {
+        int users = Integer.getInteger("benchmark.users", 50000);
+        System.out.printf("%d accounts (%d cores)%n", users, Runtime.getRuntime().availableProcessors());
+        List<UserAccount> accounts = accounts(users, "homes");
+        ServerConfig config = TestServers.config(dir);
+        config.setUsers(accounts);
+
+        FTPServerManager manager = new FTPServerManager(config);
+        long start = System.nanoTime();
+        manager.startServer();
+        try {
+            FTPClient client = TestServers.connect(config);
+            System.out.printf("  listening after         %8.1f ms%n", (System.nanoTime() - start) / 1e6);
+            client.disconnect();
+        } finally {
+            manager.stopServer();
+        }
+        assertFalse(new File(accounts.get(0).getHomeDirectory()).exists(), "homes were created at startup");
+
+        // What startup did before: every home, one after the other
+        start = System.nanoTime();
+        for (UserAccount account : accounts) {
+            new File(account.getHomeDirectory()).mkdirs();
+        }
+        System.out.printf("  eager pass, new tree    %8.1f ms%n", (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        for (UserAccount account : accounts) {
+            new File(account.getHomeDirectory()).isDirectory();
+        }
+        System.out.printf("  eager pass, existing    %8.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        HomeProvisioner provisioner = new HomeProvisioner();
+        List<UserAccount> fresh = accounts(users, "lazy");
+        start = System.nanoTime();
+        for (UserAccount account : fresh) {
+            assertTrue(provisioner.provision(account));
+        }
+        System.out.printf("  first login             %8.0f ns%n", (System.nanoTime() - start) / (double) users);
+        start = System.nanoTime();
+        for (UserAccount account : fresh) {
+            assertTrue(provisioner.provision(account));
+        }
+        System.out.printf("  repeat login            %8.0f ns%n", (System.nanoTime() - start) / (double) users);
+
+        List<UserAccount> background = accounts(users, "background");
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            start = System.nanoTime();
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (UserAccount account : background) {
+                results.add(pool.submit(() -> provisioner.provision(account)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            System.out.printf("  background, %d threads  %8.1f ms%n", THREADS, (System.nanoTime() - start) / 1e6);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<UserAccount> accounts(int users, String parent) {
+        List<UserAccount> accounts = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            String home = dir.resolve(parent).resolve("user" + i).toString();
+            accounts.add(new UserAccount(parent + i, "secret", home, FTPPermissions.readOnly(), 0));
+        }
+        return accounts;
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.config.UserStore;
+import com.github.yohannesTz.simpleftp.model.FTPPermissions;
+import com.github.yohannesTz.simpleftp.model.UserAccount;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class StoreUserManagerTest {
+    @TempDir
+    Path dir;
+
+    private UserStore store;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = UserStore.open(dir.toFile());
+        store.put(account(1));
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        store.close();
+    }
+
+    private static UserAccount account(long quotaBytes) {
+        UserAccount account = new UserAccount("alice", "secret", "/home/alice", FTPPermissions.readOnly(), 300);
+        account.setQuotaBytes(quotaBytes);
+        return account;
+    }
+
+    private StoreUserManager manager(Consumer<UserAccount> onLoad) {
+        return new StoreUserManager(store, 10, null, onLoad, account -> null);
+    }
+
+    @Test
+    void accountIsCachedUntilInvalidated() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+        StoreUserManager manager = manager(account -> loads.incrementAndGet());
+        UserAccount first = manager.getAccount("alice");
+        assertSame(first, manager.getAccount("alice"));
+
+        store.put(account(2));
+        assertSame(first, manager.getAccount("alice"));
+        manager.invalidate("alice");
+        assertEquals(2, manager.getAccount("alice").getQuotaBytes());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void accountEditedWhileBeingReadIsNotCached() {
+        StoreUserManager[] manager = new StoreUserManager[1];
+        AtomicInteger loads = new AtomicInteger();
+        manager[0] = manager(account -> {
+            if (loads.incrementAndGet() == 1) {
+                // The edit lands between the read and the caching of the account
+                try {
+                    store.put(account(2));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                manager[0].invalidate("alice");
+            }
+        });
+
+        assertEquals(1, manager[0].getAccount("alice").getQuotaBytes());
+        assertEquals(0, manager[0].getCachedCount());
+        assertEquals(2, manager[0].getAccount("alice").getQuotaBytes());
+        assertEquals(1, manager[0].getCachedCount());
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.yohannesTz.simpleftp.server;
+
+import com.github.yohannesTz.simpleftp.model.ServerConfig;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * Helpers for tests that run a real server on a free loopback port
+ */
+final class TestServers {
+    private TestServers() {
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * A configuration without the default admin account, listening on a free loopback port
+     */
+    static ServerConfig config(Path dir) throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setUsers(Collections.emptyList());
+        config.setPort(freePort());
+        config.setServerAddress("127.0.0.1");
+        config.setBaseFolder(dir.toString());
+        config.setAnonymousRoot(dir.resolve("pub").toString());
+        config.setIpAllowFile(dir.resolve("ip-allow.txt").toString());
+        config.setIpDenyFile(dir.resolve("ip-deny.txt").toString());
+        config.setAclFile(dir.resolve("acl.txt").toString());
+        config.setLoginThrottleEnabled(false);
+        return config;
+    }
+
+    static File writeFile(File dir, String name, String content) throws IOException {
+        dir.mkdirs();
+        File file = new File(dir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    static FTPClient connect(ServerConfig config) throws IOException {
+        FTPClient client = new FTPClient();
+        client.setDefaultTimeout(10000);
+        client.connect("127.0.0.1", config.getPort());
+        if (!FTPReply.isPositiveCompletion(client.getReplyCode())) {
+            throw new IOException("Server refused connection: " + client.getReplyString());
+        }
+        return client;
+    }
+
+    static FTPClient login(ServerConfig config, String username, String password) throws IOException {
+        FTPClient client = connect(config);
+        if (!client.login(username, password)) {
+            throw new IOException("Login failed: " + client.getReplyString());
+        }
+        client.enterLocalPassiveMode();
+        return client;
+    }
+}
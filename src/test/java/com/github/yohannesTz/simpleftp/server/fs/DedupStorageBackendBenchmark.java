@@ -0,0 +1,84 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Upload throughput with and without inline hashing, and the space saved when
+ * many users upload the same files. Off by default; run with -Dbenchmark=true,
+ * and -Dbenchmark.totalMb=256, -Dbenchmark.fileMb=16 and -Dbenchmark.users=40
+ * to pick the amount written per run, the file size and the number of users.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class DedupStorageBackendBenchmark {
+    private static final int WRITE_SIZE = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void uploadThroughput() throws IOException {
+        int totalMb = Integer.getInteger("benchmark.totalMb", 256);
+        int fileMb = Integer.getInteger("benchmark.fileMb", 16);
+        ContentStore store = ContentStore.open(dir.resolve("store").toFile());
+        System.out.printf("%d MB of unique %d MB files, %d KB writes%n", totalMb, fileMb, WRITE_SIZE >> 10);
+        for (int run = 0; run < 2; run++) {
+            time("plain", new LocalStorageBackend(home("plain" + run)), totalMb, fileMb);
+            time("hashed", new DedupStorageBackend(home("hashed" + run), store), totalMb, fileMb);
+        }
+    }
+
+    @Test
+    void identicalUploads() throws IOException {
+        int users = Integer.getInteger("benchmark.users", 40);
+        int fileMb = Integer.getInteger("benchmark.fileMb", 16);
+        ContentStore store = ContentStore.open(dir.resolve("store").toFile());
+        long start = System.nanoTime();
+        for (int user = 0; user < users; user++) {
+            DedupStorageBackend backend = new DedupStorageBackend(home("user" + user), store);
+            for (int file = 0; file < 4; file++) {
+                write(backend, "/file" + file + ".bin", (long) fileMb << 20, file);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d users x 4 x %d MB: %.2f s, %d MB stored, %d MB saved, %d deduplicated%n", users,
+            fileMb, seconds, store.getStoredBytes() >> 20, store.getSavedBytes() >> 20, store.getDedupedUploads());
+        assertEquals(4, store.getContentCount());
+    }
+
+    private File home(String name) {
+        File home = dir.resolve(name).toFile();
+        home.mkdirs();
+        return home;
+    }
+
+    private static void time(String label, StorageBackend backend, int totalMb, int fileMb) throws IOException {
+        long start = System.nanoTime();
+        for (int file = 0; file < totalMb / fileMb; file++) {
+            // Seeded by label and file so no two uploads are alike
+            write(backend, "/file" + file + ".bin", (long) fileMb << 20, label.hashCode() * 31L + file);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("  %-8s %8.2f s %8.0f MB/s%n", label, seconds, totalMb / seconds);
+    }
+
+    private static void write(StorageBackend backend, String path, long size, long seed) throws IOException {
+        byte[] block = new byte[WRITE_SIZE];
+        new Random(seed).nextBytes(block);
+        try (OutputStream out = backend.openWrite(path, 0)) {
+            for (long written = 0; written < size; written += block.length) {
+                block[0]++;
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+}
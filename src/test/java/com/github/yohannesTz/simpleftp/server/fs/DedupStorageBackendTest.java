@@ -0,0 +1,169 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DedupStorageBackendTest {
+    private static final String SHARED = "the same report, uploaded by everyone";
+
+    @TempDir
+    Path dir;
+
+    private ContentStore store;
+    private DedupStorageBackend alice;
+    private DedupStorageBackend bob;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = ContentStore.open(dir.resolve("store").toFile());
+        alice = backend("alice");
+        bob = backend("bob");
+    }
+
+    private DedupStorageBackend backend(String user) {
+        File home = dir.resolve(user).toFile();
+        home.mkdirs();
+        return new DedupStorageBackend(home, store);
+    }
+
+    private static void upload(StorageBackend backend, String path, long offset, String content) throws IOException {
+        try (OutputStream out = backend.openWrite(path, offset)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String read(StorageBackend backend, String path) throws IOException {
+        return new String(Files.readAllBytes(backend.toFile(path).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static int links(StorageBackend backend, String path) throws IOException {
+        return ContentStore.links(backend.toFile(path).toPath());
+    }
+
+    private static void assertNoTempFiles(LocalStorageBackend backend) {
+        for (String name : backend.getRoot().list()) {
+            assertFalse(UploadStaging.isStagingName(name), "temp file left: " + name);
+        }
+    }
+
+    @Test
+    void identicalUploadsShareContentUntilTheLastIsDeleted() throws IOException {
+        upload(alice, "/report.txt", 0, SHARED);
+        upload(bob, "/copy.txt", 0, SHARED);
+
+        assertEquals(1, store.getContentCount());
+        assertEquals(1, store.getDedupedUploads());
+        assertEquals(SHARED.length(), store.getStoredBytes());
+        assertEquals(SHARED.length(), store.getSavedBytes());
+        assertEquals(3, links(alice, "/report.txt"));
+        assertNoTempFiles(alice);
+        assertNoTempFiles(bob);
+
+        assertTrue(alice.delete("/report.txt"));
+        assertEquals(1, store.getContentCount());
+        assertEquals(0, store.getSavedBytes());
+        assertEquals(2, links(bob, "/copy.txt"));
+
+        assertTrue(bob.delete("/copy.txt"));
+        assertEquals(0, store.getContentCount());
+        assertEquals(0, store.getStoredBytes());
+    }
+
+    @Test
+    void renameOverALinkToTheSameContentRemovesTheSource() throws IOException {
+        upload(alice, "/a.txt", 0, SHARED);
+        upload(alice, "/b.txt", 0, SHARED);
+        assertEquals(3, links(alice, "/b.txt"));
+
+        assertTrue(alice.rename("/a.txt", "/b.txt"));
+        assertFalse(alice.toFile("/a.txt").exists());
+        assertEquals(SHARED, read(alice, "/b.txt"));
+        assertEquals(2, links(alice, "/b.txt"));
+        assertEquals(1, store.getContentCount());
+
+        // Renaming over other content releases the content replaced
+        upload(alice, "/c.txt", 0, "something else");
+        assertEquals(2, store.getContentCount());
+        assertTrue(alice.rename("/c.txt", "/b.txt"));
+        assertEquals("something else", read(alice, "/b.txt"));
+        assertEquals(1, store.getContentCount());
+    }
+
+    @Test
+    void appendGivesTheFileItsOwnCopy() throws IOException {
+        upload(alice, "/report.txt", 0, SHARED);
+        upload(bob, "/report.txt", 0, SHARED);
+
+        upload(alice, "/report.txt", SHARED.length(), " and more");
+        assertEquals(SHARED + " and more", read(alice, "/report.txt"));
+        assertNull(store.referenceOf(alice.toFile("/report.txt").toPath()));
+        assertEquals(1, links(alice, "/report.txt"));
+        assertEquals(SHARED, read(bob, "/report.txt"));
+        assertEquals(2, links(bob, "/report.txt"));
+        assertNoTempFiles(alice);
+    }
+
+    @Test
+    void resumedUploadGivesTheFileItsOwnCopy() throws IOException {
+        upload(alice, "/report.txt", 0, SHARED);
+        upload(bob, "/report.txt", 0, SHARED);
+
+        // REST 4 then STOR: the rest of the file is sent again from offset 4
+        upload(alice, "/report.txt", 4, "revised");
+        assertEquals("the revised", read(alice, "/report.txt"));
+        assertEquals(SHARED, read(bob, "/report.txt"));
+        assertEquals(2, links(bob, "/report.txt"));
+        assertEquals(1, store.getContentCount());
+    }
+
+    @Test
+    void reopeningDropsContentNobodyRefersTo() throws IOException {
+        upload(alice, "/kept.txt", 0, SHARED);
+        upload(alice, "/moved.txt", 0, "moved away while the server was stopped");
+        assertEquals(2, store.getContentCount());
+        Files.move(alice.toFile("/moved.txt").toPath(), dir.resolve("elsewhere.txt"));
+        Files.delete(dir.resolve("elsewhere.txt"));
+
+        store = ContentStore.open(dir.resolve("store").toFile());
+        assertEquals(1, store.getContentCount());
+        assertEquals(SHARED.length(), store.getStoredBytes());
+        assertNotNull(store.referenceOf(alice.toFile("/kept.txt").toPath()));
+    }
+
+    @Test
+    void atomicUploadReleasesTheContentItReplaces() throws IOException {
+        UploadStaging staging = new UploadStaging();
+        upload(alice, "/report.txt", 0, "first draft");
+        upload(bob, "/report.txt", 0, SHARED);
+        assertEquals(2, store.getContentCount());
+
+        try (OutputStream out = staging.open(alice, "/report.txt")) {
+            out.write(SHARED.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(SHARED, read(alice, "/report.txt"));
+        assertEquals(1, store.getContentCount());
+        assertEquals(3, links(alice, "/report.txt"));
+
+        // The same content again: the temp link is dropped instead of renamed over its twin
+        try (OutputStream out = staging.open(alice, "/report.txt")) {
+            out.write(SHARED.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(3, links(alice, "/report.txt"));
+        assertEquals(SHARED.length(), store.getSavedBytes());
+        assertNoTempFiles(alice);
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class MemoryChunkPoolTest {
+    private static final int CHUNKS = 64;
+    private static final int WRITERS = 4;
+
+    private static byte[] content(int seed, int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) seed);
+        return data;
+    }
+
+    private static byte[] read(StorageBackend backend, String path) throws IOException {
+        try (InputStream in = backend.openRead(path, 0)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    void concurrentAppendsEvictEachOthersFilesWithoutDeadlock() throws Exception {
+        MemoryChunkPool pool = new MemoryChunkPool((long) CHUNKS * MemoryChunkPool.CHUNK_SIZE, true);
+        ExecutorService threads = Executors.newFixedThreadPool(WRITERS + 1);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                int id = w;
+                writers.add(threads.submit(() -> {
+                    MemoryStorageBackend backend = pool.backendFor("user" + id);
+                    for (int i = 0; i < 200; i++) {
+                        // Files of 12 chunks: with all writers and the reader at it the pool still fits, but it keeps evicting
+                        byte[] data = content(id * 31 + i, 11 * MemoryChunkPool.CHUNK_SIZE + 100);
+                        try (OutputStream out = backend.openWrite("/file" + i, 0)) {
+                            for (int off = 0; off < data.length; off += 8192) {
+                                out.write(data, off, Math.min(8192, data.length - off));
+                            }
+                        }
+                        // A file can only be evicted after it was closed
+                        StorageEntry entry = backend.stat("/file" + i);
+                        if (entry != null) {
+                            assertEquals(data.length, entry.getSize());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            Future<?> reader = threads.submit(() -> {
+                while (!writers.stream().allMatch(Future::isDone)) {
+                    for (int w = 0; w < WRITERS; w++) {
+                        MemoryStorageBackend backend = pool.backendFor("user" + w);
+                        for (StorageEntry entry : backend.list("/")) {
+                            try {
+                                byte[] data = read(backend, "/" + entry.getName());
+                                if (data.length > 0) {
+                                    assertEquals(data[0], data[data.length - 1], "torn file");
+                                }
+                            } catch (IOException evicted) {
+                                // Evicted or deleted between listing and reading
+                            }
+                        }
+                    }
+                }
+                return null;
+            });
+
+            ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+            long end = System.currentTimeMillis() + 60_000;
+            for (Future<?> writer : writers) {
+                while (true) {
+                    try {
+                        writer.get(200, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        long[] deadlocked = mx.findDeadlockedThreads();
+                        if (deadlocked != null) {
+                            fail("Deadlocked: " + Arrays.toString(mx.getThreadInfo(deadlocked, true, true)));
+                        }
+                        if (System.currentTimeMillis() > end) {
+                            fail("Writers did not finish");
+                        }
+                    }
+                }
+            }
+            reader.get(10, TimeUnit.SECONDS);
+            assertTrue(pool.getUsedBytes() <= pool.getMaxBytes());
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void openFilesAreNeverEvicted() throws IOException {
+        MemoryChunkPool pool = new MemoryChunkPool(4L * MemoryChunkPool.CHUNK_SIZE, true);
+        MemoryStorageBackend backend = pool.backendFor("user");
+        byte[] first = content(1, 2 * MemoryChunkPool.CHUNK_SIZE);
+        try (OutputStream out = backend.openWrite("/first", 0)) {
+            out.write(first);
+        }
+
+        try (InputStream reading = backend.openRead("/first", 0);
+             OutputStream out = backend.openWrite("/second", 0)) {
+            out.write(content(2, 2 * MemoryChunkPool.CHUNK_SIZE));
+            // The pool is full and the only other file is being read
+            assertThrows(IOException.class, () -> out.write(content(2, MemoryChunkPool.CHUNK_SIZE)));
+            assertNotNull(reading);
+        }
+        assertArrayEquals(first, read(backend, "/first"));
+
+        // Both are closed now; reading the first made the second the least recently used
+        try (OutputStream out = backend.openWrite("/third", 0)) {
+            out.write(content(3, 2 * MemoryChunkPool.CHUNK_SIZE));
+        }
+        assertNull(backend.stat("/second"));
+        assertArrayEquals(first, read(backend, "/first"));
+        assertEquals(4L * MemoryChunkPool.CHUNK_SIZE, pool.getUsedBytes());
+    }
+}
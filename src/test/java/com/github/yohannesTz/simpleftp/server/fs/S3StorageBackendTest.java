@@ -0,0 +1,314 @@
+package com.github.yohannesTz.simpleftp.server.fs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class S3StorageBackendTest {
+    private static final int MB = 1024 * 1024;
+
+    private final FakeS3 s3 = new FakeS3();
+    private final ExecutorService handlers = Executors.newFixedThreadPool(8);
+    private HttpServer server;
+    private S3StorageBackend backend;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", s3::handle);
+        server.setExecutor(handlers);
+        server.start();
+        backend = new S3StorageBackend(new S3Client("http://127.0.0.1:" + server.getAddress().getPort(),
+            "us-east-1", "bucket", "key", "secret"), "ftp");
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private void write(OutputStream out, byte[] data) throws IOException {
+        for (int off = 0; off < data.length; off += 64 * 1024) {
+            out.write(data, off, Math.min(64 * 1024, data.length - off));
+        }
+    }
+
+    @Test
+    void smallUploadIsOnePut() throws IOException {
+        try (OutputStream out = backend.openWrite("/small.txt", 0)) {
+            out.write("hello".getBytes(StandardCharsets.UTF_8));
+        }
+        assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), s3.objects.get("ftp/small.txt"));
+        assertEquals(0, s3.created.get());
+    }
+
+    @Test
+    void largeUploadIsCompletedMultipartUpload() throws IOException {
+        byte[] data = data(20 * MB);
+        try (OutputStream out = backend.openWrite("/large.bin", 0)) {
+            write(out, data);
+        }
+        assertArrayEquals(data, s3.objects.get("ftp/large.bin"));
+        assertEquals(1, s3.created.get());
+        assertEquals(3, s3.partsReceived.get());
+        assertTrue(s3.uploads.isEmpty());
+    }
+
+    @Test
+    void trackedUploadIsPublishedOnClose() throws IOException {
+        s3.objects.put("ftp/file.bin", "old".getBytes(StandardCharsets.UTF_8));
+        UploadStaging staging = new UploadStaging();
+        staging.beginTransfer(() -> false);
+        byte[] data = data(10 * MB);
+        try (OutputStream out = staging.track((StagedOutputStream) backend.openWrite("/file.bin", 0))) {
+            write(out, data);
+            assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), s3.objects.get("ftp/file.bin"));
+        } finally {
+            staging.endTransfer();
+        }
+        assertArrayEquals(data, s3.objects.get("ftp/file.bin"));
+    }
+
+    @Test
+    void partOnDroppedConnectionIsSentAgain() throws IOException {
+        s3.dropPart = 2;
+        byte[] data = data(20 * MB);
+        try (OutputStream out = backend.openWrite("/large.bin", 0)) {
+            write(out, data);
+        }
+        assertArrayEquals(data, s3.objects.get("ftp/large.bin"));
+        assertEquals(3, s3.partsReceived.get());
+        // Create, three parts plus the retry, complete
+        assertEquals(6, s3.requests.get());
+    }
+
+    @Test
+    void renameFailsIfTheSourceCannotBeDeleted() throws IOException {
+        s3.objects.put("ftp/a.txt", "a".getBytes(StandardCharsets.UTF_8));
+        assertTrue(backend.rename("/a.txt", "/b.txt"));
+        assertFalse(s3.objects.containsKey("ftp/a.txt"));
+        assertArrayEquals("a".getBytes(StandardCharsets.UTF_8), s3.objects.get("ftp/b.txt"));
+
+        s3.failDelete = true;
+        assertThrows(IOException.class, () -> backend.rename("/b.txt", "/c.txt"));
+        assertTrue(s3.objects.containsKey("ftp/b.txt"));
+    }
+
+    @Test
+    void failedCompletionIsReportedByClose() {
+        s3.objects.put("ftp/file.bin", "old".getBytes(StandardCharsets.UTF_8));
+        s3.failComplete = true;
+        UploadStaging staging = new UploadStaging();
+        staging.beginTransfer(() -> false);
+        try {
+            // Thrown before the transfer is confirmed, so ftpserver answers 551 instead of 226
+            assertThrows(IOException.class, () -> {
+                try (OutputStream out = staging.track((StagedOutputStream) backend.openWrite("/file.bin", 0))) {
+                    write(out, data(10 * MB));
+                }
+            });
+        } finally {
+            staging.endTransfer();
+        }
+
+        assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), s3.objects.get("ftp/file.bin"));
+        assertEquals(1, s3.aborted.get());
+        assertTrue(s3.uploads.isEmpty());
+    }
+
+    @Test
+    void failedMultipartTransferKeepsExistingObject() throws IOException {
+        s3.objects.put("ftp/file.bin", "old".getBytes(StandardCharsets.UTF_8));
+        UploadStaging staging = new UploadStaging();
+        staging.beginTransfer(() -> true);
+        try (OutputStream out = staging.track((StagedOutputStream) backend.openWrite("/file.bin", 0))) {
+            write(out, data(10 * MB));
+        } finally {
+            staging.endTransfer();
+        }
+
+        assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), s3.objects.get("ftp/file.bin"));
+        assertEquals(1, s3.created.get());
+        assertEquals(1, s3.aborted.get());
+        assertTrue(s3.uploads.isEmpty());
+    }
+
+    @Test
+    void failedSmallTransferSendsNothing() throws IOException {
+        s3.objects.put("ftp/file.txt", "old".getBytes(StandardCharsets.UTF_8));
+        UploadStaging staging = new UploadStaging();
+        staging.beginTransfer(() -> true);
+        try (OutputStream out = staging.track((StagedOutputStream) backend.openWrite("/file.txt", 0))) {
+            out.write("partial".getBytes(StandardCharsets.UTF_8));
+        } finally {
+            staging.endTransfer();
+        }
+
+        assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), s3.objects.get("ftp/file.txt"));
+        assertEquals(0, s3.requests.get());
+    }
+
+    @Test
+    void failedPartAbortsUpload() {
+        s3.objects.put("ftp/file.bin", "old".getBytes(StandardCharsets.UTF_8));
+        s3.failPart = 2;
+        assertThrows(IOException.class, () -> {
+            try (OutputStream out = backend.openWrite("/file.bin", 0)) {
+                write(out, data(20 * MB));
+            }
+        });
+
+        assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), s3.objects.get("ftp/file.bin"));
+        assertEquals(1, s3.aborted.get());
+        assertTrue(s3.uploads.isEmpty());
+    }
+
+    /**
+     * Just enough of S3 for uploads: PutObject and the multipart upload calls
+     */
+    private static class FakeS3 {
+        final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger partsReceived = new AtomicInteger();
+        final AtomicInteger aborted = new AtomicInteger();
+        volatile int failPart;
+        volatile boolean failComplete;
+        volatile int dropPart;
+        volatile boolean failDelete;
+
+        void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            String key = exchange.getRequestURI().getPath().substring("/bucket/".length());
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            byte[] body = read(exchange.getRequestBody());
+            String method = exchange.getRequestMethod();
+            String uploadId = query.get("uploadId");
+
+            if (method.equals("PUT") && uploadId != null) {
+                int partNumber = Integer.parseInt(query.get("partNumber"));
+                if (partNumber == failPart) {
+                    respond(exchange, 500, "<Error><Code>InternalError</Code></Error>");
+                    return;
+                }
+                if (partNumber == dropPart) {
+                    // Closed without an answer, like a keep-alive connection the server gave up on
+                    dropPart = 0;
+                    exchange.close();
+                    return;
+                }
+                Map<Integer, byte[]> upload = uploads.get(uploadId);
+                if (upload == null) {
+                    respond(exchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+                    return;
+                }
+                upload.put(partNumber, body);
+                partsReceived.incrementAndGet();
+                exchange.getResponseHeaders().set("ETag", "\"" + partNumber + "\"");
+                respond(exchange, 200, "");
+            } else if (method.equals("PUT") && exchange.getRequestHeaders().containsKey("x-amz-copy-source")) {
+                String source = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+                objects.put(key, objects.get(source.substring("/bucket/".length())));
+                respond(exchange, 200, "<CopyObjectResult/>");
+            } else if (method.equals("PUT")) {
+                objects.put(key, body);
+                respond(exchange, 200, "");
+            } else if (method.equals("POST") && query.containsKey("uploads")) {
+                String id = "upload-" + created.incrementAndGet();
+                uploads.put(id, new ConcurrentSkipListMap<>());
+                respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>" + id
+                    + "</UploadId></InitiateMultipartUploadResult>");
+            } else if (method.equals("POST") && uploadId != null && failComplete) {
+                // S3 may fail a completion after answering 200
+                respond(exchange, 200, "<Error><Code>InternalError</Code></Error>");
+            } else if (method.equals("POST") && uploadId != null) {
+                ByteArrayOutputStream object = new ByteArrayOutputStream();
+                for (byte[] part : uploads.remove(uploadId).values()) {
+                    object.write(part);
+                }
+                objects.put(key, object.toByteArray());
+                respond(exchange, 200, "<CompleteMultipartUploadResult/>");
+            } else if (method.equals("HEAD") && objects.containsKey(key)) {
+                respond(exchange, 200, null);
+            } else if (method.equals("DELETE") && uploadId == null) {
+                if (failDelete) {
+                    respond(exchange, 403, "<Error><Code>AccessDenied</Code></Error>");
+                    return;
+                }
+                objects.remove(key);
+                respond(exchange, 204, null);
+            } else if (method.equals("DELETE") && uploadId != null) {
+                uploads.remove(uploadId);
+                aborted.incrementAndGet();
+                respond(exchange, 204, null);
+            } else {
+                respond(exchange, 404, "<Error><Code>NoSuchKey</Code></Error>");
+            }
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            // Writing to an empty response, even nothing, makes the server drop the keep-alive connection
+            if (bytes.length > 0) {
+                exchange.getResponseBody().write(bytes);
+            }
+            exchange.close();
+        }
+
+        private static Map<String, String> query(String rawQuery) {
+            if (rawQuery == null || rawQuery.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> query = new HashMap<>();
+            for (String param : rawQuery.split("&")) {
+                int eq = param.indexOf('=');
+                query.put(eq < 0 ? param : param.substring(0, eq), eq < 0 ? "" : param.substring(eq + 1));
+            }
+            return query;
+        }
+
+        private static byte[] read(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}